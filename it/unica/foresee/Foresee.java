@@ -29,6 +29,7 @@ import java.util.Scanner;
  *              <li>-v --verbose: Enable verbose output</li>
  *              <li>-D --debug: Enable debug output</li>
  *              <li>-l --legacy: Enable the legacy ART parser</li>
+ *              <li>-t --threads: Amount of threads for the parallel computations</li>
  *             </ul>
  * <p>
  * Accepted extensions for the instructions file are the following:
@@ -65,10 +66,10 @@ public class Foresee
         ArrayList<String> argsList = new ArrayList<>();
         for (int i = 0; i < args.length; i++)
         {
-            /* Check if it's a string argument or a char argument with only
-             * two characters (the dash and the char).
+            /* Check if it's a string argument, a char argument with only
+             * two characters (the dash and the char) or the value of an option.
              */
-            if (args[i].startsWith("--") || args[i].length() == 2)
+            if (args[i].startsWith("--") || args[i].length() <= 2 || !args[i].startsWith("-"))
             {
                 argsList.add(args[i]);
             }
@@ -188,6 +189,27 @@ public class Foresee
                 {
                     throw new IllegalStateException(args[i]);
                 }
+            }/* Threads */
+            else if (args[i].equals("-t")  || args[i].equals("--threads"))
+            {
+                /* Look at the following argument */
+                if (i+1 < args.length)
+                {
+                    i++;
+                    try
+                    {
+                        s.setThreadsAmount(Integer.parseInt(args[i]));
+                    }
+                    catch (IllegalArgumentException e)
+                    {
+                        throw new InputMismatchException("option -t, --threads requires a positive integer, found " + args[i]);
+                    }
+                }
+                else
+                {
+                    err("option -t, --threads requires <n>");
+                    throw new IllegalStateException(args[i]);
+                }
             }/* The argument is not among those recognized */
             else
             {
@@ -378,7 +400,8 @@ public class Foresee
                 "\n\nOptions:" +
                 "\n-v, --verbose     \tEnable verbose output." +
                 "\n-D, --debug       \tEnable debug output." +
-                "\n-l, --legacy      \tEnable the legacy mode, backwards compatible with ART framework.");
+                "\n-l, --legacy      \tEnable the legacy mode, backwards compatible with ART framework." +
+                "\n-t, --threads <n> \tUse <n> threads for the parallel computations (default: available processors).");
     }
 
     /**
@@ -68,6 +68,11 @@ public class Settings
      */
     private String workDirectory = "workdir" + File.separator;
 
+    /**
+     * Amount of threads used by the parallel computations, such as loading a dataset.
+     */
+    private int threadsAmount = Runtime.getRuntime().availableProcessors();
+
     /**
      * The snapshot
      */
@@ -127,6 +132,16 @@ public class Settings
         return this.workDirectory;
     }
 
+    /**
+     * Get the amount of threads used by the parallel computations.
+     *
+     * It defaults to the amount of available processors.
+     * @return the amount of threads
+     */
+    public int getThreadsAmount() {
+        return threadsAmount;
+    }
+
 
     /*----------- Setter -----------*/
 
@@ -177,4 +192,19 @@ public class Settings
         this.workDirectory = workDirectory;
     }
 
+    /**
+     * Sets the amount of threads used by the parallel computations.
+     *
+     * @param threadsAmount the amount of threads, at least 1
+     */
+    public void setThreadsAmount(int threadsAmount)
+    {
+        if (threadsAmount < 1)
+        {
+            throw new IllegalArgumentException("The amount of threads must be at least 1.");
+        }
+
+        this.threadsAmount = threadsAmount;
+    }
+
 }
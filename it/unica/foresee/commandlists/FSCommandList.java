@@ -4,6 +4,14 @@ import it.unica.foresee.commandlists.interfaces.CommandList;
 import it.unica.foresee.commandlists.interfaces.Semantic;
 import it.unica.foresee.core.interfaces.Env;
 import it.unica.foresee.datasets.*;
+import it.unica.foresee.libraries.CrossValidation;
+import it.unica.foresee.libraries.ErrorAccumulator;
+import it.unica.foresee.libraries.ItemNearestNeighbour;
+import it.unica.foresee.libraries.NearestNeighbour;
+import it.unica.foresee.libraries.SimilarityMetrics;
+import it.unica.foresee.libraries.interfaces.Predictor;
+import it.unica.foresee.libraries.interfaces.SimilarityMetric;
+import it.unica.foresee.utils.MappedSymmetricMatrix;
 
 import static it.unica.foresee.utils.Logger.err;
 import static it.unica.foresee.utils.Logger.log;
@@ -11,8 +19,10 @@ import static it.unica.foresee.utils.Logger.warn;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.InputMismatchException;
 import java.util.TreeMap;
+import java.util.function.Function;
 
 /**
  * List of commands for the interpreter and their semantic.
@@ -69,6 +79,30 @@ import java.util.TreeMap;
  *
  *     <li>
  *       <p>
+ *       {@code evaluate} - cross-validates a network on the sets subdivided by {@code initsets calculate}
+ *       <p>
+ *       Syntax: {@code evaluate user|item <metric> <neighbours>}
+ *       <p>
+ *       Arguments:
+ *       <ul>
+ *           <li>
+ *               user: predict with the nearest neighbours of the users
+ *           </li>
+ *           <li>
+ *               item: predict with the nearest neighbours of the items
+ *           </li>
+ *           <li>
+ *               metric: the similarity metric, among
+ *               {@literal <pearson|newpearson|weightedpearson|cosine|adjustedcosine|jaccard|msd>}
+ *           </li>
+ *           <li>
+ *               neighbours: amount of nearest neighbours used by each prediction
+ *           </li>
+ *       </ul>
+ *     </li>
+ *
+ *     <li>
+ *       <p>
  *       {@code exit} - command to quit the program
  *       <p>
  *       Syntax: {@code exit [exit_status]}
@@ -130,9 +164,53 @@ import java.util.TreeMap;
  *
  *     <li>
  *       <p>
+ *       {@code inititemnetwork} - finds the nearest neighbours of each item of the loaded dataset
+ *       <p>
+ *       Syntax: {@code inititemnetwork <metric> <neighbours>}
+ *       <p>
+ *       Arguments:
+ *       <ul>
+ *           <li>
+ *               metric: the similarity metric, among
+ *               {@literal <pearson|newpearson|weightedpearson|cosine|adjustedcosine|jaccard|msd>}
+ *           </li>
+ *           <li>
+ *               neighbours: amount of nearest neighbours kept for each item
+ *           </li>
+ *       </ul>
+ *     </li>
+ *
+ *     <li>
+ *       <p>
+ *       {@code initnetwork} - computes the similarity between each pair of users of the loaded dataset
+ *       <p>
+ *       Syntax: {@code initnetwork load|calculate <metric> [neighbours]}
+ *       <p>
+ *       Arguments:
+ *       <ul>
+ *           <li>
+ *               load: use the network calculated by a previous {@code initnetwork calculate}
+ *               on the same dataset, even in a previous run
+ *           </li>
+ *           <li>
+ *               calculate: compute the network from the dataset and store it in the work directory
+ *           </li>
+ *           <li>
+ *               metric: the similarity metric, among
+ *               {@literal <pearson|newpearson|weightedpearson|cosine|adjustedcosine|jaccard|msd>}
+ *           </li>
+ *           <li>
+ *               neighbours: optional amount of nearest neighbours kept for each user,
+ *               instead of the whole similarity matrix
+ *           </li>
+ *       </ul>
+ *     </li>
+ *
+ *     <li>
+ *       <p>
  *       {@code initsets} - subdivides the sets in k subsets in preparation for the use of the k-fold algorithm
  *       <p>
- *       Syntax: {@code initsets load|calculate [k-value]}
+ *       Syntax: {@code initsets load|calculate [k-value] [seed] [stratification]}
  *       <p>
  *       Arguments:
  *       <ul>
@@ -143,7 +221,16 @@ import java.util.TreeMap;
  *               load: load a group of sets already subdivided
  *           </li>
  *           <li>
- *               k-value: optional integer to specify the amount of sets to obtain
+ *               k-value: optional integer to specify the amount of sets to obtain, 5 by default
+ *           </li>
+ *           <li>
+ *               seed: optional integer seed of the random choices, 0 by default;
+ *               the same seed gives the same subsets
+ *           </li>
+ *           <li>
+ *               stratification: optional ratings spread evenly among the subsets, among
+ *               {@literal <none|user|rating>}, user by default, or {@code time} to split the
+ *               ratings in chronological order, reading their timestamps from the dataset file
  *           </li>
  *       </ul>
  *     </li>
@@ -152,6 +239,16 @@ import java.util.TreeMap;
  */
 public class FSCommandList extends TreeMap<String, Semantic> implements CommandList
 {
+    /**
+     * Folder of the work directory where the parsed datasets are cached.
+     */
+    public static final String DATASETS_CACHE_DIR = "datasets";
+
+    /**
+     * Folder of the work directory where the similarity matrices are stored.
+     */
+    public static final String NETWORKS_DIR = "networks";
+
     public FSCommandList()
     {
         loadCommandsSemantic();
@@ -169,6 +266,9 @@ public class FSCommandList extends TreeMap<String, Semantic> implements CommandL
         // clustering
         this.put("clustering", this::commandNotYetImplemented);
 
+        // evaluate
+        this.put("evaluate", this::evaluate);
+
         // exit
         this.put("exit", this::exit);
 
@@ -182,10 +282,13 @@ public class FSCommandList extends TreeMap<String, Semantic> implements CommandL
         this.put("initmodeling", this::commandNotYetImplemented);
 
         // initsets
-        this.put("initsets", this::commandNotYetImplemented);
+        this.put("initsets", this::initsets);
+
+        // inititemnetwork
+        this.put("inititemnetwork", this::inititemnetwork);
 
         // initnetwork
-        this.put("initnetwork", this::commandNotYetImplemented);
+        this.put("initnetwork", this::initnetwork);
 
         // loaddataset
         this.put("loaddataset", this::loaddataset);
@@ -212,6 +315,134 @@ public class FSCommandList extends TreeMap<String, Semantic> implements CommandL
         return env;
     }
 
+    /**
+     * Command to cross-validate a network on the folds of {@link #initsets(String[], Env)}.
+     *
+     * Syntax: evaluate user|item \<metric\> \<neighbours\>
+     *
+     * Arguments:
+     * user: use a {@link NearestNeighbour} network
+     * item: use an {@link ItemNearestNeighbour} network
+     * metric: name of the similarity metric, see {@link SimilarityMetrics}
+     * neighbours: amount of nearest neighbours used by each prediction
+     *
+     * For each fold a network is trained on the ratings of the other folds,
+     * read straight from the training matrix, and the ratings of the fold are
+     * predicted. The folds are run in parallel by the {@link CrossValidation},
+     * so each network uses a single thread.
+     *
+     * @param args the command arguments
+     * @param env the current environment
+     * @return the updated environment
+     */
+    public Env evaluate(String[] args, Env env)
+    {
+        switch (args.length)
+        {
+            case 0:
+                warn("missing operand: user|item");
+                break;
+
+            case 1:
+                warn("missing operand: <metric>");
+                break;
+
+            case 2:
+                warn("missing operand: <neighbours>");
+                break;
+
+            case 3:
+                boolean itemBased = args[0].equals("item");
+                if (!itemBased && !args[0].equals("user"))
+                {
+                    warn("unknown operand: " + args[0] + ", expected user or item");
+                    break;
+                }
+
+                CrossValidation crossValidation = env.getCrossValidation();
+                if (crossValidation == null)
+                {
+                    warn("no sets subdivided, use initsets calculate first");
+                    break;
+                }
+
+                SimilarityMetric metric;
+                try
+                {
+                    metric = SimilarityMetrics.get(args[1]);
+                }
+                catch (IllegalArgumentException e)
+                {
+                    warn(e.getMessage());
+                    break;
+                }
+
+                int neighboursAmount;
+                try
+                {
+                    neighboursAmount = Integer.parseInt(args[2]);
+                }
+                catch (NumberFormatException e)
+                {
+                    neighboursAmount = 0;
+                }
+
+                if (neighboursAmount < 1)
+                {
+                    warn("invalid amount of neighbours: " + args[2]);
+                    break;
+                }
+
+                int neighbours = neighboursAmount;
+                Function<RatingMatrix, Predictor> trainer;
+                if (itemBased)
+                {
+                    trainer = training ->
+                    {
+                        ItemNearestNeighbour<Movielens> network = new ItemNearestNeighbour<>(training);
+                        network.setSimilarityMetric(metric);
+                        network.initialiseNeighbourIndex(neighbours);
+                        return network;
+                    };
+                }
+                else
+                {
+                    trainer = training ->
+                    {
+                        NearestNeighbour<Movielens> network = new NearestNeighbour<>(training);
+                        network.setSimilarityMetric(metric);
+                        network.initialiseNeighbourIndex(neighbours);
+                        return network;
+                    };
+                }
+
+                ErrorAccumulator errors;
+                try
+                {
+                    errors = crossValidation.run(trainer);
+                }
+                catch (IllegalStateException e)
+                {
+                    err(e.getMessage());
+                    break;
+                }
+                if (errors.getCount() == 0)
+                {
+                    warn("no rating of the sets could be predicted, coverage: " + errors.getCoverage());
+                    break;
+                }
+                log(args[0] + " network with " + metric.getName() + " similarity and " + neighboursAmount
+                        + " neighbours evaluated on " + crossValidation.getFoldsAmount() + " sets, RMSE: "
+                        + errors.getRMSE() + ", coverage: " + errors.getCoverage());
+                break;
+
+            default:
+                warn("too many arguments");
+                break;
+        }
+        return env;
+    }
+
     /**
      * Command to exit the shell
      *
@@ -256,13 +487,431 @@ public class FSCommandList extends TreeMap<String, Semantic> implements CommandL
     }
 
 
+    /**
+     * Command to compute the network of the users of the loaded dataset.
+     *
+     * Syntax: initnetwork load|calculate \<metric\> [neighbours]
+     *
+     * Arguments:
+     * load: use the similarity matrix stored by a previous calculate
+     * calculate: compute the similarity matrix
+     * metric: name of the similarity metric, see {@link SimilarityMetrics}
+     * neighbours: optional amount of nearest neighbours kept for each user;
+     * when given only those are kept in memory, instead of the whole similarity matrix
+     *
+     * The whole similarity matrix is stored in a memory mapped file in the networks
+     * folder of the work directory, so it can be bigger than the heap and it can be
+     * loaded again as long as the dataset does not change.
+     *
+     * @param args the command arguments
+     * @param env the current environment
+     * @return the updated environment
+     */
+    public Env initnetwork(String[] args, Env env)
+    {
+        switch (args.length)
+        {
+            case 0:
+                warn("missing operand: load|calculate");
+                break;
+
+            case 1:
+                warn("missing operand: <metric>");
+                break;
+
+            case 2:
+            case 3:
+                boolean load = args[0].equals("load");
+                if (!load && !args[0].equals("calculate"))
+                {
+                    warn("unknown operand: " + args[0] + ", expected load or calculate");
+                    break;
+                }
+
+                if (!(env.getDataset() instanceof Movielens))
+                {
+                    warn("no dataset loaded, use loaddataset first");
+                    break;
+                }
+
+                SimilarityMetric metric;
+                try
+                {
+                    metric = SimilarityMetrics.get(args[1]);
+                }
+                catch (IllegalArgumentException e)
+                {
+                    warn(e.getMessage());
+                    break;
+                }
+
+                int neighboursAmount = 0;
+                if (args.length == 3)
+                {
+                    if (load)
+                    {
+                        warn("too many arguments");
+                        break;
+                    }
+
+                    try
+                    {
+                        neighboursAmount = Integer.parseInt(args[2]);
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        neighboursAmount = 0;
+                    }
+
+                    if (neighboursAmount < 1)
+                    {
+                        warn("invalid amount of neighbours: " + args[2]);
+                        break;
+                    }
+                }
+
+                Movielens dataset = (Movielens) env.getDataset();
+                NearestNeighbour<Movielens> network = new NearestNeighbour<>(dataset);
+                network.setSimilarityMetric(metric);
+                network.setThreadsAmount(env.getThreadsAmount());
+                File networkFile = getNetworkFile(env, dataset, metric);
+                try
+                {
+                    if (load)
+                    {
+                        if (!network.loadSimilarityMatrix(networkFile))
+                        {
+                            warn("no network calculated with " + metric.getName() +
+                                    " similarity for the loaded dataset, use initnetwork calculate first");
+                            break;
+                        }
+                        log("network loaded from " + networkFile);
+                    }
+                    else if (neighboursAmount > 0)
+                    {
+                        network.initialiseNeighbourIndex(neighboursAmount);
+                        log("network calculated with " + metric.getName() + " similarity, keeping "
+                                + network.getNeighbourIndex().getK() + " neighbours per user");
+                    }
+                    else
+                    {
+                        networkFile.getParentFile().mkdirs();
+                        network.initialiseSimilarityMatrix(networkFile);
+                        log("network calculated with " + metric.getName() + " similarity, stored in " + networkFile);
+                    }
+                }
+                catch (IOException e)
+                {
+                    err("cannot use the network file " + networkFile + ": " + e.getMessage());
+                    break;
+                }
+                env.setNetwork(network);
+                break;
+
+            default:
+                warn("too many arguments");
+                break;
+        }
+        return env;
+    }
+
+    /**
+     * Command to subdivide the ratings of the loaded dataset in k folds.
+     *
+     * Syntax: initsets load|calculate [k-value] [seed] [stratification]
+     *
+     * Arguments:
+     * load: load the folds of a previous run, not yet implemented
+     * calculate: assign each rating to a fold
+     * k-value: optional amount of folds, 5 by default
+     * seed: optional seed of the random choices, 0 by default
+     * stratification: optional ratings spread evenly among the folds, see
+     * {@link FoldPartitioner.Stratification}, user by default, or time to split
+     * the ratings in chronological order with {@link FoldPartitioner#assignByTime(RatingMatrix)}
+     *
+     * The dataset is loaded without the timestamps, so with the time choice the
+     * ratings are read again from the dataset file, keeping them.
+     *
+     * The folds are a byte for each rating, assigned by a {@link FoldPartitioner},
+     * so the same seed gives the same folds in every run. They are kept in the
+     * environment and cross-validated by {@link #evaluate(String[], Env)}.
+     *
+     * @param args the command arguments
+     * @param env the current environment
+     * @return the updated environment
+     */
+    public Env initsets(String[] args, Env env)
+    {
+        if (args.length == 0)
+        {
+            warn("missing operand: load|calculate");
+            return env;
+        }
+
+        if (args.length > 4)
+        {
+            warn("too many arguments");
+            return env;
+        }
+
+        switch (args[0])
+        {
+            case "load":
+                warn("command not yet implemented: initsets load");
+                break;
+
+            case "calculate":
+                if (!(env.getDataset() instanceof Movielens))
+                {
+                    warn("no dataset loaded, use loaddataset first");
+                    break;
+                }
+
+                FoldPartitioner partitioner;
+                try
+                {
+                    partitioner = new FoldPartitioner(args.length > 1 ? Integer.parseInt(args[1]) : 5);
+                }
+                catch (IllegalArgumentException e)
+                {
+                    warn("invalid k-value: " + args[1]);
+                    break;
+                }
+
+                try
+                {
+                    if (args.length > 2)
+                    {
+                        partitioner.setSeed(Long.parseLong(args[2]));
+                    }
+                }
+                catch (NumberFormatException e)
+                {
+                    warn("invalid seed: " + args[2]);
+                    break;
+                }
+
+                boolean byTime = args.length > 3 && args[3].equals("time");
+                try
+                {
+                    if (args.length > 3 && !byTime)
+                    {
+                        partitioner.setStratification(FoldPartitioner.Stratification.valueOf(args[3].toUpperCase()));
+                    }
+                }
+                catch (IllegalArgumentException e)
+                {
+                    warn("invalid stratification: " + args[3] + ", use none, user, rating or time");
+                    break;
+                }
+
+                RatingMatrix ratings = ((Movielens) env.getDataset()).toRatingMatrix();
+                byte[] folds;
+                if (byTime)
+                {
+                    ratings = loadTimestamps(env, ratings);
+                    if (ratings == null)
+                    {
+                        break;
+                    }
+                    folds = partitioner.assignByTime(ratings);
+                }
+                else
+                {
+                    folds = partitioner.assign(ratings);
+                }
+
+                CrossValidation crossValidation = new CrossValidation(ratings, folds, partitioner.getFoldsAmount());
+                crossValidation.setThreadsAmount(env.getThreadsAmount());
+                env.setCrossValidation(crossValidation);
+                if (byTime)
+                {
+                    log(ratings.getEntriesAmount() + " ratings subdivided in " + partitioner.getFoldsAmount()
+                            + " sets by time");
+                }
+                else
+                {
+                    log(ratings.getEntriesAmount() + " ratings subdivided in " + partitioner.getFoldsAmount()
+                            + " sets with seed " + partitioner.getSeed() + " and "
+                            + partitioner.getStratification().name().toLowerCase() + " stratification");
+                }
+                break;
+
+            default:
+                warn("unknown operand: " + args[0] + ", use load or calculate");
+                break;
+        }
+        return env;
+    }
+
+    /**
+     * Reads the ratings of the loaded dataset again from its file, keeping their timestamps.
+     *
+     * The cache of the file is updated to hold the timestamps.
+     *
+     * @param env the current environment
+     * @param ratings the ratings of the loaded dataset
+     * @return the same ratings with their timestamps, or null if they cannot be read
+     */
+    private RatingMatrix loadTimestamps(Env env, RatingMatrix ratings)
+    {
+        File datasetFile = env.getDatasetFile();
+        if (datasetFile == null)
+        {
+            warn("the file of the dataset is unknown, use loaddataset first");
+            return null;
+        }
+
+        MovielensLoader loader = new MovielensLoader();
+        loader.setCacheDirectory(new File(env.getWorkDirectory(), DATASETS_CACHE_DIR));
+        loader.setThreadsAmount(env.getThreadsAmount());
+        loader.setKeepTimestamps(true);
+
+        RatingMatrix timedRatings;
+        try
+        {
+            timedRatings = loader.loadRatingMatrix(datasetFile);
+        }
+        catch (FileNotFoundException e)
+        {
+            warn("dataset file not found: " + datasetFile);
+            return null;
+        }
+        catch (InputMismatchException | IllegalStateException e)
+        {
+            warn(e.getMessage() + " in " + datasetFile);
+            return null;
+        }
+
+        if (!timedRatings.hasTimestamps())
+        {
+            warn("no timestamps in " + datasetFile);
+            return null;
+        }
+        if (timedRatings.getFingerprint() != ratings.getFingerprint())
+        {
+            warn("the dataset file changed since it was loaded, use loaddataset again");
+            return null;
+        }
+        return timedRatings;
+    }
+
+    /**
+     * Command to compute the network of the items of the loaded dataset.
+     *
+     * Syntax: inititemnetwork \<metric\> \<neighbours\>
+     *
+     * Arguments:
+     * metric: name of the similarity metric, see {@link SimilarityMetrics}
+     * neighbours: amount of nearest neighbours kept for each item
+     *
+     * The similarity is computed between the columns of the ratings, and only
+     * the nearest neighbours of each item are kept in memory.
+     *
+     * @param args the command arguments
+     * @param env the current environment
+     * @return the updated environment
+     */
+    public Env inititemnetwork(String[] args, Env env)
+    {
+        switch (args.length)
+        {
+            case 0:
+                warn("missing operand: <metric>");
+                break;
+
+            case 1:
+                warn("missing operand: <neighbours>");
+                break;
+
+            case 2:
+                if (!(env.getDataset() instanceof Movielens))
+                {
+                    warn("no dataset loaded, use loaddataset first");
+                    break;
+                }
+
+                SimilarityMetric metric;
+                try
+                {
+                    metric = SimilarityMetrics.get(args[0]);
+                }
+                catch (IllegalArgumentException e)
+                {
+                    warn(e.getMessage());
+                    break;
+                }
+
+                int neighboursAmount;
+                try
+                {
+                    neighboursAmount = Integer.parseInt(args[1]);
+                }
+                catch (NumberFormatException e)
+                {
+                    neighboursAmount = 0;
+                }
+
+                if (neighboursAmount < 1)
+                {
+                    warn("invalid amount of neighbours: " + args[1]);
+                    break;
+                }
+
+                ItemNearestNeighbour<Movielens> network = new ItemNearestNeighbour<>((Movielens) env.getDataset());
+                network.setSimilarityMetric(metric);
+                network.setThreadsAmount(env.getThreadsAmount());
+                try
+                {
+                    network.initialiseNeighbourIndex(neighboursAmount);
+                }
+                catch (IllegalStateException e)
+                {
+                    err(e.getMessage());
+                    break;
+                }
+                log("item network calculated with " + metric.getName() + " similarity, keeping "
+                        + network.getNeighbourIndex().getK() + " neighbours per item");
+                env.setItemNetwork(network);
+                break;
+
+            default:
+                warn("too many arguments");
+                break;
+        }
+        return env;
+    }
+
+    /**
+     * Get the file storing the similarity matrix of a dataset.
+     *
+     * The name depends on the ratings of the dataset and on the metric, so a
+     * changed dataset never reads the matrix of the previous one.
+     *
+     * @param env the current environment
+     * @param dataset the dataset
+     * @param metric the similarity metric
+     * @return the file of the matrix, in the networks folder of the work directory
+     */
+    private File getNetworkFile(Env env, Movielens dataset, SimilarityMetric metric)
+    {
+        String name = String.format("%016x-%s%s", dataset.toRatingMatrix().getFingerprint(),
+                metric.getName(), MappedSymmetricMatrix.EXTENSION);
+        return new File(new File(env.getWorkDirectory(), NETWORKS_DIR), name);
+    }
+
     /**
      * Command to load a dataset.
      *
-     * Syntax: loaddateset \<dataset_file\>
+     * Syntax: loaddateset \<dataset_file\> [threads]
      *
      * Arguments:
      * dataset_file: path to a dataset file
+     * threads: optional amount of threads used to parse the file,
+     * by default the one given in the settings
+     *
+     * The parsed ratings are cached in the datasets folder of the work directory,
+     * so loading the same file again does not parse it.
      *
      * @param args the command arguments
      * @param env the current environment
@@ -277,11 +926,29 @@ public class FSCommandList extends TreeMap<String, Semantic> implements CommandL
                 break;
 
             case 1:
+            case 2:
                 String filePath = args[0];
+                MovielensLoader loader = new MovielensLoader();
+                loader.setCacheDirectory(new File(env.getWorkDirectory(), DATASETS_CACHE_DIR));
+                try
+                {
+                    loader.setThreadsAmount(args.length == 2 ? Integer.parseInt(args[1]) : env.getThreadsAmount());
+                }
+                catch (IllegalArgumentException e)
+                {
+                    warn("the amount of threads must be a positive integer: " + args[1]);
+                    break;
+                }
+
                 try
                 {
                     File datasetFile = new File(filePath);
-                    env.setDataset((new MovielensLoader()).loadDataset(datasetFile));
+                    env.setDataset(loader.loadDataset(datasetFile));
+                    env.setDatasetFile(datasetFile);
+                    // The networks of the previous dataset are no longer valid
+                    env.setNetwork(null);
+                    env.setItemNetwork(null);
+                    env.setCrossValidation(null);
                     log("dataset " + filePath + " loaded");
                 }
                 catch (FileNotFoundException e)
@@ -138,6 +138,8 @@ public class Core implements it.unica.foresee.core.interfaces.Core
         }
 
         this.env = new it.unica.foresee.core.Env();
+        this.env.setThreadsAmount(settings.getThreadsAmount());
+        this.env.setWorkDirectory(settings.getWorkDirectory());
     }
 
     /**
@@ -381,6 +383,7 @@ public class Core implements it.unica.foresee.core.interfaces.Core
         if (key.equals("workdir"))
         {
             this.settings.setWorkDirectory(value);
+            this.env.setWorkDirectory(this.settings.getWorkDirectory());
         }
     }
 
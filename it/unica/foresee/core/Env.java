@@ -1,8 +1,13 @@
 package it.unica.foresee.core;
 
 import it.unica.foresee.datasets.interfaces.Dataset;
+import it.unica.foresee.libraries.CrossValidation;
+import it.unica.foresee.libraries.ItemNearestNeighbour;
+import it.unica.foresee.libraries.NearestNeighbour;
 import it.unica.foresee.utils.Pair;
 
+import java.io.File;
+
 import static it.unica.foresee.utils.Logger.warn;
 
 
@@ -26,6 +31,26 @@ public class Env implements it.unica.foresee.core.interfaces.Env
      */
     private Dataset dataset = null;
 
+    /**
+     * file of the loaded dataset
+     */
+    private File datasetFile = null;
+
+    /**
+     * network of the users of the loaded dataset
+     */
+    private NearestNeighbour<?> network = null;
+
+    /**
+     * network of the items of the loaded dataset
+     */
+    private ItemNearestNeighbour<?> itemNetwork = null;
+
+    /**
+     * folds of the ratings of the loaded dataset
+     */
+    private CrossValidation crossValidation = null;
+
     /**
      * exit status
      */
@@ -36,6 +61,16 @@ public class Env implements it.unica.foresee.core.interfaces.Env
      */
     private boolean forceExit = false;
 
+    /**
+     * amount of threads for parallel computations
+     */
+    private int threadsAmount = 1;
+
+    /**
+     * work directory
+     */
+    private String workDirectory = "workdir" + File.separator;
+
     /**
      * Create a default environment.
      */
@@ -73,6 +108,38 @@ public class Env implements it.unica.foresee.core.interfaces.Env
         return dataset;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public File getDatasetFile() {
+        return datasetFile;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public NearestNeighbour<?> getNetwork() {
+        return network;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ItemNearestNeighbour<?> getItemNetwork() {
+        return itemNetwork;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CrossValidation getCrossValidation() {
+        return crossValidation;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -81,6 +148,22 @@ public class Env implements it.unica.foresee.core.interfaces.Env
         return exitStatus;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getThreadsAmount() {
+        return threadsAmount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getWorkDirectory() {
+        return workDirectory;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -172,6 +255,38 @@ public class Env implements it.unica.foresee.core.interfaces.Env
         this.dataset = dataset;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setDatasetFile(File datasetFile) {
+        this.datasetFile = datasetFile;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setNetwork(NearestNeighbour<?> network) {
+        this.network = network;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setItemNetwork(ItemNearestNeighbour<?> itemNetwork) {
+        this.itemNetwork = itemNetwork;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setCrossValidation(CrossValidation crossValidation) {
+        this.crossValidation = crossValidation;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -180,4 +295,25 @@ public class Env implements it.unica.foresee.core.interfaces.Env
         this.forceExit = forceExit;
     }
 
-}
\ No newline at end of file
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setThreadsAmount(int threadsAmount)
+    {
+        if (threadsAmount < 1)
+        {
+            throw new IllegalArgumentException("The amount of threads must be at least 1.");
+        }
+        this.threadsAmount = threadsAmount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setWorkDirectory(String workDirectory) {
+        this.workDirectory = workDirectory;
+    }
+
+}
@@ -1,8 +1,13 @@
 package it.unica.foresee.core.interfaces;
 
 import it.unica.foresee.datasets.interfaces.Dataset;
+import it.unica.foresee.libraries.CrossValidation;
+import it.unica.foresee.libraries.ItemNearestNeighbour;
+import it.unica.foresee.libraries.NearestNeighbour;
 import it.unica.foresee.utils.Pair;
 
+import java.io.File;
+
 /**
  * Represents the environment of execution.
  */
@@ -33,6 +38,34 @@ public interface Env
      */
      Dataset getDataset();
 
+    /**
+     * Gets the file the current dataset was loaded from.
+     *
+     * @return the file of the current dataset, or null if no dataset has been loaded
+     */
+     File getDatasetFile();
+
+    /**
+     * Gets the current user network, with the similarity between users.
+     *
+     * @return the current network, or null if it has not been computed
+     */
+     NearestNeighbour<?> getNetwork();
+
+    /**
+     * Gets the current item network, with the nearest neighbours of each item.
+     *
+     * @return the current item network, or null if it has not been computed
+     */
+     ItemNearestNeighbour<?> getItemNetwork();
+
+    /**
+     * Gets the current folds of the ratings, for the cross-validation.
+     *
+     * @return the current cross-validation, or null if the folds have not been computed
+     */
+     CrossValidation getCrossValidation();
+
     /**
      * Obtain the current value for the exit status.
      *
@@ -42,6 +75,20 @@ public interface Env
      */
      int getExitStatus();
 
+    /**
+     * Gets the amount of threads the commands can use for parallel computations.
+     *
+     * @return the amount of threads
+     */
+     int getThreadsAmount();
+
+    /**
+     * Gets the work directory, where temporary files and caches are stored.
+     *
+     * @return the path to the work directory
+     */
+     String getWorkDirectory();
+
     /**
      * Check if the application is in abnormal state.
      *
@@ -106,10 +153,54 @@ public interface Env
      */
      void setDataset(Dataset dataset);
 
+    /**
+     * Sets the file the current dataset was loaded from.
+     *
+     * @param datasetFile the file of the current dataset
+     */
+     void setDatasetFile(File datasetFile);
+
+    /**
+     * Sets the current user network.
+     *
+     * @param network the network of the users of the current dataset
+     */
+     void setNetwork(NearestNeighbour<?> network);
+
+    /**
+     * Sets the current item network.
+     *
+     * @param itemNetwork the network of the items of the current dataset
+     */
+     void setItemNetwork(ItemNearestNeighbour<?> itemNetwork);
+
+    /**
+     * Sets the current folds of the ratings.
+     *
+     * @param crossValidation the cross-validation on the ratings of the current dataset
+     */
+     void setCrossValidation(CrossValidation crossValidation);
+
     /**
      * Sets if the application should exit forcefully
      * @param forceExit is true if the application should exit forcefully
      */
      void setForceExit(boolean forceExit);
 
+    /**
+     * Sets the amount of threads the commands can use for parallel computations.
+     *
+     * @param threadsAmount the amount of threads, at least 1
+     */
+     void setThreadsAmount(int threadsAmount);
+
+    /**
+     * Sets the work directory, where temporary files and caches are stored.
+     *
+     * It is only a copy of the one in the settings, changed with the workdir command.
+     *
+     * @param workDirectory the path to the work directory
+     */
+     void setWorkDirectory(String workDirectory);
+
 }
@@ -4,6 +4,10 @@ import it.unica.foresee.datasets.interfaces.*;
 
 /**
  * Generic dataset element implementation.
+ *
+ * An element does not know the {@link DatasetSparseVector}s containing it, so
+ * they do not see a value changed in place: put the element in a vector again
+ * to update the statistics the vector keeps.
  */
 public class DatasetElement<T> implements it.unica.foresee.datasets.interfaces.DatasetElement<T>
 {
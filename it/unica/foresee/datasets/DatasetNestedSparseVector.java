@@ -3,7 +3,9 @@ package it.unica.foresee.datasets;
 import it.unica.foresee.datasets.interfaces.*;
 import it.unica.foresee.datasets.interfaces.DatasetElement;
 
+import java.util.Arrays;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -11,10 +13,18 @@ import java.util.TreeSet;
  * Implementation of {@link it.unica.foresee.datasets.interfaces.DatasetNestedSparseVector}
  * which keeps the internal highest key updated to the highest value.
  *
- * This is a simple implementations which keeps track of the highest key value
- * among the elements inserted using put and putAll methods, but it's not able
- * to update the its value if the value of a nested element is edited without
- * putting it in again.
+ * The distinct keys of the nested elements, e.g. the IDs of the rated movies,
+ * are indexed with the amount of elements having each of them, so the highest
+ * key, the amount of keys and the key set are read from the index without
+ * scanning the nested elements. The index is built again only after a nested
+ * element has changed, either through this vector or directly, as the changes
+ * are counted by {@link #getModifications()}.
+ *
+ * The statistics of the nested elements sharing a key, e.g. of the ratings of
+ * each movie, are cached as well, and so is the compact copy of the nested
+ * elements returned by {@link #toRatingMatrix()}. Like the statistics of a
+ * single vector, they do not see a value changed in place until its element
+ * is put again.
  */
 /*
 public class DatasetNestedSparseVector<T extends DatasetSparseVector<K>, K extends DatasetElement<?> & DeepClonable<?>> extends DatasetSparseVector<T> implements it.unica.foresee.datasets.interfaces.DatasetNestedSparseVector<T>, DeepClonable<DatasetSparseVector<T>>
@@ -27,20 +37,48 @@ public class DatasetNestedSparseVector<T extends DatasetSparseVector<? extends D
      */
     private int internalVectorSize;
 
+    /**
+     * Cached statistics of the nested elements sharing a key, or null if they have never been computed.
+     */
+    private transient ItemStatistics itemStatistics;
+
+    /**
+     * Cached matrix of the nested elements, or null if it has never been built.
+     */
+    private transient CachedMatrix ratingMatrix;
+
+    /**
+     * Cached index of the keys of the nested elements, or null if it has never been built.
+     */
+    private transient NestedKeys nestedKeys;
+
     /**
      * Returns the a set containing all the keys of the nested elements.
      *
      * @return a set containing all the keys of the nested elements.
      */
     public SortedSet<Integer> getInternalKeySet() {
+        NestedKeys index = getNestedKeys();
         TreeSet<Integer> internalKeySet = new TreeSet<>();
-        for (Integer key : this.keySet())
+        for (int key : index.keys)
         {
-            internalKeySet.addAll(this.get(key).keySet());
+            internalKeySet.add(key);
         }
         return internalKeySet;
     }
 
+    /**
+     * Get the position of a key among the distinct keys of the nested elements
+     * sorted ascending, e.g. the column of a movie in a dense matrix of ratings.
+     *
+     * @param key the key of the nested elements
+     * @return the position of the key, or a negative value if no nested element has it
+     */
+    public int getNestedKeyIndex(int key)
+    {
+        return Arrays.binarySearch(getNestedKeys().keys, key);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -56,7 +94,296 @@ public class DatasetNestedSparseVector<T extends DatasetSparseVector<? extends D
     @Override
     public int getHighestNestedKey()
     {
-        return getInternalKeySet().last();
+        int[] keys = getNestedKeys().keys;
+        if (keys.length == 0)
+        {
+            throw new NoSuchElementException("There are no nested elements.");
+        }
+        return keys[keys.length - 1];
+    }
+
+    /**
+     * Get the amount of distinct keys of the nested elements.
+     *
+     * @return the size of {@link #getInternalKeySet()}
+     */
+    public int getNestedKeysAmount()
+    {
+        return getNestedKeys().keys.length;
+    }
+
+    /**
+     * Get the amount of nested elements with the given key, e.g. the amount of ratings of a movie.
+     *
+     * @param key the key of the nested elements
+     * @return the amount of nested elements
+     */
+    public int getItemCount(int key)
+    {
+        NestedKeys index = getNestedKeys();
+        int position = Arrays.binarySearch(index.keys, key);
+        return position < 0 ? 0 : index.counts[position];
+    }
+
+    /**
+     * Get the sum of the values of the nested elements with the given key.
+     *
+     * @param key the key of the nested elements
+     * @return the sum of the values
+     */
+    public double getItemSum(int key)
+    {
+        ItemStatistics statistics = getItemStatistics();
+        int row = statistics.items.getRowIndex(key);
+        return row < 0 ? 0 : statistics.sums[row];
+    }
+
+    /**
+     * Get the sum of the squares of the values of the nested elements with the given key.
+     *
+     * @param key the key of the nested elements
+     * @return the sum of the squares of the values
+     */
+    public double getItemSumOfSquares(int key)
+    {
+        ItemStatistics statistics = getItemStatistics();
+        int row = statistics.items.getRowIndex(key);
+        return row < 0 ? 0 : statistics.sumsOfSquares[row];
+    }
+
+    /**
+     * Get the mean of the values of the nested elements with the given key.
+     *
+     * Unlike {@link #getMean()}, only the present elements are taken into account.
+     *
+     * @param key the key of the nested elements
+     * @return the mean of the values, or 0 if there are no elements with the key
+     */
+    public double getItemMean(int key)
+    {
+        ItemStatistics statistics = getItemStatistics();
+        RatingMatrix items = statistics.items;
+        int row = items.getRowIndex(key);
+        return row < 0 || items.getRowSize(row) == 0 ? 0 : statistics.sums[row] / items.getRowSize(row);
+    }
+
+    /**
+     * Get a compact copy of the nested elements as a {@link RatingMatrix}.
+     *
+     * The matrix is cached, and built again only after a nested element has
+     * changed, so it is shared by the callers and must not be
+     * modified. A matrix already returned does not reflect the later changes.
+     *
+     * @return a matrix with a row for each element and a column for each nested key
+     */
+    public RatingMatrix toRatingMatrix()
+    {
+        CachedMatrix cached = ratingMatrix;
+        long modifications = getModifications();
+        if (cached != null && cached.modifications == modifications)
+        {
+            return cached.matrix;
+        }
+
+        RatingMatrix matrix = RatingMatrix.fromDataset(this);
+        ratingMatrix = new CachedMatrix(matrix, modifications);
+        ratingMatrixBuilt(matrix);
+        return matrix;
+    }
+
+    /**
+     * Called when {@link #toRatingMatrix()} has built a new matrix, which holds
+     * the same values as the nested elements.
+     *
+     * The elements must not be changed, or the matrix would not be valid anymore.
+     *
+     * @param matrix the new matrix
+     */
+    void ratingMatrixBuilt(RatingMatrix matrix) {}
+
+    /**
+     * Sets the matrix the nested elements have just been built from, so that
+     * {@link #toRatingMatrix()} returns it until something changes.
+     *
+     * @param matrix a matrix holding the same values as the nested elements
+     */
+    void setRatingMatrix(RatingMatrix matrix)
+    {
+        ratingMatrix = new CachedMatrix(matrix, getModifications());
+    }
+
+    /**
+     * Immutable pair of a matrix and the amount of modifications of the vector it reflects.
+     */
+    private static final class CachedMatrix
+    {
+        /**
+         * The matrix of the nested elements.
+         */
+        final RatingMatrix matrix;
+
+        /**
+         * Amount of modifications of the vector the matrix reflects.
+         */
+        final long modifications;
+
+        CachedMatrix(RatingMatrix matrix, long modifications)
+        {
+            this.matrix = matrix;
+            this.modifications = modifications;
+        }
+    }
+
+    /**
+     * Immutable snapshot of the statistics of the nested elements sharing a key.
+     */
+    private static final class ItemStatistics
+    {
+        /**
+         * Nested elements grouped by their key, one row for each key.
+         */
+        final RatingMatrix items;
+
+        /**
+         * Sum of the values of each row of {@link #items}.
+         */
+        final double[] sums;
+
+        /**
+         * Sum of the squares of the values of each row of {@link #items}.
+         */
+        final double[] sumsOfSquares;
+
+        /**
+         * Amount of modifications of the vector the statistics reflect.
+         */
+        final long modifications;
+
+        ItemStatistics(RatingMatrix items, double[] sums, double[] sumsOfSquares, long modifications)
+        {
+            this.items = items;
+            this.sums = sums;
+            this.sumsOfSquares = sumsOfSquares;
+            this.modifications = modifications;
+        }
+    }
+
+    /**
+     * Computes the item statistics again, if something has changed since the last time.
+     *
+     * @return the statistics of the nested elements grouped by key
+     */
+    private ItemStatistics getItemStatistics()
+    {
+        ItemStatistics cached = itemStatistics;
+        long modifications = getModifications();
+        if (cached != null && cached.modifications == modifications)
+        {
+            return cached;
+        }
+
+        RatingMatrix items = toRatingMatrix().transpose();
+        double[] values = items.getValues();
+        double[] sums = new double[items.getRowsAmount()];
+        double[] sumsOfSquares = new double[items.getRowsAmount()];
+        for (int row = 0; row < sums.length; row++)
+        {
+            for (int e = items.getRowStart(row); e < items.getRowEnd(row); e++)
+            {
+                sums[row] += values[e];
+                sumsOfSquares[row] += values[e] * values[e];
+            }
+        }
+
+        cached = new ItemStatistics(items, sums, sumsOfSquares, modifications);
+        itemStatistics = cached;
+        return cached;
+    }
+
+    /* Nested keys */
+
+    /**
+     * Immutable index of the distinct keys of the nested elements.
+     */
+    private static final class NestedKeys
+    {
+        /**
+         * Distinct keys of the nested elements, sorted ascending.
+         */
+        final int[] keys;
+
+        /**
+         * Amount of nested elements having each key of {@link #keys}.
+         */
+        final int[] counts;
+
+        /**
+         * Amount of modifications of the vector the index reflects.
+         */
+        final long modifications;
+
+        NestedKeys(int[] keys, int[] counts, long modifications)
+        {
+            this.keys = keys;
+            this.counts = counts;
+            this.modifications = modifications;
+        }
+    }
+
+    /**
+     * Builds the index of the nested keys again, if something has changed since the last time.
+     *
+     * @return the index of the keys of the nested elements
+     */
+    private NestedKeys getNestedKeys()
+    {
+        NestedKeys cached = nestedKeys;
+        long modifications = getModifications();
+        if (cached != null && cached.modifications == modifications)
+        {
+            return cached;
+        }
+
+        int length = 0;
+        for (T element : this.values())
+        {
+            length += element == null ? 0 : element.size();
+        }
+
+        int[] keys = new int[length];
+        int position = 0;
+        for (T element : this.values())
+        {
+            if (element != null)
+            {
+                for (Integer key : element.keySet())
+                {
+                    keys[position++] = key;
+                }
+            }
+        }
+        Arrays.sort(keys);
+
+        // Merge the repeated keys, counting them
+        int[] counts = new int[length];
+        int amount = 0;
+        for (int key : keys)
+        {
+            if (amount > 0 && keys[amount - 1] == key)
+            {
+                counts[amount - 1]++;
+            }
+            else
+            {
+                keys[amount] = key;
+                counts[amount] = 1;
+                amount++;
+            }
+        }
+
+        cached = new NestedKeys(Arrays.copyOf(keys, amount), Arrays.copyOf(counts, amount), modifications);
+        nestedKeys = cached;
+        return cached;
     }
 
     /**
@@ -97,6 +424,22 @@ public class DatasetNestedSparseVector<T extends DatasetSparseVector<? extends D
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The element is put with {@link #put(Integer, DatasetSparseVector)}, so
+     * that it is merged with the element already at the key.
+     */
+    @Override
+    public T put(Integer key, Object value)
+    {
+        if (!isPuttable(value))
+        {
+            throw new IllegalStateException("The element " + value + " is not of the required type.");
+        }
+        return this.put(key, castElement(value));
+    }
+
     /**
      * Insert all the given elements, if an element exists merges its elements.
      *
@@ -10,9 +10,50 @@ import java.util.*;
 
 /**
  * An efficient data structure for sparse vectors.
+ *
+ * The sum, the amount and the sum of squares of the values are cached, so the
+ * mean is not computed again on every call. The cache is updated when an element
+ * is put or removed. Neither the elements nor the vectors keep a reference to
+ * the vectors containing them, so a value changed in place, as with
+ * {@link DoubleElement#setElement(Object)}, is not seen: put the element again
+ * to update the statistics.
+ *
+ * The vectors nested in a vector are checked on read instead: every vector
+ * counts its changes, those of its nested vectors included (see
+ * {@link #getModifications()}), and the values cached from it are computed
+ * again when the count differs, so a nested vector can be changed directly.
+ * Changes made through the views returned by {@link #keySet()}, {@link #values()}
+ * or {@link #entrySet()}, or through the default methods of {@link Map} such as
+ * {@link Map#merge}, are not tracked.
+ *
+ * Like the {@link TreeMap} it extends, a vector must not be changed while
+ * other threads use it. As long as it is not changed, any amount of threads
+ * can read it at the same time: the cached values are immutable snapshots,
+ * which are safely published even when two threads compute them at once.
  */
 public class DatasetSparseVector<T extends DatasetElement<?> & DeepClonable> extends TreeMap<Integer, T> implements it.unica.foresee.datasets.interfaces.DatasetVector<T>, it.unica.foresee.datasets.interfaces.ClonableElement<DatasetSparseVector<T>>, Clusterable, Identifiable
 {
+    /**
+     * Type of the elements of each vector class, as returned by its {@code get} method.
+     *
+     * It is looked up by reflection once per class, instead of on every put.
+     */
+    private static final ClassValue<Class<?>> ELEMENT_TYPES = new ClassValue<Class<?>>()
+    {
+        @Override
+        protected Class<?> computeValue(Class<?> type)
+        {
+            try
+            {
+                return type.getMethod("get", Object.class).getReturnType();
+            }
+            catch (NoSuchMethodException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
     /**
      * The id of the element.
      */
@@ -23,6 +64,22 @@ public class DatasetSparseVector<T extends DatasetElement<?> & DeepClonable> ext
      */
     private int vectorSize;
 
+    /**
+     * Amount of changes to the entries of this vector, the nested vectors
+     * removed from it included.
+     */
+    private transient long modifications;
+
+    /**
+     * Amount of elements which are vectors themselves.
+     */
+    private transient int nestedAmount;
+
+    /**
+     * Cached statistics, or null if they have never been computed.
+     */
+    private transient Statistics statistics;
+
     /**
      * Empty constructor.
      */
@@ -72,9 +129,29 @@ public class DatasetSparseVector<T extends DatasetElement<?> & DeepClonable> ext
 
     /**
      * {@inheritDoc}
+     *
+     * The partitions are random, a different seed is drawn at every call:
+     * use {@link #getKFoldPartitions(int, int, long)} to obtain the same partitions again.
      */
     @Override
     public DatasetSparseVector[] getKFoldPartitions(int k, int layersAmount)
+    {
+        return getKFoldPartitions(k, layersAmount, new Random().nextLong());
+    }
+
+    /**
+     * Divides the elements in k partitions, stratified by their mean value.
+     *
+     * The elements are put in layers of mean values, each layer is shuffled
+     * with the Fisher-Yates algorithm and its elements are dealt to the
+     * partitions in turn.
+     *
+     * @param k the amount of partitions
+     * @param layersAmount the amount of layers of mean values
+     * @param seed the seed of the shuffles, the same seed gives the same partitions
+     * @return the partitions
+     */
+    public DatasetSparseVector[] getKFoldPartitions(int k, int layersAmount, long seed)
     {
         /* Initialize the max and min with a reasonable value */
         double maxMeanValue = this.get(this.firstKey()).getDoubleValue();
@@ -145,7 +222,7 @@ public class DatasetSparseVector<T extends DatasetElement<?> & DeepClonable> ext
 
         /* Fill the k partitions: k folding */
         DatasetSparseVector<T>[] partitions = new DatasetSparseVector[k];
-        Random randomizer = new Random();
+        Random randomizer = new Random(seed);
 
         /* Initialize the partitions */
         for (int i = 0; i < partitions.length; i++)
@@ -153,27 +230,14 @@ public class DatasetSparseVector<T extends DatasetElement<?> & DeepClonable> ext
             partitions[i] = new DatasetSparseVector<>();
         }
 
-        /* For each layer add random elements to each partition */
+        /* For each layer deal the shuffled elements to the partitions, starting from the first */
         for (ArrayList<Integer> layer : layers)
         {
-            /* Remove the elements added to the partitions */
-            while (layer.size() > 0)
+            Collections.shuffle(layer, randomizer);
+            for (int i = 0; i < layer.size(); i++)
             {
-                /* Select a random element and put it in a partition */
-                for (DatasetSparseVector<T> partition : partitions)
-                {
-                    if (layer.size() <= 0)
-                    {
-                        /* Stop looping when the layer is empty */
-                        break;
-                    }
-                    else
-                    {
-                        int randIndex = randomizer.nextInt(layer.size());
-                        Integer randomKey = layer.remove(randIndex);
-                        partition.put(randomKey, this.get(randomKey));
-                    }
-                }
+                Integer randomKey = layer.get(i);
+                partitions[i % k].put(randomKey, this.get(randomKey));
             }
         }
 
@@ -182,15 +246,13 @@ public class DatasetSparseVector<T extends DatasetElement<?> & DeepClonable> ext
 
     /**
      * The mean is calculated as the mean of the elements values.
+     *
+     * The sum of the values is divided by the vector size, so the missing
+     * elements count as zeros.
      */
     public double getMean()
     {
-        // Sum all the elements values
-        double sumOfValues = 0;
-        for (T element : this.values())
-        {
-            sumOfValues += element.getDoubleValue();
-        }
+        double sumOfValues = getSum();
 
         // Sanity checks
         if (this.getVectorSize() == 0 && sumOfValues != 0)
@@ -208,8 +270,68 @@ public class DatasetSparseVector<T extends DatasetElement<?> & DeepClonable> ext
         }
     }
 
+    /**
+     * Get the sum of the values of the elements.
+     * @return the sum of the values
+     */
+    public double getSum()
+    {
+        return getStatistics().sum;
+    }
+
+    /**
+     * Get the sum of the squares of the values of the elements.
+     * @return the sum of the squares of the values
+     */
+    public double getSumOfSquares()
+    {
+        return getStatistics().sumOfSquares;
+    }
+
+    /**
+     * Get the amount of elements having a value.
+     *
+     * Unlike {@link #size()}, null elements are not counted.
+     *
+     * @return the amount of values
+     */
+    public int getValuesCount()
+    {
+        return getStatistics().valuesCount;
+    }
+
+    /**
+     * Get the amount of changes to the entries of this vector and of the vectors nested in it.
+     *
+     * A value computed from the vector is still valid as long as the amount is
+     * the same. A nested vector removed or replaced leaves its amount to this
+     * vector, so the amount grows at every change. The nested vectors are
+     * visited at every call, the other elements are not.
+     *
+     * @return the amount of changes
+     */
+    long getModifications()
+    {
+        long total = modifications;
+        if (nestedAmount > 0)
+        {
+            for (T element : this.values())
+            {
+                if (element instanceof DatasetSparseVector)
+                {
+                    total += ((DatasetSparseVector<?>) element).getModifications();
+                }
+            }
+        }
+        return total;
+    }
+
     /**
      * {@inheritDoc}
+     *
+     * The array is built at every call and is not kept by the vector, so a
+     * dense copy of the values is never retained; the clustering reads the
+     * sparse entries instead (see {@link it.unica.foresee.libraries.ClusterableElement}).
      */
     @Override
     public double[] getPoint()
@@ -223,16 +345,10 @@ public class DatasetSparseVector<T extends DatasetElement<?> & DeepClonable> ext
         // The size of the array is set to the highest key value, so that it can store all the items
         double[] points = new double[getVectorSize()];
 
-        // Returns an empty array if no value is set
-        if (this.isEmpty())
-        {
-            return points;
-        }
-
         // Associate the indexes with the corresponding values
-        for (int k : this.keySet())
+        for (Map.Entry<Integer, T> entry : this.entrySet())
         {
-            points[k-1] = this.getDatasetElement(k).getDoubleValue();
+            points[entry.getKey() - 1] = entry.getValue().getDoubleValue();
         }
 
         return points;
@@ -256,6 +372,36 @@ public class DatasetSparseVector<T extends DatasetElement<?> & DeepClonable> ext
         return false;
     }
 
+    /**
+     * Get the type of the elements of this vector class, as returned by its {@code get} method.
+     *
+     * The type is resolved once for each class.
+     *
+     * @return the type of the elements
+     */
+    public Class<?> getElementType()
+    {
+        return ELEMENT_TYPES.get(getClass());
+    }
+
+    /**
+     * Casts a value to the type of the elements of this vector.
+     *
+     * The value is checked against {@link #getElementType()}, the type the
+     * {@code get} method of this class returns. The type parameter is erased
+     * at runtime, so when a class does not narrow {@code get} the check is
+     * only as strict as {@link #isPuttable(Object)}, as it has always been.
+     *
+     * @param value the value
+     * @return the value, as an element of this vector
+     * @throws ClassCastException if the value is not of the type of the elements
+     */
+    @SuppressWarnings("unchecked") // T is erased, getElementType() is the most the runtime can check
+    T castElement(Object value)
+    {
+        return (T) getElementType().cast(value);
+    }
+
     /**
      * Checks if the element can be casted to the required type
      * to be put in the element.
@@ -277,31 +423,157 @@ public class DatasetSparseVector<T extends DatasetElement<?> & DeepClonable> ext
 
     /* Setter */
 
+    /**
+     * {@inheritDoc}
+     *
+     * The cached statistics are updated with the new value.
+     */
+    @Override
+    public T put(Integer key, T value)
+    {
+        T oldValue = super.put(key, value);
+        entryChanged(oldValue, value);
+        return oldValue;
+    }
 
     /**
      * Special put method with automatic cast of the value.
      *
+     * The value is cast to the type of the elements of this class, see
+     * {@link #getElementType()}.
+     *
      * {@link #put(Object, Object)}
      */
     public T put(Integer key, Object value)
     {
-        Class<?> cls = null;
-
         if (!isPuttable(value))
         {
             throw new IllegalStateException("The element " + value + " is not of the required type.");
         }
 
-        try
+        T element = castElement(value);
+        T oldValue = super.put(key, element);
+        entryChanged(oldValue, element);
+        return oldValue;
+    }
+
+    /**
+     * Puts a {@link DoubleElement} for each pair of key and value.
+     *
+     * {@link #putAll(int[], double[], int, int)}
+     *
+     * @param keys the keys
+     * @param values the value of each key
+     */
+    public void putAll(int[] keys, double[] values)
+    {
+        if (keys.length != values.length)
+        {
+            throw new IllegalArgumentException("Keys and values need to have the same length.");
+        }
+        putAll(keys, values, 0, keys.length);
+    }
+
+    /**
+     * Puts a {@link DoubleElement} for each pair of key and value in a range of the arrays.
+     *
+     * The type of the elements is checked once for all the pairs, and no
+     * reflection is used, so this is the fastest way to fill a vector of
+     * doubles, as when the ratings are loaded or the forecasts are stored.
+     * The elements already present at the keys are replaced.
+     *
+     * @param keys the keys
+     * @param values the value of each key
+     * @param from index of the first pair
+     * @param to index after the last pair
+     * @throws IllegalStateException if the elements of this vector cannot be {@link DoubleElement}s
+     */
+    public void putAll(int[] keys, double[] values, int from, int to)
+    {
+        if (!getElementType().isAssignableFrom(DoubleElement.class))
+        {
+            throw new IllegalStateException("The elements of " + getClass().getSimpleName() +
+                    " are not of type DoubleElement.");
+        }
+
+        for (int i = from; i < to; i++)
+        {
+            T element = castElement(new DoubleElement(values[i]));
+            entryChanged(super.put(keys[i], element), element);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The cached statistics are updated without the removed value.
+     */
+    @Override
+    public T remove(Object key)
+    {
+        boolean present = this.containsKey(key);
+        T oldValue = super.remove(key);
+        if (present)
+        {
+            entryChanged(oldValue, null);
+        }
+        return oldValue;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The entries are put one by one, so that the statistics are updated.
+     */
+    @Override
+    public void putAll(Map<? extends Integer, ? extends T> map)
+    {
+        for (Map.Entry<? extends Integer, ? extends T> entry : map.entrySet())
         {
-            cls = this.getClass().getMethod("get", Object.class).getReturnType();
+            this.put(entry.getKey(), entry.getValue());
         }
-        catch (NoSuchMethodException e)
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map.Entry<Integer, T> pollFirstEntry()
+    {
+        Map.Entry<Integer, T> entry = super.pollFirstEntry();
+        if (entry != null)
         {
-            throw new IllegalStateException(e);
+            entryChanged(entry.getValue(), null);
         }
+        return entry;
+    }
 
-        return super.put(key, (T) cls.cast(value));
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map.Entry<Integer, T> pollLastEntry()
+    {
+        Map.Entry<Integer, T> entry = super.pollLastEntry();
+        if (entry != null)
+        {
+            entryChanged(entry.getValue(), null);
+        }
+        return entry;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear()
+    {
+        for (T element : this.values())
+        {
+            releaseElement(element);
+        }
+        super.clear();
+        modifications++;
     }
 
     /**
@@ -340,9 +612,173 @@ public class DatasetSparseVector<T extends DatasetElement<?> & DeepClonable> ext
      * @param vectorSize the size of the max vector
      */
     public void setVectorSize(int vectorSize) {
+        if (this.vectorSize != vectorSize)
+        {
+            // The mean, hence the value of this vector in the vectors containing it, depends on the size
+            modifications++;
+        }
         this.vectorSize = vectorSize;
     }
 
+    /* Statistics */
+
+    /**
+     * Immutable snapshot of the statistics of the values.
+     */
+    private static final class Statistics
+    {
+        /**
+         * Sum of the values.
+         */
+        final double sum;
+
+        /**
+         * Sum of the squares of the values.
+         */
+        final double sumOfSquares;
+
+        /**
+         * Amount of values.
+         */
+        final int valuesCount;
+
+        /**
+         * True if some element is a vector, whose value is not updated incrementally.
+         */
+        final boolean nested;
+
+        /**
+         * Amount of modifications of the vector the statistics reflect.
+         */
+        final long modifications;
+
+        Statistics(double sum, double sumOfSquares, int valuesCount, boolean nested, long modifications)
+        {
+            this.sum = sum;
+            this.sumOfSquares = sumOfSquares;
+            this.valuesCount = valuesCount;
+            this.nested = nested;
+            this.modifications = modifications;
+        }
+    }
+
+    /**
+     * Get the statistics of the current values, computing them again if they are not valid.
+     */
+    private Statistics getStatistics()
+    {
+        Statistics cached = statistics;
+        long currentModifications = getModifications();
+        if (cached != null && cached.modifications == currentModifications)
+        {
+            return cached;
+        }
+
+        double newSum = 0;
+        double newSumOfSquares = 0;
+        int newCount = 0;
+        boolean nested = false;
+        for (T element : this.values())
+        {
+            if (element != null)
+            {
+                double value = element.getDoubleValue();
+                newSum += value;
+                newSumOfSquares += value * value;
+                newCount++;
+                nested |= element instanceof DatasetSparseVector;
+            }
+        }
+
+        cached = new Statistics(newSum, newSumOfSquares, newCount, nested, currentModifications);
+        statistics = cached;
+        return cached;
+    }
+
+    /**
+     * Records the change of an entry, updating the statistics incrementally when possible.
+     *
+     * An element put again at its own key is taken as changed in place, so the
+     * statistics are computed again.
+     *
+     * The subclasses keeping the entries out of the tree call it at every
+     * change, as {@link MovielensElement} does.
+     *
+     * @param oldValue the value replaced, or null
+     * @param newValue the value put, or null if the entry has been removed
+     */
+    void entryChanged(T oldValue, T newValue)
+    {
+        Statistics cached = statistics;
+        boolean valid = cached != null && !cached.nested && oldValue != newValue
+                && !(newValue instanceof DatasetSparseVector) && cached.modifications == getModifications();
+
+        if (oldValue != newValue)
+        {
+            releaseElement(oldValue);
+            holdElement(newValue);
+        }
+        modifications++;
+
+        if (valid)
+        {
+            double newSum = cached.sum;
+            double newSumOfSquares = cached.sumOfSquares;
+            int newCount = cached.valuesCount;
+            if (oldValue != null)
+            {
+                double value = oldValue.getDoubleValue();
+                newSum -= value;
+                newSumOfSquares -= value * value;
+                newCount--;
+            }
+            if (newValue != null)
+            {
+                double value = newValue.getDoubleValue();
+                newSum += value;
+                newSumOfSquares += value * value;
+                newCount++;
+            }
+            statistics = new Statistics(newSum, newSumOfSquares, newCount, false, modifications);
+        }
+    }
+
+    /**
+     * Records the change of several entries holding no vectors.
+     *
+     * The statistics are computed again on the next read.
+     */
+    void entriesChanged()
+    {
+        modifications++;
+    }
+
+    /**
+     * Counts an element put in this vector.
+     */
+    private void holdElement(T element)
+    {
+        if (element instanceof DatasetSparseVector)
+        {
+            nestedAmount++;
+        }
+    }
+
+    /**
+     * Counts an element removed from this vector.
+     *
+     * The changes of a nested vector are kept by this vector, so that its
+     * amount of modifications does not decrease.
+     */
+    private void releaseElement(T element)
+    {
+        if (element instanceof DatasetSparseVector)
+        {
+            nestedAmount--;
+            modifications += ((DatasetSparseVector<?>) element).getModifications();
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,290 @@
+package it.unica.foresee.datasets;
+
+import it.unica.foresee.utils.LongDoubleHashMap;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Assigns the ratings of a {@link RatingMatrix} to the folds of a k-fold cross-validation.
+ *
+ * The folds are a column of bytes parallel to the values of the matrix, so
+ * the ratings are never copied or moved to be partitioned. The ratings are
+ * put in groups, shuffled within each group with a Fisher-Yates shuffle and
+ * then dealt to the folds in turn, with a counter running across the groups,
+ * so that every fold gets the same amount of ratings of each group, give or
+ * take one:
+ * <ul>
+ *     <li>{@link Stratification#NONE}: a single group with all the ratings</li>
+ *     <li>{@link Stratification#USER}: a group for each user, so that every
+ *     user has ratings in every training set</li>
+ *     <li>{@link Stratification#RATING}: a group for each rating value, so that
+ *     every fold has the same distribution of values</li>
+ * </ul>
+ * The assignment takes linear time and a single array of indexes besides the
+ * folds, and it only depends on the seed (see {@link #setSeed(long)}).
+ *
+ * The ratings can also be split by time with {@link #assignByTime(RatingMatrix)}.
+ */
+public class FoldPartitioner
+{
+    /**
+     * Groups of ratings spread evenly among the folds.
+     */
+    public enum Stratification
+    {
+        /**
+         * All the ratings together.
+         */
+        NONE,
+
+        /**
+         * The ratings of each user.
+         */
+        USER,
+
+        /**
+         * The ratings of each value.
+         */
+        RATING
+    }
+
+    /**
+     * Amount of folds.
+     */
+    private final int foldsAmount;
+
+    /**
+     * Seed of the shuffles.
+     */
+    private long seed = 0;
+
+    /**
+     * Groups of ratings spread evenly among the folds.
+     */
+    private Stratification stratification = Stratification.USER;
+
+    /**
+     * Initialise the partitioner.
+     *
+     * @param foldsAmount the amount of folds, between 2 and {@link Byte#MAX_VALUE}
+     */
+    public FoldPartitioner(int foldsAmount)
+    {
+        if (foldsAmount < 2 || foldsAmount > Byte.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("The amount of folds must be between 2 and " + Byte.MAX_VALUE + ".");
+        }
+        this.foldsAmount = foldsAmount;
+    }
+
+    /**
+     * Assigns each rating to a random fold, according to the stratification.
+     *
+     * @param ratings the ratings
+     * @return the fold of each rating, parallel to the values of the matrix
+     */
+    public byte[] assign(RatingMatrix ratings)
+    {
+        int entries = ratings.getEntriesAmount();
+        byte[] folds = new byte[entries];
+        Random random = new Random(seed);
+
+        int[] order;
+        int[] groupOffsets;
+        switch (stratification)
+        {
+            case USER:
+                // The ratings of each user are already contiguous
+                order = identity(entries);
+                groupOffsets = ratings.getRowOffsets();
+                break;
+
+            case RATING:
+                order = new int[entries];
+                groupOffsets = groupByValue(ratings.getValues(), order);
+                break;
+
+            case NONE:
+            default:
+                order = identity(entries);
+                groupOffsets = new int[]{0, entries};
+                break;
+        }
+
+        int counter = 0;
+        for (int group = 0; group + 1 < groupOffsets.length; group++)
+        {
+            int start = groupOffsets[group];
+            int end = groupOffsets[group + 1];
+            shuffle(order, start, end, random);
+            for (int i = start; i < end; i++)
+            {
+                folds[order[i]] = (byte) counter;
+                counter = counter + 1 == foldsAmount ? 0 : counter + 1;
+            }
+        }
+
+        return folds;
+    }
+
+    /**
+     * Assigns the ratings to the folds by time.
+     *
+     * The ratings are split in folds of about the same size in chronological
+     * order: the first fold has the oldest ratings and the last one the most
+     * recent. The ratings given at the same time are always in the same fold.
+     * No random choice is made, so the seed and the stratification do not matter.
+     *
+     * @param ratings the ratings, with their timestamps
+     * @return the fold of each rating, parallel to the values of the matrix
+     */
+    public byte[] assignByTime(RatingMatrix ratings)
+    {
+        if (!ratings.hasTimestamps())
+        {
+            throw new IllegalArgumentException("The ratings have no timestamps.");
+        }
+
+        long[] timestamps = ratings.getTimestamps();
+        long[] sorted = timestamps.clone();
+        Arrays.sort(sorted);
+
+        // The first timestamp of each fold after the first one
+        long[] bounds = new long[foldsAmount - 1];
+        for (int fold = 1; fold < foldsAmount; fold++)
+        {
+            bounds[fold - 1] = sorted.length == 0 ? Long.MAX_VALUE : sorted[(int) ((long) fold * sorted.length / foldsAmount)];
+        }
+
+        byte[] folds = new byte[timestamps.length];
+        for (int k = 0; k < timestamps.length; k++)
+        {
+            int position = Arrays.binarySearch(bounds, timestamps[k]);
+            if (position >= 0)
+            {
+                // The same bound can start many folds: take the last of them
+                while (position + 1 < bounds.length && bounds[position + 1] == timestamps[k])
+                {
+                    position++;
+                }
+                folds[k] = (byte) (position + 1);
+            }
+            else
+            {
+                folds[k] = (byte) (-position - 1);
+            }
+        }
+        return folds;
+    }
+
+    /**
+     * Sorts the indexes of the ratings by value with a counting sort.
+     *
+     * @param values the values of the ratings
+     * @param order where the indexes of the ratings are stored, grouped by value
+     * @return the offset of each group in the order, followed by the amount of ratings
+     */
+    private static int[] groupByValue(double[] values, int[] order)
+    {
+        // Index of the group of each distinct value, in order of appearance
+        LongDoubleHashMap groups = new LongDoubleHashMap();
+        int[] sizes = new int[16];
+        for (double value : values)
+        {
+            long key = Double.doubleToLongBits(value);
+            int group = (int) groups.get(key, -1);
+            if (group < 0)
+            {
+                group = groups.size();
+                groups.put(key, group);
+                if (group == sizes.length)
+                {
+                    sizes = Arrays.copyOf(sizes, sizes.length * 2);
+                }
+            }
+            sizes[group]++;
+        }
+
+        int[] offsets = new int[groups.size() + 1];
+        for (int group = 0; group < groups.size(); group++)
+        {
+            offsets[group + 1] = offsets[group] + sizes[group];
+        }
+
+        int[] next = Arrays.copyOf(offsets, groups.size());
+        for (int k = 0; k < values.length; k++)
+        {
+            order[next[(int) groups.get(Double.doubleToLongBits(values[k]), -1)]++] = k;
+        }
+        return offsets;
+    }
+
+    /**
+     * Get the indexes from 0 to amount - 1.
+     */
+    private static int[] identity(int amount)
+    {
+        int[] order = new int[amount];
+        for (int i = 0; i < amount; i++)
+        {
+            order[i] = i;
+        }
+        return order;
+    }
+
+    /**
+     * Shuffles a range of an array with the Fisher-Yates algorithm.
+     */
+    private static void shuffle(int[] array, int start, int end, Random random)
+    {
+        for (int i = end - 1; i > start; i--)
+        {
+            int j = start + random.nextInt(i - start + 1);
+            int swap = array[i];
+            array[i] = array[j];
+            array[j] = swap;
+        }
+    }
+
+    /* Getter */
+
+    public int getFoldsAmount()
+    {
+        return foldsAmount;
+    }
+
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    public Stratification getStratification()
+    {
+        return stratification;
+    }
+
+    /* Setter */
+
+    /**
+     * Set the seed of the shuffles, so that the folds can be made again.
+     * @param seed the seed
+     */
+    public void setSeed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Set the groups of ratings spread evenly among the folds.
+     * @param stratification the stratification
+     */
+    public void setStratification(Stratification stratification)
+    {
+        if (stratification == null)
+        {
+            throw new IllegalArgumentException("The stratification cannot be null.");
+        }
+        this.stratification = stratification;
+    }
+}
@@ -20,6 +20,37 @@ public class Movielens extends DatasetNestedSparseVector<MovielensElement>
      */
     public final int MIN_RATE = 1;
 
+    /**
+     * Empty constructor.
+     */
+    public Movielens(){}
+
+    /**
+     * Initializes the dataset with the ratings stored in a matrix.
+     *
+     * Each row of the matrix becomes a user, each column a movie. The users
+     * read their ratings from the arrays of the matrix, and copy them only when
+     * they are changed (see {@link RatingMatrix#toMovielensElement(int)}), so the
+     * ratings are not stored twice. The matrix is kept and returned by
+     * {@link #toRatingMatrix()} until the dataset changes, instead of being built
+     * again from the users.
+     *
+     * @param ratings the matrix of the ratings
+     */
+    public Movielens(RatingMatrix ratings)
+    {
+        int vectorSize = ratings.getMaxColumnId();
+
+        for (int row = 0; row < ratings.getRowsAmount(); row++)
+        {
+            MovielensElement element = ratings.toMovielensElement(row);
+            element.setVectorSize(vectorSize);
+            this.put(ratings.getRowId(row), element);
+        }
+        this.setInternalVectorSize(vectorSize);
+        this.setRatingMatrix(ratings);
+    }
+
     /* Getter */
 
     /**
@@ -52,83 +83,49 @@ public class Movielens extends DatasetNestedSparseVector<MovielensElement>
     /**
      * Similar to {@link DatasetSparseVector#getKFoldPartitions(int, int)} but
      * obtains partitions where there are elements which are representative of each user.
+     *
+     * The partitions are random, a different seed is drawn at every call:
+     * use {@link #getKFoldPartitions(int, long)} to obtain the same partitions again.
+     *
      * @param k the amount of partitions, the k value of the k-fold cross validation
      * @return an array of partitions
      */
     public Movielens[] getKFoldPartitions(int k)
     {
-        /* Initialize the max and min with a reasonable value */
-        double maxMeanValue = this.get(this.firstKey()).getDoubleValue();
-        double minMeanValue = this.get(this.firstKey()).getDoubleValue();
-
-        /* Fill the array with the number of occurrences. */
-        for (MovielensElement item : this.values())
-        {
-            /* Keep the max mean value for each element */
-            if (item.getDoubleValue() > maxMeanValue)
-            {
-                maxMeanValue = item.getDoubleValue();
-            }
-
-            /* Keep the min mean value for each element */
-            if (item.getDoubleValue() < minMeanValue)
-            {
-                minMeanValue = item.getDoubleValue();
-            }
-        }
-
-
-        /* --- Stratification by average of elements per each user. --- */
+        return getKFoldPartitions(k, new Random().nextLong());
+    }
 
-        /* Amplitude of the range of each layer. */
-        int layersAmount = this.size();
-        double layerRange = (maxMeanValue - minMeanValue) / (layersAmount);
+    /**
+     * Similar to {@link DatasetSparseVector#getKFoldPartitions(int, int)} but
+     * obtains partitions where there are elements which are representative of each user.
+     *
+     * The ratings of each user are spread evenly among the partitions by a
+     * {@link FoldPartitioner}, on a {@link RatingMatrix} copy of the dataset,
+     * and each partition is built at once from the ratings of its fold.
+     *
+     * @param k the amount of partitions, the k value of the k-fold cross validation
+     * @param seed the seed of the random choices, the same seed gives the same partitions
+     * @return an array of partitions
+     */
+    public Movielens[] getKFoldPartitions(int k, long seed)
+    {
+        RatingMatrix ratings = toRatingMatrix();
+        FoldPartitioner partitioner = new FoldPartitioner(k);
+        partitioner.setSeed(seed);
+        partitioner.setStratification(FoldPartitioner.Stratification.USER);
+        byte[] folds = partitioner.assign(ratings);
 
-        /* Fill the k partitions: k folding */
         Movielens[] partitions = new Movielens[k];
-        Random randomizer = new Random();
-
-        /* Initialize the partitions */
         for (int i = 0; i < partitions.length; i++)
         {
-            partitions[i] = new Movielens();
-        }
-
-        int randIndex;
-        Integer randomKey;
-        ArrayList<Integer> userMoviesKeys;
-
-        /* For each user add random elements to each partition */
-        for (Integer userID : this.keySet())
-        {
-            userMoviesKeys = new ArrayList<>(this.get(userID).keySet());
-
-            /* Remove the elements added to the partitions */
-            while (userMoviesKeys.size() > 0)
-            {
-                /* Select a random element and put it in a partition */
-                for (Movielens partition : partitions)
-                {
-                    if (userMoviesKeys.size() <= 0)
-                    {
-                        /* Stop looping when the layer is empty */
-                        break;
-                    }
-                    else
-                    {
-                        randIndex = randomizer.nextInt(userMoviesKeys.size());
-                        randomKey = userMoviesKeys.remove(randIndex);
-                        partition.put(userID, randomKey, this.get(userID, randomKey).getElement());
-                    }
-                }
-            }
+            partitions[i] = new Movielens(ratings.select(folds, i));
         }
 
         return partitions;
     }
 
     public int getMaxMovieID() {
-        return this.getMoviesSet().last();
+        return this.getHighestNestedKey();
     }
 
     public int getMaxUserID() {
@@ -137,7 +134,7 @@ public class Movielens extends DatasetNestedSparseVector<MovielensElement>
 
     public int getMoviesAmount()
     {
-        return this.getMoviesSet().size();
+        return this.getNestedKeysAmount();
     }
 
     public SortedSet<Integer> getMoviesSet() {
@@ -176,6 +173,25 @@ public class Movielens extends DatasetNestedSparseVector<MovielensElement>
         this.put(userID, el);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The users read their ratings from the new matrix, so that the arrays
+     * they read them from before are released and the ratings are stored once.
+     */
+    @Override
+    void ratingMatrixBuilt(RatingMatrix matrix)
+    {
+        for (int row = 0; row < matrix.getRowsAmount(); row++)
+        {
+            MovielensElement user = this.get(matrix.getRowId(row));
+            if (user != null)
+            {
+                user.readFrom(matrix.viewRow(row));
+            }
+        }
+    }
+
     @Override
     public Movielens deepClone() {
         Movielens clone = new Movielens();
@@ -2,6 +2,20 @@ package it.unica.foresee.datasets;
 
 import it.unica.foresee.utils.Pair;
 
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * An element of the Movielens dataset.
@@ -9,9 +23,23 @@ import it.unica.foresee.utils.Pair;
  * A movielens element is a vector of ratings, and it can equally be a vector of ratings given
  * by the same user on a set of movies or a vector of ratings on the same movies given by a set of
  * users who rated it.
+ *
+ * The ratings are kept in a {@link RatingVector}, at 12 bytes each, and not in
+ * the tree the class extends: the methods of {@link Map} and the views read and
+ * write the arrays of the vector, and the {@link DoubleElement}s they return are
+ * copies of the ratings, so a rating changed in place must be put again, and the
+ * entries of {@link #entrySet()} cannot be set. The navigation methods, such as
+ * {@link #headMap(Integer)} or {@link #ceilingKey(Integer)}, the default methods
+ * of {@link Map}, such as {@link #merge}, and the null values need the tree: the
+ * first call moves the ratings in it, where they stay until the element is cleared.
  */
 public class MovielensElement extends DatasetSparseVector<DoubleElement>
 {
+    /**
+     * The ratings, or null if they have been moved in the tree.
+     */
+    private RatingVector ratings = new RatingVector();
+
     /**
      * Empty constructor.
      */
@@ -25,6 +53,21 @@ public class MovielensElement extends DatasetSparseVector<DoubleElement>
         super(vectorSize);
     }
 
+    /**
+     * Initialises the element with the ratings of a vector.
+     *
+     * The vector is kept by the element, not copied, so it must not be used
+     * anymore. Its ID and vector size are copied.
+     *
+     * @param ratings the ratings
+     */
+    MovielensElement(RatingVector ratings)
+    {
+        super(ratings.getVectorSize());
+        this.setId(ratings.getId());
+        this.ratings = ratings;
+    }
+
     /**
      * Constructs an element from a dataset sparse vector.
      */
@@ -89,6 +132,280 @@ public class MovielensElement extends DatasetSparseVector<DoubleElement>
         this.put(p.getFst(), new DoubleElement(p.getSnd()));
     }
 
+    /* Getter */
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size()
+    {
+        return ratings != null ? ratings.size() : super.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(Object key)
+    {
+        if (ratings == null)
+        {
+            return super.containsKey(key);
+        }
+        return key instanceof Integer && ratings.contains((Integer) key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsValue(Object value)
+    {
+        return ratings != null ? values().contains(value) : super.containsValue(value);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The element is a copy of the rating: put it again after changing it.
+     */
+    @Override
+    public DoubleElement get(Object key)
+    {
+        if (ratings == null)
+        {
+            return super.get(key);
+        }
+        int position = key instanceof Integer ? ratings.indexOf((Integer) key) : -1;
+        return position >= 0 ? new DoubleElement(ratings.getRatingAt(position)) : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Integer firstKey()
+    {
+        if (ratings == null)
+        {
+            return super.firstKey();
+        }
+        if (ratings.isEmpty())
+        {
+            throw new NoSuchElementException();
+        }
+        return ratings.getItemAt(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Integer lastKey()
+    {
+        return ratings != null ? ratings.getLastItem() : super.lastKey();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map.Entry<Integer, DoubleElement> firstEntry()
+    {
+        if (ratings == null)
+        {
+            return super.firstEntry();
+        }
+        return ratings.isEmpty() ? null : entryAt(ratings, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map.Entry<Integer, DoubleElement> lastEntry()
+    {
+        if (ratings == null)
+        {
+            return super.lastEntry();
+        }
+        return ratings.isEmpty() ? null : entryAt(ratings, ratings.size() - 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The elements are copies of the ratings, see {@link #get(Object)}.
+     */
+    @Override
+    public Set<Integer> keySet()
+    {
+        if (ratings == null)
+        {
+            return super.keySet();
+        }
+        return new AbstractSet<Integer>()
+        {
+            @Override
+            public Iterator<Integer> iterator()
+            {
+                return ratings != null ? new RatingsIterator<Integer>()
+                {
+                    @Override
+                    Integer element(RatingVector vector, int position)
+                    {
+                        return vector.getItemAt(position);
+                    }
+                } : MovielensElement.super.keySet().iterator();
+            }
+
+            @Override
+            public int size()
+            {
+                return MovielensElement.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o)
+            {
+                return containsKey(o);
+            }
+
+            @Override
+            public boolean remove(Object o)
+            {
+                boolean present = containsKey(o);
+                MovielensElement.this.remove(o);
+                return present;
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The elements are copies of the ratings, see {@link #get(Object)}.
+     */
+    @Override
+    public Collection<DoubleElement> values()
+    {
+        if (ratings == null)
+        {
+            return super.values();
+        }
+        return new AbstractCollection<DoubleElement>()
+        {
+            @Override
+            public Iterator<DoubleElement> iterator()
+            {
+                return ratings != null ? new RatingsIterator<DoubleElement>()
+                {
+                    @Override
+                    DoubleElement element(RatingVector vector, int position)
+                    {
+                        return new DoubleElement(vector.getRatingAt(position));
+                    }
+                } : MovielensElement.super.values().iterator();
+            }
+
+            @Override
+            public int size()
+            {
+                return MovielensElement.this.size();
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The values are copies of the ratings, see {@link #get(Object)}, and the
+     * entries cannot be set: put the values in the element instead.
+     */
+    @Override
+    public Set<Map.Entry<Integer, DoubleElement>> entrySet()
+    {
+        if (ratings == null)
+        {
+            return super.entrySet();
+        }
+        return new AbstractSet<Map.Entry<Integer, DoubleElement>>()
+        {
+            @Override
+            public Iterator<Map.Entry<Integer, DoubleElement>> iterator()
+            {
+                return ratings != null ? new RatingsIterator<Map.Entry<Integer, DoubleElement>>()
+                {
+                    @Override
+                    Map.Entry<Integer, DoubleElement> element(RatingVector vector, int position)
+                    {
+                        return entryAt(vector, position);
+                    }
+                } : MovielensElement.super.entrySet().iterator();
+            }
+
+            @Override
+            public int size()
+            {
+                return MovielensElement.this.size();
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void forEach(BiConsumer<? super Integer, ? super DoubleElement> action)
+    {
+        if (ratings == null)
+        {
+            super.forEach(action);
+            return;
+        }
+        for (int i = 0; i < ratings.size(); i++)
+        {
+            action.accept(ratings.getItemAt(i), new DoubleElement(ratings.getRatingAt(i)));
+        }
+    }
+
+    /* Setter */
+
+    /**
+     * {@inheritDoc}
+     *
+     * The rating is copied from the element, so changing the element later does
+     * not change the rating. A null element moves the ratings in the tree.
+     */
+    @Override
+    public DoubleElement put(Integer key, DoubleElement value)
+    {
+        if (ratings == null || value == null)
+        {
+            expand();
+            return super.put(key, value);
+        }
+
+        DoubleElement oldValue = get(key);
+        ratings.put(key, value.getDoubleValue());
+        entryChanged(oldValue, value);
+        return oldValue;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DoubleElement put(Integer key, Object value)
+    {
+        if (!isPuttable(value))
+        {
+            throw new IllegalStateException("The element " + value + " is not of the required type.");
+        }
+        return put(key, castElement(value));
+    }
+
     /**
      * Additional put method to support direct Double insertion.
      * @param key the index
@@ -100,11 +417,386 @@ public class MovielensElement extends DatasetSparseVector<DoubleElement>
         return this.put(key, new DoubleElement(value));
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The ratings are copied in the arrays of the element, without creating an
+     * element for each of them.
+     */
+    @Override
+    public void putAll(int[] keys, double[] values, int from, int to)
+    {
+        if (ratings == null)
+        {
+            super.putAll(keys, values, from, to);
+            return;
+        }
+
+        for (int i = from; i < to; i++)
+        {
+            ratings.put(keys[i], values[i]);
+        }
+        entriesChanged();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DoubleElement remove(Object key)
+    {
+        if (ratings == null)
+        {
+            return super.remove(key);
+        }
+
+        DoubleElement oldValue = get(key);
+        if (oldValue != null)
+        {
+            ratings.remove((Integer) key);
+            entryChanged(oldValue, null);
+        }
+        return oldValue;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map.Entry<Integer, DoubleElement> pollFirstEntry()
+    {
+        if (ratings == null)
+        {
+            return super.pollFirstEntry();
+        }
+        return ratings.isEmpty() ? null : removeEntry(ratings.getItemAt(0));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map.Entry<Integer, DoubleElement> pollLastEntry()
+    {
+        if (ratings == null)
+        {
+            return super.pollLastEntry();
+        }
+        return ratings.isEmpty() ? null : removeEntry(ratings.getLastItem());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The ratings are kept in the arrays again, if they had been moved in the tree.
+     */
+    @Override
+    public void clear()
+    {
+        if (ratings != null)
+        {
+            ratings.clear();
+        }
+        super.clear();
+        if (ratings == null)
+        {
+            ratings = new RatingVector();
+        }
+    }
+
+    /* Methods of the tree: the ratings are moved in it first */
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map.Entry<Integer, DoubleElement> lowerEntry(Integer key)
+    {
+        expand();
+        return super.lowerEntry(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Integer lowerKey(Integer key)
+    {
+        expand();
+        return super.lowerKey(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map.Entry<Integer, DoubleElement> floorEntry(Integer key)
+    {
+        expand();
+        return super.floorEntry(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Integer floorKey(Integer key)
+    {
+        expand();
+        return super.floorKey(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map.Entry<Integer, DoubleElement> ceilingEntry(Integer key)
+    {
+        expand();
+        return super.ceilingEntry(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Integer ceilingKey(Integer key)
+    {
+        expand();
+        return super.ceilingKey(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map.Entry<Integer, DoubleElement> higherEntry(Integer key)
+    {
+        expand();
+        return super.higherEntry(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Integer higherKey(Integer key)
+    {
+        expand();
+        return super.higherKey(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public NavigableSet<Integer> navigableKeySet()
+    {
+        expand();
+        return super.navigableKeySet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public NavigableSet<Integer> descendingKeySet()
+    {
+        expand();
+        return super.descendingKeySet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public NavigableMap<Integer, DoubleElement> descendingMap()
+    {
+        expand();
+        return super.descendingMap();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public NavigableMap<Integer, DoubleElement> subMap(Integer fromKey, boolean fromInclusive, Integer toKey, boolean toInclusive)
+    {
+        expand();
+        return super.subMap(fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public NavigableMap<Integer, DoubleElement> headMap(Integer toKey, boolean inclusive)
+    {
+        expand();
+        return super.headMap(toKey, inclusive);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public NavigableMap<Integer, DoubleElement> tailMap(Integer fromKey, boolean inclusive)
+    {
+        expand();
+        return super.tailMap(fromKey, inclusive);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SortedMap<Integer, DoubleElement> subMap(Integer fromKey, Integer toKey)
+    {
+        expand();
+        return super.subMap(fromKey, toKey);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SortedMap<Integer, DoubleElement> headMap(Integer toKey)
+    {
+        expand();
+        return super.headMap(toKey);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SortedMap<Integer, DoubleElement> tailMap(Integer fromKey)
+    {
+        expand();
+        return super.tailMap(fromKey);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DoubleElement putIfAbsent(Integer key, DoubleElement value)
+    {
+        expand();
+        return super.putIfAbsent(key, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DoubleElement computeIfAbsent(Integer key, Function<? super Integer, ? extends DoubleElement> mappingFunction)
+    {
+        expand();
+        return super.computeIfAbsent(key, mappingFunction);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DoubleElement computeIfPresent(Integer key, BiFunction<? super Integer, ? super DoubleElement, ? extends DoubleElement> remappingFunction)
+    {
+        expand();
+        return super.computeIfPresent(key, remappingFunction);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DoubleElement compute(Integer key, BiFunction<? super Integer, ? super DoubleElement, ? extends DoubleElement> remappingFunction)
+    {
+        expand();
+        return super.compute(key, remappingFunction);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DoubleElement merge(Integer key, DoubleElement value, BiFunction<? super DoubleElement, ? super DoubleElement, ? extends DoubleElement> remappingFunction)
+    {
+        expand();
+        return super.merge(key, value, remappingFunction);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean replace(Integer key, DoubleElement oldValue, DoubleElement newValue)
+    {
+        expand();
+        return super.replace(key, oldValue, newValue);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DoubleElement replace(Integer key, DoubleElement value)
+    {
+        expand();
+        return super.replace(key, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void replaceAll(BiFunction<? super Integer, ? super DoubleElement, ? extends DoubleElement> function)
+    {
+        expand();
+        super.replaceAll(function);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object clone()
+    {
+        expand();
+        return super.clone();
+    }
+
+    /**
+     * Creates a compact copy of the ratings of the element.
+     *
+     * @return a {@link RatingVector} with the same ID, vector size and ratings
+     */
+    public RatingVector toRatingVector()
+    {
+        if (ratings == null)
+        {
+            return new RatingVector(this);
+        }
+
+        RatingVector vector = ratings.deepClone();
+        vector.setId(this.getId());
+        vector.setVectorSize(this.getVectorSize());
+        return vector;
+    }
+
     /**
      * {@inheritDoc}
      */
     public MovielensElement deepClone()
     {
+        if (ratings != null)
+        {
+            MovielensElement clone = new MovielensElement(ratings.deepClone());
+            clone.setId(this.getId());
+            clone.setVectorSize(this.getVectorSize());
+            return clone;
+        }
+
         MovielensElement clone = new MovielensElement();
 
         for(int key : this.keySet())
@@ -116,4 +808,112 @@ public class MovielensElement extends DatasetSparseVector<DoubleElement>
         return clone;
     }
 
+    /**
+     * Reads the ratings from a vector holding the same ratings, such as a row of
+     * a matrix built from this element, so that the arrays it read them from
+     * before can be released.
+     *
+     * The statistics are still valid, as the ratings do not change. The
+     * ratings moved in the tree stay there.
+     *
+     * @param ratings the same ratings of this element
+     */
+    void readFrom(RatingVector ratings)
+    {
+        if (this.ratings != null)
+        {
+            this.ratings = ratings;
+        }
+    }
+
+    /* Internals */
+
+    /**
+     * Moves the ratings in the tree, where they are kept until the element is cleared.
+     */
+    private void expand()
+    {
+        if (ratings != null)
+        {
+            RatingVector compact = ratings;
+            ratings = null;
+            super.putAll(compact.getItems(), compact.getRatings(), 0, compact.size());
+            // The statistics have been updated as if the ratings were new
+            entriesChanged();
+        }
+    }
+
+    /**
+     * Creates an entry with a copy of the rating at a position.
+     */
+    private static Map.Entry<Integer, DoubleElement> entryAt(RatingVector vector, int position)
+    {
+        return new AbstractMap.SimpleImmutableEntry<>(vector.getItemAt(position), new DoubleElement(vector.getRatingAt(position)));
+    }
+
+    /**
+     * Removes the rating of an item, returning it as an entry.
+     */
+    private Map.Entry<Integer, DoubleElement> removeEntry(int key)
+    {
+        return new AbstractMap.SimpleImmutableEntry<>(key, remove(key));
+    }
+
+    /**
+     * Iterator over the positions of the ratings, which removes them through the element.
+     */
+    private abstract class RatingsIterator<E> implements Iterator<E>
+    {
+        /**
+         * The ratings iterated.
+         */
+        private final RatingVector vector = ratings;
+
+        /**
+         * Position of the next rating.
+         */
+        private int position;
+
+        /**
+         * Item of the last rating returned, or null if it cannot be removed.
+         */
+        private Integer last;
+
+        @Override
+        public boolean hasNext()
+        {
+            return position < vector.size();
+        }
+
+        @Override
+        public E next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            last = vector.getItemAt(position);
+            return element(vector, position++);
+        }
+
+        @Override
+        public void remove()
+        {
+            if (last == null)
+            {
+                throw new IllegalStateException();
+            }
+            MovielensElement.this.remove(last);
+            last = null;
+            position--;
+        }
+
+        /**
+         * Get the element of the rating at a position.
+         * @param vector the ratings iterated
+         * @param position the position
+         * @return the element
+         */
+        abstract E element(RatingVector vector, int position);
+    }
 }
@@ -1,17 +1,86 @@
 package it.unica.foresee.datasets;
 
+import static it.unica.foresee.utils.Logger.debug;
+import static it.unica.foresee.utils.Logger.warn;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.util.InputMismatchException;
-import java.util.Scanner;
-import java.util.TreeSet;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Load a Movielens_deprecated dataset from a movielens file.
  */
 public class MovielensLoader extends FileDatasetLoader
 {
+    /**
+     * Initial amount of ratings the loader makes room for.
+     */
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    /**
+     * Whether the timestamps of the ratings are kept.
+     */
+    private boolean keepTimestamps = false;
+
+    /**
+     * Smallest range of a file parsed by a single thread, in bytes.
+     */
+    private static final long MIN_CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Expected size of a line, in bytes.
+     *
+     * Movielens lines take 20 to 25 bytes: a slightly lower guess rarely
+     * makes the columns grow, and leaves little unused room.
+     */
+    private static final int LINE_SIZE = 22;
+
+    /**
+     * Amount of threads used to parse a file.
+     */
+    private int threadsAmount = 1;
+
+    /**
+     * Directory where the parsed files are cached, null if the cache is disabled.
+     */
+    private File cacheDirectory = null;
+
+    /**
+     * Ratings parsed from a range of a file.
+     */
+    private static class Chunk
+    {
+        /**
+         * The ratings of the range.
+         */
+        final RatingColumns columns;
+
+        /**
+         * Amount of lines of the range.
+         */
+        int linesAmount;
+
+        /**
+         * The first malformed line of the range, with the line number relative to the range.
+         */
+        MovielensParser.LineMismatchException error;
+
+        Chunk(RatingColumns columns)
+        {
+            this.columns = columns;
+        }
+    }
+
     /**
      * Constructor which initializes the separator to '::'.
      */
@@ -53,12 +122,13 @@ public class MovielensLoader extends FileDatasetLoader
      * <ul>
      * <li>UserIDs range between 1 and 6040</li>
      * <li>MovieIDs range between 1 and 3952</li>
-     * <li>Ratings are made on a 5-star scale (whole-star ratings only, 1 to 5)</li>
+     * <li>Ratings are made on a 5-star scale (whole-star ratings in 1M, half-star ratings in 10M)</li>
      * <li>Timestamp is represented in seconds since the epoch as returned by time(2)</li>
      * </ul>
      * Each user has at least 20 ratings.
      * The Timestamp is discarded, while userID, movieID and rating are stored
      * in the object itself.
+     * Malformed lines raise an {@link java.util.InputMismatchException} reporting the line number.
      * 
      * @// TODO: 25/03/16 users and movies set could be probably removed
      *
@@ -66,88 +136,339 @@ public class MovielensLoader extends FileDatasetLoader
      */
     public Movielens loadDataset(File sourceFile) throws FileNotFoundException
     {
-        Movielens dataset = new Movielens();
-
-        // Initial values
-        int highestMovieID = 0;
-
-        Scanner dataSource = new Scanner(sourceFile);
-
-        int lineNumber = 1; //follows the line number in the file
-        int userID;
-        int movieID;
-        int rating;
+        return new Movielens(loadRatingMatrix(sourceFile));
+    }
 
-        // Read the file line by line
-        while (dataSource.hasNextLine()) {
+    /**
+     * Loads the ratings of a movielens file in a compact {@link RatingMatrix}.
+     *
+     * The file format and the checks performed are the same of {@link #loadDataset(File)},
+     * but the ratings are stored in primitive arrays instead of a {@link Movielens} dataset,
+     * which makes it possible to load much bigger files.
+     *
+     * Both the {@literal ::} separated files and the tab separated {@code u.data}
+     * file are accepted: if the configured separator is not found in the first line
+     * and a tab is, the tab is used instead.
+     * Ratings can have a decimal part, as the half-star ratings of MovieLens 10M.
+     *
+     * With more than one thread (see {@link #setThreadsAmount(int)}) the file is split
+     * in ranges of whole lines, parsed in parallel and merged in file order, so the
+     * result and the reported errors are the same of a single thread.
+     *
+     * A {@link RatingMatrixFile} is read directly. When a cache directory is set
+     * (see {@link #setCacheDirectory(File)}) the parsed ratings of a text file are
+     * stored there as a {@link RatingMatrixFile}, which is reused by the following
+     * loads until the size or the modification time of the text file changes.
+     *
+     * @param sourceFile the file from which to load the data
+     * @return a matrix with users as rows and movies as columns
+     */
+    public RatingMatrix loadRatingMatrix(File sourceFile) throws FileNotFoundException
+    {
+        // Binary files are used as they are
+        if (RatingMatrixFile.isRatingMatrixFile(sourceFile))
+        {
+            try
+            {
+                return RatingMatrixFile.read(sourceFile);
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException("Unable to read " + sourceFile + ": " + e.getMessage(), e);
+            }
+        }
 
-            Scanner line = new Scanner(dataSource.nextLine());
-            line.useDelimiter(getSeparator());
+        if (cacheDirectory == null)
+        {
+            return parseRatingMatrix(sourceFile);
+        }
 
-            // Extract a single line of data
-            if (line.hasNextInt()) {
-                userID = line.nextInt();
-            } else {
-                throw new InputMismatchException("expected userID at line " + lineNumber);
-            }
+        // Read the source version before parsing, so a file changing meanwhile is parsed again next time
+        long sourceSize = sourceFile.length();
+        long sourceModified = sourceFile.lastModified();
+        File cacheFile = getCacheFile(sourceFile);
 
-            if (line.hasNextInt()) {
-                movieID = line.nextInt();
-                if (movieID > highestMovieID)
+        if (cacheFile.isFile())
+        {
+            try
+            {
+                RatingMatrix cached = RatingMatrixFile.read(cacheFile, sourceFile);
+                if (cached != null && (cached.hasTimestamps() || !keepTimestamps))
                 {
-                    highestMovieID = movieID;
+                    debug("dataset loaded from cache " + cacheFile);
+                    return cached;
                 }
-            } else {
-                throw new InputMismatchException("expected movieID at line " + lineNumber);
             }
-
-            if (line.hasNextInt()) {
-                rating = line.nextInt();
-            } else {
-                throw new InputMismatchException("expected rating at line " + lineNumber);
+            catch (IOException e)
+            {
+                warn("ignoring unreadable cache " + cacheFile + ": " + e.getMessage());
             }
+        }
 
-            // Check the correctness of the data
-            if (userID < 1) {
-                throw new InputMismatchException("userID < 1 at line " + lineNumber);
-            }
+        RatingMatrix matrix = parseRatingMatrix(sourceFile);
 
-            if (movieID < 1) {
-                throw new InputMismatchException("movieID < 1 at line " + lineNumber);
-            }
+        try
+        {
+            cacheDirectory.mkdirs();
+            RatingMatrixFile.write(matrix, cacheFile, sourceSize, sourceModified);
+        }
+        catch (IOException e)
+        {
+            warn("unable to write cache " + cacheFile + ": " + e.getMessage());
+        }
 
-            if (rating < 1) {
-                throw new InputMismatchException("rating < 1 at line " + lineNumber);
-            }
+        return matrix;
+    }
+
+    /**
+     * Get the file where the ratings of a text file are cached.
+     *
+     * The name depends on the full path of the text file, so that files with
+     * the same name in different folders do not share the cache.
+     *
+     * @param sourceFile the text file
+     * @return the cache file, or null if no cache directory is set
+     */
+    public File getCacheFile(File sourceFile)
+    {
+        if (cacheDirectory == null)
+        {
+            return null;
+        }
+
+        String path = sourceFile.getAbsoluteFile().toPath().normalize().toString();
+        return new File(cacheDirectory, sourceFile.getName() + "-" + Integer.toHexString(path.hashCode())
+                + RatingMatrixFile.EXTENSION);
+    }
+
+    /**
+     * Parses a text file.
+     */
+    private RatingMatrix parseRatingMatrix(File sourceFile) throws FileNotFoundException
+    {
+        int linesAmount = 0;
+        RatingMatrix matrix;
+
+        try (FileInputStream stream = new FileInputStream(sourceFile))
+        {
+            FileChannel channel = stream.getChannel();
+            String separator = MovielensParser.detectSeparator(channel, getSeparator());
+            long[] bounds = splitLines(channel, threadsAmount);
+            List<Chunk> chunks = parseChunks(channel, separator, bounds);
 
-            dataset.put(userID, movieID, (double) rating);
+            // Report the first error of the file, moving its line after those of the previous chunks
+            List<RatingColumns> blocks = new ArrayList<>(chunks.size());
+            for (Chunk chunk : chunks)
+            {
+                if (chunk.error != null)
+                {
+                    throw chunk.error.atLineOffset(linesAmount);
+                }
+                linesAmount += chunk.linesAmount;
+                blocks.add(chunk.columns);
+            }
 
-            lineNumber++;
+            matrix = RatingMatrix.fromColumns(blocks);
+        }
+        catch (FileNotFoundException e)
+        {
+            throw e;
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to read " + sourceFile + ": " + e.getMessage(), e);
         }
 
-        if (dataset.getUsersAmount() > lineNumber)
+        if (matrix.getRowsAmount() > linesAmount + 1)
         {
             throw new IllegalStateException("The amount of users is higher than entries.");
         }
 
-        if (dataset.getMoviesAmount() > lineNumber)
+        if (matrix.getColumnsAmount() > linesAmount + 1)
         {
             throw new IllegalStateException("The amount of movies is higher than entries.");
         }
 
-        if (dataset.getUsersAmount() < 20)
+        if (matrix.getRowsAmount() < 20)
         {
             throw new IllegalStateException("The amount of users is lower than 20.");
         }
 
-        // Set the vector size for every element
-        dataset.setInternalVectorSize(highestMovieID);
-        for (MovielensElement el : dataset.values())
+        return matrix;
+    }
+
+    /**
+     * Splits a file in ranges of about the same size, each starting at the beginning of a line.
+     *
+     * @param channel the file to split
+     * @param parts the highest amount of ranges
+     * @return the positions where the ranges begin, followed by the size of the file
+     */
+    private long[] splitLines(FileChannel channel, int parts) throws IOException
+    {
+        long size = channel.size();
+        parts = (int) Math.max(1, Math.min(parts, size / MIN_CHUNK_SIZE));
+
+        long[] bounds = new long[parts + 1];
+        bounds[parts] = size;
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        for (int i = 1; i < parts; i++)
+        {
+            // Move the bound just after the next newline
+            long position = Math.max(size / parts * i, bounds[i - 1]);
+            boolean found = false;
+            while (!found && position < size)
+            {
+                probe.clear();
+                int read = channel.read(probe, position);
+                if (read <= 0)
+                {
+                    break;
+                }
+                for (int k = 0; k < read && !found; k++)
+                {
+                    position++;
+                    found = probe.get(k) == '\n';
+                }
+            }
+            bounds[i] = position;
+        }
+        return bounds;
+    }
+
+    /**
+     * Parses each range of the file, using a thread for each range if more than one is given.
+     *
+     * @param channel the file to parse
+     * @param separator symbol separating the fields
+     * @param bounds the positions where the ranges begin, followed by the size of the file
+     * @return the result of each range, in file order
+     */
+    private List<Chunk> parseChunks(FileChannel channel, String separator, long[] bounds) throws IOException
+    {
+        List<Callable<Chunk>> tasks = new ArrayList<>();
+        for (int i = 0; i + 1 < bounds.length; i++)
+        {
+            long start = bounds[i];
+            long end = bounds[i + 1];
+            tasks.add(() -> parseChunk(channel, separator, start, end));
+        }
+
+        if (tasks.size() == 1)
+        {
+            return Collections.singletonList(parseChunk(channel, separator, bounds[0], bounds[1]));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(tasks.size());
+        try
+        {
+            List<Chunk> chunks = new ArrayList<>(tasks.size());
+            for (Future<Chunk> result : pool.invokeAll(tasks))
+            {
+                chunks.add(result.get());
+            }
+            return chunks;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Loading interrupted.", e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Parses a range of the file, numbering its lines from 1.
+     */
+    private Chunk parseChunk(FileChannel channel, String separator, long start, long end) throws IOException
+    {
+        // The columns grow if the lines are shorter than expected
+        int capacity = (int) Math.min(Math.max((end - start) / LINE_SIZE, 1), Integer.MAX_VALUE - 8);
+        Chunk chunk = new Chunk(new RatingColumns(capacity, keepTimestamps));
+
+        try
+        {
+            chunk.linesAmount = new MovielensParser(separator).parse(channel, start, end, 1, chunk.columns);
+        }
+        catch (MovielensParser.LineMismatchException e)
+        {
+            chunk.error = e;
+        }
+        return chunk;
+    }
+
+    /**
+     * Set the amount of threads used to parse a file.
+     *
+     * Files smaller than 64 KiB per thread use fewer threads.
+     * @param threadsAmount the amount of threads, at least 1
+     */
+    public void setThreadsAmount(int threadsAmount)
+    {
+        if (threadsAmount < 1)
         {
-            el.setVectorSize(highestMovieID);
+            throw new IllegalArgumentException("The amount of threads must be at least 1.");
         }
+        this.threadsAmount = threadsAmount;
+    }
+
+    /**
+     * Get the amount of threads used to parse a file.
+     * @return the amount of threads
+     */
+    public int getThreadsAmount()
+    {
+        return threadsAmount;
+    }
 
-        return dataset;
+    /**
+     * Set the directory where the parsed files are cached.
+     *
+     * @param cacheDirectory the cache directory, or null to disable the cache
+     */
+    public void setCacheDirectory(File cacheDirectory)
+    {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Get the directory where the parsed files are cached.
+     * @return the cache directory, or null if the cache is disabled
+     */
+    public File getCacheDirectory()
+    {
+        return cacheDirectory;
+    }
+
+    /**
+     * Set whether the timestamps of the ratings are kept by {@link #loadRatingMatrix(File)}.
+     *
+     * They are discarded by default.
+     * @param keepTimestamps true to keep the timestamps
+     */
+    public void setKeepTimestamps(boolean keepTimestamps)
+    {
+        this.keepTimestamps = keepTimestamps;
+    }
+
+    /**
+     * Checks if the timestamps of the ratings are kept.
+     * @return true if the timestamps are kept
+     */
+    public boolean isKeepTimestamps()
+    {
+        return keepTimestamps;
     }
 
     /**
@@ -0,0 +1,410 @@
+package it.unica.foresee.datasets;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.InputMismatchException;
+
+/**
+ * Byte level parser for movielens rating files.
+ *
+ * Each line is in the form {@literal UserID<sep>MovieID<sep>Rating[<sep>Timestamp]},
+ * where the separator is usually {@code ::} (MovieLens 1M, 10M, 20M) or a tab
+ * (the {@code u.data} file of MovieLens 100k).
+ *
+ * The file is read through a reusable buffer and the numbers are decoded
+ * straight from the bytes into a {@link RatingColumns}, so no object is
+ * created for each line.
+ */
+public class MovielensParser
+{
+    /**
+     * Size of the read buffer.
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Lowest rating accepted by default, the lowest rate of {@link Movielens}.
+     */
+    public static final double DEFAULT_MIN_RATING = 1;
+
+    /**
+     * Bytes of the field separator.
+     */
+    private final byte[] separator;
+
+    /**
+     * Buffer where the file is read, grown if a line does not fit in it.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Position in the line of the last parsed field, after its separator.
+     */
+    private int cursor;
+
+    /**
+     * Lowest rating accepted.
+     */
+    private double minRating = DEFAULT_MIN_RATING;
+
+    /**
+     * Initializes the parser with the given separator.
+     *
+     * @param separator symbol separating the fields
+     */
+    public MovielensParser(String separator)
+    {
+        if (separator == null || separator.isEmpty())
+        {
+            throw new IllegalArgumentException("The separator cannot be empty.");
+        }
+
+        this.separator = separator.getBytes(StandardCharsets.UTF_8);
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    /**
+     * Chooses the separator of a file by looking at its first line.
+     *
+     * If the preferred separator is not found but a tab is, as in the {@code u.data}
+     * file, the tab is returned.
+     *
+     * @param channel the file to inspect
+     * @param preferred the separator expected
+     * @return the separator of the file
+     * @throws IOException if the file cannot be read
+     */
+    public static String detectSeparator(FileChannel channel, String preferred) throws IOException
+    {
+        ByteBuffer head = ByteBuffer.allocate(256);
+        channel.read(head, 0);
+
+        String firstLine = new String(head.array(), 0, head.position(), StandardCharsets.UTF_8);
+        int newline = firstLine.indexOf('\n');
+        if (newline >= 0)
+        {
+            firstLine = firstLine.substring(0, newline);
+        }
+
+        if (!firstLine.contains(preferred) && firstLine.indexOf('\t') >= 0)
+        {
+            return "\t";
+        }
+        return preferred;
+    }
+
+    /**
+     * Parses the lines of a file between two positions.
+     *
+     * The start position has to be at the beginning of a line, and the end position
+     * either at the beginning of a line or at the end of the file.
+     *
+     * @param channel the file to read
+     * @param start position of the first byte to parse
+     * @param end position after the last byte to parse
+     * @param firstLineNumber number of the first line, used in the error messages
+     * @param target the columns where the ratings are appended
+     * @return the amount of lines parsed
+     * @throws IOException if the file cannot be read
+     */
+    public int parse(FileChannel channel, long start, long end, int firstLineNumber, RatingColumns target)
+            throws IOException
+    {
+        int lineNumber = firstLineNumber;
+        long position = start;
+        buffer.clear();
+
+        while (position < end)
+        {
+            // Fill the buffer without reading past the end of the range
+            int room = (int) Math.min(buffer.remaining(), end - position);
+            ByteBuffer window = buffer.duplicate();
+            window.limit(buffer.position() + room);
+            int read = channel.read(window, position);
+            if (read < 0)
+            {
+                break;
+            }
+            position += read;
+            buffer.position(window.position());
+
+            byte[] bytes = buffer.array();
+            int filled = buffer.position();
+            int lineStart = 0;
+            for (int i = 0; i < filled; i++)
+            {
+                if (bytes[i] == '\n')
+                {
+                    parseLine(bytes, lineStart, i, lineNumber++, target);
+                    lineStart = i + 1;
+                }
+            }
+
+            // Keep the incomplete line at the beginning of the buffer
+            int leftover = filled - lineStart;
+            if (lineStart == 0 && leftover == buffer.capacity())
+            {
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                larger.put(bytes, 0, leftover);
+                buffer = larger;
+            }
+            else
+            {
+                System.arraycopy(bytes, lineStart, bytes, 0, leftover);
+                buffer.position(leftover);
+            }
+        }
+
+        // The last line of the file can miss the newline
+        if (buffer.position() > 0)
+        {
+            parseLine(buffer.array(), 0, buffer.position(), lineNumber++, target);
+        }
+
+        return lineNumber - firstLineNumber;
+    }
+
+    /**
+     * Parses a single line, without its newline.
+     */
+    private void parseLine(byte[] bytes, int from, int to, int lineNumber, RatingColumns target)
+    {
+        if (to > from && bytes[to - 1] == '\r')
+        {
+            to--;
+        }
+
+        cursor = from;
+        int userID = parseInt(bytes, to, "userID", lineNumber);
+        int movieID = parseInt(bytes, to, "movieID", lineNumber);
+        double rating = parseRating(bytes, to, lineNumber);
+        long timestamp = parseTimestamp(bytes, to, lineNumber);
+
+        // Check the correctness of the data
+        if (userID < 1)
+        {
+            throw new LineMismatchException("userID < 1", lineNumber);
+        }
+
+        if (movieID < 1)
+        {
+            throw new LineMismatchException("movieID < 1", lineNumber);
+        }
+
+        if (rating < minRating)
+        {
+            String bound = minRating == (long) minRating ? Long.toString((long) minRating) : Double.toString(minRating);
+            throw new LineMismatchException("rating < " + bound, lineNumber);
+        }
+
+        target.add(userID, movieID, rating, timestamp);
+    }
+
+    /**
+     * Parses an integer field starting at the cursor and moves the cursor after its separator.
+     */
+    private int parseInt(byte[] bytes, int to, String field, int lineNumber)
+    {
+        int i = cursor;
+        boolean negative = i < to && bytes[i] == '-';
+        if (negative || (i < to && bytes[i] == '+'))
+        {
+            i++;
+        }
+
+        int digitsStart = i;
+        long value = 0;
+        while (i < to && bytes[i] >= '0' && bytes[i] <= '9')
+        {
+            value = value * 10 + (bytes[i] - '0');
+            if (value > Integer.MAX_VALUE)
+            {
+                throw new LineMismatchException("expected " + field, lineNumber);
+            }
+            i++;
+        }
+
+        if (i == digitsStart || !endOfField(bytes, i, to))
+        {
+            throw new LineMismatchException("expected " + field, lineNumber);
+        }
+
+        cursor = skipSeparator(i, to);
+        return (int) (negative ? -value : value);
+    }
+
+    /**
+     * Parses the rating field, which can have a decimal part.
+     */
+    private double parseRating(byte[] bytes, int to, int lineNumber)
+    {
+        int i = cursor;
+        boolean negative = i < to && bytes[i] == '-';
+        if (negative)
+        {
+            i++;
+        }
+
+        int digitsStart = i;
+        long integerPart = 0;
+        while (i < to && bytes[i] >= '0' && bytes[i] <= '9' && integerPart < Integer.MAX_VALUE)
+        {
+            integerPart = integerPart * 10 + (bytes[i] - '0');
+            i++;
+        }
+        int digits = i - digitsStart;
+
+        long fraction = 0;
+        long scale = 1;
+        if (i < to && bytes[i] == '.')
+        {
+            i++;
+            while (i < to && bytes[i] >= '0' && bytes[i] <= '9' && scale < 1_000_000_000L)
+            {
+                fraction = fraction * 10 + (bytes[i] - '0');
+                scale *= 10;
+                digits++;
+                i++;
+            }
+        }
+
+        if (digits == 0 || !endOfField(bytes, i, to))
+        {
+            throw new LineMismatchException("expected rating", lineNumber);
+        }
+
+        cursor = skipSeparator(i, to);
+        double rating = integerPart + (double) fraction / scale;
+        return negative ? -rating : rating;
+    }
+
+    /**
+     * Parses the optional timestamp field, returning 0 if it is missing.
+     */
+    private long parseTimestamp(byte[] bytes, int to, int lineNumber)
+    {
+        if (cursor >= to)
+        {
+            return 0;
+        }
+
+        long value = 0;
+        int i = cursor;
+        while (i < to && bytes[i] >= '0' && bytes[i] <= '9')
+        {
+            if (value > (Long.MAX_VALUE - (bytes[i] - '0')) / 10)
+            {
+                throw new LineMismatchException("expected timestamp", lineNumber);
+            }
+            value = value * 10 + (bytes[i] - '0');
+            i++;
+        }
+
+        if (i == cursor || i != to)
+        {
+            throw new LineMismatchException("expected timestamp", lineNumber);
+        }
+        return value;
+    }
+
+    /**
+     * Set the lowest rating accepted, e.g. 0.5 for the half-star ratings of MovieLens 10M.
+     * @param minRating the lowest rating
+     */
+    public void setMinRating(double minRating)
+    {
+        this.minRating = minRating;
+    }
+
+    /**
+     * Checks if the position is at the end of the line or at a separator.
+     */
+    private boolean endOfField(byte[] bytes, int i, int to)
+    {
+        return i == to || matchesSeparator(bytes, i, to);
+    }
+
+    /**
+     * Get the position after the separator, if there is one.
+     */
+    private int skipSeparator(int i, int to)
+    {
+        return i < to ? i + separator.length : i;
+    }
+
+    /**
+     * Checks if the separator starts at the given position.
+     */
+    private boolean matchesSeparator(byte[] bytes, int i, int to)
+    {
+        if (to - i < separator.length)
+        {
+            return false;
+        }
+
+        for (int k = 0; k < separator.length; k++)
+        {
+            if (bytes[i + k] != separator[k])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Error raised when a line is malformed, which knows the number of the line.
+     *
+     * When a file is parsed in parts, the line numbers are relative to the
+     * beginning of each part and are moved with {@link #atLineOffset(int)}.
+     */
+    public static class LineMismatchException extends InputMismatchException
+    {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Description of the error, without the line.
+         */
+        private final String reason;
+
+        /**
+         * Number of the malformed line.
+         */
+        private final int lineNumber;
+
+        /**
+         * Initializes the error.
+         *
+         * @param reason description of the error
+         * @param lineNumber number of the malformed line
+         */
+        public LineMismatchException(String reason, int lineNumber)
+        {
+            super(reason + " at line " + lineNumber);
+            this.reason = reason;
+            this.lineNumber = lineNumber;
+        }
+
+        /**
+         * Get the same error on a line moved by the given amount.
+         *
+         * @param offset amount of lines preceding the part of the file where the error was found
+         * @return the error with the moved line number
+         */
+        public LineMismatchException atLineOffset(int offset)
+        {
+            return new LineMismatchException(reason, lineNumber + offset);
+        }
+
+        /**
+         * Get the number of the malformed line.
+         * @return the line number
+         */
+        public int getLineNumber()
+        {
+            return lineNumber;
+        }
+    }
+}
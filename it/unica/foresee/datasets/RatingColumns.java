@@ -0,0 +1,176 @@
+package it.unica.foresee.datasets;
+
+import java.util.Arrays;
+
+/**
+ * Growable columns of primitive (user, movie, rating, timestamp) tuples.
+ *
+ * It is the buffer where the ratings are collected while parsing a file,
+ * before being grouped by user in a {@link RatingMatrix}.
+ */
+public class RatingColumns
+{
+    /**
+     * Amount of ratings for which room is made when no capacity is given.
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /**
+     * User ID of each rating.
+     */
+    private int[] users;
+
+    /**
+     * Movie ID of each rating.
+     */
+    private int[] movies;
+
+    /**
+     * Value of each rating.
+     */
+    private double[] ratings;
+
+    /**
+     * Timestamp of each rating, null if the timestamps are discarded.
+     */
+    private long[] timestamps;
+
+    /**
+     * Amount of ratings stored.
+     */
+    private int size;
+
+    /**
+     * Initializes the columns with the default capacity, discarding the timestamps.
+     */
+    public RatingColumns()
+    {
+        this(DEFAULT_CAPACITY, false);
+    }
+
+    /**
+     * Initializes the columns with the given capacity.
+     *
+     * @param capacity amount of ratings for which room is made
+     * @param keepTimestamps true if the timestamps have to be stored
+     */
+    public RatingColumns(int capacity, boolean keepTimestamps)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("The capacity must be positive.");
+        }
+
+        this.users = new int[capacity];
+        this.movies = new int[capacity];
+        this.ratings = new double[capacity];
+        this.timestamps = keepTimestamps ? new long[capacity] : null;
+        this.size = 0;
+    }
+
+    /**
+     * Appends a rating to the columns.
+     *
+     * @param user the user ID
+     * @param movie the movie ID
+     * @param rating the value of the rating
+     * @param timestamp the time of the rating, ignored if the timestamps are discarded
+     */
+    public void add(int user, int movie, double rating, long timestamp)
+    {
+        if (size == users.length)
+        {
+            grow();
+        }
+
+        users[size] = user;
+        movies[size] = movie;
+        ratings[size] = rating;
+        if (timestamps != null)
+        {
+            timestamps[size] = timestamp;
+        }
+        size++;
+    }
+
+    /**
+     * Groups the ratings by user.
+     *
+     * @return a matrix with users as rows and movies as columns
+     */
+    public RatingMatrix toRatingMatrix()
+    {
+        return RatingMatrix.fromTriples(users, movies, ratings, timestamps, size);
+    }
+
+    /**
+     * Enlarges the columns by half of their size.
+     */
+    private void grow()
+    {
+        int capacity = size + Math.max(size >> 1, 1);
+        users = Arrays.copyOf(users, capacity);
+        movies = Arrays.copyOf(movies, capacity);
+        ratings = Arrays.copyOf(ratings, capacity);
+        if (timestamps != null)
+        {
+            timestamps = Arrays.copyOf(timestamps, capacity);
+        }
+    }
+
+    /* Getters */
+
+    /**
+     * Get the amount of ratings stored.
+     * @return the amount of ratings
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Checks if the timestamps are stored.
+     * @return true if the timestamps are stored
+     */
+    public boolean hasTimestamps()
+    {
+        return timestamps != null;
+    }
+
+    /**
+     * Get the raw user column, which can be longer than {@link #size()}.
+     * @return the user IDs
+     */
+    public int[] getUsers()
+    {
+        return users;
+    }
+
+    /**
+     * Get the raw movie column, which can be longer than {@link #size()}.
+     * @return the movie IDs
+     */
+    public int[] getMovies()
+    {
+        return movies;
+    }
+
+    /**
+     * Get the raw rating column, which can be longer than {@link #size()}.
+     * @return the ratings
+     */
+    public double[] getRatings()
+    {
+        return ratings;
+    }
+
+    /**
+     * Get the raw timestamp column, which can be longer than {@link #size()}.
+     * @return the timestamps, or null if they are discarded
+     */
+    public long[] getTimestamps()
+    {
+        return timestamps;
+    }
+}
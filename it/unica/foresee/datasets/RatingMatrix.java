@@ -0,0 +1,1012 @@
+package it.unica.foresee.datasets;
+
+import it.unica.foresee.datasets.interfaces.DatasetElement;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compressed sparse row (CSR) storage for a matrix of ratings.
+ *
+ * Each row is identified by an ID (usually a user ID) and contains the
+ * ratings given on a set of columns (usually movies), sorted by column ID.
+ * The whole matrix is held in four primitive arrays:
+ * <ul>
+ *     <li>{@code rowIds}: the ID of each row, sorted ascending</li>
+ *     <li>{@code rowOffsets}: the entries of row {@code r} are stored in the
+ *     positions between {@code rowOffsets[r]} (included) and
+ *     {@code rowOffsets[r + 1]} (excluded) of the following arrays</li>
+ *     <li>{@code columnIds}: the column ID of each entry</li>
+ *     <li>{@code values}: the rating of each entry</li>
+ * </ul>
+ * An optional column holds the timestamp of each rating.
+ *
+ * This costs 12 bytes per rating, against the 80 bytes or more of an entry
+ * of a {@link java.util.TreeMap}, and lets the algorithms walk the ratings as
+ * plain arrays. The users of a {@link Movielens} built from a matrix read their
+ * ratings from it, see {@link #toMovielensElement(int)}.
+ *
+ * The matrix is immutable: use {@link #toMovielens()} to obtain an editable
+ * {@link Movielens} view of it, and {@link #transpose()} to obtain the
+ * compressed sparse column form, where rows are movies and columns are users.
+ */
+public class RatingMatrix
+{
+    /**
+     * Highest gap between lowest and highest ID for which a lookup table is used
+     * instead of a binary search when mapping IDs to rows.
+     */
+    private static final int MAX_LOOKUP_TABLE_SIZE = 1 << 24;
+
+    /**
+     * ID of each row, sorted ascending.
+     */
+    private final int[] rowIds;
+
+    /**
+     * Offset of the first entry of each row, plus the total amount of entries at the end.
+     */
+    private final int[] rowOffsets;
+
+    /**
+     * Column ID of each entry, sorted ascending within each row.
+     */
+    private final int[] columnIds;
+
+    /**
+     * Value of each entry.
+     */
+    private final double[] values;
+
+    /**
+     * Timestamp of each entry, null if the timestamps were not kept.
+     */
+    private final long[] timestamps;
+
+    /**
+     * Amount of distinct columns, lazily computed.
+     */
+    private int columnsAmount = -1;
+
+    /**
+     * Highest column ID, lazily computed.
+     */
+    private int maxColumnId = -1;
+
+    /**
+     * Compressed sparse column form of the matrix, lazily computed.
+     */
+    private volatile RatingMatrix transposed;
+
+    /**
+     * Initializes the matrix from its raw CSR arrays, which are not copied.
+     *
+     * @param rowIds the ID of each row, sorted ascending
+     * @param rowOffsets the offset of the first entry of each row, followed by the amount of entries
+     * @param columnIds the column ID of each entry, sorted ascending within each row
+     * @param values the value of each entry
+     */
+    public RatingMatrix(int[] rowIds, int[] rowOffsets, int[] columnIds, double[] values)
+    {
+        this(rowIds, rowOffsets, columnIds, values, null);
+    }
+
+    /**
+     * Initializes the matrix from its raw CSR arrays, which are not copied.
+     *
+     * @param rowIds the ID of each row, sorted ascending
+     * @param rowOffsets the offset of the first entry of each row, followed by the amount of entries
+     * @param columnIds the column ID of each entry, sorted ascending within each row
+     * @param values the value of each entry
+     * @param timestamps the timestamp of each entry, or null
+     */
+    public RatingMatrix(int[] rowIds, int[] rowOffsets, int[] columnIds, double[] values, long[] timestamps)
+    {
+        if (rowOffsets.length != rowIds.length + 1)
+        {
+            throw new IllegalArgumentException("There must be an offset for each row plus one.");
+        }
+
+        if (columnIds.length != values.length)
+        {
+            throw new IllegalArgumentException("Column IDs and values need to have the same length.");
+        }
+
+        if (timestamps != null && timestamps.length != values.length)
+        {
+            throw new IllegalArgumentException("Timestamps and values need to have the same length.");
+        }
+
+        if (rowOffsets[rowIds.length] != columnIds.length)
+        {
+            throw new IllegalArgumentException("The last offset must be equal to the amount of entries.");
+        }
+
+        this.rowIds = rowIds;
+        this.rowOffsets = rowOffsets;
+        this.columnIds = columnIds;
+        this.values = values;
+        this.timestamps = timestamps;
+    }
+
+    /* Factories */
+
+    /**
+     * Builds a matrix from a list of (row, column, value) triples stored in parallel arrays.
+     *
+     * The triples can be given in any order. If the same (row, column) pair
+     * appears more than once, the last value wins, as it happens when putting
+     * the same rating twice in a {@link Movielens} dataset.
+     *
+     * @param rows the row ID of each triple
+     * @param columns the column ID of each triple
+     * @param values the value of each triple
+     * @param length the amount of triples to read from the arrays
+     * @return the matrix containing the given triples
+     */
+    public static RatingMatrix fromTriples(int[] rows, int[] columns, double[] values, int length)
+    {
+        return fromTriples(rows, columns, values, null, length);
+    }
+
+    /**
+     * Builds a matrix from a list of (row, column, value) triples and their timestamps.
+     *
+     * Works as {@link #fromTriples(int[], int[], double[], int)}, but the timestamps
+     * are kept along with the values.
+     *
+     * @param rows the row ID of each triple
+     * @param columns the column ID of each triple
+     * @param values the value of each triple
+     * @param timestamps the timestamp of each triple, or null to discard them
+     * @param length the amount of triples to read from the arrays
+     * @return the matrix containing the given triples
+     */
+    public static RatingMatrix fromTriples(int[] rows, int[] columns, double[] values, long[] timestamps, int length)
+    {
+        if (length > rows.length || length > columns.length || length > values.length
+                || (timestamps != null && length > timestamps.length))
+        {
+            throw new IllegalArgumentException("The arrays are shorter than the given length.");
+        }
+
+        return group(new int[][]{rows}, new int[][]{columns}, new double[][]{values},
+                timestamps == null ? null : new long[][]{timestamps}, new int[]{length});
+    }
+
+    /**
+     * Builds a matrix from several blocks of ratings, as if they were a single list of triples.
+     *
+     * The blocks are read in order, so when the same (row, column) pair appears
+     * more than once the value of the last block wins.
+     * The timestamps are kept only if every block has them.
+     *
+     * @param blocks the blocks of ratings, usually parsed from consecutive parts of a file
+     * @return the matrix containing the ratings of all the blocks
+     */
+    public static RatingMatrix fromColumns(List<RatingColumns> blocks)
+    {
+        int amount = blocks.size();
+        int[][] rows = new int[amount][];
+        int[][] columns = new int[amount][];
+        double[][] values = new double[amount][];
+        long[][] timestamps = new long[amount][];
+        int[] lengths = new int[amount];
+        boolean keepTimestamps = true;
+
+        for (int b = 0; b < amount; b++)
+        {
+            RatingColumns block = blocks.get(b);
+            rows[b] = block.getUsers();
+            columns[b] = block.getMovies();
+            values[b] = block.getRatings();
+            timestamps[b] = block.getTimestamps();
+            lengths[b] = block.size();
+            keepTimestamps &= block.hasTimestamps();
+        }
+
+        return group(rows, columns, values, keepTimestamps ? timestamps : null, lengths);
+    }
+
+    /**
+     * Groups blocks of triples by row in a counting pass, keeping their original order.
+     */
+    private static RatingMatrix group(int[][] rows, int[][] columns, double[][] values, long[][] timestamps,
+                                      int[] lengths)
+    {
+        RowIndex index = RowIndex.of(rows, lengths);
+        int rowsAmount = index.ids.length;
+
+        int length = 0;
+        int[] rowOffsets = new int[rowsAmount + 1];
+        for (int b = 0; b < rows.length; b++)
+        {
+            int[] blockRows = rows[b];
+            for (int k = 0; k < lengths[b]; k++)
+            {
+                rowOffsets[index.indexOf(blockRows[k]) + 1]++;
+            }
+            length += lengths[b];
+        }
+        for (int r = 0; r < rowsAmount; r++)
+        {
+            rowOffsets[r + 1] += rowOffsets[r];
+        }
+
+        int[] cursor = Arrays.copyOf(rowOffsets, rowsAmount);
+        int[] columnIds = new int[length];
+        double[] rowValues = new double[length];
+        long[] rowTimestamps = timestamps == null ? null : new long[length];
+        for (int b = 0; b < rows.length; b++)
+        {
+            int[] blockRows = rows[b];
+            int[] blockColumns = columns[b];
+            double[] blockValues = values[b];
+            for (int k = 0; k < lengths[b]; k++)
+            {
+                int position = cursor[index.indexOf(blockRows[k])]++;
+                columnIds[position] = blockColumns[k];
+                rowValues[position] = blockValues[k];
+                if (rowTimestamps != null)
+                {
+                    rowTimestamps[position] = timestamps[b][k];
+                }
+            }
+        }
+
+        return sortAndMerge(index.ids, rowOffsets, columnIds, rowValues, rowTimestamps);
+    }
+
+    /**
+     * Builds a matrix from a nested sparse vector, such as {@link Movielens}.
+     *
+     * Every entry present in the nested vectors is copied, including those with a value of 0.
+     *
+     * @param dataset the dataset to copy
+     * @return the matrix containing the ratings of the dataset
+     */
+    public static RatingMatrix fromDataset(DatasetNestedSparseVector<? extends DatasetSparseVector<? extends DatasetElement<?>>> dataset)
+    {
+        int entries = 0;
+        for (DatasetSparseVector<? extends DatasetElement<?>> row : dataset.values())
+        {
+            entries += row == null ? 0 : row.size();
+        }
+
+        int[] rowIds = new int[dataset.size()];
+        int[] rowOffsets = new int[dataset.size() + 1];
+        int[] columnIds = new int[entries];
+        double[] values = new double[entries];
+
+        int r = 0;
+        int position = 0;
+        for (Integer key : dataset.keySet())
+        {
+            rowIds[r] = key;
+            rowOffsets[r] = position;
+
+            DatasetSparseVector<? extends DatasetElement<?>> row = dataset.get(key);
+            if (row != null)
+            {
+                for (Map.Entry<Integer, ? extends DatasetElement<?>> entry : row.entrySet())
+                {
+                    columnIds[position] = entry.getKey();
+                    values[position] = entry.getValue().getDoubleValue();
+                    position++;
+                }
+            }
+            r++;
+        }
+        rowOffsets[r] = position;
+
+        return new RatingMatrix(rowIds, rowOffsets, columnIds, values);
+    }
+
+    /* Getter */
+
+    /**
+     * Get the amount of rows.
+     * @return the amount of rows
+     */
+    public int getRowsAmount()
+    {
+        return rowIds.length;
+    }
+
+    /**
+     * Get the amount of stored entries.
+     * @return the amount of stored entries
+     */
+    public int getEntriesAmount()
+    {
+        return columnIds.length;
+    }
+
+    /**
+     * Get the amount of distinct columns having at least an entry.
+     * @return the amount of distinct columns
+     */
+    public int getColumnsAmount()
+    {
+        if (columnsAmount < 0)
+        {
+            columnsAmount = transpose().getRowsAmount();
+        }
+        return columnsAmount;
+    }
+
+    /**
+     * Get the ID of a row.
+     * @param row the row index
+     * @return the ID of the row
+     */
+    public int getRowId(int row)
+    {
+        return rowIds[row];
+    }
+
+    /**
+     * Get the index of the row with the given ID.
+     * @param rowId the ID of the row
+     * @return the index of the row, or a negative value if no such row exists
+     */
+    public int getRowIndex(int rowId)
+    {
+        int index = Arrays.binarySearch(rowIds, rowId);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * Get the position of the first entry of a row in {@link #getColumnIds()} and {@link #getValues()}.
+     * @param row the row index
+     * @return the position of the first entry of the row
+     */
+    public int getRowStart(int row)
+    {
+        return rowOffsets[row];
+    }
+
+    /**
+     * Get the position just after the last entry of a row in {@link #getColumnIds()} and {@link #getValues()}.
+     * @param row the row index
+     * @return the position after the last entry of the row
+     */
+    public int getRowEnd(int row)
+    {
+        return rowOffsets[row + 1];
+    }
+
+    /**
+     * Get the amount of entries of a row.
+     * @param row the row index
+     * @return the amount of entries of the row
+     */
+    public int getRowSize(int row)
+    {
+        return rowOffsets[row + 1] - rowOffsets[row];
+    }
+
+    /**
+     * Get the value stored at the given IDs.
+     *
+     * @param rowId the ID of the row
+     * @param columnId the ID of the column
+     * @return the stored value or {@link Double#NaN} if no value is stored
+     */
+    public double getValue(int rowId, int columnId)
+    {
+        int row = getRowIndex(rowId);
+        if (row < 0)
+        {
+            return Double.NaN;
+        }
+
+        int position = Arrays.binarySearch(columnIds, rowOffsets[row], rowOffsets[row + 1], columnId);
+        return position >= 0 ? values[position] : Double.NaN;
+    }
+
+    /**
+     * Get the highest row ID.
+     * @return the highest row ID, or 0 if the matrix is empty
+     */
+    public int getMaxRowId()
+    {
+        return rowIds.length == 0 ? 0 : rowIds[rowIds.length - 1];
+    }
+
+    /**
+     * Get the highest column ID.
+     * @return the highest column ID, or 0 if the matrix is empty
+     */
+    public int getMaxColumnId()
+    {
+        if (maxColumnId < 0)
+        {
+            int max = 0;
+            for (int r = 0; r < rowIds.length; r++)
+            {
+                // Rows are sorted, so the last entry holds the highest column
+                if (rowOffsets[r + 1] > rowOffsets[r] && columnIds[rowOffsets[r + 1] - 1] > max)
+                {
+                    max = columnIds[rowOffsets[r + 1] - 1];
+                }
+            }
+            maxColumnId = max;
+        }
+        return maxColumnId;
+    }
+
+    /**
+     * Sets the column statistics when they are already known, as when the matrix
+     * is read from a {@link RatingMatrixFile}, so that no transposition is needed.
+     *
+     * @param columnsAmount the amount of distinct columns
+     * @param maxColumnId the highest column ID
+     */
+    void setColumnStatistics(int columnsAmount, int maxColumnId)
+    {
+        this.columnsAmount = columnsAmount;
+        this.maxColumnId = maxColumnId;
+    }
+
+    /**
+     * Get the raw array of the row IDs.
+     *
+     * The array is shared with the matrix and must not be modified.
+     * @return the IDs of the rows
+     */
+    public int[] getRowIds()
+    {
+        return rowIds;
+    }
+
+    /**
+     * Get the raw array of the row offsets.
+     *
+     * The array is shared with the matrix and must not be modified.
+     * @return the offsets of the rows
+     */
+    public int[] getRowOffsets()
+    {
+        return rowOffsets;
+    }
+
+    /**
+     * Get the raw array of the column IDs.
+     *
+     * The array is shared with the matrix and must not be modified.
+     * @return the column IDs of the entries
+     */
+    public int[] getColumnIds()
+    {
+        return columnIds;
+    }
+
+    /**
+     * Get the raw array of the values.
+     *
+     * The array is shared with the matrix and must not be modified.
+     * @return the values of the entries
+     */
+    public double[] getValues()
+    {
+        return values;
+    }
+
+    /**
+     * Get the raw array of the timestamps.
+     *
+     * The array is shared with the matrix and must not be modified.
+     * @return the timestamps of the entries, or null if they were not kept
+     */
+    public long[] getTimestamps()
+    {
+        return timestamps;
+    }
+
+    /**
+     * Checks if the timestamp of each rating is available.
+     * @return true if the timestamps have been kept
+     */
+    public boolean hasTimestamps()
+    {
+        return timestamps != null;
+    }
+
+    /**
+     * Get a 64 bit hash of the ratings, the timestamps excluded.
+     *
+     * Two matrices with the same rows, columns and values have the same fingerprint,
+     * so it tells whether something computed from a matrix is still valid for another one.
+     *
+     * @return the fingerprint of the ratings
+     */
+    public long getFingerprint()
+    {
+        long hash = 0xCBF29CE484222325L;
+        for (int r = 0; r < rowIds.length; r++)
+        {
+            hash = mix(hash, rowIds[r]);
+            hash = mix(hash, rowOffsets[r + 1]);
+        }
+        for (int e = 0; e < columnIds.length; e++)
+        {
+            hash = mix(hash, columnIds[e]);
+            hash = mix(hash, Double.doubleToLongBits(values[e]));
+        }
+        return hash;
+    }
+
+    /**
+     * Adds a value to a hash.
+     */
+    private static long mix(long hash, long value)
+    {
+        hash ^= value;
+        hash *= 0x100000001B3L;
+        return hash ^ (hash >>> 29);
+    }
+
+    /* Conversions */
+
+    /**
+     * Get the compressed sparse column form of this matrix.
+     *
+     * The result is a matrix whose rows are the columns of this one, e.g. the
+     * ratings grouped by movie instead of by user. It is computed on the first
+     * call and then cached.
+     *
+     * @return the transposed matrix
+     */
+    public RatingMatrix transpose()
+    {
+        RatingMatrix result = transposed;
+        if (result == null)
+        {
+            synchronized (this)
+            {
+                result = transposed;
+                if (result == null)
+                {
+                    result = computeTranspose();
+                    result.transposed = this;
+                    transposed = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the matrix without the entries having the given label.
+     *
+     * The entries are labelled by a column of bytes, parallel to the values,
+     * as the folds of a cross-validation. The kept entries are copied in a
+     * single pass into new primitive arrays and the rows left empty are
+     * dropped; no object is created for the rows or the entries.
+     *
+     * @param labels the label of each entry
+     * @param label the label of the entries to leave out
+     * @return the matrix of the other entries
+     */
+    public RatingMatrix exclude(byte[] labels, int label)
+    {
+        return filter(labels, label, false);
+    }
+
+    /**
+     * Get the matrix of the entries having the given label.
+     *
+     * {@link #exclude(byte[], int)}
+     *
+     * @param labels the label of each entry
+     * @param label the label of the entries to keep
+     * @return the matrix of the entries with the label
+     */
+    public RatingMatrix select(byte[] labels, int label)
+    {
+        return filter(labels, label, true);
+    }
+
+    /**
+     * Copies the entries with or without the given label.
+     */
+    private RatingMatrix filter(byte[] labels, int label, boolean selected)
+    {
+        if (labels.length != values.length)
+        {
+            throw new IllegalArgumentException("There must be a label for each entry.");
+        }
+
+        int kept = 0;
+        int keptRows = 0;
+        for (int r = 0; r < rowIds.length; r++)
+        {
+            int rowKept = 0;
+            for (int k = rowOffsets[r]; k < rowOffsets[r + 1]; k++)
+            {
+                if ((labels[k] == label) == selected)
+                {
+                    rowKept++;
+                }
+            }
+            kept += rowKept;
+            keptRows += rowKept > 0 ? 1 : 0;
+        }
+
+        int[] keptRowIds = new int[keptRows];
+        int[] keptOffsets = new int[keptRows + 1];
+        int[] keptColumns = new int[kept];
+        double[] keptValues = new double[kept];
+        long[] keptTimestamps = timestamps == null ? null : new long[kept];
+
+        int row = 0;
+        int position = 0;
+        for (int r = 0; r < rowIds.length; r++)
+        {
+            int start = position;
+            for (int k = rowOffsets[r]; k < rowOffsets[r + 1]; k++)
+            {
+                if ((labels[k] == label) == selected)
+                {
+                    keptColumns[position] = columnIds[k];
+                    keptValues[position] = values[k];
+                    if (keptTimestamps != null)
+                    {
+                        keptTimestamps[position] = timestamps[k];
+                    }
+                    position++;
+                }
+            }
+
+            if (position > start)
+            {
+                keptRowIds[row] = rowIds[r];
+                keptOffsets[++row] = position;
+            }
+        }
+
+        return new RatingMatrix(keptRowIds, keptOffsets, keptColumns, keptValues, keptTimestamps);
+    }
+
+    /**
+     * Creates a {@link Movielens} dataset containing the ratings of the matrix.
+     *
+     * The vector size of each element is set to the highest column ID.
+     *
+     * @return an editable dataset with the same content of the matrix
+     */
+    public Movielens toMovielens()
+    {
+        return new Movielens(this);
+    }
+
+    /**
+     * Creates a {@link MovielensElement} containing the ratings of a row.
+     *
+     * The element reads the ratings from the arrays of the matrix, and copies
+     * them only when it is changed.
+     *
+     * @param row the row index
+     * @return an element with the ID and the ratings of the row
+     */
+    public MovielensElement toMovielensElement(int row)
+    {
+        return new MovielensElement(viewRow(row));
+    }
+
+    /**
+     * Creates a {@link RatingVector} containing the ratings of a row.
+     *
+     * The vector size is set to the highest column ID of the matrix.
+     *
+     * @param row the row index
+     * @return a vector with the ID and the ratings of the row
+     */
+    public RatingVector toRatingVector(int row)
+    {
+        RatingVector vector = new RatingVector(columnIds, values, rowOffsets[row], rowOffsets[row + 1], getMaxColumnId());
+        vector.setId(rowIds[row]);
+        return vector;
+    }
+
+    /**
+     * Creates a {@link RatingVector} reading the ratings of a row from the
+     * arrays of the matrix, see {@link RatingVector#view}.
+     *
+     * @param row the row index
+     * @return a vector with the ID and the ratings of the row, and a vector size of 0
+     */
+    RatingVector viewRow(int row)
+    {
+        RatingVector vector = RatingVector.view(columnIds, values, rowOffsets[row], rowOffsets[row + 1], 0);
+        vector.setId(rowIds[row]);
+        return vector;
+    }
+
+    /* Internals */
+
+    /**
+     * Builds the compressed sparse column form scanning the rows in order,
+     * so that the entries of each column come out already sorted.
+     */
+    private RatingMatrix computeTranspose()
+    {
+        RowIndex index = RowIndex.of(columnIds, columnIds.length);
+        int columns = index.ids.length;
+
+        int[] offsets = new int[columns + 1];
+        for (int columnId : columnIds)
+        {
+            offsets[index.indexOf(columnId) + 1]++;
+        }
+        for (int c = 0; c < columns; c++)
+        {
+            offsets[c + 1] += offsets[c];
+        }
+
+        int[] cursor = Arrays.copyOf(offsets, columns);
+        int[] transposedColumns = new int[columnIds.length];
+        double[] transposedValues = new double[values.length];
+        long[] transposedTimestamps = timestamps == null ? null : new long[timestamps.length];
+        for (int r = 0; r < rowIds.length; r++)
+        {
+            for (int k = rowOffsets[r]; k < rowOffsets[r + 1]; k++)
+            {
+                int position = cursor[index.indexOf(columnIds[k])]++;
+                transposedColumns[position] = rowIds[r];
+                transposedValues[position] = values[k];
+                if (transposedTimestamps != null)
+                {
+                    transposedTimestamps[position] = timestamps[k];
+                }
+            }
+        }
+
+        return new RatingMatrix(index.ids, offsets, transposedColumns, transposedValues, transposedTimestamps);
+    }
+
+    /**
+     * Sorts each row by column ID and merges duplicated columns keeping the last value.
+     *
+     * The sort is stable, so the entries that come later in each row win.
+     */
+    static RatingMatrix sortAndMerge(int[] rowIds, int[] rowOffsets, int[] columnIds, double[] values,
+                                     long[] timestamps)
+    {
+        // Scratch buffers, shared by all the rows
+        long[] keys = null;
+        double[] valueBuffer = null;
+        long[] timestampBuffer = null;
+
+        int write = 0;
+        for (int r = 0; r < rowIds.length; r++)
+        {
+            int start = rowOffsets[r];
+            int end = rowOffsets[r + 1];
+
+            if (!isSorted(columnIds, start, end))
+            {
+                if (keys == null)
+                {
+                    int maxRowSize = 0;
+                    for (int i = 0; i < rowIds.length; i++)
+                    {
+                        maxRowSize = Math.max(maxRowSize, rowOffsets[i + 1] - rowOffsets[i]);
+                    }
+                    keys = new long[maxRowSize];
+                    valueBuffer = new double[maxRowSize];
+                    timestampBuffer = timestamps == null ? null : new long[maxRowSize];
+                }
+                sortRow(columnIds, values, timestamps, start, end, keys, valueBuffer, timestampBuffer);
+            }
+
+            // Compact the row, keeping only the last value of duplicated columns
+            rowOffsets[r] = write;
+            for (int k = start; k < end; k++)
+            {
+                if (k + 1 < end && columnIds[k + 1] == columnIds[k])
+                {
+                    continue;
+                }
+                columnIds[write] = columnIds[k];
+                values[write] = values[k];
+                if (timestamps != null)
+                {
+                    timestamps[write] = timestamps[k];
+                }
+                write++;
+            }
+        }
+        rowOffsets[rowIds.length] = write;
+
+        if (write < columnIds.length)
+        {
+            columnIds = Arrays.copyOf(columnIds, write);
+            values = Arrays.copyOf(values, write);
+            if (timestamps != null)
+            {
+                timestamps = Arrays.copyOf(timestamps, write);
+            }
+        }
+
+        return new RatingMatrix(rowIds, rowOffsets, columnIds, values, timestamps);
+    }
+
+    /**
+     * Checks if the keys are sorted in the given range.
+     */
+    private static boolean isSorted(int[] keys, int start, int end)
+    {
+        for (int k = start + 1; k < end; k++)
+        {
+            if (keys[k - 1] > keys[k])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stable sort of a row by column ID, moving values and timestamps accordingly.
+     *
+     * Each column is packed in a long together with its position in the row, so
+     * that equal columns keep their order and the permutation can be read back.
+     */
+    private static void sortRow(int[] columnIds, double[] values, long[] timestamps, int start, int end,
+                                long[] keys, double[] valueBuffer, long[] timestampBuffer)
+    {
+        int length = end - start;
+        for (int i = 0; i < length; i++)
+        {
+            keys[i] = ((long) columnIds[start + i] << 32) | i;
+        }
+        Arrays.sort(keys, 0, length);
+
+        for (int i = 0; i < length; i++)
+        {
+            int from = start + (int) keys[i];
+            columnIds[start + i] = (int) (keys[i] >> 32);
+            valueBuffer[i] = values[from];
+            if (timestamps != null)
+            {
+                timestampBuffer[i] = timestamps[from];
+            }
+        }
+        System.arraycopy(valueBuffer, 0, values, start, length);
+        if (timestamps != null)
+        {
+            System.arraycopy(timestampBuffer, 0, timestamps, start, length);
+        }
+    }
+
+    /**
+     * Maps a set of IDs to consecutive indexes, following the order of the IDs.
+     */
+    static class RowIndex
+    {
+        /**
+         * The distinct IDs, sorted ascending.
+         */
+        final int[] ids;
+
+        /**
+         * Lookup table from (ID - lowest ID) to index, null if a binary search is used.
+         */
+        private final int[] table;
+
+        /**
+         * The lowest ID.
+         */
+        private final int lowestId;
+
+        private RowIndex(int[] ids, int[] table, int lowestId)
+        {
+            this.ids = ids;
+            this.table = table;
+            this.lowestId = lowestId;
+        }
+
+        /**
+         * Builds the index of the distinct IDs found in the first length positions of the array.
+         */
+        static RowIndex of(int[] keys, int length)
+        {
+            return of(new int[][]{keys}, new int[]{length});
+        }
+
+        /**
+         * Builds the index of the distinct IDs found in the first lengths[b] positions of each keys[b] array.
+         */
+        static RowIndex of(int[][] keys, int[] lengths)
+        {
+            int total = 0;
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int b = 0; b < keys.length; b++)
+            {
+                for (int k = 0; k < lengths[b]; k++)
+                {
+                    min = Math.min(min, keys[b][k]);
+                    max = Math.max(max, keys[b][k]);
+                }
+                total += lengths[b];
+            }
+
+            if (total == 0)
+            {
+                return new RowIndex(new int[0], new int[0], 0);
+            }
+
+            long range = (long) max - min + 1;
+            if (range <= MAX_LOOKUP_TABLE_SIZE)
+            {
+                // IDs are dense enough for a lookup table
+                int[] table = new int[(int) range];
+                for (int b = 0; b < keys.length; b++)
+                {
+                    for (int k = 0; k < lengths[b]; k++)
+                    {
+                        table[keys[b][k] - min] = 1;
+                    }
+                }
+
+                int distinct = 0;
+                for (int i = 0; i < table.length; i++)
+                {
+                    if (table[i] != 0)
+                    {
+                        distinct++;
+                    }
+                }
+
+                int[] ids = new int[distinct];
+                int next = 0;
+                for (int i = 0; i < table.length; i++)
+                {
+                    if (table[i] != 0)
+                    {
+                        ids[next] = i + min;
+                        table[i] = next++;
+                    }
+                    else
+                    {
+                        table[i] = -1;
+                    }
+                }
+                return new RowIndex(ids, table, min);
+            }
+            else
+            {
+                // Sparse IDs, fall back to a sorted array
+                int[] sorted = new int[total];
+                int filled = 0;
+                for (int b = 0; b < keys.length; b++)
+                {
+                    System.arraycopy(keys[b], 0, sorted, filled, lengths[b]);
+                    filled += lengths[b];
+                }
+                Arrays.sort(sorted);
+                int distinct = 0;
+                for (int k = 0; k < sorted.length; k++)
+                {
+                    if (k == 0 || sorted[k] != sorted[k - 1])
+                    {
+                        sorted[distinct++] = sorted[k];
+                    }
+                }
+                return new RowIndex(Arrays.copyOf(sorted, distinct), null, min);
+            }
+        }
+
+        /**
+         * Get the index of an ID known to be part of the index.
+         */
+        int indexOf(int id)
+        {
+            return table != null ? table[id - lowestId] : Arrays.binarySearch(ids, id);
+        }
+    }
+}
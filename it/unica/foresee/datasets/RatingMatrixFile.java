@@ -0,0 +1,370 @@
+package it.unica.foresee.datasets;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary columnar file format for a {@link RatingMatrix}.
+ *
+ * The file starts with a header of {@value #HEADER_SIZE} bytes:
+ * <ul>
+ *     <li>magic number and format version</li>
+ *     <li>flags, telling whether the timestamp column is present</li>
+ *     <li>amount of rows (users), entries (ratings) and distinct columns (movies)</li>
+ *     <li>highest row ID and highest column ID</li>
+ *     <li>size and last modification time of the text file the ratings come from</li>
+ * </ul>
+ * followed by the raw CSR columns of the matrix in little endian order:
+ * row IDs, row offsets, column IDs, values and, optionally, timestamps.
+ *
+ * The columns are read by mapping the file in memory and copying them in bulk
+ * into the arrays of the matrix, so loading costs about as much as reading the
+ * file from the disk cache.
+ *
+ * The matrix does not read the mapped buffers directly: the algorithms walk
+ * {@link RatingMatrix#getColumnIds()} and {@link RatingMatrix#getValues()} as
+ * plain arrays, and so do the users of a {@link Movielens} built from it (see
+ * {@link RatingMatrix#toMovielensElement(int)}), but a Java array cannot be
+ * backed by a file. Reading through the buffers would add a call and a bounds
+ * check to every access in the inner loops of the algorithms. It would also
+ * keep the file mapped for as long as the matrix lives, as a mapping is only
+ * released when the garbage collector frees its buffer. The matrix takes the
+ * same heap as one parsed from the text file.
+ */
+public class RatingMatrixFile
+{
+    /**
+     * Extension of the rating matrix files.
+     */
+    public static final String EXTENSION = ".fsc";
+
+    /**
+     * Size of the header, in bytes.
+     */
+    public static final int HEADER_SIZE = 64;
+
+    /**
+     * First bytes of every rating matrix file ("FSRM").
+     */
+    private static final int MAGIC = 0x4653524D;
+
+    /**
+     * Version of the format, increased on every incompatible change.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Flag set when the timestamp column is present.
+     */
+    private static final int FLAG_TIMESTAMPS = 1;
+
+    /**
+     * Biggest region of the file mapped at once.
+     */
+    private static final int MAX_REGION_SIZE = 1 << 30;
+
+    /**
+     * Size of the buffer used when writing.
+     */
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Checks if a file starts with the header of a rating matrix file.
+     *
+     * @param file the file to check
+     * @return true if the file is a rating matrix file
+     */
+    public static boolean isRatingMatrixFile(File file)
+    {
+        if (!file.isFile() || file.length() < HEADER_SIZE)
+        {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer head = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(head, 0);
+            return head.getInt(0) == MAGIC;
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Writes a matrix to a file.
+     *
+     * The file is written aside and then moved in place, so that a reader never
+     * sees a partially written file.
+     *
+     * @param matrix the matrix to write
+     * @param file the destination file
+     * @param sourceSize size of the file the ratings come from, or 0
+     * @param sourceModified last modification time of the file the ratings come from, or 0
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(RatingMatrix matrix, File file, long sourceSize, long sourceModified)
+            throws IOException
+    {
+        Path destination = file.toPath();
+        Path temporary = destination.resolveSibling(file.getName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(matrix.hasTimestamps() ? FLAG_TIMESTAMPS : 0);
+            buffer.putInt(matrix.getRowsAmount());
+            buffer.putInt(matrix.getEntriesAmount());
+            buffer.putInt(matrix.getColumnsAmount());
+            buffer.putInt(matrix.getMaxRowId());
+            buffer.putInt(matrix.getMaxColumnId());
+            buffer.putLong(sourceSize);
+            buffer.putLong(sourceModified);
+            buffer.position(HEADER_SIZE);
+
+            writeInts(channel, buffer, matrix.getRowIds());
+            writeInts(channel, buffer, matrix.getRowOffsets());
+            writeInts(channel, buffer, matrix.getColumnIds());
+            writeDoubles(channel, buffer, matrix.getValues());
+            if (matrix.hasTimestamps())
+            {
+                writeLongs(channel, buffer, matrix.getTimestamps());
+            }
+            flush(channel, buffer);
+        }
+
+        try
+        {
+            Files.move(temporary, destination, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(temporary, destination, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Reads a matrix from a file.
+     *
+     * @param file the file to read
+     * @return the matrix stored in the file
+     * @throws IOException if the file cannot be read or is not a valid rating matrix file
+     */
+    public static RatingMatrix read(File file) throws IOException
+    {
+        return read(file, -1, -1);
+    }
+
+    /**
+     * Reads a matrix from a file, only if it was written from the given version of the source file.
+     *
+     * @param file the file to read
+     * @param source the text file the ratings come from
+     * @return the matrix stored in the file, or null if the source file has changed since
+     * @throws IOException if the file cannot be read or is not a valid rating matrix file
+     */
+    public static RatingMatrix read(File file, File source) throws IOException
+    {
+        return read(file, source.length(), source.lastModified());
+    }
+
+    /**
+     * Reads a matrix from a file, checking the source file size and modification time if not negative.
+     */
+    private static RatingMatrix read(File file, long sourceSize, long sourceModified) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            if (channel.size() < HEADER_SIZE)
+            {
+                throw new IOException(file + " is not a rating matrix file.");
+            }
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC)
+            {
+                throw new IOException(file + " is not a rating matrix file.");
+            }
+
+            if (header.getInt() != VERSION)
+            {
+                throw new IOException(file + " has an unsupported format version.");
+            }
+
+            boolean hasTimestamps = (header.getInt() & FLAG_TIMESTAMPS) != 0;
+            int rowsAmount = header.getInt();
+            int entriesAmount = header.getInt();
+            int columnsAmount = header.getInt();
+            header.getInt(); // The highest row ID is known from the row IDs
+            int maxColumnId = header.getInt();
+            long storedSourceSize = header.getLong();
+            long storedSourceModified = header.getLong();
+
+            if ((sourceSize >= 0 && sourceSize != storedSourceSize) ||
+                    (sourceModified >= 0 && sourceModified != storedSourceModified))
+            {
+                return null;
+            }
+
+            long expectedSize = HEADER_SIZE + 4L * rowsAmount + 4L * (rowsAmount + 1)
+                    + (hasTimestamps ? 20L : 12L) * entriesAmount;
+            if (rowsAmount < 0 || entriesAmount < 0 || channel.size() != expectedSize)
+            {
+                throw new IOException(file + " is truncated or corrupted.");
+            }
+
+            long position = HEADER_SIZE;
+            int[] rowIds = new int[rowsAmount];
+            position = readInts(channel, position, rowIds);
+            int[] rowOffsets = new int[rowsAmount + 1];
+            position = readInts(channel, position, rowOffsets);
+            int[] columnIds = new int[entriesAmount];
+            position = readInts(channel, position, columnIds);
+            double[] values = new double[entriesAmount];
+            position = readDoubles(channel, position, values);
+            long[] timestamps = null;
+            if (hasTimestamps)
+            {
+                timestamps = new long[entriesAmount];
+                readLongs(channel, position, timestamps);
+            }
+
+            RatingMatrix matrix;
+            try
+            {
+                matrix = new RatingMatrix(rowIds, rowOffsets, columnIds, values, timestamps);
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new IOException(file + " is corrupted: " + e.getMessage(), e);
+            }
+            matrix.setColumnStatistics(columnsAmount, maxColumnId);
+            return matrix;
+        }
+    }
+
+    /* Column readers */
+
+    /**
+     * Maps a region of the file for reading.
+     */
+    private static MappedByteBuffer map(FileChannel channel, long position, long size) throws IOException
+    {
+        MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        region.order(ByteOrder.LITTLE_ENDIAN);
+        return region;
+    }
+
+    private static long readInts(FileChannel channel, long position, int[] target) throws IOException
+    {
+        for (int done = 0; done < target.length; )
+        {
+            int amount = Math.min(target.length - done, MAX_REGION_SIZE / Integer.BYTES);
+            map(channel, position, (long) amount * Integer.BYTES).asIntBuffer().get(target, done, amount);
+            position += (long) amount * Integer.BYTES;
+            done += amount;
+        }
+        return position;
+    }
+
+    private static long readDoubles(FileChannel channel, long position, double[] target) throws IOException
+    {
+        for (int done = 0; done < target.length; )
+        {
+            int amount = Math.min(target.length - done, MAX_REGION_SIZE / Double.BYTES);
+            map(channel, position, (long) amount * Double.BYTES).asDoubleBuffer().get(target, done, amount);
+            position += (long) amount * Double.BYTES;
+            done += amount;
+        }
+        return position;
+    }
+
+    private static long readLongs(FileChannel channel, long position, long[] target) throws IOException
+    {
+        for (int done = 0; done < target.length; )
+        {
+            int amount = Math.min(target.length - done, MAX_REGION_SIZE / Long.BYTES);
+            map(channel, position, (long) amount * Long.BYTES).asLongBuffer().get(target, done, amount);
+            position += (long) amount * Long.BYTES;
+            done += amount;
+        }
+        return position;
+    }
+
+    /* Column writers */
+
+    /**
+     * Writes the content of the buffer to the file and empties it.
+     */
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] source) throws IOException
+    {
+        for (int done = 0; done < source.length; )
+        {
+            if (buffer.remaining() < Integer.BYTES)
+            {
+                flush(channel, buffer);
+            }
+            int amount = Math.min(source.length - done, buffer.remaining() / Integer.BYTES);
+            buffer.asIntBuffer().put(source, done, amount);
+            buffer.position(buffer.position() + amount * Integer.BYTES);
+            done += amount;
+        }
+    }
+
+    private static void writeDoubles(FileChannel channel, ByteBuffer buffer, double[] source) throws IOException
+    {
+        for (int done = 0; done < source.length; )
+        {
+            if (buffer.remaining() < Double.BYTES)
+            {
+                flush(channel, buffer);
+            }
+            int amount = Math.min(source.length - done, buffer.remaining() / Double.BYTES);
+            buffer.asDoubleBuffer().put(source, done, amount);
+            buffer.position(buffer.position() + amount * Double.BYTES);
+            done += amount;
+        }
+    }
+
+    private static void writeLongs(FileChannel channel, ByteBuffer buffer, long[] source) throws IOException
+    {
+        for (int done = 0; done < source.length; )
+        {
+            if (buffer.remaining() < Long.BYTES)
+            {
+                flush(channel, buffer);
+            }
+            int amount = Math.min(source.length - done, buffer.remaining() / Long.BYTES);
+            buffer.asLongBuffer().put(source, done, amount);
+            buffer.position(buffer.position() + amount * Long.BYTES);
+            done += amount;
+        }
+    }
+}
@@ -0,0 +1,781 @@
+package it.unica.foresee.datasets;
+
+import it.unica.foresee.datasets.interfaces.DatasetElement;
+import it.unica.foresee.datasets.interfaces.DatasetVector;
+import it.unica.foresee.datasets.interfaces.DeepClonable;
+import it.unica.foresee.datasets.interfaces.Identifiable;
+import org.apache.commons.math3.ml.clustering.Clusterable;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Vector of ratings stored in primitive arrays.
+ *
+ * The IDs of the rated items are kept sorted in an {@code int[]}, with the
+ * rating of each item at the same position of a {@code double[]}, so each
+ * rating costs 12 bytes, against the 80 bytes or more of an entry of a
+ * {@link DatasetSparseVector} (a tree node, a boxed key, a {@link DoubleElement}
+ * and its boxed value), and the ratings can be walked as plain arrays. This is
+ * why each {@link MovielensElement} keeps its ratings in a rating vector.
+ * The rating of an item is found with a binary search, and the common items of
+ * two vectors with a galloping search (see {@link #dot(RatingVector)}).
+ *
+ * Insertions in order of item ID take constant amortised time, while the
+ * others shift the following ratings. A vector can read a range of the
+ * arrays of a {@link RatingMatrix}, which it copies only when it is changed,
+ * see {@link RatingMatrix#toMovielensElement(int)}. The vector can be converted to and
+ * from a {@link MovielensElement} with {@link #toMovielensElement()} and
+ * {@link #RatingVector(DatasetSparseVector)}.
+ *
+ * The elements returned by {@link #getDatasetElement(int)} and by the
+ * iterator are copies of the ratings: changing them does not change the vector.
+ *
+ * The group models are copied in rating vectors when they are evaluated, see
+ * {@link it.unica.foresee.utils.Converter#getErrors(DatasetSparseVector, java.util.List, Map)}.
+ */
+public class RatingVector implements DatasetVector<DoubleElement>, DeepClonable<RatingVector>, Clusterable, Identifiable
+{
+    /**
+     * Initial capacity of the arrays of an empty vector.
+     */
+    private static final int DEFAULT_CAPACITY = 8;
+
+    /**
+     * ID of the vector.
+     */
+    private int id;
+
+    /**
+     * Size of the dense form of the vector.
+     */
+    private int vectorSize;
+
+    /**
+     * ID of each rated item, sorted ascending, from {@link #offset}.
+     */
+    private int[] items;
+
+    /**
+     * Rating of each item.
+     */
+    private double[] ratings;
+
+    /**
+     * Index of the first rating in the arrays.
+     */
+    private int offset;
+
+    /**
+     * True if the arrays belong to someone else, and must be copied before a change.
+     */
+    private boolean shared;
+
+    /**
+     * Amount of ratings.
+     */
+    private int size;
+
+    /**
+     * Empty constructor.
+     */
+    public RatingVector()
+    {
+        this(0);
+    }
+
+    /**
+     * Vector size.
+     * @param vectorSize size of the dense form of the vector
+     */
+    public RatingVector(int vectorSize)
+    {
+        this.vectorSize = vectorSize;
+        this.items = new int[DEFAULT_CAPACITY];
+        this.ratings = new double[DEFAULT_CAPACITY];
+    }
+
+    /**
+     * Initialises the vector with a copy of a range of the given arrays.
+     *
+     * @param items the IDs of the items, sorted ascending without repetitions
+     * @param ratings the rating of each item
+     * @param from index of the first rating
+     * @param to index after the last rating
+     * @param vectorSize size of the dense form of the vector
+     */
+    public RatingVector(int[] items, double[] ratings, int from, int to, int vectorSize)
+    {
+        if (from < 0 || to < from || to > items.length || to > ratings.length)
+        {
+            throw new IllegalArgumentException("Invalid range of ratings: " + from + " - " + to + ".");
+        }
+        for (int i = from + 1; i < to; i++)
+        {
+            if (items[i] <= items[i - 1])
+            {
+                throw new IllegalArgumentException("The item IDs must be sorted ascending without repetitions.");
+            }
+        }
+
+        this.vectorSize = vectorSize;
+        this.items = Arrays.copyOfRange(items, from, to);
+        this.ratings = Arrays.copyOfRange(ratings, from, to);
+        this.size = to - from;
+    }
+
+    /**
+     * Creates a vector reading a range of the given arrays, without copying them.
+     *
+     * The arrays are copied when the vector is changed, and must not be
+     * changed while the vector reads them.
+     *
+     * @param items the IDs of the items, sorted ascending without repetitions
+     * @param ratings the rating of each item
+     * @param from index of the first rating
+     * @param to index after the last rating
+     * @param vectorSize size of the dense form of the vector
+     * @return the vector
+     */
+    static RatingVector view(int[] items, double[] ratings, int from, int to, int vectorSize)
+    {
+        RatingVector vector = new RatingVector(vectorSize, items, ratings);
+        vector.offset = from;
+        vector.size = to - from;
+        vector.shared = true;
+        return vector;
+    }
+
+    /**
+     * Initialises the vector with the given arrays.
+     */
+    private RatingVector(int vectorSize, int[] items, double[] ratings)
+    {
+        this.vectorSize = vectorSize;
+        this.items = items;
+        this.ratings = ratings;
+    }
+
+    /**
+     * Initialises the vector with the values of a sparse vector.
+     *
+     * The ID and the vector size are copied too, and the null elements are skipped.
+     *
+     * @param vector the sparse vector, such as a {@link MovielensElement}
+     */
+    public RatingVector(DatasetSparseVector<? extends DatasetElement<?>> vector)
+    {
+        this.id = vector.getId();
+        this.vectorSize = vector.getVectorSize();
+        this.items = new int[vector.size()];
+        this.ratings = new double[vector.size()];
+
+        // The entries come sorted by key
+        for (Map.Entry<Integer, ? extends DatasetElement<?>> entry : vector.entrySet())
+        {
+            if (entry.getValue() != null)
+            {
+                items[size] = entry.getKey();
+                ratings[size] = entry.getValue().getDoubleValue();
+                size++;
+            }
+        }
+    }
+
+    /* Getter */
+
+    /**
+     * Get the amount of ratings.
+     * @return the amount of ratings
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Checks if the vector has no ratings.
+     * @return true if there are no ratings
+     */
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Get the item ID at a position.
+     * @param position the position, between 0 and {@link #size()} excluded
+     * @return the item ID
+     */
+    public int getItemAt(int position)
+    {
+        checkPosition(position);
+        return items[offset + position];
+    }
+
+    /**
+     * Get the rating at a position.
+     * @param position the position, between 0 and {@link #size()} excluded
+     * @return the rating
+     */
+    public double getRatingAt(int position)
+    {
+        checkPosition(position);
+        return ratings[offset + position];
+    }
+
+    /**
+     * Get the position of the rating of an item.
+     *
+     * @param item the item ID
+     * @return the position of the rating, or a negative value if the item is not rated
+     */
+    public int indexOf(int item)
+    {
+        int position = Arrays.binarySearch(items, offset, offset + size, item);
+        return position >= 0 ? position - offset : position + offset;
+    }
+
+    /**
+     * Checks if an item is rated.
+     * @param item the item ID
+     * @return true if the item is rated
+     */
+    public boolean contains(int item)
+    {
+        return indexOf(item) >= 0;
+    }
+
+    /**
+     * Get the rating of an item.
+     *
+     * @param item the item ID
+     * @return the rating, or {@link Double#NaN} if the item is not rated
+     */
+    public double get(int item)
+    {
+        int position = indexOf(item);
+        return position >= 0 ? ratings[offset + position] : Double.NaN;
+    }
+
+    /**
+     * Get the ID of the last rated item.
+     * @return the highest item ID
+     * @throws NoSuchElementException if the vector is empty
+     */
+    public int getLastItem()
+    {
+        if (size == 0)
+        {
+            throw new NoSuchElementException("The vector is empty.");
+        }
+        return items[offset + size - 1];
+    }
+
+    /**
+     * Get a copy of the IDs of the rated items.
+     * @return the item IDs, sorted ascending
+     */
+    public int[] getItems()
+    {
+        return Arrays.copyOfRange(items, offset, offset + size);
+    }
+
+    /**
+     * Get a copy of the ratings.
+     * @return the rating of each item of {@link #getItems()}
+     */
+    public double[] getRatings()
+    {
+        return Arrays.copyOfRange(ratings, offset, offset + size);
+    }
+
+    /**
+     * Get the sum of the ratings.
+     * @return the sum of the ratings
+     */
+    public double getSum()
+    {
+        double sum = 0;
+        for (int i = offset; i < offset + size; i++)
+        {
+            sum += ratings[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Get the sum of the squares of the ratings.
+     * @return the sum of the squares of the ratings
+     */
+    public double getSumOfSquares()
+    {
+        double sum = 0;
+        for (int i = offset; i < offset + size; i++)
+        {
+            sum += ratings[i] * ratings[i];
+        }
+        return sum;
+    }
+
+    /**
+     * The mean is calculated as for {@link DatasetSparseVector#getMean()}:
+     * the sum of the ratings is divided by the vector size, so the missing
+     * ratings count as zeros.
+     *
+     * @return the mean of the dense form of the vector
+     */
+    public double getMean()
+    {
+        double sum = getSum();
+        if (vectorSize == 0 && sum != 0)
+        {
+            throw new IllegalStateException("Cannot determine the mean of a vector of size " +
+                    "equal to zero but not empty. Id: " + id);
+        }
+        return sum == 0 ? 0 : sum / vectorSize;
+    }
+
+    /**
+     * Computes the dot product with another vector.
+     *
+     * The common items are found walking the smaller vector and galloping
+     * through the bigger one, so the cost depends on the size of the smaller
+     * vector much more than on the size of the bigger one.
+     *
+     * @param other the other vector
+     * @return the sum of the products of the ratings of the common items
+     */
+    public double dot(RatingVector other)
+    {
+        RatingVector small = this.size <= other.size ? this : other;
+        RatingVector big = small == this ? other : this;
+
+        double dot = 0;
+        int position = 0;
+        for (int i = 0; i < small.size && position < big.size; i++)
+        {
+            int item = small.items[small.offset + i];
+            position = big.gallop(item, position);
+            if (position < big.size && big.items[big.offset + position] == item)
+            {
+                dot += small.ratings[small.offset + i] * big.ratings[big.offset + position];
+                position++;
+            }
+        }
+        return dot;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return a copy of the rating of the item, or null if the item is not rated
+     */
+    @Override
+    public DoubleElement getDatasetElement(int item)
+    {
+        int position = indexOf(item);
+        return position >= 0 ? new DoubleElement(ratings[offset + position]) : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The partitions are random, a different seed is drawn at every call:
+     * use {@link #getKFoldPartitions(int, int, long)} to obtain the same partitions again.
+     */
+    @Override
+    public RatingVector[] getKFoldPartitions(int k, int layersAmount)
+    {
+        return getKFoldPartitions(k, layersAmount, new Random().nextLong());
+    }
+
+    /**
+     * Divides the ratings in k partitions, stratified by their value.
+     *
+     * As in {@link DatasetSparseVector#getKFoldPartitions(int, int, long)},
+     * the ratings are put in layers of values, each layer is shuffled with
+     * the Fisher-Yates algorithm and its ratings are dealt to the partitions
+     * in turn. Each partition keeps the ID and the vector size of this vector.
+     *
+     * @param k the amount of partitions
+     * @param layersAmount the amount of layers of values
+     * @param seed the seed of the shuffles, the same seed gives the same partitions
+     * @return the partitions
+     */
+    public RatingVector[] getKFoldPartitions(int k, int layersAmount, long seed)
+    {
+        if (k < 1 || layersAmount < 1)
+        {
+            throw new IllegalArgumentException("The amount of partitions and of layers must be positive.");
+        }
+
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++)
+        {
+            min = Math.min(min, ratings[offset + i]);
+            max = Math.max(max, ratings[offset + i]);
+        }
+        double layerRange = (max - min) / layersAmount;
+
+        // Counting sort of the positions by layer
+        int[] layers = new int[size];
+        int[] offsets = new int[layersAmount + 1];
+        for (int i = 0; i < size; i++)
+        {
+            int layer = layerRange > 0 ? (int) ((ratings[offset + i] - min) / layerRange) : 0;
+            layers[i] = Math.min(layer, layersAmount - 1);
+            offsets[layers[i] + 1]++;
+        }
+        for (int layer = 0; layer < layersAmount; layer++)
+        {
+            offsets[layer + 1] += offsets[layer];
+        }
+        int[] next = Arrays.copyOf(offsets, layersAmount);
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++)
+        {
+            order[next[layers[i]]++] = i;
+        }
+
+        // Deal the shuffled positions of each layer, reusing the layers as the partition of each position
+        Random randomizer = new Random(seed);
+        int[] sizes = new int[k];
+        for (int layer = 0; layer < layersAmount; layer++)
+        {
+            int start = offsets[layer];
+            for (int i = offsets[layer + 1] - 1; i > start; i--)
+            {
+                int j = start + randomizer.nextInt(i - start + 1);
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+            }
+            for (int i = start; i < offsets[layer + 1]; i++)
+            {
+                layers[order[i]] = (i - start) % k;
+                sizes[(i - start) % k]++;
+            }
+        }
+
+        // Scan the ratings in order, so that each partition comes out sorted
+        RatingVector[] partitions = new RatingVector[k];
+        for (int p = 0; p < k; p++)
+        {
+            partitions[p] = new RatingVector(vectorSize);
+            partitions[p].id = id;
+            partitions[p].items = new int[sizes[p]];
+            partitions[p].ratings = new double[sizes[p]];
+        }
+        for (int i = 0; i < size; i++)
+        {
+            RatingVector partition = partitions[layers[i]];
+            partition.items[partition.size] = items[offset + i];
+            partition.ratings[partition.size] = ratings[offset + i];
+            partition.size++;
+        }
+        return partitions;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The array is built at every call, so it can be modified by the caller.
+     */
+    @Override
+    public double[] getPoint()
+    {
+        if (size > 0 && vectorSize < getLastItem())
+        {
+            throw new IllegalStateException("The vector size set is incorrect: " +
+                    "vectorSize = " + vectorSize + " lastKey = " + getLastItem());
+        }
+
+        double[] point = new double[vectorSize];
+        for (int i = offset; i < offset + size; i++)
+        {
+            point[items[i] - 1] = ratings[i];
+        }
+        return point;
+    }
+
+    @Override
+    public int getId()
+    {
+        return id;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getVectorSize()
+    {
+        return vectorSize;
+    }
+
+    /* Setter */
+
+    /**
+     * Sets the rating of an item.
+     *
+     * @param item the item ID
+     * @param rating the rating
+     * @return the previous rating, or {@link Double#NaN} if the item was not rated
+     */
+    public double put(int item, double rating)
+    {
+        own();
+
+        // Fast path for the insertions in order
+        int position = size > 0 && items[size - 1] < item ? -size - 1 : indexOf(item);
+        if (position >= 0)
+        {
+            double old = ratings[position];
+            ratings[position] = rating;
+            return old;
+        }
+
+        position = -position - 1;
+        if (size == items.length)
+        {
+            int capacity = Math.max(DEFAULT_CAPACITY, size + (size >> 1));
+            items = Arrays.copyOf(items, capacity);
+            ratings = Arrays.copyOf(ratings, capacity);
+        }
+        System.arraycopy(items, position, items, position + 1, size - position);
+        System.arraycopy(ratings, position, ratings, position + 1, size - position);
+        items[position] = item;
+        ratings[position] = rating;
+        size++;
+        return Double.NaN;
+    }
+
+    /**
+     * Removes the rating of an item.
+     *
+     * @param item the item ID
+     * @return the removed rating, or {@link Double#NaN} if the item was not rated
+     */
+    public double remove(int item)
+    {
+        int position = indexOf(item);
+        if (position < 0)
+        {
+            return Double.NaN;
+        }
+
+        own();
+        double old = ratings[position];
+        System.arraycopy(items, position + 1, items, position, size - position - 1);
+        System.arraycopy(ratings, position + 1, ratings, position, size - position - 1);
+        size--;
+        return old;
+    }
+
+    /**
+     * Removes all the ratings.
+     */
+    public void clear()
+    {
+        if (shared)
+        {
+            items = new int[DEFAULT_CAPACITY];
+            ratings = new double[DEFAULT_CAPACITY];
+            offset = 0;
+            shared = false;
+        }
+        size = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * A null element removes the rating of the item.
+     */
+    @Override
+    public void setDatasetElement(int item, DoubleElement e)
+    {
+        if (e == null)
+        {
+            remove(item);
+        }
+        else
+        {
+            put(item, e.getDoubleValue());
+        }
+    }
+
+    @Override
+    public void setId(int id)
+    {
+        this.id = id;
+    }
+
+    /**
+     * Set the size of the dense form of the vector.
+     * @param vectorSize the vector size
+     */
+    public void setVectorSize(int vectorSize)
+    {
+        this.vectorSize = vectorSize;
+    }
+
+    /* Conversions */
+
+    /**
+     * Creates a {@link MovielensElement} with the ratings of the vector.
+     *
+     * @return an element with the same ID, vector size and ratings
+     */
+    public MovielensElement toMovielensElement()
+    {
+        return new MovielensElement(deepClone());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The elements are copies of the ratings, see {@link #getDatasetElement(int)}.
+     */
+    @Override
+    public Iterator<DoubleElement> iterator()
+    {
+        return new Iterator<DoubleElement>()
+        {
+            private int position = 0;
+
+            @Override
+            public boolean hasNext()
+            {
+                return position < size;
+            }
+
+            @Override
+            public DoubleElement next()
+            {
+                if (position >= size)
+                {
+                    throw new NoSuchElementException();
+                }
+                return new DoubleElement(ratings[offset + position++]);
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RatingVector deepClone()
+    {
+        RatingVector clone = new RatingVector(items, ratings, offset, offset + size, vectorSize);
+        clone.setId(id);
+        return clone;
+    }
+
+    /**
+     * Two rating vectors are equal when they have the same ratings on the same items.
+     */
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof RatingVector))
+        {
+            return false;
+        }
+
+        RatingVector other = (RatingVector) o;
+        return size == other.size &&
+                Arrays.equals(items, offset, offset + size, other.items, other.offset, other.offset + size) &&
+                Arrays.equals(ratings, offset, offset + size, other.ratings, other.offset, other.offset + size);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int hash = size;
+        for (int i = offset; i < offset + size; i++)
+        {
+            hash = 31 * hash + items[i];
+            hash = 31 * hash + Double.hashCode(ratings[i]);
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = offset; i < offset + size; i++)
+        {
+            builder.append(i > offset ? ", " : "").append(items[i]).append('=').append(ratings[i]);
+        }
+        return builder.append('}').toString();
+    }
+
+    /* Internals */
+
+    /**
+     * Finds the first position from the given one whose item is not lower than the given item.
+     *
+     * The bound is searched by doubling the steps from the starting position,
+     * then a binary search is made within it.
+     *
+     * @param item the item ID
+     * @param from the starting position
+     * @return the position, or {@link #size} if all the following items are lower
+     */
+    private int gallop(int item, int from)
+    {
+        int step = 1;
+        int low = from;
+        int high = from;
+        while (high < size && items[offset + high] < item)
+        {
+            low = high + 1;
+            high = from + step;
+            step <<= 1;
+        }
+        high = Math.min(high, size);
+
+        int position = Arrays.binarySearch(items, offset + low, offset + high, item);
+        return (position >= 0 ? position : -position - 1) - offset;
+    }
+
+    /**
+     * Copies the ratings read from shared arrays, so that they can be changed.
+     *
+     * The copy leaves room for a new rating.
+     */
+    private void own()
+    {
+        if (shared)
+        {
+            int capacity = Math.max(DEFAULT_CAPACITY, size + 1);
+            items = Arrays.copyOfRange(items, offset, offset + capacity);
+            ratings = Arrays.copyOfRange(ratings, offset, offset + capacity);
+            offset = 0;
+            shared = false;
+        }
+    }
+
+    /**
+     * Checks that a position holds a rating.
+     */
+    private void checkPosition(int position)
+    {
+        if (position < 0 || position >= size)
+        {
+            throw new IndexOutOfBoundsException("Position " + position + " of " + size + " ratings.");
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package it.unica.foresee.libraries;
+
+import it.unica.foresee.datasets.RatingMatrix;
+import it.unica.foresee.libraries.interfaces.SimilarityMetric;
+
+/**
+ * Cosine similarity of the co-rated items, after removing the mean rating of each item.
+ *
+ * Subtracting the item means removes the bias of the items everybody likes
+ * (or dislikes), so that two rows are similar only if they agree on how each
+ * item differs from its usual rating.
+ */
+public class AdjustedCosineSimilarity implements SimilarityMetric
+{
+    /**
+     * Name of the metric.
+     */
+    public static final String NAME = "adjustedcosine";
+
+    /**
+     * Mean rating of each column of the prepared matrix, indexed by column ID,
+     * null if the metric is not prepared.
+     */
+    private final double[] columnMeans;
+
+    /**
+     * Initializes a metric to be prepared.
+     */
+    public AdjustedCosineSimilarity()
+    {
+        this(null);
+    }
+
+    /**
+     * Initializes a metric prepared on a matrix.
+     *
+     * @param columnMeans mean rating of each column of the matrix, indexed by column ID
+     */
+    private AdjustedCosineSimilarity(double[] columnMeans)
+    {
+        this.columnMeans = columnMeans;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SimilarityMetric prepare(RatingMatrix ratings)
+    {
+        int[] items = ratings.getColumnIds();
+        double[] values = ratings.getValues();
+        double[] means = new double[ratings.getMaxColumnId() + 1];
+        int[] counts = new int[means.length];
+
+        for (int k = 0; k < items.length; k++)
+        {
+            means[items[k]] += values[k];
+            counts[items[k]]++;
+        }
+
+        for (int item = 0; item < means.length; item++)
+        {
+            if (counts[item] > 0)
+            {
+                means[item] /= counts[item];
+            }
+        }
+
+        return new AdjustedCosineSimilarity(means);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double similarity(RatingMatrix ratings, int rowA, int rowB)
+    {
+        if (columnMeans == null)
+        {
+            throw new IllegalStateException("The metric has not been prepared.");
+        }
+
+        int[] items = ratings.getColumnIds();
+        double[] values = ratings.getValues();
+        int a = ratings.getRowStart(rowA);
+        int endA = ratings.getRowEnd(rowA);
+        int b = ratings.getRowStart(rowB);
+        int endB = ratings.getRowEnd(rowB);
+
+        double dot = 0;
+        double sumXX = 0;
+        double sumYY = 0;
+        while (a < endA && b < endB)
+        {
+            if (items[a] < items[b])
+            {
+                a++;
+            }
+            else if (items[a] > items[b])
+            {
+                b++;
+            }
+            else
+            {
+                double mean = columnMeans[items[a]];
+                double x = values[a++] - mean;
+                double y = values[b++] - mean;
+                dot += x * y;
+                sumXX += x * x;
+                sumYY += y * y;
+            }
+        }
+
+        if (sumXX == 0 || sumYY == 0)
+        {
+            return Double.NaN;
+        }
+        return Math.max(-1.0, Math.min(1.0, dot / Math.sqrt(sumXX * sumYY)));
+    }
+}
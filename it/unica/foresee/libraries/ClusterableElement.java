@@ -1,17 +1,15 @@
 package it.unica.foresee.libraries;
 
 import it.unica.foresee.datasets.DatasetSparseVector;
+import it.unica.foresee.datasets.RatingMatrix;
 import it.unica.foresee.datasets.interfaces.DatasetElement;
 import it.unica.foresee.datasets.interfaces.DatasetNestedSparseVector;
 import it.unica.foresee.datasets.interfaces.DeepClonable;
 import it.unica.foresee.utils.Logger;
-import org.apache.commons.math3.ml.clustering.CentroidCluster;
-import org.apache.commons.math3.ml.clustering.KMeansPlusPlusClusterer;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -19,11 +17,10 @@ import java.util.List;
  */
 public class ClusterableElement<T extends DatasetSparseVector<? extends DatasetElement>>
 {
-
     /**
-     * Hold a map to retrieve the elements by their getPoint array hashcode.
+     * Amount of threads of the k-means clusterer made by {@link #cluster(DatasetNestedSparseVector, int)}.
      */
-    private HashMap<Integer, ArrayList<T>> hashToElements = new HashMap<>();
+    private int threadsAmount = Runtime.getRuntime().availableProcessors();
 
     /**
      * Empty constructor.
@@ -31,100 +28,40 @@ public class ClusterableElement<T extends DatasetSparseVector<? extends DatasetE
     public ClusterableElement(){}
 
     /**
-     * Put an element in the table without overwriting the preceding one.
-     * @param key the hashcode of the array of getPoint of value
-     * @param value the value to store
-     */
-    private void putHashElement(int key, T value)
-    {
-        ArrayList<T> arrayValue = hashToElements.get(key);
-
-        // Initialize the element if it doesn't exists
-        if (arrayValue == null)
-        {
-            arrayValue = new ArrayList<>();
-            hashToElements.put(key, arrayValue);
-        }
-        hashToElements.get(key).add(value);
-    }
-
-    /**
-     * Put an element in the table without overwriting the preceding one.
-     * @param array the array of getPoint of value
-     * @param value the value to store
-     */
-    private void putHashElement(double[] array, T value)
-    {
-        putHashElement(Arrays.hashCode(array), value);
-    }
-
-    /**
-     * Put an element in the table without overwriting the preceding one.
-     * @param value the value to store
-     */
-    private void putHashElement(T value)
-    {
-        putHashElement(Arrays.hashCode(value.getPoint()), value);
-    }
-
-    /**
-     * Get the element at the given key and/or with coordinates equal to the given point.
+     * Clusters the given dataset with k-means.
+     *
+     * The clusterer uses the threads set by {@link #setThreadsAmount(int)}, all
+     * the available processors by default; the clusters do not depend on them.
      *
-     * Retrieves the element corresponding to the given hashcode or, if multiple points
-     * have the same hashcode, the element corresponding to the given hashcode
-     * and which is equal to the given point.
+     * {@link #cluster(DatasetNestedSparseVector, KMeans)}
      *
-     * @param key the hashcode of the point
-     * @param point the point of the element
-     * @throws IllegalStateException if no element corresponding to the given point is
-     *         found at the given hashcode key location
-     * @return the element corresponding to the given hashcode or, if multiple points
-     * have the same hashcode, the element corresponding to the given hashcode
-     * and which is equal to the given point
+     * @param dataset the elements to cluster
+     * @param clustersAmount the amount of clusters
+     * @return the elements of each cluster
      */
-    private T getHashElement(int key, double[] point)
+    public List<List<T>> cluster(DatasetNestedSparseVector<T> dataset, int clustersAmount)
     {
-        // Null is returned if no element with the given key is found
-        T value = null;
-        ArrayList<T> valueArray = this.hashToElements.get(key);
-
-        // If the hash id unique we have only an element per hashcode
-        if (valueArray.size() == 1)
-        {
-            value = valueArray.get(0);
-        }
-        // If there has been an hash collision check for equality
-        else
-        {
-            for (T element : valueArray)
-            {
-                // Using Arrays utility guarantees the equality of the
-                // contained elements
-                if (Arrays.equals(element.getPoint(), point))
-                {
-                    value = element;
-                    break;
-                }
-            }
-
-            // The key exists but it's not equal to the given point
-            if (value == null)
-            {
-                throw new IllegalStateException("No element corresponding to the given point has been found " +
-                        "at the given hashcode key location");
-            }
-        }
-
-        return value;
+        KMeans clusterer = new KMeans(clustersAmount);
+        clusterer.setThreadsAmount(threadsAmount);
+        return cluster(dataset, clusterer);
     }
 
     /**
      * Clusters the given dataset.
      *
-     * @param dataset
-     * @return
+     * Each element is a point with a coordinate for each nested key, from 1 to
+     * the highest one, and the missing values are zeros. The entries of the
+     * elements are copied once in a sparse matrix, with a row for each element
+     * in ascending key order, so the distances only read the entries and the
+     * points are never made dense, whatever the amount of nested keys. The
+     * clusters are mapped back to the elements by their row: no point array is
+     * created for each element, nor hashed to find the element again.
+     *
+     * @param dataset the elements to cluster
+     * @param clusterer the k-means clusterer, with its settings
+     * @return the elements of each non empty cluster, in ascending key order
      */
-    public List<List<T>> cluster(DatasetNestedSparseVector<T> dataset, int clustersAmount)
+    public List<List<T>> cluster(DatasetNestedSparseVector<T> dataset, KMeans clusterer)
     {
         if (dataset == null)
         {
@@ -135,8 +72,6 @@ public class ClusterableElement<T extends DatasetSparseVector<? extends DatasetE
         {
             throw new IllegalArgumentException("The dataset cannot have a size of 0");
         }
-        // Create a variable to hold a list of resulting centroids
-        List<CentroidCluster<T>> clusterResults = null;
 
         // Needed to retrieve the last element
         int pointDimensions = dataset.getHighestNestedKey();
@@ -146,56 +81,67 @@ public class ClusterableElement<T extends DatasetSparseVector<? extends DatasetE
             throw new IllegalStateException("The vector size cannot be equal to 0");
         }
 
-        // Transform the dataset in an ArrayList
-        ArrayList<T> datasetArray = new ArrayList<>();
-
-        /* Loop throughout the dataset to:
-         * - add each element to the dataset array
-         * - set each element's vector size
-         * - get each element's hashcode for the hashToElements
-        */
-
+        // The entries of the elements, one row after the other
+        List<T> elements = new ArrayList<>(dataset.values());
+        int[] rows = new int[elements.size()];
+        int[] offsets = new int[elements.size() + 1];
+        for (int row = 0; row < elements.size(); row++)
+        {
+            rows[row] = row;
+            offsets[row + 1] = offsets[row] + elements.get(row).size();
+        }
 
-        Class<T> cls = (Class<T>) dataset.get(dataset.firstKey()).getClass();
-        for (Integer key : dataset.keySet())
+        int[] columns = new int[offsets[elements.size()]];
+        double[] values = new double[columns.length];
+        int entry = 0;
+        for (T element : elements)
         {
-            // This loop adds empty vectors in missing positions
-            // and it's required to keep the indexes correct.
-            while (datasetArray.size() <= key)
+            for (Map.Entry<Integer, ? extends DatasetElement> value : element.entrySet())
             {
-                try
-                {
-                    T newElement = (T) cls.newInstance();
-                    newElement.setVectorSize(pointDimensions);
-                    datasetArray.add(newElement);
-                }
-                catch (Exception e)
-                {
-                    throw new IllegalStateException(e);
-                }
+                columns[entry] = value.getKey();
+                values[entry] = value.getValue().getDoubleValue();
+                entry++;
             }
-
-            // Add the element to the array and to the hashmap
-            T element = dataset.get(key);
-            // Set the point dimension (array size) of the element
-            //element.setVectorSize(pointDimensions);
-
-            datasetArray.add(key, element);
         }
+        RatingMatrix points = new RatingMatrix(rows, offsets, columns, values);
 
-        //Logger.debug("Array size = " + datasetArray.size(), this.getClass());
-
-        // Create a clusterer to perform the clustering
-        KMeansPlusPlusClusterer<T> clusterer = new KMeansPlusPlusClusterer<>(clustersAmount);
-        clusterResults = clusterer.cluster(datasetArray);
+        int[] assignments = clusterer.cluster(points, pointDimensions);
+        Logger.debug("Clustering completed in " + clusterer.getIterations() + " iterations");
 
         // Obtain the results as a List of clusters of users
         List<List<T>> usersClustersList = new ArrayList<>();
-        for (CentroidCluster<T> cluster : clusterResults)
+        for (int[] cluster : clusterer.getClusters(assignments))
         {
-            usersClustersList.add(cluster.getPoints());
+            List<T> members = new ArrayList<>(cluster.length);
+            for (int row : cluster)
+            {
+                members.add(elements.get(row));
+            }
+            usersClustersList.add(members);
         }
 
         return usersClustersList;
     }
+
+    /* Getter */
+
+    public int getThreadsAmount()
+    {
+        return threadsAmount;
+    }
+
+    /* Setter */
+
+    /**
+     * Set the amount of threads of the k-means clusterer made by {@link #cluster(DatasetNestedSparseVector, int)}.
+     * @param threadsAmount the amount of threads, at least 1
+     */
+    public void setThreadsAmount(int threadsAmount)
+    {
+        if (threadsAmount < 1)
+        {
+            throw new IllegalArgumentException("The amount of threads must be at least 1.");
+        }
+        this.threadsAmount = threadsAmount;
+    }
 }
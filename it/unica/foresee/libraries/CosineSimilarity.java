@@ -0,0 +1,118 @@
+package it.unica.foresee.libraries;
+
+import it.unica.foresee.datasets.RatingMatrix;
+import it.unica.foresee.libraries.interfaces.SimilarityMetric;
+
+/**
+ * Cosine of the angle between two rating vectors.
+ *
+ * The dot product only involves the co-rated items, while the norms of the
+ * vectors take all the ratings of each row and are computed once in
+ * {@link #prepare(RatingMatrix)}.
+ */
+public class CosineSimilarity implements SimilarityMetric
+{
+    /**
+     * Name of the metric.
+     */
+    public static final String NAME = "cosine";
+
+    /**
+     * Norm of each row of the prepared matrix, null if the metric is not prepared.
+     */
+    private final double[] norms;
+
+    /**
+     * Initializes a metric to be prepared.
+     */
+    public CosineSimilarity()
+    {
+        this(null);
+    }
+
+    /**
+     * Initializes a metric prepared on a matrix.
+     *
+     * @param norms norm of each row of the matrix
+     */
+    private CosineSimilarity(double[] norms)
+    {
+        this.norms = norms;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SimilarityMetric prepare(RatingMatrix ratings)
+    {
+        double[] values = ratings.getValues();
+        double[] rowNorms = new double[ratings.getRowsAmount()];
+
+        for (int row = 0; row < rowNorms.length; row++)
+        {
+            double sum = 0;
+            for (int k = ratings.getRowStart(row); k < ratings.getRowEnd(row); k++)
+            {
+                sum += values[k] * values[k];
+            }
+            rowNorms[row] = Math.sqrt(sum);
+        }
+
+        return new CosineSimilarity(rowNorms);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double similarity(RatingMatrix ratings, int rowA, int rowB)
+    {
+        if (norms == null)
+        {
+            throw new IllegalStateException("The metric has not been prepared.");
+        }
+
+        int[] items = ratings.getColumnIds();
+        double[] values = ratings.getValues();
+        int a = ratings.getRowStart(rowA);
+        int endA = ratings.getRowEnd(rowA);
+        int b = ratings.getRowStart(rowB);
+        int endB = ratings.getRowEnd(rowB);
+
+        int n = 0;
+        double dot = 0;
+        while (a < endA && b < endB)
+        {
+            if (items[a] < items[b])
+            {
+                a++;
+            }
+            else if (items[a] > items[b])
+            {
+                b++;
+            }
+            else
+            {
+                dot += values[a++] * values[b++];
+                n++;
+            }
+        }
+
+        double denominator = norms[rowA] * norms[rowB];
+        if (n == 0 || denominator == 0)
+        {
+            return Double.NaN;
+        }
+        return Math.max(-1.0, Math.min(1.0, dot / denominator));
+    }
+}
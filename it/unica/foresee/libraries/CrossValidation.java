@@ -0,0 +1,281 @@
+package it.unica.foresee.libraries;
+
+import it.unica.foresee.datasets.RatingMatrix;
+import it.unica.foresee.libraries.interfaces.Predictor;
+import it.unica.foresee.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * K-fold cross-validation of a recommendation algorithm.
+ *
+ * The ratings are held once in a shared {@link RatingMatrix}, which is never
+ * modified, and each rating belongs to a fold, stored in a column of bytes
+ * parallel to its values. The training set of a fold is made by
+ * {@link RatingMatrix#exclude(byte[], int)}, a single pass copying the other
+ * ratings in primitive arrays, and dropped as soon as the fold has been
+ * evaluated; the test set of a fold is never copied at all, its ratings are
+ * read from the shared matrix and streamed in an {@link ErrorAccumulator}.
+ *
+ * The folds are evaluated concurrently by the threads set by
+ * {@link #setThreadsAmount(int)}, so at most that many training sets are in
+ * memory at the same time, and the aggregate errors are merged in fold order.
+ */
+public class CrossValidation
+{
+    /**
+     * The ratings of every fold.
+     */
+    private final RatingMatrix ratings;
+
+    /**
+     * The fold of each rating, parallel to the values of the ratings.
+     */
+    private final byte[] folds;
+
+    /**
+     * Amount of folds.
+     */
+    private final int foldsAmount;
+
+    /**
+     * Amount of folds evaluated at the same time.
+     */
+    private int threadsAmount = 1;
+
+    /**
+     * Errors of each fold, after the last run.
+     */
+    private ErrorAccumulator[] foldErrors;
+
+    /**
+     * Initialise the cross-validation.
+     *
+     * @param ratings the ratings, shared by all the folds and not modified
+     * @param folds the fold of each rating, from 0 to {@code foldsAmount - 1}, parallel to the values of the ratings
+     * @param foldsAmount the amount of folds, at least 2
+     */
+    public CrossValidation(RatingMatrix ratings, byte[] folds, int foldsAmount)
+    {
+        if (foldsAmount < 2 || foldsAmount > Byte.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("The amount of folds must be between 2 and " + Byte.MAX_VALUE + ".");
+        }
+
+        if (folds.length != ratings.getEntriesAmount())
+        {
+            throw new IllegalArgumentException("There must be a fold for each rating.");
+        }
+
+        for (byte fold : folds)
+        {
+            if (fold < 0 || fold >= foldsAmount)
+            {
+                throw new IllegalArgumentException("The fold " + fold + " is not between 0 and " + (foldsAmount - 1));
+            }
+        }
+
+        this.ratings = ratings;
+        this.folds = folds;
+        this.foldsAmount = foldsAmount;
+    }
+
+    /**
+     * Evaluates an algorithm on every fold.
+     *
+     * For each fold the trainer receives the training set and returns the
+     * predictor that is asked for each rating of the test set. The trainer is
+     * called by many threads at once, so the predictors must not share any
+     * mutable state.
+     *
+     * The ratings of the users missing from a training set, and those that
+     * the predictor cannot predict, only lower the coverage.
+     *
+     * @param trainer makes the predictor of a training set
+     * @return the errors of all the folds together
+     */
+    public ErrorAccumulator run(Function<RatingMatrix, Predictor> trainer)
+    {
+        ErrorAccumulator[] errors = new ErrorAccumulator[foldsAmount];
+        if (threadsAmount == 1)
+        {
+            for (int fold = 0; fold < foldsAmount; fold++)
+            {
+                errors[fold] = runFold(fold, trainer);
+            }
+        }
+        else
+        {
+            List<Callable<ErrorAccumulator>> tasks = new ArrayList<>();
+            for (int fold = 0; fold < foldsAmount; fold++)
+            {
+                int current = fold;
+                tasks.add(() -> runFold(current, trainer));
+            }
+
+            ForkJoinPool pool = new ForkJoinPool(Math.min(threadsAmount, foldsAmount));
+            try
+            {
+                List<Future<ErrorAccumulator>> results = pool.invokeAll(tasks);
+                for (int fold = 0; fold < foldsAmount; fold++)
+                {
+                    errors[fold] = results.get(fold).get();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Cross-validation interrupted.", e);
+            }
+            catch (ExecutionException e)
+            {
+                throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+        }
+
+        ErrorAccumulator total = new ErrorAccumulator();
+        for (int fold = 0; fold < foldsAmount; fold++)
+        {
+            Logger.log("Fold #" + (fold + 1) + ": " + errors[fold]);
+            total.merge(errors[fold]);
+        }
+        Logger.log("Cross-validation: " + total);
+
+        foldErrors = errors;
+        return total;
+    }
+
+    /**
+     * Trains an algorithm on a fold and evaluates it.
+     */
+    private ErrorAccumulator runFold(int fold, Function<RatingMatrix, Predictor> trainer)
+    {
+        RatingMatrix training = getTrainingSet(fold);
+        return evaluate(fold, training, trainer.apply(training));
+    }
+
+    /**
+     * Get the training set of a fold, made of the ratings of all the other folds.
+     *
+     * @param fold the fold
+     * @return a new matrix holding the training ratings
+     */
+    public RatingMatrix getTrainingSet(int fold)
+    {
+        checkFold(fold);
+        return ratings.exclude(folds, fold);
+    }
+
+    /**
+     * Evaluates a predictor on the test set of a fold.
+     *
+     * @param fold the fold
+     * @param training the training set the predictor has been trained on
+     * @param predictor the predictor
+     * @return the errors of the predictor
+     */
+    public ErrorAccumulator evaluate(int fold, RatingMatrix training, Predictor predictor)
+    {
+        checkFold(fold);
+
+        int[] rowIds = ratings.getRowIds();
+        int[] columnIds = ratings.getColumnIds();
+        double[] values = ratings.getValues();
+
+        ErrorAccumulator errors = new ErrorAccumulator();
+        for (int row = 0; row < rowIds.length; row++)
+        {
+            boolean trained = training.getRowIndex(rowIds[row]) >= 0;
+            for (int k = ratings.getRowStart(row); k < ratings.getRowEnd(row); k++)
+            {
+                if (folds[k] != fold)
+                {
+                    continue;
+                }
+
+                if (trained)
+                {
+                    errors.add(predictor.predict(rowIds[row], columnIds[k]), values[k]);
+                }
+                else
+                {
+                    errors.addMissing();
+                }
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Checks that a fold exists.
+     */
+    private void checkFold(int fold)
+    {
+        if (fold < 0 || fold >= foldsAmount)
+        {
+            throw new IllegalArgumentException("The fold " + fold + " is not between 0 and " + (foldsAmount - 1));
+        }
+    }
+
+    /* Getter */
+
+    public RatingMatrix getRatings()
+    {
+        return ratings;
+    }
+
+    /**
+     * Get the fold of each rating.
+     *
+     * The array is shared and must not be modified.
+     * @return the fold of each rating, parallel to the values of the ratings
+     */
+    public byte[] getFolds()
+    {
+        return folds;
+    }
+
+    public int getFoldsAmount()
+    {
+        return foldsAmount;
+    }
+
+    /**
+     * Get the errors of each fold found by the last run.
+     * @return the errors of each fold, or null before any run
+     */
+    public ErrorAccumulator[] getFoldErrors()
+    {
+        return foldErrors;
+    }
+
+    public int getThreadsAmount()
+    {
+        return threadsAmount;
+    }
+
+    /* Setter */
+
+    /**
+     * Set the amount of folds evaluated at the same time.
+     * @param threadsAmount the amount of threads, at least 1
+     */
+    public void setThreadsAmount(int threadsAmount)
+    {
+        if (threadsAmount < 1)
+        {
+            throw new IllegalArgumentException("The amount of threads must be at least 1.");
+        }
+        this.threadsAmount = threadsAmount;
+    }
+}
@@ -0,0 +1,164 @@
+package it.unica.foresee.libraries;
+
+/**
+ * Running accumulator of the errors of predictions against the true ratings.
+ *
+ * The pairs of prediction and truth are added one at a time, so no array of
+ * them is ever made, and the root mean squared error, the mean absolute error
+ * and the coverage are read at any moment from a few running sums. To
+ * evaluate in parallel each thread fills its own accumulator, and the
+ * accumulators are merged at the end, always in the same order so that the
+ * result does not depend on the amount of threads.
+ */
+public class ErrorAccumulator
+{
+    /**
+     * Amount of predicted ratings.
+     */
+    private long count;
+
+    /**
+     * Amount of ratings that could not be predicted.
+     */
+    private long missingCount;
+
+    /**
+     * Sum of the squared errors.
+     */
+    private double squaredErrorSum;
+
+    /**
+     * Sum of the absolute errors.
+     */
+    private double absoluteErrorSum;
+
+    /**
+     * Adds a prediction of a rating.
+     *
+     * A NaN prediction is a rating that could not be predicted, see {@link #addMissing()}.
+     *
+     * @param prediction the predicted rating
+     * @param truth the true rating
+     */
+    public void add(double prediction, double truth)
+    {
+        if (Double.isNaN(prediction))
+        {
+            missingCount++;
+            return;
+        }
+
+        double error = prediction - truth;
+        squaredErrorSum += error * error;
+        absoluteErrorSum += Math.abs(error);
+        count++;
+    }
+
+    /**
+     * Adds a rating that could not be predicted, which only lowers the coverage.
+     */
+    public void addMissing()
+    {
+        missingCount++;
+    }
+
+    /**
+     * Adds the predictions accumulated by another accumulator.
+     *
+     * @param other the other accumulator, unchanged
+     * @return this accumulator
+     */
+    public ErrorAccumulator merge(ErrorAccumulator other)
+    {
+        count += other.count;
+        missingCount += other.missingCount;
+        squaredErrorSum += other.squaredErrorSum;
+        absoluteErrorSum += other.absoluteErrorSum;
+        return this;
+    }
+
+    /**
+     * Forgets every prediction added so far.
+     */
+    public void clear()
+    {
+        count = 0;
+        missingCount = 0;
+        squaredErrorSum = 0;
+        absoluteErrorSum = 0;
+    }
+
+    /**
+     * Checks that there is at least a prediction to evaluate.
+     */
+    private void checkNotEmpty()
+    {
+        if (count == 0)
+        {
+            throw new IllegalStateException("There are no predictions to evaluate.");
+        }
+    }
+
+    /* Getter */
+
+    /**
+     * Get the root mean squared error of the predictions.
+     * @return the RMSE
+     * @throws IllegalStateException if there is no prediction
+     */
+    public double getRMSE()
+    {
+        checkNotEmpty();
+        return Math.sqrt(squaredErrorSum / count);
+    }
+
+    /**
+     * Get the mean absolute error of the predictions.
+     * @return the MAE
+     * @throws IllegalStateException if there is no prediction
+     */
+    public double getMAE()
+    {
+        checkNotEmpty();
+        return absoluteErrorSum / count;
+    }
+
+    /**
+     * Get the share of the ratings that were predicted.
+     * @return the amount of predictions over the amount of ratings, 0 if there is no rating
+     */
+    public double getCoverage()
+    {
+        long total = count + missingCount;
+        return total == 0 ? 0 : (double) count / total;
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    public long getMissingCount()
+    {
+        return missingCount;
+    }
+
+    public double getSquaredErrorSum()
+    {
+        return squaredErrorSum;
+    }
+
+    public double getAbsoluteErrorSum()
+    {
+        return absoluteErrorSum;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "RMSE: " + (count == 0 ? Double.NaN : getRMSE()) +
+                ", MAE: " + (count == 0 ? Double.NaN : getMAE()) +
+                ", coverage: " + getCoverage() +
+                " (" + count + " predictions, " + missingCount + " missing)";
+    }
+}
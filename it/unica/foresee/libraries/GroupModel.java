@@ -4,132 +4,581 @@ import it.unica.foresee.datasets.DatasetSparseVector;
 import it.unica.foresee.datasets.DoubleElement;
 import it.unica.foresee.utils.Logger;
 
+import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 
 /**
  * Makes a group model from a list of clusters.
+ *
+ * The models of all the clusters are computed at once in a dense matrix, with
+ * a row for each cluster and a column for each item, each cluster in its own
+ * task among the threads set by {@link #setThreadsAmount(int)}. The ratings of
+ * each cluster are grouped by item in primitive arrays, so every strategy
+ * reads the ratings of an item from a contiguous slice, and no model element
+ * is created until the models are returned as vectors.
+ *
+ * {@link Strategy#AVERAGE} keeps the original semantics: the users must be
+ * dense vectors of ratings of the same size, the sum of the ratings of each
+ * item is divided by the size of the cluster, and every item is put in the
+ * models. For the other strategies a value of 0 means, as everywhere else,
+ * that the item is not rated: they only aggregate the ratings given by the
+ * members of the cluster, and an item rated by none of them stays 0 in its
+ * model and is left out of the vectors.
+ *
+ * The users with ID 0 are taken for the centroids of the clusters: they are
+ * linked to no model and their ratings are skipped.
  */
 public class GroupModel<T extends DatasetSparseVector<? extends DoubleElement>>
 {
+    /**
+     * Strategies aggregating the ratings of the members of a group.
+     */
+    public enum Strategy
+    {
+        /**
+         * The Additive Utilitarian aka Average Strategy: the sum of the ratings
+         * divided by the size of the cluster.
+         */
+        AVERAGE,
+
+        /**
+         * The mean of the ratings given, leaving out the members who did not rate the item.
+         */
+        RATED_AVERAGE,
+
+        /**
+         * The lowest rating, so that the group is as happy as its least happy member.
+         */
+        LEAST_MISERY,
+
+        /**
+         * The highest rating, so that the group is as happy as its happiest member.
+         */
+        MOST_PLEASURE,
+
+        /**
+         * The mean of the ratings, but an item with a rating below the misery
+         * threshold (see {@link #setMiseryThreshold(double)}) is not rated.
+         */
+        AVERAGE_WITHOUT_MISERY,
+
+        /**
+         * The median of the ratings, the mean of the two middle ones when they are even.
+         */
+        MEDIAN
+    }
+
+    /**
+     * Model of each user, indexed by user ID, -1 for the users in no model.
+     */
+    private int[] userModels = new int[0];
+
+    /**
+     * Models made by the last call, one row of items after the other.
+     */
+    private double[] modelMatrix = new double[0];
 
     /**
-     * Maintains a connection between a user and the model where it's put.
+     * Amount of items of each model made by the last call.
      */
-    private Map<Integer, Integer> userToModel = new HashMap<>();
+    private int vectorSize;
 
+    /**
+     * Amount of threads making the models.
+     */
+    private int threadsAmount = 1;
+
+    /**
+     * Ratings below this are a misery for {@link Strategy#AVERAGE_WITHOUT_MISERY}.
+     */
+    private double miseryThreshold = 2;
 
     /**
      * Models a group with the Additive Utilitarian aka Average Strategy
      * modelling strategy.
      *
      * Each group is the average of the values of the composing elements.
+     * The models are instances of the class of the first element.
+     *
+     * {@link #makeModels(List, Strategy, Supplier)}
      *
      * @param clusterList a list of clusters, each represented as lists of clusterable elements
      * @return a list of models, one for each cluster
      */
     public List<T> averageStrategy(List<List<T>> clusterList)
     {
-        List<T> modelList = new ArrayList<>();
+        return makeModels(clusterList, Strategy.AVERAGE, modelFactory(clusterList));
+    }
+
+    /**
+     * Models each group with the given strategy.
+     *
+     * The models are instances of the class of the first element.
+     *
+     * {@link #makeModels(List, Strategy, Supplier)}
+     *
+     * @param clusterList a list of clusters, each represented as lists of clusterable elements
+     * @param strategy the modelling strategy
+     * @return a list of models, one for each cluster
+     */
+    public List<T> makeModels(List<List<T>> clusterList, Strategy strategy)
+    {
+        return makeModels(clusterList, strategy, modelFactory(clusterList));
+    }
 
-        // Set the size of the model to the value of the first element of the first cluster.
-        // This operation assumes that every element has the same size.
-        int vectorSize = clusterList.get(0).get(0).getVectorSize();
+    /**
+     * Models each group with the given strategy.
+     *
+     * The models are made as a matrix by {@link #makeModelMatrix(List, Strategy)},
+     * then each row is copied in a vector holding the rated items, or every
+     * item for {@link Strategy#AVERAGE}.
+     *
+     * @param clusterList a list of clusters, each represented as lists of clusterable elements
+     * @param strategy the modelling strategy
+     * @param modelFactory makes an empty model
+     * @return a list of models, one for each cluster
+     */
+    public List<T> makeModels(List<List<T>> clusterList, Strategy strategy, Supplier<T> modelFactory)
+    {
+        makeModelMatrix(clusterList, strategy);
 
-        // Loop through the clusters to make the models
-        for(int clusterID = 0; clusterID < clusterList.size(); clusterID++)
+        List<T> modelList = new ArrayList<>(clusterList.size());
+        for (int clusterID = 0; clusterID < clusterList.size(); clusterID++)
         {
-            // Initialise the model
-            T model = null;
-            try
+            T model = modelFactory.get();
+            model.setVectorSize(vectorSize);
+            for (int i = 1; i <= vectorSize; i++)
             {
-                model = (T) clusterList.get(0).get(0).getClass().newInstance();
-                model.setVectorSize(vectorSize);
+                double value = modelMatrix[clusterID * vectorSize + i - 1];
+                if (value != 0 || strategy == Strategy.AVERAGE)
+                {
+                    model.put(i, new DoubleElement(value));
+                }
             }
-            catch (Exception e)
+            modelList.add(model);
+        }
+
+        return modelList;
+    }
+
+    /**
+     * Models each group with the given strategy in a dense matrix.
+     *
+     * Every model has a column for each item, from 1 to the vector size of the
+     * first element for {@link Strategy#AVERAGE}, or to the highest vector size
+     * or key among the elements for the other strategies; the users are linked
+     * to the model of their cluster.
+     *
+     * @param clusterList a list of clusters, each represented as lists of clusterable elements
+     * @param strategy the modelling strategy
+     * @return the models, one row of items for each cluster; the value of item i
+     *         of cluster c is at {@code c * vectorSize + i - 1}
+     */
+    public double[] makeModelMatrix(List<List<T>> clusterList, Strategy strategy)
+    {
+        if (clusterList == null || clusterList.isEmpty())
+        {
+            throw new IllegalArgumentException("There must be at least a cluster.");
+        }
+
+        if (strategy == null)
+        {
+            throw new IllegalArgumentException("The strategy cannot be null.");
+        }
+
+        // Link each user to its model and find the size of the models
+        int size = 0;
+        int highestUserID = -1;
+        for (List<T> cluster : clusterList)
+        {
+            for (T user : cluster)
             {
-                throw new IllegalStateException(e);
+                if (user.getId() < 0)
+                {
+                    throw new IllegalArgumentException("The user ID " + user.getId() + " cannot be negative.");
+                }
+                highestUserID = Math.max(highestUserID, user.getId());
+                size = Math.max(size, user.getVectorSize());
+                if (!user.isEmpty())
+                {
+                    size = Math.max(size, user.lastKey());
+                }
             }
+        }
 
-            double[] modelPoint = new double[model.getVectorSize()];
-            Logger.debug("Determined size of the model: " + model.getVectorSize());
+        int[] models = new int[highestUserID + 1];
+        Arrays.fill(models, -1);
+        for (int clusterID = 0; clusterID < clusterList.size(); clusterID++)
+        {
+            for (T user : clusterList.get(clusterID))
+            {
+                // Skip the centroid
+                if (user.getId() != 0)
+                {
+                    models[user.getId()] = clusterID;
+                }
+            }
+        }
 
-            List<T> currentCluster = clusterList.get(clusterID);
+        // This operation assumes that every element has the same size
+        int modelSize = strategy == Strategy.AVERAGE ? clusterList.get(0).get(0).getVectorSize() : size;
+        double[] matrix = new double[clusterList.size() * modelSize];
+        Logger.debug("Determined size of the models: " + modelSize);
 
-            // Add the values of each user to the model
-            for (int userIndex = 0; userIndex < currentCluster.size(); userIndex++)
+        if (threadsAmount == 1 || clusterList.size() == 1)
+        {
+            for (int clusterID = 0; clusterID < clusterList.size(); clusterID++)
+            {
+                modelCluster(clusterList.get(clusterID), strategy, matrix, clusterID, modelSize);
+            }
+        }
+        else
+        {
+            // Each cluster writes its own row
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int clusterID = 0; clusterID < clusterList.size(); clusterID++)
             {
-                int userID = currentCluster.get(userIndex).getId();
+                int row = clusterID;
+                tasks.add(() ->
+                {
+                    modelCluster(clusterList.get(row), strategy, matrix, row, modelSize);
+                    return null;
+                });
+            }
 
-                // This check ensures that we avoid putting the centroid in the map
-                if (userID == 0)
+            ForkJoinPool pool = new ForkJoinPool(threadsAmount);
+            try
+            {
+                for (Future<Void> result : pool.invokeAll(tasks))
                 {
-                    Logger.debug("Skipping user with ID assuming it's the centroid");
-                    continue;
+                    result.get();
                 }
-                else
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Modelling interrupted.", e);
+            }
+            catch (ExecutionException e)
+            {
+                throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+        }
+
+        userModels = models;
+        modelMatrix = matrix;
+        vectorSize = modelSize;
+        return matrix;
+    }
+
+    /**
+     * Aggregates the ratings of a cluster in a row of the model matrix.
+     *
+     * The ratings are sorted by item with a counting sort, so that the ratings
+     * of each item are a slice of a single array.
+     */
+    private void modelCluster(List<T> cluster, Strategy strategy, double[] matrix, int row, int size)
+    {
+        if (strategy == Strategy.AVERAGE)
+        {
+            averageCluster(cluster, matrix, row, size);
+            return;
+        }
+
+        // Offset of the ratings of each item
+        int[] offsets = new int[size + 1];
+        for (T user : cluster)
+        {
+            if (user.getId() == 0)
+            {
+                continue;
+            }
+            for (Map.Entry<Integer, ? extends DoubleElement> entry : user.entrySet())
+            {
+                if (entry.getValue().getDoubleValue() != 0)
                 {
-                    // Get the points of the cluster
-                    T user = currentCluster.get(userIndex);
+                    offsets[entry.getKey()]++;
+                }
+            }
+        }
+        for (int i = 0; i < size; i++)
+        {
+            offsets[i + 1] += offsets[i];
+        }
 
-                    // Link the user to his or her model
-                    userToModel.put(userID, clusterID);
+        // Position of the next rating of each item
+        int[] next = Arrays.copyOf(offsets, size);
+        double[] ratings = new double[offsets[size]];
+        for (T user : cluster)
+        {
+            if (user.getId() == 0)
+            {
+                continue;
+            }
+            for (Map.Entry<Integer, ? extends DoubleElement> entry : user.entrySet())
+            {
+                double value = entry.getValue().getDoubleValue();
+                if (value != 0)
+                {
+                    ratings[next[entry.getKey() - 1]++] = value;
+                }
+            }
+        }
 
-                    // Check that every array has the same length
-                    if (modelPoint.length != user.size())
-                    {
-                        throw new IllegalStateException(
-                                "Every element of the dataset needs to have the same size.\n" +
-                                        "List of user: " + user
-                        );
-                    }
+        for (int i = 0; i < size; i++)
+        {
+            if (offsets[i] < offsets[i + 1])
+            {
+                matrix[row * size + i] = aggregate(strategy, ratings, offsets[i], offsets[i + 1]);
+            }
+        }
+    }
 
-                    // Add the element array to the model array
-                    for (int key : user.keySet())
-                    {
-                        if (user.get(key).getDoubleValue() < 1) throw new IllegalStateException(
-                                "List of user: " + user + "\n" +
-                                        "Element " + userID + ", " + key +
-                                        " has value " + user.get(key).getDoubleValue()
-                                );
-                        modelPoint[key - 1] += user.get(key).getDoubleValue();
-                    }
+    /**
+     * Averages the ratings of a cluster in a row of the model matrix with the
+     * original Average Strategy, dividing the sums by the size of the cluster.
+     */
+    private void averageCluster(List<T> cluster, double[] matrix, int row, int size)
+    {
+        double[] sums = new double[size];
+        for (T user : cluster)
+        {
+            // This check ensures that we avoid putting the centroid in the model
+            if (user.getId() == 0)
+            {
+                Logger.debug("Skipping user with ID assuming it's the centroid");
+                continue;
+            }
+
+            // Check that every array has the same length
+            if (size != user.size())
+            {
+                throw new IllegalStateException(
+                        "Every element of the dataset needs to have the same size.\n" +
+                                "List of user: " + user
+                );
+            }
+
+            for (Map.Entry<Integer, ? extends DoubleElement> entry : user.entrySet())
+            {
+                double value = entry.getValue().getDoubleValue();
+                if (value < 1)
+                {
+                    throw new IllegalStateException(
+                            "List of user: " + user + "\n" +
+                                    "Element " + user.getId() + ", " + entry.getKey() +
+                                    " has value " + value
+                    );
                 }
+                sums[entry.getKey() - 1] += value;
+            }
+        }
 
+        for (int i = 0; i < size; i++)
+        {
+            double value = sums[i] / cluster.size();
+            matrix[row * size + i] = value;
+            if (value < 1 || value > 5)
+            {
+                Logger.warn("The rating is out of bound: " + value);
             }
+        }
+    }
 
-            // Then average the values and add them to the model
-            // Warning: the values in the array are off by one to the left
-            // i.e. they start from 0 and not from 1
-            for (int i = 1; i < modelPoint.length + 1; i++)
+    /**
+     * Aggregates the ratings of an item.
+     *
+     * @param strategy the modelling strategy
+     * @param ratings the ratings
+     * @param start index of the first rating of the item
+     * @param end index after the last rating of the item
+     * @return the rating of the group, 0 if not rated
+     */
+    private double aggregate(Strategy strategy, double[] ratings, int start, int end)
+    {
+        switch (strategy)
+        {
+            case LEAST_MISERY:
+            {
+                double min = ratings[start];
+                for (int r = start + 1; r < end; r++)
+                {
+                    min = Math.min(min, ratings[r]);
+                }
+                return min;
+            }
+            case MOST_PLEASURE:
             {
-                model.put(i, new DoubleElement(modelPoint[i - 1]/currentCluster.size()));
-                if(model.get(i).getDoubleValue() < 1 || model.get(i).getDoubleValue() > 5)
+                double max = ratings[start];
+                for (int r = start + 1; r < end; r++)
                 {
-                    Logger.warn("The rating is out of bound: " + model.get(i).getDoubleValue());
+                    max = Math.max(max, ratings[r]);
                 }
+                return max;
             }
+            case MEDIAN:
+            {
+                Arrays.sort(ratings, start, end);
+                int middle = (start + end) / 2;
+                return (end - start) % 2 == 1 ? ratings[middle] : (ratings[middle - 1] + ratings[middle]) / 2;
+            }
+            case AVERAGE_WITHOUT_MISERY:
+            case RATED_AVERAGE:
+            default:
+            {
+                double sum = 0;
+                for (int r = start; r < end; r++)
+                {
+                    if (strategy == Strategy.AVERAGE_WITHOUT_MISERY && ratings[r] < miseryThreshold)
+                    {
+                        return 0;
+                    }
+                    sum += ratings[r];
+                }
+                return sum / (end - start);
+            }
+        }
+    }
 
-            // Finally add the model to the list of the models
-            modelList.add(model);
+    /**
+     * Makes empty instances of the class of the first element.
+     */
+    private Supplier<T> modelFactory(List<List<T>> clusterList)
+    {
+        if (clusterList == null || clusterList.isEmpty() || clusterList.get(0).isEmpty())
+        {
+            throw new IllegalArgumentException("The first cluster cannot be empty.");
         }
 
-        return modelList;
+        T first = clusterList.get(0).get(0);
+        Constructor<?> constructor;
+        try
+        {
+            constructor = first.getClass().getConstructor();
+        }
+        catch (NoSuchMethodException e)
+        {
+            throw new IllegalStateException(e);
+        }
+
+        return () ->
+        {
+            try
+            {
+                // The constructor is the one of the class of an element of type T
+                @SuppressWarnings("unchecked")
+                T model = (T) constructor.newInstance();
+                return model;
+            }
+            catch (Exception e)
+            {
+                throw new IllegalStateException(e);
+            }
+        };
     }
 
+    /* Getter */
+
     /**
      * Gets the cluster where a user is.
      *
      * @param userID the ID of a user
-     * @return the cluster/model ID
+     * @return the cluster/model ID, -1 if the user is in no cluster
      */
     public int getUserModel(int userID) {
-        return userToModel.get(userID);
+        return userID >= 0 && userID < userModels.length ? userModels[userID] : -1;
+    }
+
+    /**
+     * Gets the model of each user.
+     *
+     * @return the cluster/model ID of each user, indexed by user ID, -1 for the users in no cluster
+     */
+    public int[] getUserModels() {
+        return userModels;
     }
 
+    /**
+     * Gets the model of each user as a map.
+     *
+     * @return the cluster/model ID of each user in a cluster, by user ID
+     */
     public Map<Integer, Integer> getUserToModelMap() {
+        Map<Integer, Integer> userToModel = new HashMap<>();
+        for (int userID = 0; userID < userModels.length; userID++)
+        {
+            if (userModels[userID] >= 0)
+            {
+                userToModel.put(userID, userModels[userID]);
+            }
+        }
         return userToModel;
     }
+
+    /**
+     * Gets the models made by the last call.
+     *
+     * @return the models, one row of {@link #getVectorSize()} items for each cluster
+     */
+    public double[] getModelMatrix() {
+        return modelMatrix;
+    }
+
+    /**
+     * Gets the rating of a model for an item.
+     *
+     * @param modelID the cluster/model ID
+     * @param itemID the ID of the item, from 1
+     * @return the rating of the model, 0 if not rated
+     */
+    public double getModelValue(int modelID, int itemID) {
+        return modelMatrix[modelID * vectorSize + itemID - 1];
+    }
+
+    public int getVectorSize() {
+        return vectorSize;
+    }
+
+    public int getThreadsAmount() {
+        return threadsAmount;
+    }
+
+    public double getMiseryThreshold() {
+        return miseryThreshold;
+    }
+
+    /* Setter */
+
+    /**
+     * Set the amount of threads making the models, each one modelling whole clusters.
+     * @param threadsAmount the amount of threads, at least 1
+     */
+    public void setThreadsAmount(int threadsAmount) {
+        if (threadsAmount < 1)
+        {
+            throw new IllegalArgumentException("The amount of threads must be at least 1.");
+        }
+        this.threadsAmount = threadsAmount;
+    }
+
+    /**
+     * Set the rating below which an item is a misery for {@link Strategy#AVERAGE_WITHOUT_MISERY}.
+     * @param miseryThreshold the threshold
+     */
+    public void setMiseryThreshold(double miseryThreshold) {
+        this.miseryThreshold = miseryThreshold;
+    }
 }
@@ -0,0 +1,651 @@
+package it.unica.foresee.libraries;
+
+import static it.unica.foresee.utils.Logger.warn;
+
+import it.unica.foresee.datasets.DatasetNestedSparseVector;
+import it.unica.foresee.datasets.DatasetSparseVector;
+import it.unica.foresee.datasets.DoubleElement;
+import it.unica.foresee.datasets.RatingMatrix;
+import it.unica.foresee.libraries.interfaces.Predictor;
+import it.unica.foresee.libraries.interfaces.SimilarityMetric;
+import it.unica.foresee.utils.Logger;
+
+import org.apache.commons.math3.util.Pair;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * This class is an implementation of the nearest neighbour algorithm for item similarity.
+ *
+ * The similarity between items is computed on the columns of the ratings, that
+ * is on the ratings of the transposed {@link RatingMatrix}, with any
+ * {@link SimilarityMetric}. Only the K nearest neighbours of each item are kept,
+ * in a {@link NeighbourIndex}. When the users are many more than the items,
+ * this index is much smaller and cheaper to compute than the one of
+ * {@link NearestNeighbour}, and it changes less when new ratings are added.
+ *
+ * The prediction of an item for a user is the mean of the ratings of the user
+ * for the nearest neighbours of the item, weighted by their similarity.
+ * Values of 0 are treated as not rated, as in {@link NearestNeighbour}.
+ */
+public class ItemNearestNeighbour<T extends DatasetNestedSparseVector<? extends DatasetSparseVector<? extends DoubleElement>>> implements Predictor
+{
+    /**
+     * The matrix of the users with the ratings, or null if the object has
+     * been trained on a {@link RatingMatrix}.
+     */
+    private T dataset;
+
+    /**
+     * The ratings of the users when there is no dataset, see {@link #ItemNearestNeighbour(RatingMatrix)}.
+     */
+    private RatingMatrix ratings;
+
+    /**
+     * Lowest acceptable value.
+     */
+    private double minValue = 1;
+
+    /**
+     * Highest acceptable value.
+     */
+    private double maxValue = 5;
+
+    /**
+     * Nearest neighbours of each item.
+     */
+    private NeighbourIndex neighbourIndex;
+
+    /**
+     * Metric used to compute the similarity between items.
+     */
+    private SimilarityMetric similarityMetric = new PearsonSimilarity();
+
+    /**
+     * Amount of threads used to compute the similarities and the forecasts.
+     */
+    private int threadsAmount = 1;
+
+    /**
+     * Amount of consecutive users forecast by the same task.
+     */
+    private static final int FORECAST_BLOCK_SIZE = 64;
+
+    /**
+     * Initialise the object with a dataset.
+     * @param dataset the ratings of the users
+     */
+    public ItemNearestNeighbour(T dataset)
+    {
+        if(dataset.keySet().size() == 0)
+        {
+            throw new IllegalStateException("The dataset cannot be empty.");
+        }
+        this.dataset = dataset;
+    }
+
+    /**
+     * Initialise the object with the ratings of a matrix, such as the training
+     * set of a fold of a {@link CrossValidation}.
+     *
+     * As in {@link NearestNeighbour#NearestNeighbour(RatingMatrix)}, the object
+     * can predict and recommend but not {@link #makeForecasts(int)}.
+     *
+     * @param ratings the ratings, a row for each user
+     */
+    public ItemNearestNeighbour(RatingMatrix ratings)
+    {
+        if (ratings.getRowsAmount() == 0)
+        {
+            throw new IllegalStateException("The ratings cannot be empty.");
+        }
+        this.ratings = ratings;
+    }
+
+    /**
+     * Finds the nearest neighbours of each item.
+     *
+     * The similarities are computed in tiles, in parallel when more than one
+     * thread is set, as in {@link NearestNeighbour#initialiseNeighbourIndex(int)}.
+     *
+     * @param neighboursAmount the amount of neighbours to keep for each item
+     */
+    public void initialiseNeighbourIndex(int neighboursAmount)
+    {
+        RatingMatrix items = (dataset != null ? dataset.toRatingMatrix() : ratings).transpose();
+        if (items.getRowsAmount() == 0)
+        {
+            throw new IllegalStateException("The dataset has no ratings.");
+        }
+        neighbourIndex = NearestNeighbour.computeNeighbourIndex(items, neighboursAmount,
+                similarityMetric, threadsAmount);
+    }
+
+    /**
+     * Calculates the predictions for each non rated item
+     * for each user in the dataset.
+     *
+     * Only the items having at least one of their nearest neighbours rated by
+     * the user are predicted, and only their entries are added to the user.
+     * As in {@link NearestNeighbour#makeForecasts(int)}, every prediction is
+     * computed from the ratings as they are before any forecast, so the users
+     * can be split among the threads with the same result.
+     *
+     * @param neighboursAmount amount of neighbours of each item taken into account
+     * @return the updated dataset
+     */
+    public T makeForecasts(int neighboursAmount)
+    {
+        if (dataset == null)
+        {
+            throw new IllegalStateException("There is no dataset to forecast, the ratings have been read from a matrix.");
+        }
+
+        int lastItem = dataset.getHighestNestedKey();
+
+        for (int userIndex : dataset.keySet())
+        {
+            if (dataset.get(userIndex) == null)
+            {
+                throw new IllegalStateException("User " + userIndex + " is null.");
+            }
+        }
+
+        prepareNeighbours(neighboursAmount);
+
+        // The ratings before any forecast, with a row for each user in ascending ID order
+        RatingMatrix ratings = dataset.toRatingMatrix();
+
+        Forecast[] forecasts = new Forecast[ratings.getRowsAmount()];
+        if (threadsAmount == 1 || forecasts.length <= FORECAST_BLOCK_SIZE)
+        {
+            forecastUsers(ratings, 0, forecasts.length, neighboursAmount, lastItem, forecasts);
+        }
+        else
+        {
+            // Blocks of consecutive users, each one with its own scratch arrays
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int row = 0; row < forecasts.length; row += FORECAST_BLOCK_SIZE)
+            {
+                int first = row;
+                int last = Math.min(row + FORECAST_BLOCK_SIZE, forecasts.length);
+                tasks.add(() ->
+                {
+                    forecastUsers(ratings, first, last, neighboursAmount, lastItem, forecasts);
+                    return null;
+                });
+            }
+
+            ForkJoinPool pool = new ForkJoinPool(threadsAmount);
+            try
+            {
+                for (Future<Void> result : pool.invokeAll(tasks))
+                {
+                    result.get();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Forecasting interrupted.", e);
+            }
+            catch (ExecutionException e)
+            {
+                throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+        }
+
+        for (int row = 0; row < forecasts.length; row++)
+        {
+            storeForecast(ratings.getRowId(row), forecasts[row], lastItem);
+        }
+
+        return dataset;
+    }
+
+    /**
+     * Predicts the rating of a user for an item, without changing the dataset.
+     *
+     * The neighbour index is built first if it does not hold enough neighbours.
+     *
+     * @param userId the ID of the user
+     * @param itemId the ID of the item
+     * @param neighboursAmount amount of neighbours of the item taken into account
+     * @return the rating of the user if the item has been rated, otherwise the
+     * prediction bounded to the acceptable values, or {@link Double#NaN} if
+     * the user rated none of the neighbours of the item
+     */
+    public double predict(int userId, int itemId, int neighboursAmount)
+    {
+        checkUser(userId);
+
+        double rating = getRating(userId, itemId);
+        if (rating != 0.0)
+        {
+            return rating;
+        }
+
+        prepareNeighbours(neighboursAmount);
+        int row = neighbourIndex.indexOf(itemId);
+        if (row < 0)
+        {
+            return Double.NaN;
+        }
+
+        double numerator = 0;
+        double denominator = 0;
+        int amount = Math.min(neighboursAmount, neighbourIndex.size(row));
+        for (int rank = 0; rank < amount; rank++)
+        {
+            double neighbourRating = getRating(userId, neighbourIndex.getNeighbourId(row, rank));
+            if (neighbourRating != 0.0)
+            {
+                double itemSimilarity = neighbourIndex.getSimilarity(row, rank);
+                numerator += itemSimilarity * neighbourRating;
+                denominator += itemSimilarity;
+            }
+        }
+
+        return denominator == 0 ? Double.NaN : bound(numerator / denominator);
+    }
+
+    /**
+     * Predicts the rating of a user for an item, using all the neighbours of the neighbour index.
+     *
+     * {@link #predict(int, int, int)}
+     *
+     * @param userId the ID of the user
+     * @param itemId the ID of the item
+     * @return the rating or the prediction of the user for the item
+     */
+    @Override
+    public double predict(int userId, int itemId)
+    {
+        return predict(userId, itemId, getIndexedNeighboursAmount());
+    }
+
+    /**
+     * Finds the items with the highest predictions for a user, without changing the dataset.
+     *
+     * Only the best n items are kept while the predictions are computed, in a bounded heap.
+     *
+     * @param userId the ID of the user
+     * @param n the amount of items to recommend
+     * @param neighboursAmount amount of neighbours of each item taken into account
+     * @return at most n pairs (item ID, prediction) sorted by prediction
+     * descending and then by item ID ascending
+     */
+    public List<Pair<Integer, Double>> recommend(int userId, int n, int neighboursAmount)
+    {
+        if (n < 0)
+        {
+            throw new IllegalArgumentException("The amount of items to recommend cannot be negative: " + n);
+        }
+
+        checkUser(userId);
+        prepareNeighbours(neighboursAmount);
+        if (n == 0)
+        {
+            return new ArrayList<>();
+        }
+
+        // The ratings of the user, by item ID
+        double[] userRatings;
+        if (dataset != null)
+        {
+            userRatings = new double[dataset.getHighestNestedKey() + 1];
+            for (Map.Entry<Integer, ? extends DoubleElement> entry : dataset.get(userId).entrySet())
+            {
+                userRatings[entry.getKey()] = entry.getValue().getDoubleValue();
+            }
+        }
+        else
+        {
+            userRatings = new double[ratings.getMaxColumnId() + 1];
+            int row = ratings.getRowIndex(userId);
+            int[] columnIds = ratings.getColumnIds();
+            double[] values = ratings.getValues();
+            for (int k = ratings.getRowStart(row); k < ratings.getRowEnd(row); k++)
+            {
+                userRatings[columnIds[k]] = values[k];
+            }
+        }
+
+        // Keep the best n items, the worst one on top
+        Comparator<Pair<Integer, Double>> worstFirst = (a, b) ->
+        {
+            int comparison = Double.compare(a.getSecond(), b.getSecond());
+            return comparison != 0 ? comparison : Integer.compare(b.getFirst(), a.getFirst());
+        };
+        int[] itemIds = neighbourIndex.getUserIds();
+
+        // The heap never holds more than the items, whatever n
+        PriorityQueue<Pair<Integer, Double>> best = new PriorityQueue<>(Math.min(n, itemIds.length) + 1, worstFirst);
+        for (int row = 0; row < itemIds.length; row++)
+        {
+            if (userRatings[itemIds[row]] != 0.0) continue;
+
+            double prediction = predictItem(row, neighboursAmount, userRatings);
+            if (Double.isNaN(prediction)) continue;
+
+            Pair<Integer, Double> candidate = new Pair<>(itemIds[row], bound(prediction));
+            if (best.size() < n)
+            {
+                best.add(candidate);
+            }
+            else if (worstFirst.compare(candidate, best.peek()) > 0)
+            {
+                best.poll();
+                best.add(candidate);
+            }
+        }
+
+        ArrayList<Pair<Integer, Double>> recommendations = new ArrayList<>(best);
+        recommendations.sort(worstFirst.reversed());
+        return recommendations;
+    }
+
+    /**
+     * Finds the items with the highest predictions for a user, using all the neighbours of the neighbour index.
+     *
+     * {@link #recommend(int, int, int)}
+     *
+     * @param userId the ID of the user
+     * @param n the amount of items to recommend
+     * @return at most n pairs (item ID, prediction) sorted by prediction descending
+     */
+    public List<Pair<Integer, Double>> recommend(int userId, int n)
+    {
+        return recommend(userId, n, getIndexedNeighboursAmount());
+    }
+
+    /**
+     * Get the n nearest neighbours to the given item (ID, itemSim).
+     *
+     * @param itemId the ID of the item
+     * @param neighboursAmount amount of neighbours to return
+     * @return a list of the n nearest neighbours sorted by similarity descending
+     * and then by ID ascending, empty if nobody rated the item
+     */
+    public List<Pair<Integer, Double>> getNearestNeighbours(int itemId, int neighboursAmount)
+    {
+        prepareNeighbours(neighboursAmount);
+
+        ArrayList<Pair<Integer, Double>> neighbours = new ArrayList<>();
+        int row = neighbourIndex.indexOf(itemId);
+        if (row >= 0)
+        {
+            int amount = Math.min(neighboursAmount, neighbourIndex.size(row));
+            for (int rank = 0; rank < amount; rank++)
+            {
+                neighbours.add(new Pair<>(neighbourIndex.getNeighbourId(row, rank),
+                        neighbourIndex.getSimilarity(row, rank)));
+            }
+        }
+        return neighbours;
+    }
+
+    /**
+     * The predictions of a user.
+     */
+    private static class Forecast
+    {
+        /**
+         * Predicted items, in ascending order.
+         */
+        private final int[] items;
+
+        /**
+         * Prediction of each item.
+         */
+        private final double[] ratings;
+
+        private Forecast(int[] items, double[] ratings)
+        {
+            this.items = items;
+            this.ratings = ratings;
+        }
+    }
+
+    /**
+     * Calculates the predictions of a block of users.
+     *
+     * @param ratings the ratings before any forecast
+     * @param first index of the first user of the block
+     * @param last index after the last user of the block
+     * @param neighboursAmount amount of neighbours taken into account
+     * @param lastItem the highest item ID
+     * @param forecasts where the predictions of each user are stored
+     */
+    private void forecastUsers(RatingMatrix ratings, int first, int last,
+                               int neighboursAmount, int lastItem, Forecast[] forecasts)
+    {
+        double[] userRatings = new double[lastItem + 1];
+        int[] itemIds = neighbourIndex.getUserIds();
+        int[] columnIds = ratings.getColumnIds();
+        double[] values = ratings.getValues();
+
+        for (int row = first; row < last; row++)
+        {
+            for (int e = ratings.getRowStart(row); e < ratings.getRowEnd(row); e++)
+            {
+                userRatings[columnIds[e]] = values[e];
+            }
+
+            int[] items = new int[itemIds.length];
+            double[] predictions = new double[itemIds.length];
+            int predicted = 0;
+            for (int item = 0; item < itemIds.length; item++)
+            {
+                // Items rated 0 are not rated
+                if (userRatings[itemIds[item]] != 0.0) continue;
+
+                double prediction = predictItem(item, neighboursAmount, userRatings);
+                if (!Double.isNaN(prediction))
+                {
+                    items[predicted] = itemIds[item];
+                    predictions[predicted] = prediction;
+                    predicted++;
+                }
+            }
+            forecasts[row] = new Forecast(Arrays.copyOf(items, predicted), Arrays.copyOf(predictions, predicted));
+
+            // Clean the scratch array for the next user
+            for (int e = ratings.getRowStart(row); e < ratings.getRowEnd(row); e++)
+            {
+                userRatings[columnIds[e]] = 0;
+            }
+        }
+    }
+
+    /**
+     * Calculates the prediction of an item from the ratings of a user for its neighbours.
+     *
+     * @param item index of the item in the neighbour index
+     * @param neighboursAmount amount of neighbours taken into account
+     * @param userRatings the ratings of the user, by item ID, 0 if not rated
+     * @return the prediction, not bounded, or NaN if the user rated none of the neighbours
+     */
+    private double predictItem(int item, int neighboursAmount, double[] userRatings)
+    {
+        double numerator = 0;
+        double denominator = 0;
+        int amount = Math.min(neighboursAmount, neighbourIndex.size(item));
+        for (int rank = 0; rank < amount; rank++)
+        {
+            double rating = userRatings[neighbourIndex.getNeighbourId(item, rank)];
+            if (rating != 0.0)
+            {
+                double itemSimilarity = neighbourIndex.getSimilarity(item, rank);
+                numerator += itemSimilarity * rating;
+                denominator += itemSimilarity;
+            }
+        }
+        return denominator == 0 ? Double.NaN : numerator / denominator;
+    }
+
+    /**
+     * Writes the predictions of a user in the dataset.
+     *
+     * @param userIndex the user ID
+     * @param forecast the predictions of the user
+     * @param lastItem the highest item ID
+     */
+    private void storeForecast(int userIndex, Forecast forecast, int lastItem)
+    {
+        DatasetSparseVector<?> currentUser = dataset.get(userIndex);
+        currentUser.setVectorSize(lastItem);
+
+        for (int m = 0; m < forecast.items.length; m++)
+        {
+            double rating = forecast.ratings[m];
+
+            // Check that the value is in the bounds
+            if (rating > getMaxValue())
+            {
+                warn("Converting too high rating: " + rating + " -> " + getMaxValue());
+                forecast.ratings[m] = getMaxValue();
+            }
+
+            if (rating < getMinValue())
+            {
+                warn("Converting too low rating: " + rating + " -> " + getMinValue());
+                forecast.ratings[m] = getMinValue();
+            }
+
+            Logger.log("User " + userIndex + " of " + dataset.size() +
+                    ": " + forecast.ratings[m]);
+        }
+
+        // Create or replace the entries of the predicted items only
+        currentUser.putAll(forecast.items, forecast.ratings);
+    }
+
+    /**
+     * Builds the neighbour index, unless it already holds enough neighbours.
+     *
+     * It is synchronized, so that the threads predicting at the same time
+     * build the index only once and all see it complete.
+     *
+     * @param neighboursAmount amount of neighbours of each item needed
+     */
+    private synchronized void prepareNeighbours(int neighboursAmount)
+    {
+        if (neighbourIndex == null || !neighbourIndex.covers(neighboursAmount))
+        {
+            initialiseNeighbourIndex(neighboursAmount);
+        }
+    }
+
+    /**
+     * Get the amount of neighbours of each item in the neighbour index.
+     */
+    private int getIndexedNeighboursAmount()
+    {
+        if (neighbourIndex == null)
+        {
+            throw new IllegalStateException("The neighbour index has not been initialised.");
+        }
+        return neighbourIndex.getK();
+    }
+
+    /**
+     * Checks that a user is in the ratings.
+     */
+    private void checkUser(int userId)
+    {
+        if (dataset != null ? dataset.get(userId) == null : ratings.getRowIndex(userId) < 0)
+        {
+            throw new IllegalArgumentException("User " + userId + " is not in the dataset.");
+        }
+    }
+
+    /**
+     * Get the rating of a user for an item.
+     *
+     * @return the rating, or 0 if the item has not been rated
+     */
+    private double getRating(int userId, int itemId)
+    {
+        if (dataset != null)
+        {
+            DoubleElement rating = dataset.get(userId).get(itemId);
+            return rating == null ? 0.0 : rating.getDoubleValue();
+        }
+
+        double rating = ratings.getValue(userId, itemId);
+        return Double.isNaN(rating) ? 0.0 : rating;
+    }
+
+    /**
+     * Bounds a prediction to the acceptable values.
+     */
+    private double bound(double rating)
+    {
+        return Math.max(getMinValue(), Math.min(getMaxValue(), rating));
+    }
+
+    public NeighbourIndex getNeighbourIndex()
+    {
+        return this.neighbourIndex;
+    }
+
+    public double getMaxValue() {
+        return maxValue;
+    }
+
+    public double getMinValue() {
+        return minValue;
+    }
+
+    public void setMaxValue(double maxValue) {
+        this.maxValue = maxValue;
+    }
+
+    public void setMinValue(double minValue) {
+        this.minValue = minValue;
+    }
+
+    public SimilarityMetric getSimilarityMetric() {
+        return similarityMetric;
+    }
+
+    /**
+     * Set the metric used to compute the similarity between items.
+     *
+     * The neighbour index computed with the previous metric is dropped.
+     * @param similarityMetric the similarity metric
+     */
+    public void setSimilarityMetric(SimilarityMetric similarityMetric) {
+        if (similarityMetric == null)
+        {
+            throw new IllegalArgumentException("The similarity metric cannot be null.");
+        }
+        this.similarityMetric = similarityMetric;
+        this.neighbourIndex = null;
+    }
+
+    public int getThreadsAmount() {
+        return threadsAmount;
+    }
+
+    /**
+     * Set the amount of threads used to compute the similarities and the forecasts.
+     * @param threadsAmount the amount of threads, at least 1
+     */
+    public void setThreadsAmount(int threadsAmount) {
+        if (threadsAmount < 1)
+        {
+            throw new IllegalArgumentException("The amount of threads must be at least 1.");
+        }
+        this.threadsAmount = threadsAmount;
+    }
+}
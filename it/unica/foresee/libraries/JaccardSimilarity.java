@@ -0,0 +1,54 @@
+package it.unica.foresee.libraries;
+
+import it.unica.foresee.datasets.RatingMatrix;
+import it.unica.foresee.libraries.interfaces.SimilarityMetric;
+
+/**
+ * Jaccard index of the sets of items rated by two rows.
+ *
+ * The values of the ratings are ignored: only the amount of common items
+ * over the amount of items rated by any of the two rows matters.
+ */
+public class JaccardSimilarity implements SimilarityMetric
+{
+    /**
+     * Name of the metric.
+     */
+    public static final String NAME = "jaccard";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Jaccard index needs no statistic.
+     */
+    @Override
+    public SimilarityMetric prepare(RatingMatrix ratings)
+    {
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double similarity(RatingMatrix ratings, int rowA, int rowB)
+    {
+        int common = SimilarityMetrics.countCommon(ratings, rowA, rowB);
+        int union = ratings.getRowSize(rowA) + ratings.getRowSize(rowB) - common;
+
+        if (union == 0)
+        {
+            return Double.NaN;
+        }
+        return (double) common / union;
+    }
+}
@@ -0,0 +1,926 @@
+package it.unica.foresee.libraries;
+
+import it.unica.foresee.datasets.RatingMatrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * K-means clustering of the rows of a matrix.
+ *
+ * The points are the rows either of a dense row-major {@code float[]} matrix
+ * or of a sparse {@link RatingMatrix}, so no object is created for each point
+ * and no distance computation allocates memory. The squared norms of the
+ * points are computed once and those of the centroids after each move, so the
+ * distance between a point and a centroid only needs their dot product:
+ * {@code |x - c|^2 = |x|^2 - 2 x.c + |c|^2}. On sparse points the dot product
+ * only reads the values of the point, so each distance costs as much as the
+ * entries of the point rather than as the dimensions, and the rows of users
+ * rating a few items among many thousands are clustered without ever being
+ * made dense.
+ * The centroids are seeded with k-means++ and then refined either by the
+ * classic Lloyd iterations, which assign every point at each iteration, or by
+ * mini-batch iterations (see {@link #setBatchSize(int)}), which only assign a
+ * random sample of the points and move the centroids towards them, much faster
+ * on many points.
+ *
+ * The assignment of the points to the nearest centroids, which is the costly
+ * step, and the distances of the k-means++ seeding are split among the threads set by {@link #setThreadsAmount(int)}.
+ * Each point is handled by a single thread and the centroids are updated in
+ * the order of the points, so the result only depends on the seed, not on the
+ * amount of threads.
+ *
+ * The distance is the squared Euclidean one, or the cosine one (see
+ * {@link #setDistance(Distance)}). Ties go to the centroid with the lowest index.
+ */
+public class KMeans
+{
+    /**
+     * Distances between the points and the centroids.
+     */
+    public enum Distance
+    {
+        /**
+         * The squared Euclidean distance.
+         */
+        EUCLIDEAN,
+
+        /**
+         * One minus the cosine of the angle between the point and the centroid,
+         * so that the length of the points does not matter.
+         */
+        COSINE
+    }
+
+    /**
+     * Amount of consecutive points assigned by the same task.
+     */
+    private static final int BLOCK_SIZE = 256;
+
+    /**
+     * Amount of clusters to find.
+     */
+    private final int clustersAmount;
+
+    /**
+     * Highest amount of iterations after the seeding.
+     */
+    private int maxIterations = 100;
+
+    /**
+     * The iterations stop when no centroid moves farther than this.
+     */
+    private double tolerance = 1e-4;
+
+    /**
+     * Amount of points sampled at each iteration, 0 to assign all the points.
+     */
+    private int batchSize = 0;
+
+    /**
+     * Amount of threads assigning the points.
+     */
+    private int threadsAmount = 1;
+
+    /**
+     * Seed of the random choices.
+     */
+    private long seed = 0;
+
+    /**
+     * Distance between the points and the centroids.
+     */
+    private Distance distance = Distance.EUCLIDEAN;
+
+    /**
+     * Centroids found by the last clustering, in row-major order.
+     */
+    private double[] centroids;
+
+    /**
+     * Amount of iterations done by the last clustering.
+     */
+    private int iterations;
+
+    /**
+     * Sum of the distances of the points from their centroids, after the last clustering.
+     */
+    private double inertia;
+
+    /**
+     * Initialise the clusterer.
+     *
+     * @param clustersAmount the amount of clusters to find
+     */
+    public KMeans(int clustersAmount)
+    {
+        if (clustersAmount < 1)
+        {
+            throw new IllegalArgumentException("The amount of clusters must be at least 1.");
+        }
+        this.clustersAmount = clustersAmount;
+    }
+
+    /**
+     * Clusters the rows of a matrix.
+     *
+     * @param points the points, one row of {@code dimensions} values after the other
+     * @param dimensions the amount of values of each point
+     * @return the index of the cluster of each point
+     */
+    public int[] cluster(float[] points, int dimensions)
+    {
+        if (dimensions < 1 || points.length % dimensions != 0)
+        {
+            throw new IllegalArgumentException("The points array length " + points.length +
+                    " is not a multiple of the dimensions " + dimensions);
+        }
+
+        return cluster(new DensePoints(points, dimensions));
+    }
+
+    /**
+     * Clusters the rows of a sparse matrix.
+     *
+     * Each row is a point with a coordinate for each column ID, from 1 to
+     * {@code dimensions}, and the missing entries are zeros.
+     *
+     * @param points the points, one for each row in index order
+     * @param dimensions the highest column ID
+     * @return the index of the cluster of each row
+     */
+    public int[] cluster(RatingMatrix points, int dimensions)
+    {
+        if (dimensions < 1)
+        {
+            throw new IllegalArgumentException("The dimensions must be at least 1.");
+        }
+
+        return cluster(new SparsePoints(points, dimensions));
+    }
+
+    /**
+     * Clusters the given points.
+     */
+    private int[] cluster(Points points)
+    {
+        int pointsAmount = points.amount;
+        int dimensions = points.dimensions;
+        if (pointsAmount < clustersAmount)
+        {
+            throw new IllegalArgumentException("Cannot find " + clustersAmount + " clusters among "
+                    + pointsAmount + " points.");
+        }
+
+        Random random = new Random(seed);
+        int[] assignments = new int[pointsAmount];
+        double[] distances = new double[pointsAmount];
+        double[] newCentroids;
+
+        ForkJoinPool pool = threadsAmount > 1 ? new ForkJoinPool(threadsAmount) : null;
+        try
+        {
+            newCentroids = seed(points, random, pool);
+            if (batchSize > 0 && batchSize < pointsAmount)
+            {
+                iterations = miniBatch(points, newCentroids, random, pool);
+                assign(points, newCentroids, null, assignments, distances, pool);
+            }
+            else
+            {
+                iterations = lloyd(points, newCentroids, assignments, distances, pool);
+            }
+        }
+        finally
+        {
+            if (pool != null)
+            {
+                pool.shutdown();
+            }
+        }
+
+        centroids = newCentroids;
+        inertia = 0;
+        for (double distance : distances)
+        {
+            inertia += distance;
+        }
+        return assignments;
+    }
+
+    /**
+     * Groups the indexes of the points by cluster.
+     *
+     * @param assignments the index of the cluster of each point, as returned by {@link #cluster(float[], int)}
+     *                    or {@link #cluster(RatingMatrix, int)}
+     * @return the indexes of the points of each cluster, in ascending order; the empty clusters are left out
+     */
+    public List<int[]> getClusters(int[] assignments)
+    {
+        int[] sizes = new int[clustersAmount];
+        for (int cluster : assignments)
+        {
+            sizes[cluster]++;
+        }
+
+        List<int[]> clusters = new ArrayList<>();
+        int[][] members = new int[clustersAmount][];
+        for (int c = 0; c < clustersAmount; c++)
+        {
+            members[c] = new int[sizes[c]];
+            sizes[c] = 0;
+        }
+        for (int p = 0; p < assignments.length; p++)
+        {
+            int cluster = assignments[p];
+            members[cluster][sizes[cluster]++] = p;
+        }
+        for (int[] cluster : members)
+        {
+            if (cluster.length > 0)
+            {
+                clusters.add(cluster);
+            }
+        }
+        return clusters;
+    }
+
+    /**
+     * Chooses the first centroids with k-means++.
+     *
+     * The first centroid is a random point, each of the next ones is a point
+     * chosen with a probability proportional to its squared distance from the
+     * nearest centroid chosen so far.
+     */
+    private double[] seed(Points points, Random random, ForkJoinPool pool)
+    {
+        int pointsAmount = points.amount;
+        double[] seeds = new double[clustersAmount * points.dimensions];
+        double[] norms = new double[clustersAmount];
+        double[] distances = new double[pointsAmount];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+
+        int chosen = random.nextInt(pointsAmount);
+        for (int c = 0; c < clustersAmount; c++)
+        {
+            points.addTo(chosen, seeds, c, 1.0);
+            norms[c] = points.squaredNorms[chosen];
+
+            if (c == clustersAmount - 1)
+            {
+                break;
+            }
+
+            // Distance from the nearest centroid, updated with the new one
+            int centroid = c;
+            runBlocks(pointsAmount, pool, (start, end) ->
+            {
+                for (int p = start; p < end; p++)
+                {
+                    distances[p] = Math.min(distances[p], distance(points, p, seeds, norms, centroid));
+                }
+                return false;
+            });
+
+            double total = 0;
+            for (double distance : distances)
+            {
+                total += distance;
+            }
+
+            if (total == 0)
+            {
+                // Every point is on a centroid, any point will do
+                chosen = random.nextInt(pointsAmount);
+                continue;
+            }
+
+            double target = random.nextDouble() * total;
+            chosen = pointsAmount - 1;
+            for (int p = 0; p < pointsAmount; p++)
+            {
+                target -= distances[p];
+                if (target < 0)
+                {
+                    chosen = p;
+                    break;
+                }
+            }
+        }
+        return seeds;
+    }
+
+    /**
+     * Refines the centroids with Lloyd iterations.
+     *
+     * @return the amount of iterations done
+     */
+    private int lloyd(Points points, double[] centroids, int[] assignments, double[] distances, ForkJoinPool pool)
+    {
+        int pointsAmount = points.amount;
+        int dimensions = points.dimensions;
+        Arrays.fill(assignments, -1);
+        double[] sums = new double[clustersAmount * dimensions];
+        int[] sizes = new int[clustersAmount];
+
+        int iteration = 0;
+        boolean assigned = false;
+        while (iteration < maxIterations)
+        {
+            iteration++;
+            boolean changed = assign(points, centroids, null, assignments, distances, pool);
+            assigned = true;
+            if (!changed)
+            {
+                break;
+            }
+
+            // Move each centroid to the mean of its points
+            Arrays.fill(sums, 0);
+            Arrays.fill(sizes, 0);
+            for (int p = 0; p < pointsAmount; p++)
+            {
+                int cluster = assignments[p];
+                sizes[cluster]++;
+                points.addTo(p, sums, cluster, 1.0);
+            }
+
+            double shift = 0;
+            for (int c = 0; c < clustersAmount; c++)
+            {
+                if (sizes[c] == 0)
+                {
+                    // An empty cluster takes the point farthest from its centroid
+                    int farthest = farthestPoint(distances);
+                    distances[farthest] = 0;
+                    sizes[c] = 1;
+                    points.addTo(farthest, sums, c, 1.0);
+                }
+                shift = Math.max(shift, moveCentroid(centroids, c, sums, 1.0 / sizes[c], dimensions));
+            }
+            assigned = false;
+
+            if (shift <= tolerance * tolerance)
+            {
+                break;
+            }
+        }
+
+        // The points follow the last move of the centroids
+        if (!assigned)
+        {
+            assign(points, centroids, null, assignments, distances, pool);
+        }
+        return iteration;
+    }
+
+    /**
+     * Refines the centroids with mini-batch iterations.
+     *
+     * At each iteration a random sample of points is assigned, and each
+     * centroid moves towards its points with a step decreasing as the amount
+     * of points it has received grows.
+     *
+     * @return the amount of iterations done
+     */
+    private int miniBatch(Points points, double[] centroids, Random random, ForkJoinPool pool)
+    {
+        int pointsAmount = points.amount;
+        int dimensions = points.dimensions;
+        int[] batch = new int[batchSize];
+        int[] assignments = new int[batchSize];
+        double[] distances = new double[batchSize];
+        long[] counts = new long[clustersAmount];
+        double[] previous = new double[centroids.length];
+
+        int iteration = 0;
+        while (iteration < maxIterations)
+        {
+            iteration++;
+            for (int b = 0; b < batchSize; b++)
+            {
+                batch[b] = random.nextInt(pointsAmount);
+            }
+            assign(points, centroids, batch, assignments, distances, pool);
+
+            System.arraycopy(centroids, 0, previous, 0, centroids.length);
+            for (int b = 0; b < batchSize; b++)
+            {
+                int cluster = assignments[b];
+                counts[cluster]++;
+                double step = 1.0 / counts[cluster];
+                for (int d = cluster * dimensions; d < (cluster + 1) * dimensions; d++)
+                {
+                    centroids[d] *= 1 - step;
+                }
+                points.addTo(batch[b], centroids, cluster, step);
+            }
+
+            double shift = 0;
+            for (int c = 0; c < clustersAmount; c++)
+            {
+                double distance = 0;
+                for (int d = 0; d < dimensions; d++)
+                {
+                    double difference = centroids[c * dimensions + d] - previous[c * dimensions + d];
+                    distance += difference * difference;
+                }
+                shift = Math.max(shift, distance);
+            }
+
+            if (shift <= tolerance * tolerance)
+            {
+                break;
+            }
+        }
+        return iteration;
+    }
+
+    /**
+     * Assigns points to their nearest centroid.
+     *
+     * @param points the points
+     * @param centroids the centroids
+     * @param sample the indexes of the points to assign, or null to assign all of them
+     * @param assignments where the cluster of each assigned point is stored
+     * @param distances where the distance of each assigned point from its centroid is stored
+     * @param pool the threads, or null to assign the points in this thread
+     * @return true if the cluster of some point has changed
+     */
+    private boolean assign(Points points, double[] centroids, int[] sample,
+                           int[] assignments, double[] distances, ForkJoinPool pool)
+    {
+        double[] norms = new double[clustersAmount];
+        for (int c = 0; c < clustersAmount; c++)
+        {
+            norms[c] = squaredNorm(centroids, c, points.dimensions);
+        }
+
+        return runBlocks(assignments.length, pool,
+                (start, end) -> assignBlock(points, centroids, norms, sample, assignments, distances, start, end));
+    }
+
+    /**
+     * A task on a block of consecutive points.
+     */
+    private interface BlockTask
+    {
+        /**
+         * Runs the task on a block of points.
+         *
+         * @param start index of the first point
+         * @param end index after the last point
+         * @return true if something has changed
+         */
+        boolean run(int start, int end);
+    }
+
+    /**
+     * Runs a task on all the points, split in blocks among the threads.
+     *
+     * @param amount the amount of points
+     * @param pool the threads, or null to run the task in this thread
+     * @param task the task
+     * @return true if the task changed something in any block
+     */
+    private static boolean runBlocks(int amount, ForkJoinPool pool, BlockTask task)
+    {
+        if (pool == null || amount <= BLOCK_SIZE)
+        {
+            return task.run(0, amount);
+        }
+
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (int first = 0; first < amount; first += BLOCK_SIZE)
+        {
+            int start = first;
+            int end = Math.min(first + BLOCK_SIZE, amount);
+            tasks.add(() -> task.run(start, end));
+        }
+
+        boolean changed = false;
+        try
+        {
+            for (Future<Boolean> result : pool.invokeAll(tasks))
+            {
+                changed |= result.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Clustering interrupted.", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+        }
+        return changed;
+    }
+
+    /**
+     * Assigns a block of points to their nearest centroid.
+     *
+     * @return true if the cluster of some point has changed
+     */
+    private boolean assignBlock(Points points, double[] centroids, double[] norms, int[] sample,
+                                int[] assignments, double[] distances, int start, int end)
+    {
+        boolean changed = false;
+        for (int i = start; i < end; i++)
+        {
+            int point = sample == null ? i : sample[i];
+            int nearest = 0;
+            double nearestDistance = Double.POSITIVE_INFINITY;
+            for (int c = 0; c < clustersAmount; c++)
+            {
+                double distance = distance(points, point, centroids, norms, c);
+                if (distance < nearestDistance)
+                {
+                    nearest = c;
+                    nearestDistance = distance;
+                }
+            }
+
+            changed |= assignments[i] != nearest;
+            assignments[i] = nearest;
+            distances[i] = nearestDistance;
+        }
+        return changed;
+    }
+
+    /**
+     * Distance between a point and a centroid, from their squared norms and their dot product.
+     *
+     * @param points the points
+     * @param point the index of the point
+     * @param centroids the centroids
+     * @param norms the squared norm of each centroid
+     * @param centroid the index of the centroid
+     * @return the distance
+     */
+    private double distance(Points points, int point, double[] centroids, double[] norms, int centroid)
+    {
+        double dot = points.dot(point, centroids, centroid);
+        double pointNorm = points.squaredNorms[point];
+        if (distance == Distance.COSINE)
+        {
+            double lengths = Math.sqrt(pointNorm * norms[centroid]);
+            return lengths == 0 ? 1 : 1 - dot / lengths;
+        }
+
+        // The rounding errors could make the distance of a point from itself negative
+        return Math.max(0, pointNorm - 2 * dot + norms[centroid]);
+    }
+
+    /**
+     * Squared norm of a centroid.
+     */
+    private static double squaredNorm(double[] centroids, int centroid, int dimensions)
+    {
+        double norm = 0;
+        for (int d = centroid * dimensions; d < (centroid + 1) * dimensions; d++)
+        {
+            norm += centroids[d] * centroids[d];
+        }
+        return norm;
+    }
+
+    /**
+     * Moves a centroid to the scaled sums of its points.
+     *
+     * @return the squared distance the centroid moved
+     */
+    private static double moveCentroid(double[] centroids, int centroid, double[] sums, double scale, int dimensions)
+    {
+        double shift = 0;
+        for (int d = centroid * dimensions; d < (centroid + 1) * dimensions; d++)
+        {
+            double value = sums[d] * scale;
+            double difference = value - centroids[d];
+            shift += difference * difference;
+            centroids[d] = value;
+        }
+        return shift;
+    }
+
+    /**
+     * Get the point with the highest distance, the first one among equals.
+     */
+    private static int farthestPoint(double[] distances)
+    {
+        int farthest = 0;
+        for (int p = 1; p < distances.length; p++)
+        {
+            if (distances[p] > distances[farthest])
+            {
+                farthest = p;
+            }
+        }
+        return farthest;
+    }
+
+    /**
+     * The points to cluster, with their squared norms.
+     */
+    private abstract static class Points
+    {
+        /**
+         * Amount of points.
+         */
+        final int amount;
+
+        /**
+         * Amount of coordinates of each point.
+         */
+        final int dimensions;
+
+        /**
+         * Squared norm of each point.
+         */
+        final double[] squaredNorms;
+
+        Points(int amount, int dimensions)
+        {
+            this.amount = amount;
+            this.dimensions = dimensions;
+            this.squaredNorms = new double[amount];
+        }
+
+        /**
+         * Dot product between a point and a row of a row-major matrix.
+         *
+         * @param point the index of the point
+         * @param matrix the matrix, with a column for each dimension
+         * @param row the index of the row
+         * @return the dot product
+         */
+        abstract double dot(int point, double[] matrix, int row);
+
+        /**
+         * Adds a scaled point to a row of a row-major matrix.
+         *
+         * @param point the index of the point
+         * @param matrix the matrix, with a column for each dimension
+         * @param row the index of the row
+         * @param scale the factor multiplying the point
+         */
+        abstract void addTo(int point, double[] matrix, int row, double scale);
+    }
+
+    /**
+     * The rows of a dense row-major matrix.
+     */
+    private static class DensePoints extends Points
+    {
+        private final float[] points;
+
+        DensePoints(float[] points, int dimensions)
+        {
+            super(points.length / dimensions, dimensions);
+            this.points = points;
+            for (int p = 0; p < amount; p++)
+            {
+                double norm = 0;
+                for (int d = p * dimensions; d < (p + 1) * dimensions; d++)
+                {
+                    norm += (double) points[d] * points[d];
+                }
+                squaredNorms[p] = norm;
+            }
+        }
+
+        @Override
+        double dot(int point, double[] matrix, int row)
+        {
+            int p = point * dimensions;
+            int r = row * dimensions;
+            double dot = 0;
+            for (int d = 0; d < dimensions; d++)
+            {
+                dot += points[p + d] * matrix[r + d];
+            }
+            return dot;
+        }
+
+        @Override
+        void addTo(int point, double[] matrix, int row, double scale)
+        {
+            int p = point * dimensions;
+            int r = row * dimensions;
+            for (int d = 0; d < dimensions; d++)
+            {
+                matrix[r + d] += scale * points[p + d];
+            }
+        }
+    }
+
+    /**
+     * The rows of a sparse matrix, whose column IDs start from 1.
+     */
+    private static class SparsePoints extends Points
+    {
+        private final int[] rowOffsets;
+        private final int[] columnIds;
+        private final double[] values;
+
+        SparsePoints(RatingMatrix points, int dimensions)
+        {
+            super(points.getRowsAmount(), dimensions);
+            this.rowOffsets = points.getRowOffsets();
+            this.columnIds = points.getColumnIds();
+            this.values = points.getValues();
+            for (int p = 0; p < amount; p++)
+            {
+                double norm = 0;
+                for (int i = rowOffsets[p]; i < rowOffsets[p + 1]; i++)
+                {
+                    if (columnIds[i] < 1 || columnIds[i] > dimensions)
+                    {
+                        throw new IllegalArgumentException("The column ID " + columnIds[i] +
+                                " is outside of the dimensions " + dimensions);
+                    }
+                    norm += values[i] * values[i];
+                }
+                squaredNorms[p] = norm;
+            }
+        }
+
+        @Override
+        double dot(int point, double[] matrix, int row)
+        {
+            int r = row * dimensions - 1;
+            double dot = 0;
+            for (int i = rowOffsets[point]; i < rowOffsets[point + 1]; i++)
+            {
+                dot += values[i] * matrix[r + columnIds[i]];
+            }
+            return dot;
+        }
+
+        @Override
+        void addTo(int point, double[] matrix, int row, double scale)
+        {
+            int r = row * dimensions - 1;
+            for (int i = rowOffsets[point]; i < rowOffsets[point + 1]; i++)
+            {
+                matrix[r + columnIds[i]] += scale * values[i];
+            }
+        }
+    }
+
+    /* Getter */
+
+    public int getClustersAmount()
+    {
+        return clustersAmount;
+    }
+
+    /**
+     * Get the centroids found by the last clustering.
+     * @return the centroids, one row of values after the other, or null before any clustering
+     */
+    public double[] getCentroids()
+    {
+        return centroids;
+    }
+
+    /**
+     * Get the amount of iterations done by the last clustering, after the seeding.
+     * @return the amount of iterations
+     */
+    public int getIterations()
+    {
+        return iterations;
+    }
+
+    /**
+     * Get the sum of the distances of the points from their centroids, after the last clustering.
+     * @return the inertia of the clusters
+     */
+    public double getInertia()
+    {
+        return inertia;
+    }
+
+    public int getMaxIterations()
+    {
+        return maxIterations;
+    }
+
+    public double getTolerance()
+    {
+        return tolerance;
+    }
+
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    public int getThreadsAmount()
+    {
+        return threadsAmount;
+    }
+
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    public Distance getDistance()
+    {
+        return distance;
+    }
+
+    /* Setter */
+
+    /**
+     * Set the highest amount of iterations after the seeding.
+     * @param maxIterations the amount of iterations, at least 1
+     */
+    public void setMaxIterations(int maxIterations)
+    {
+        if (maxIterations < 1)
+        {
+            throw new IllegalArgumentException("The amount of iterations must be at least 1.");
+        }
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * Set the convergence tolerance: the iterations stop when no centroid moves farther than it.
+     * @param tolerance the tolerance, not negative
+     */
+    public void setTolerance(double tolerance)
+    {
+        if (tolerance < 0)
+        {
+            throw new IllegalArgumentException("The tolerance cannot be negative.");
+        }
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Set the amount of points sampled at each mini-batch iteration.
+     *
+     * With 0, or with at least as many as the points, every point is assigned
+     * at each iteration.
+     *
+     * @param batchSize the size of the mini-batches, 0 to disable them
+     */
+    public void setBatchSize(int batchSize)
+    {
+        if (batchSize < 0)
+        {
+            throw new IllegalArgumentException("The batch size cannot be negative.");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Set the amount of threads assigning the points to the centroids.
+     * @param threadsAmount the amount of threads, at least 1
+     */
+    public void setThreadsAmount(int threadsAmount)
+    {
+        if (threadsAmount < 1)
+        {
+            throw new IllegalArgumentException("The amount of threads must be at least 1.");
+        }
+        this.threadsAmount = threadsAmount;
+    }
+
+    /**
+     * Set the seed of the random choices, so that the clustering can be repeated.
+     * @param seed the seed
+     */
+    public void setSeed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Set the distance between the points and the centroids.
+     *
+     * The centroids are the means of their points with both distances, so
+     * with {@link Distance#COSINE} the clustering is the spherical k-means
+     * only on points of the same length.
+     *
+     * @param distance the distance
+     */
+    public void setDistance(Distance distance)
+    {
+        if (distance == null)
+        {
+            throw new IllegalArgumentException("The distance cannot be null.");
+        }
+        this.distance = distance;
+    }
+}
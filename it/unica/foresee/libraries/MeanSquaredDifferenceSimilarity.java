@@ -0,0 +1,126 @@
+package it.unica.foresee.libraries;
+
+import it.unica.foresee.datasets.RatingMatrix;
+import it.unica.foresee.libraries.interfaces.SimilarityMetric;
+
+/**
+ * Similarity based on the mean squared difference (MSD) of the co-rated items.
+ *
+ * The difference is normalised on the range of the ratings of the prepared
+ * matrix, so the similarity is 1 for identical ratings and 0 when the two
+ * rows are always at the opposite ends of the scale.
+ */
+public class MeanSquaredDifferenceSimilarity implements SimilarityMetric
+{
+    /**
+     * Name of the metric.
+     */
+    public static final String NAME = "msd";
+
+    /**
+     * Square of the gap between the highest and lowest rating, 0 if the metric is not prepared.
+     */
+    private final double squaredRange;
+
+    /**
+     * Whether the metric has been prepared.
+     */
+    private final boolean prepared;
+
+    /**
+     * Initializes a metric to be prepared.
+     */
+    public MeanSquaredDifferenceSimilarity()
+    {
+        this.squaredRange = 0;
+        this.prepared = false;
+    }
+
+    /**
+     * Initializes a metric prepared on a matrix.
+     *
+     * @param squaredRange square of the gap between the highest and lowest rating of the matrix
+     */
+    private MeanSquaredDifferenceSimilarity(double squaredRange)
+    {
+        this.squaredRange = squaredRange;
+        this.prepared = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SimilarityMetric prepare(RatingMatrix ratings)
+    {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : ratings.getValues())
+        {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        return new MeanSquaredDifferenceSimilarity(max > min ? (max - min) * (max - min) : 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double similarity(RatingMatrix ratings, int rowA, int rowB)
+    {
+        if (!prepared)
+        {
+            throw new IllegalStateException("The metric has not been prepared.");
+        }
+
+        int[] items = ratings.getColumnIds();
+        double[] values = ratings.getValues();
+        int a = ratings.getRowStart(rowA);
+        int endA = ratings.getRowEnd(rowA);
+        int b = ratings.getRowStart(rowB);
+        int endB = ratings.getRowEnd(rowB);
+
+        int n = 0;
+        double sum = 0;
+        while (a < endA && b < endB)
+        {
+            if (items[a] < items[b])
+            {
+                a++;
+            }
+            else if (items[a] > items[b])
+            {
+                b++;
+            }
+            else
+            {
+                double difference = values[a++] - values[b++];
+                sum += difference * difference;
+                n++;
+            }
+        }
+
+        if (n == 0)
+        {
+            return Double.NaN;
+        }
+
+        // All the ratings are the same, so every common item agrees
+        if (squaredRange == 0)
+        {
+            return 1.0;
+        }
+        return 1.0 - (sum / n) / squaredRange;
+    }
+}
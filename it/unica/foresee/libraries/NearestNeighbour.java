@@ -6,25 +6,49 @@ import static it.unica.foresee.utils.Logger.warn;
 import it.unica.foresee.datasets.DatasetNestedSparseVector;
 import it.unica.foresee.datasets.DatasetSparseVector;
 import it.unica.foresee.datasets.DoubleElement;
+import it.unica.foresee.datasets.RatingMatrix;
+import it.unica.foresee.datasets.interfaces.DatasetElement;
+import it.unica.foresee.libraries.interfaces.Predictor;
+import it.unica.foresee.libraries.interfaces.SimilarityMetric;
 import it.unica.foresee.utils.Logger;
+import it.unica.foresee.utils.LongDoubleHashMap;
+import it.unica.foresee.utils.MappedSymmetricMatrix;
 import it.unica.foresee.utils.SparseMatrix;
+import it.unica.foresee.utils.SymmetricMatrix;
 
 import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
 import org.apache.commons.math3.util.Pair;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * This class is an implementation of the nearest neighbour algorithm for user similarity.
  */
-public class NearestNeighbour<T extends DatasetNestedSparseVector<? extends DatasetSparseVector<? extends DoubleElement>>>
+public class NearestNeighbour<T extends DatasetNestedSparseVector<? extends DatasetSparseVector<? extends DoubleElement>>> implements Predictor
 {
 
     /**
-     * The matrix of the users with the ratings.
+     * The matrix of the users with the ratings, or null if the object has
+     * been trained on a {@link RatingMatrix}.
      */
     private T dataset;
 
+    /**
+     * The ratings of the users when there is no dataset, see {@link #NearestNeighbour(RatingMatrix)}.
+     */
+    private RatingMatrix ratings;
+
+    /**
+     * Sum of the ratings of each row of {@link #ratings}.
+     */
+    private double[] ratingSums;
+
     /**
      * Lowest acceptable value.
      */
@@ -40,6 +64,37 @@ public class NearestNeighbour<T extends DatasetNestedSparseVector<? extends Data
      */
     private SparseMatrix similarityMatrix;
 
+    /**
+     * Nearest neighbours of each user, an alternative to the full similarity matrix.
+     */
+    private NeighbourIndex neighbourIndex;
+
+    /**
+     * Metric used to compute the similarity between users.
+     */
+    private SimilarityMetric similarityMetric = new PearsonSimilarity();
+
+    /**
+     * Amount of threads used to compute the similarity matrix and the forecasts.
+     */
+    private int threadsAmount = 1;
+
+    /**
+     * Side of the square tiles of users in which the similarity matrix is split.
+     */
+    private static final int TILE_SIZE = 64;
+
+    /**
+     * Amount of tiles per thread kept in memory at most, when the tiles are
+     * handed over by the calling thread instead of the worker threads.
+     */
+    private static final int TILE_BATCH_SIZE = 4;
+
+    /**
+     * Amount of consecutive users forecast by the same task.
+     */
+    private static final int FORECAST_BLOCK_SIZE = 64;
+
     /**
      * Initialise the object with a dataset.
      * @param dataset
@@ -53,35 +108,66 @@ public class NearestNeighbour<T extends DatasetNestedSparseVector<? extends Data
         this.dataset = dataset;
     }
 
+    /**
+     * Initialise the object with the ratings of a matrix, such as the training
+     * set of a fold of a {@link CrossValidation}.
+     *
+     * The ratings are read from the matrix, without building a dataset, so
+     * the object can predict and recommend but not {@link #makeForecasts(int)}.
+     *
+     * @param ratings the ratings, a row for each user
+     */
+    public NearestNeighbour(RatingMatrix ratings)
+    {
+        if (ratings.getRowsAmount() == 0)
+        {
+            throw new IllegalStateException("The ratings cannot be empty.");
+        }
+        this.ratings = ratings;
+
+        double[] values = ratings.getValues();
+        ratingSums = new double[ratings.getRowsAmount()];
+        for (int row = 0; row < ratingSums.length; row++)
+        {
+            for (int k = ratings.getRowStart(row); k < ratings.getRowEnd(row); k++)
+            {
+                ratingSums[row] += values[k];
+            }
+        }
+    }
+
     /**
      * Calculates the predictions for each non rated item
      * for each user in the dataset.
+     *
+     * Only the items rated by at least one of the nearest neighbours of a user
+     * are predicted, and only their entries are added to the user: the others
+     * are left missing, so the users stay sparse.
+     *
+     * Every prediction is computed from the ratings as they are before any
+     * forecast, so the predictions of a user do not depend on those of the
+     * others. This lets the users be split among the threads set by
+     * {@link #setThreadsAmount(int)}, with the same result whatever the amount
+     * of threads. The predictions are then written in the dataset, one user
+     * after the other.
+     *
+     * @param neighboursAmount amount of neighbours of each user taken into account
      * @return the updated dataset
      */
     public T makeForecasts(int neighboursAmount)
     {
-        List<Pair<Integer, Double>> nearestNeighbours = null;
-        DatasetSparseVector<?> currentUser = null;
-        double denominator = 0;
-        double userSimilarity = 0;
-        double neighbourAverage = 0;
-        double neighbourRateOnItem = 0;
-        double numerator = 0;
+        if (dataset == null)
+        {
+            throw new IllegalStateException("There is no dataset to forecast, the ratings have been read from a matrix.");
+        }
 
         int lastItem = dataset.getHighestNestedKey();
 
         int originalSize = this.dataset.size();
 
-        if(similarityMatrix == null)
-        {
-            initialiseSimilarityMatrix();
-        }
-
         for (int userIndex : dataset.keySet())
         {
-            // The current user target of the forecasting
-            currentUser = dataset.get(userIndex);
-            denominator = 0;
+            DatasetSparseVector<?> currentUser = dataset.get(userIndex);
 
             if (currentUser == null)
             {
@@ -92,136 +178,645 @@ public class NearestNeighbour<T extends DatasetNestedSparseVector<? extends Data
             {
                 throw new IllegalStateException("User " + userIndex + " is empty");
             }
+        }
 
-            // Obtain the nearest neighbours (ID, userSim) to the current user
-            nearestNeighbours = getNearestNeighbours(userIndex, neighboursAmount);
+        prepareNeighbours(neighboursAmount);
 
-            debug("NearestNeighbours amount: " + nearestNeighbours.size());
+        // The ratings before any forecast, with a row for each user in ascending ID order
+        RatingMatrix ratings = dataset.toRatingMatrix();
 
-            // Initialise to null for each user
-            Map<Integer, Double> neighboursMeans = null;
+        // The mean of each user over all the items, rated or not
+        double[] means = new double[ratings.getRowsAmount()];
+        for (int row = 0; row < means.length; row++)
+        {
+            // The sums are cached by the dataset
+            means[row] = dataset.get(ratings.getRowId(row)).getSum() / lastItem;
+        }
 
-            // Search the items of the current user for a non rated item
-            for (int itemIndex = 1; itemIndex <= lastItem; itemIndex++)
+        Forecast[] forecasts = new Forecast[ratings.getRowsAmount()];
+        if (threadsAmount == 1 || forecasts.length <= FORECAST_BLOCK_SIZE)
+        {
+            forecastUsers(ratings, means, 0, forecasts.length, neighboursAmount, lastItem, forecasts);
+        }
+        else
+        {
+            // Blocks of consecutive users, each one with its own scratch arrays
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int row = 0; row < forecasts.length; row += FORECAST_BLOCK_SIZE)
             {
-                // Make this computation only once per user and only if required
-                if (neighboursMeans == null)
+                int first = row;
+                int last = Math.min(row + FORECAST_BLOCK_SIZE, forecasts.length);
+                tasks.add(() ->
                 {
-                    neighboursMeans = new HashMap<>();
-                    for (Pair<Integer, Double> neighSim : nearestNeighbours)
-                    {
-                        // The denominator is the sum of the neighbours similarities
-                        denominator += neighSim.getSecond();
-                        debug("denominator inremented by: " + neighSim.getSecond() + " = " + denominator);
-                        // Pre-calculate the means of the neighbours
-                        dataset.get(neighSim.getFirst()).setVectorSize(lastItem);
-                        neighboursMeans.put(neighSim.getFirst(),
-                                dataset.get(neighSim.getFirst()).getMean());
-                    }
+                    forecastUsers(ratings, means, first, last, neighboursAmount, lastItem, forecasts);
+                    return null;
+                });
+            }
+
+            ForkJoinPool pool = new ForkJoinPool(threadsAmount);
+            try
+            {
+                for (Future<Void> result : pool.invokeAll(tasks))
+                {
+                    result.get();
                 }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Forecasting interrupted.", e);
+            }
+            catch (ExecutionException e)
+            {
+                throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+        }
 
-                // Create missing entries
-                if(currentUser.get(itemIndex) == null) currentUser.put(itemIndex, new DoubleElement(0.0));
+        for (int row = 0; row < forecasts.length; row++)
+        {
+            storeForecast(ratings.getRowId(row), forecasts[row], lastItem);
+        }
 
-                // Make forecasts only on missing entries (equal to 0)
-                if (currentUser.get(itemIndex).getDoubleValue() == 0.0)
-                {
-                    // Set the rating to the average of the ratings of the user
-                    currentUser.setVectorSize(lastItem);
+        if(dataset.keySet().size() != originalSize)
+        {
+            throw new IllegalStateException("The dataset should not change size.");
+        }
 
-                    // Check that the average is not null
-                    if (currentUser.getMean() == 0.0)
-                    {
-                        throw new IllegalStateException("User " + userIndex + " has an average of 0 \n" +
-                                currentUser);
-                    }
+        if(dataset.keySet().size() == 0)
+        {
+            throw new IllegalStateException("The dataset cannot be empty.");
+        }
+        return dataset;
+    }
 
-                    // Useful variables to understand what's going on
-                    numerator = 0;
-                    for (Pair<Integer, Double> neighbourSimilarity : nearestNeighbours)
-                    {
-                        DatasetSparseVector<? extends DoubleElement> neighbour = dataset.get(neighbourSimilarity.getFirst());
-                        // Skip unrated items
-                        if (neighbour.get(itemIndex) == null) continue;
+    /**
+     * The predictions of a user.
+     */
+    private static class Forecast
+    {
+        /**
+         * Predicted items, in ascending order.
+         */
+        private final int[] items;
 
-                        neighbourRateOnItem = neighbour.get(itemIndex).getDoubleValue();
+        /**
+         * Prediction of each item.
+         */
+        private final double[] ratings;
 
-                        // Skip unrated items
-                        if(neighbourRateOnItem == 0) continue;
+        private Forecast(int[] items, double[] ratings)
+        {
+            this.items = items;
+            this.ratings = ratings;
+        }
+    }
 
-                        userSimilarity = neighbourSimilarity.getSecond();
+    /**
+     * Calculates the predictions of a block of users.
+     *
+     * The scratch arrays, as long as the items, are allocated once for the whole block.
+     *
+     * @param ratings the ratings before any forecast
+     * @param means the mean of each user
+     * @param first index of the first user of the block
+     * @param last index after the last user of the block
+     * @param neighboursAmount amount of neighbours taken into account
+     * @param lastItem the highest item ID
+     * @param forecasts where the predictions of each user are stored
+     */
+    private void forecastUsers(RatingMatrix ratings, double[] means, int first, int last,
+                               int neighboursAmount, int lastItem, Forecast[] forecasts)
+    {
+        double[] numerators = new double[lastItem + 1];
+        int[] marks = new int[lastItem + 1];
+        int[] candidates = new int[lastItem];
 
-                        neighbour.setVectorSize(lastItem);
-                        neighbourAverage = neighboursMeans.get(neighbourSimilarity.getFirst());
+        for (int row = first; row < last; row++)
+        {
+            forecasts[row] = forecastUser(ratings, means, row, neighboursAmount, lastItem,
+                    numerators, marks, candidates);
+        }
+    }
 
-                        // Formula for the numerator
-                        numerator += userSimilarity * (neighbourRateOnItem - neighbourAverage);
+    /**
+     * Calculates the predictions of a user.
+     *
+     * The candidate items are those rated by at least one of the nearest
+     * neighbours and not by the user: the rows of the neighbours are walked
+     * once, accumulating the numerator of each item in a scratch array, so
+     * the items nobody rated are never visited.
+     *
+     * The prediction of an item is the mean of the user plus the deviations
+     * of the neighbours from their own means, weighted by their similarity,
+     * over the sum of the similarities. It only reads shared data, so it can
+     * run on many users at the same time.
+     *
+     * @param ratings the ratings before any forecast
+     * @param means the mean of each user
+     * @param row index of the user
+     * @param neighboursAmount amount of neighbours taken into account
+     * @param lastItem the highest item ID
+     * @param numerators scratch array of the numerator of each item
+     * @param marks scratch array telling which items are candidates of the user, by row + 1
+     * @param candidates scratch array of the candidate items
+     * @return the predictions of the user, not yet bounded to the acceptable values
+     */
+    private Forecast forecastUser(RatingMatrix ratings, double[] means, int row, int neighboursAmount,
+                                  int lastItem, double[] numerators, int[] marks, int[] candidates)
+    {
+        int userIndex = ratings.getRowId(row);
+        int[] columnIds = ratings.getColumnIds();
+        double[] values = ratings.getValues();
+        int start = ratings.getRowStart(row);
+        int end = ratings.getRowEnd(row);
+
+        // Items rated 0 are not rated
+        int rated = 0;
+        for (int e = start; e < end; e++)
+        {
+            if (values[e] != 0.0) rated++;
+        }
 
-                        debug("\t\t\t" + userSimilarity + " * (" + neighbourRateOnItem + " -  " + neighbourAverage + ")");
-                        debug(currentUser.getMean() + " +  -----------------------------------");
-                        debug("\t\t\t" + userSimilarity + "\n");
+        Forecast none = new Forecast(new int[0], new double[0]);
+        if (rated == lastItem)
+        {
+            return none;
+        }
 
-                        debug("r_ni – mean r_n * uSim - " + neighbourSimilarity.getFirst() + ": " +
-                                userSimilarity * (neighbourRateOnItem - neighbourAverage));
-                    }
+        // Check that the average is not null
+        if (means[row] == 0.0)
+        {
+            throw new IllegalStateException("User " + userIndex + " has an average of 0 \n" +
+                    dataset.get(userIndex));
+        }
 
-                    debug("numerator: " + numerator);
-                    debug("denominator: " + denominator);
+        // Obtain the nearest neighbours (ID, userSim) to the current user
+        List<Pair<Integer, Double>> nearestNeighbours = getNearestNeighbours(userIndex, neighboursAmount);
 
-                    // Skip impossible results
-                    if (denominator == 0) continue;
+        // The denominator is the sum of the neighbours similarities
+        double denominator = 0;
+        for (Pair<Integer, Double> neighbourSimilarity : nearestNeighbours)
+        {
+            denominator += neighbourSimilarity.getSecond();
+        }
 
-                    double rating = currentUser.getMean() + (numerator/denominator);
+        // Skip impossible results
+        if (denominator == 0)
+        {
+            return none;
+        }
 
-                    // Check that the value is in the bounds
-                    if (rating > getMaxValue())
-                    {
-                        warn("Converting too high rating: " + rating + " -> " + getMaxValue());
-                        rating = getMaxValue();
-                    }
+        // Accumulate the numerator of each item rated by a neighbour
+        int mark = row + 1;
+        int candidatesAmount = 0;
+        for (Pair<Integer, Double> neighbourSimilarity : nearestNeighbours)
+        {
+            int neighbour = ratings.getRowIndex(neighbourSimilarity.getFirst());
+            double userSimilarity = neighbourSimilarity.getSecond();
+            double neighbourAverage = means[neighbour];
 
-                    if (rating < getMinValue())
-                    {
-                        warn("Converting too low rating: " + rating + " -> " + getMinValue());
-                        rating = getMinValue();
-                    }
+            for (int e = ratings.getRowStart(neighbour); e < ratings.getRowEnd(neighbour); e++)
+            {
+                // Skip unrated items
+                if (values[e] == 0.0) continue;
 
-                    // Assign the new value
-                    dataset.get(userIndex).get(itemIndex).setElement(rating);
-                    Logger.log("User " + userIndex + " of " + dataset.size() +
-                    ": " + rating);
+                int itemIndex = columnIds[e];
+                if (marks[itemIndex] != mark)
+                {
+                    marks[itemIndex] = mark;
+                    numerators[itemIndex] = 0;
+                    candidates[candidatesAmount++] = itemIndex;
                 }
+
+                // Formula for the numerator
+                numerators[itemIndex] += userSimilarity * (values[e] - neighbourAverage);
             }
         }
-        if(dataset.keySet().size() != originalSize)
+        Arrays.sort(candidates, 0, candidatesAmount);
+
+        // Predict the candidates the user has not rated, walking its row alongside
+        int[] items = new int[candidatesAmount];
+        double[] predictions = new double[candidatesAmount];
+        int predicted = 0;
+        int e = start;
+        for (int c = 0; c < candidatesAmount; c++)
         {
-            throw new IllegalStateException("The dataset should not change size.");
+            int itemIndex = candidates[c];
+            while (e < end && columnIds[e] < itemIndex)
+            {
+                e++;
+            }
+            if (e < end && columnIds[e] == itemIndex && values[e] != 0.0)
+            {
+                continue;
+            }
+
+            items[predicted] = itemIndex;
+            predictions[predicted] = means[row] + (numerators[itemIndex] / denominator);
+            predicted++;
         }
 
-        if(dataset.keySet().size() == 0)
+        return new Forecast(Arrays.copyOf(items, predicted), Arrays.copyOf(predictions, predicted));
+    }
+
+    /**
+     * Writes the predictions of a user in the dataset.
+     *
+     * @param userIndex the user ID
+     * @param forecast the predictions of the user
+     * @param lastItem the highest item ID
+     */
+    private void storeForecast(int userIndex, Forecast forecast, int lastItem)
+    {
+        DatasetSparseVector<?> currentUser = dataset.get(userIndex);
+        currentUser.setVectorSize(lastItem);
+
+        for (int m = 0; m < forecast.items.length; m++)
         {
-            throw new IllegalStateException("The dataset cannot be empty.");
+            double rating = forecast.ratings[m];
+
+            // Check that the value is in the bounds
+            if (rating > getMaxValue())
+            {
+                warn("Converting too high rating: " + rating + " -> " + getMaxValue());
+                forecast.ratings[m] = getMaxValue();
+            }
+
+            if (rating < getMinValue())
+            {
+                warn("Converting too low rating: " + rating + " -> " + getMinValue());
+                forecast.ratings[m] = getMinValue();
+            }
+
+            Logger.log("User " + userIndex + " of " + dataset.size() +
+                    ": " + forecast.ratings[m]);
         }
-        return dataset;
+
+        // Create or replace the entries of the predicted items only
+        currentUser.putAll(forecast.items, forecast.ratings);
+    }
+
+    /**
+     * Predicts the rating of a user for an item, without changing the dataset.
+     *
+     * The prediction is the same that {@link #makeForecasts(int)} would store,
+     * but only the rows of the nearest neighbours of the user are read.
+     * The neighbour index is built first if neither it nor the similarity
+     * matrix holds enough neighbours. Many threads can predict at the same
+     * time, as long as the dataset does not change.
+     *
+     * @param userId the ID of the user
+     * @param itemId the ID of the item
+     * @param neighboursAmount amount of neighbours taken into account
+     * @return the rating of the user if the item has been rated, otherwise the
+     * prediction bounded to the acceptable values, or {@link Double#NaN} if
+     * none of the neighbours rated the item
+     */
+    public double predict(int userId, int itemId, int neighboursAmount)
+    {
+        checkUser(userId);
+
+        double rating = getRating(userId, itemId);
+        if (rating != 0.0)
+        {
+            return rating;
+        }
+
+        prepareNeighbours(neighboursAmount);
+        int lastItem = getLastItem();
+        double userAverage = getUserAverage(userId, lastItem);
+
+        double numerator = 0;
+        double denominator = 0;
+        boolean rated = false;
+        for (Pair<Integer, Double> neighbourSimilarity : getNearestNeighbours(userId, neighboursAmount))
+        {
+            int neighbourId = neighbourSimilarity.getFirst();
+            double userSimilarity = neighbourSimilarity.getSecond();
+            denominator += userSimilarity;
+
+            double neighbourRating = getRating(neighbourId, itemId);
+            if (neighbourRating != 0.0)
+            {
+                numerator += userSimilarity * (neighbourRating - getUserSum(neighbourId) / lastItem);
+                rated = true;
+            }
+        }
+
+        if (!rated || denominator == 0)
+        {
+            return Double.NaN;
+        }
+
+        return bound(userAverage + numerator / denominator);
+    }
+
+    /**
+     * Predicts the rating of a user for an item, using all the neighbours of
+     * the neighbour index, or all the other users if only the similarity matrix
+     * has been computed.
+     *
+     * {@link #predict(int, int, int)}
+     *
+     * @param userId the ID of the user
+     * @param itemId the ID of the item
+     * @return the rating or the prediction of the user for the item
+     */
+    @Override
+    public double predict(int userId, int itemId)
+    {
+        return predict(userId, itemId, getAvailableNeighboursAmount());
+    }
+
+    /**
+     * Finds the items with the highest predictions for a user, without changing the dataset.
+     *
+     * The candidates are the items rated by at least one of the nearest
+     * neighbours and not by the user, the same that {@link #makeForecasts(int)}
+     * would predict. They are gathered from the rows of the neighbours in a
+     * hash map, so the cost does not depend on the amount of items of the
+     * dataset, and only the best n of them are kept while the predictions are
+     * computed, in a bounded heap.
+     *
+     * @param userId the ID of the user
+     * @param n the amount of items to recommend
+     * @param neighboursAmount amount of neighbours taken into account
+     * @return at most n pairs (item ID, prediction) sorted by prediction
+     * descending and then by item ID ascending
+     */
+    public List<Pair<Integer, Double>> recommend(int userId, int n, int neighboursAmount)
+    {
+        if (n < 0)
+        {
+            throw new IllegalArgumentException("The amount of items to recommend cannot be negative: " + n);
+        }
+
+        checkUser(userId);
+        prepareNeighbours(neighboursAmount);
+        int lastItem = getLastItem();
+
+        List<Pair<Integer, Double>> nearestNeighbours = getNearestNeighbours(userId, neighboursAmount);
+        double similaritySum = 0;
+        for (Pair<Integer, Double> neighbourSimilarity : nearestNeighbours)
+        {
+            similaritySum += neighbourSimilarity.getSecond();
+        }
+
+        if (n == 0 || similaritySum == 0)
+        {
+            return new ArrayList<>();
+        }
+
+        double denominator = similaritySum;
+
+        double userAverage = getUserAverage(userId, lastItem);
+
+        // Accumulate the numerator of each item rated by a neighbour
+        LongDoubleHashMap numerators = new LongDoubleHashMap();
+        for (Pair<Integer, Double> neighbourSimilarity : nearestNeighbours)
+        {
+            addNumerators(numerators, neighbourSimilarity.getFirst(), neighbourSimilarity.getSecond(), lastItem);
+        }
+
+        // Keep the best n items, the worst one on top
+        Comparator<Pair<Integer, Double>> worstFirst = (a, b) ->
+        {
+            int comparison = Double.compare(a.getSecond(), b.getSecond());
+            return comparison != 0 ? comparison : Integer.compare(b.getFirst(), a.getFirst());
+        };
+        // The heap never holds more than the candidates, whatever n
+        PriorityQueue<Pair<Integer, Double>> best = new PriorityQueue<>(Math.min(n, numerators.size()) + 1, worstFirst);
+
+        // The order of the candidates does not matter, the heap breaks the ties by ID
+        numerators.forEach((item, numerator) ->
+        {
+            int itemIndex = (int) item;
+            if (getRating(userId, itemIndex) != 0.0) return;
+
+            Pair<Integer, Double> prediction = new Pair<>(itemIndex, bound(userAverage + numerator / denominator));
+            if (best.size() < n)
+            {
+                best.add(prediction);
+            }
+            else if (worstFirst.compare(prediction, best.peek()) > 0)
+            {
+                best.poll();
+                best.add(prediction);
+            }
+        });
+
+        ArrayList<Pair<Integer, Double>> recommendations = new ArrayList<>(best);
+        recommendations.sort(worstFirst.reversed());
+        return recommendations;
+    }
+
+    /**
+     * Finds the items with the highest predictions for a user, using all the
+     * neighbours of the neighbour index, or all the other users if only the
+     * similarity matrix has been computed.
+     *
+     * {@link #recommend(int, int, int)}
+     *
+     * @param userId the ID of the user
+     * @param n the amount of items to recommend
+     * @return at most n pairs (item ID, prediction) sorted by prediction descending
+     */
+    public List<Pair<Integer, Double>> recommend(int userId, int n)
+    {
+        return recommend(userId, n, getAvailableNeighboursAmount());
+    }
+
+    /**
+     * Builds the neighbour index, unless the neighbours can already be found.
+     *
+     * It is synchronized, so that the threads predicting at the same time
+     * build the index only once and all see it complete.
+     *
+     * @param neighboursAmount amount of neighbours of each user needed
+     */
+    private synchronized void prepareNeighbours(int neighboursAmount)
+    {
+        // Only the nearest neighbours are needed, not the whole similarity matrix
+        if (similarityMatrix == null && (neighbourIndex == null || !neighbourIndex.covers(neighboursAmount)))
+        {
+            initialiseNeighbourIndex(neighboursAmount);
+        }
+    }
+
+    /**
+     * Get the amount of neighbours of each user that can be found without computing the similarities.
+     *
+     * @return the amount of neighbours of the neighbour index, or the amount of
+     * other users if only the similarity matrix has been computed
+     */
+    private synchronized int getAvailableNeighboursAmount()
+    {
+        if (neighbourIndex != null)
+        {
+            return neighbourIndex.getK();
+        }
+        if (similarityMatrix != null)
+        {
+            return (dataset != null ? dataset.size() : ratings.getRowsAmount()) - 1;
+        }
+        throw new IllegalStateException("Neither the neighbour index nor the similarity matrix has been initialised.");
+    }
+
+    /**
+     * Checks that a user is in the ratings.
+     */
+    private void checkUser(int userId)
+    {
+        if (dataset != null ? dataset.get(userId) == null : ratings.getRowIndex(userId) < 0)
+        {
+            throw new IllegalArgumentException("User " + userId + " is not in the dataset.");
+        }
+    }
+
+    /**
+     * Get the rating of a user for an item.
+     *
+     * @return the rating, or 0 if the item has not been rated
+     */
+    private double getRating(int userId, int itemId)
+    {
+        if (dataset != null)
+        {
+            DoubleElement rating = dataset.get(userId).get(itemId);
+            return rating == null ? 0.0 : rating.getDoubleValue();
+        }
+
+        double rating = ratings.getValue(userId, itemId);
+        return Double.isNaN(rating) ? 0.0 : rating;
+    }
+
+    /**
+     * Get the sum of the ratings of a user.
+     */
+    private double getUserSum(int userId)
+    {
+        return dataset != null ? dataset.get(userId).getSum() : ratingSums[ratings.getRowIndex(userId)];
+    }
+
+    /**
+     * Get the highest item ID of the ratings.
+     */
+    private int getLastItem()
+    {
+        return dataset != null ? dataset.getHighestNestedKey() : ratings.getMaxColumnId();
+    }
+
+    /**
+     * Get the ratings of the users as a matrix.
+     */
+    private RatingMatrix getRatings()
+    {
+        return dataset != null ? dataset.toRatingMatrix() : ratings;
+    }
+
+    /**
+     * Adds the contribution of the items rated by a neighbour to their numerators.
+     *
+     * @param numerators the numerator of each item
+     * @param neighbourId the ID of the neighbour
+     * @param userSimilarity the similarity of the neighbour to the user
+     * @param lastItem the highest item ID
+     */
+    private void addNumerators(LongDoubleHashMap numerators, int neighbourId, double userSimilarity, int lastItem)
+    {
+        double neighbourAverage = getUserSum(neighbourId) / lastItem;
+
+        if (dataset != null)
+        {
+            for (Map.Entry<Integer, ? extends DoubleElement> entry : dataset.get(neighbourId).entrySet())
+            {
+                addNumerator(numerators, entry.getKey(), entry.getValue().getDoubleValue(), userSimilarity,
+                        neighbourAverage);
+            }
+            return;
+        }
+
+        int row = ratings.getRowIndex(neighbourId);
+        int[] columnIds = ratings.getColumnIds();
+        double[] values = ratings.getValues();
+        for (int k = ratings.getRowStart(row); k < ratings.getRowEnd(row); k++)
+        {
+            addNumerator(numerators, columnIds[k], values[k], userSimilarity, neighbourAverage);
+        }
+    }
+
+    /**
+     * Adds the contribution of a rating of a neighbour to the numerator of its item.
+     */
+    private static void addNumerator(LongDoubleHashMap numerators, int itemId, double value,
+                                     double userSimilarity, double neighbourAverage)
+    {
+        // Skip unrated items
+        if (value == 0.0) return;
+
+        numerators.put(itemId, numerators.get(itemId, 0.0) + userSimilarity * (value - neighbourAverage));
+    }
+
+    /**
+     * Get the mean of a user over all the items, checking that it can be used for predictions.
+     */
+    private double getUserAverage(int userId, int lastItem)
+    {
+        double userAverage = getUserSum(userId) / lastItem;
+        if (userAverage == 0.0)
+        {
+            throw new IllegalStateException("User " + userId + " has an average of 0.");
+        }
+        return userAverage;
+    }
+
+    /**
+     * Bounds a prediction to the acceptable values.
+     */
+    private double bound(double rating)
+    {
+        return Math.max(getMinValue(), Math.min(getMaxValue(), rating));
     }
 
     /**
      * Get the n nearest neighbours to the given user (ID, userSim).
+     *
+     * The neighbours are read from the neighbour index when it holds enough of
+     * them (see {@link #initialiseNeighbourIndex(int)}), otherwise they are
+     * ranked from the similarity matrix. In both cases they are sorted by
+     * similarity descending and then by ID ascending.
+     *
      * @param userIndex user index in the similarity matrix
      * @param neighboursAmount amount of neighbours to check
      * @return a list of the n nearest neighbours (ID, userSim)
      */
     public List<Pair<Integer, Double>> getNearestNeighbours(int userIndex, int neighboursAmount)
     {
+        if (neighbourIndex != null && neighbourIndex.covers(neighboursAmount))
+        {
+            return getIndexedNeighbours(userIndex, neighboursAmount);
+        }
+
+        if (similarityMatrix == null)
+        {
+            throw new IllegalStateException("The similarities between users have not been computed.");
+        }
+
         ArrayList<Pair<Integer, Double>> neighbours = new ArrayList<>();
 
         // neighbour j
-        for (int j : dataset.keySet())
+        for (int j : getUserIds())
         {
             // Skip the user itself, just add its neighbours
             if (j != userIndex)
             {
-                neighbours.add(new Pair<>(j, similarityMatrix.symmetricGet(userIndex, j)));
+                // A sparse matrix does not store the pairs with no similarity
+                Double similarity = similarityMatrix.symmetricGet(userIndex, j);
+                neighbours.add(new Pair<>(j, similarity != null ? similarity : 0.0));
             }
         }
 
@@ -238,63 +833,409 @@ public class NearestNeighbour<T extends DatasetNestedSparseVector<? extends Data
         return neighbours;
     }
 
+    /**
+     * Get the n nearest neighbours to the given user from the neighbour index.
+     *
+     * @param userIndex user ID
+     * @param neighboursAmount amount of neighbours to return
+     * @return a list of the n nearest neighbours (ID, userSim)
+     */
+    private List<Pair<Integer, Double>> getIndexedNeighbours(int userIndex, int neighboursAmount)
+    {
+        int row = neighbourIndex.indexOf(userIndex);
+        if (row < 0)
+        {
+            throw new IllegalArgumentException("User " + userIndex + " is not in the neighbour index.");
+        }
+
+        int amount = Math.min(neighboursAmount, neighbourIndex.size(row));
+        ArrayList<Pair<Integer, Double>> neighbours = new ArrayList<>(amount);
+        for (int rank = 0; rank < amount; rank++)
+        {
+            neighbours.add(new Pair<>(neighbourIndex.getNeighbourId(row, rank),
+                    neighbourIndex.getSimilarity(row, rank)));
+        }
+        return neighbours;
+    }
+
     /**
      * Sets a similarity value for each user to each other user (neighbour).
+     *
+     * The similarity is computed with the metric set by {@link #setSimilarityMetric(SimilarityMetric)},
+     * Pearson correlation by default.
+     *
+     * The upper triangle of the matrix is split in square tiles of users,
+     * computed in parallel when more than one thread is set (see
+     * {@link #setThreadsAmount(int)}). Each tile covers its own elements of a
+     * dense matrix, so the worker threads store the tiles as soon as they are
+     * computed; a sparse matrix receives them from this thread, a few at a
+     * time, in a fixed order. Either way the matrix is the same whatever the
+     * amount of threads.
+     *
+     * Only the users rating an item in common can have a similarity, so the
+     * matrix is sized on those pairs: when they are few it is sparse and the
+     * pairs with no similarity are not stored, reading as 0.
+     *
+     * @throws IllegalStateException if the matrix does not fit in the heap; use
+     * {@link #initialiseSimilarityMatrix(File)} or {@link #initialiseNeighbourIndex(int)} instead
      */
     public void initialiseSimilarityMatrix()
     {
-        // Create a matrix to store the similarity
-        similarityMatrix = new SparseMatrix();
+        int[] users = getUserIds();
+        RatingMatrix ratings = getRatings();
+
+        SymmetricMatrix matrix;
+        try
+        {
+            matrix = SymmetricMatrix.create(users, estimateSimilarPairs(ratings));
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new IllegalStateException("The similarities of " + users.length
+                    + " users do not fit in the heap: store them in a file with initialiseSimilarityMatrix(File)"
+                    + " or keep only the nearest ones with initialiseNeighbourIndex(int).", e);
+        }
+        similarityMatrix = matrix;
+        neighbourIndex = null;
 
-        // Set of the keys (user IDs) of the dataset
-        Set<Integer> keys = dataset.keySet();
+        computeSimilarities(ratings, similarityMetric, threadsAmount, matrix.isDense(),
+                (row, column, tile) -> storeTile(users, row, column, tile));
+    }
 
-        //Compute the similarity for each user and for each of its neighbours.
-        // User i
-        for (int userIndex : keys)
+    /**
+     * Estimates the amount of pairs of users that can have a similarity.
+     *
+     * @param ratings the ratings, with a row for each user
+     * @return the pairs of users rating at least an item in common, each user with itself included
+     */
+    private static long estimateSimilarPairs(RatingMatrix ratings)
+    {
+        int[] columnIds = ratings.getColumnIds();
+        double[] values = ratings.getValues();
+        long[] raters = new long[ratings.getMaxColumnId() + 1];
+        for (int k = 0; k < columnIds.length; k++)
         {
-            // Neighbour j
-            for (int neighbourIndex : keys)
+            // A rating of 0 means that the item has not been rated
+            if (values[k] != 0)
             {
-                // If the user and the neighbour are the same, they have complete similarity.
-                if (userIndex == neighbourIndex)
-                {
-                    similarityMatrix.symmetricPut(userIndex, neighbourIndex, 1.0);
-                }
-                else if(similarityMatrix.symmetricGet(userIndex, neighbourIndex) != null)
-                {
-                    // Skip computing the similarities already known
-                    debug("Skipping already known similarity: (" + userIndex + ", " +
-                    neighbourIndex + ")");
-                    continue;
-                }
-                // When user and neighbour are different compute the similarity
-                else if (userIndex != neighbourIndex)
+                raters[columnIds[k]]++;
+            }
+        }
+
+        long usersAmount = ratings.getRowsAmount();
+        long pairs = usersAmount;
+        for (long amount : raters)
+        {
+            pairs += amount * (amount - 1) / 2;
+        }
+        return Math.min(pairs, usersAmount * (usersAmount + 1) / 2);
+    }
+
+    /**
+     * Sets a similarity value for each user to each other user, storing the
+     * matrix in a memory mapped file instead of the heap.
+     *
+     * Each tile covers its own elements of the file, so the worker threads
+     * write the tiles as soon as they are computed and only the tiles being
+     * computed are kept in the heap. The file is marked as complete at the
+     * end, so it can be reused by {@link #loadSimilarityMatrix(File)}, even by
+     * a later run. The similarities are stored as floats.
+     *
+     * @param file the file of the matrix, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public void initialiseSimilarityMatrix(File file) throws IOException
+    {
+        int[] users = getUserIds();
+        RatingMatrix ratings = getRatings();
+
+        MappedSymmetricMatrix matrix = MappedSymmetricMatrix.create(file, users,
+                ratings.getFingerprint(), similarityMetric.getName());
+        similarityMatrix = matrix;
+        neighbourIndex = null;
+
+        computeSimilarities(ratings, similarityMetric, threadsAmount, true,
+                (row, column, tile) -> storeTile(users, row, column, tile));
+        matrix.complete();
+    }
+
+    /**
+     * Uses a similarity matrix stored by {@link #initialiseSimilarityMatrix(File)}.
+     *
+     * The matrix is used only if it is complete and it was computed with the
+     * current similarity metric from the same ratings of the current dataset.
+     *
+     * @param file the file of the matrix
+     * @return true if the matrix has been loaded, false if it does not exist or is out of date
+     * @throws IOException if the file cannot be read or is not a valid matrix file
+     */
+    public boolean loadSimilarityMatrix(File file) throws IOException
+    {
+        if (!file.isFile())
+        {
+            return false;
+        }
+
+        MappedSymmetricMatrix matrix = MappedSymmetricMatrix.open(file, false);
+        if (!matrix.isComplete() ||
+                !matrix.getLabel().equals(similarityMetric.getName()) ||
+                matrix.getFingerprint() != getRatings().getFingerprint() ||
+                !Arrays.equals(matrix.getIndexes(), getUserIds()))
+        {
+            return false;
+        }
+
+        similarityMatrix = matrix;
+        neighbourIndex = null;
+        return true;
+    }
+
+    /**
+     * Finds the nearest neighbours of each user, without keeping the whole similarity matrix.
+     *
+     * The similarities are computed as in {@link #initialiseSimilarityMatrix()},
+     * but each tile is offered to the bounded heaps of a {@link NeighbourIndex}
+     * as soon as it is ready and then dropped, so only K neighbours per user
+     * are kept in memory.
+     *
+     * @param neighboursAmount the amount of neighbours to keep for each user
+     */
+    public void initialiseNeighbourIndex(int neighboursAmount)
+    {
+        neighbourIndex = computeNeighbourIndex(getRatings(), neighboursAmount,
+                similarityMetric, threadsAmount);
+        similarityMatrix = null;
+    }
+
+    /**
+     * Finds the nearest neighbours of each row of a matrix.
+     *
+     * The rows can be users, as in {@link #initialiseNeighbourIndex(int)}, or
+     * items, as in {@link ItemNearestNeighbour}.
+     *
+     * @param ratings the matrix whose rows are compared
+     * @param neighboursAmount the amount of neighbours to keep for each row
+     * @param metric the similarity metric
+     * @param threadsAmount the amount of threads computing the similarities
+     * @return the index of the neighbours, identified by their row IDs
+     */
+    static NeighbourIndex computeNeighbourIndex(RatingMatrix ratings, int neighboursAmount,
+                                                SimilarityMetric metric, int threadsAmount)
+    {
+        NeighbourIndex index = new NeighbourIndex(ratings.getRowIds(), neighboursAmount);
+        computeSimilarities(ratings, metric, threadsAmount, true,
+                (row, column, tile) -> offerTile(index, row, column, tile));
+        return index.build();
+    }
+
+    /**
+     * Get the user IDs of the dataset, in ascending order.
+     * @return the user IDs
+     */
+    private int[] getUserIds()
+    {
+        if (dataset == null)
+        {
+            return ratings.getRowIds().clone();
+        }
+
+        int[] users = new int[dataset.size()];
+        int u = 0;
+        for (int userIndex : dataset.keySet())
+        {
+            users[u++] = userIndex;
+        }
+        return users;
+    }
+
+    /**
+     * Receives the similarities of the tiles of users.
+     */
+    private interface TileHandler
+    {
+        /**
+         * Handles the similarities of a tile.
+         *
+         * @param row index of the first user of the tile
+         * @param column index of the first neighbour of the tile
+         * @param tile the similarities of the tile, in row-major order
+         */
+        void handle(int row, int column, double[] tile);
+    }
+
+    /**
+     * Computes the similarities of the upper triangle of the users, one tile at a time.
+     *
+     * @param ratings the ratings, with a row for each user in ascending ID order
+     * @param metric the similarity metric
+     * @param threadsAmount the amount of threads computing the tiles
+     * @param concurrentHandler true if the handler can be called by the worker threads,
+     *                          false to call it from this thread in a fixed tile order,
+     *                          keeping at most {@value #TILE_BATCH_SIZE} computed tiles
+     *                          per thread in memory
+     * @param handler receives the similarities of each tile
+     */
+    private static void computeSimilarities(RatingMatrix ratings, SimilarityMetric metric, int threadsAmount,
+                                            boolean concurrentHandler, TileHandler handler)
+    {
+        SimilarityMetric prepared = metric.prepare(ratings);
+        int usersAmount = ratings.getRowsAmount();
+
+        // Tiles of the upper triangle, each one identified by its first row and column
+        List<Callable<double[]>> tiles = new ArrayList<>();
+        List<int[]> origins = new ArrayList<>();
+        for (int row = 0; row < usersAmount; row += TILE_SIZE)
+        {
+            for (int column = row; column < usersAmount; column += TILE_SIZE)
+            {
+                int tileRow = row;
+                int tileColumn = column;
+                origins.add(new int[]{tileRow, tileColumn});
+                tiles.add(() ->
                 {
-                    // Set the value in the matrix
-                    try
+                    double[] tile = computeTile(ratings, prepared, tileRow, tileColumn);
+                    if (concurrentHandler)
                     {
-                        double sim = userSimilarity(dataset.get(userIndex), dataset.get(neighbourIndex));
-                        // Assign a value of 0 if the similarity not greater than zero
-                        similarityMatrix.symmetricPut(userIndex, neighbourIndex, sim > 0 ? sim : 0);
+                        handler.handle(tileRow, tileColumn, tile);
+                        return null;
                     }
-                    catch (IllegalArgumentException e)
-                    {
+                    return tile;
+                });
+            }
+        }
 
-                        debug(e + "\n" +
-                        "User " + userIndex + " and/or user "
-                                + neighbourIndex + " don't have enough data in common.\n" +
-                                "Similarity set to 0.");
+        if (threadsAmount == 1 || tiles.size() == 1)
+        {
+            for (int[] origin : origins)
+            {
+                handler.handle(origin[0], origin[1], computeTile(ratings, prepared, origin[0], origin[1]));
+            }
+            return;
+        }
+
+        // The tiles handed over by this thread are computed in bounded batches
+        int batchSize = concurrentHandler ? tiles.size() : threadsAmount * TILE_BATCH_SIZE;
 
-                        // Not having enough data seems enough to put similarity to 0
-                        similarityMatrix.symmetricPut(userIndex, neighbourIndex, 0.0);
+        ForkJoinPool pool = new ForkJoinPool(threadsAmount);
+        try
+        {
+            for (int first = 0; first < tiles.size(); first += batchSize)
+            {
+                int last = Math.min(first + batchSize, tiles.size());
+                List<Future<double[]>> results = pool.invokeAll(tiles.subList(first, last));
+                for (int t = first; t < last; t++)
+                {
+                    double[] tile = results.get(t - first).get();
+                    if (!concurrentHandler)
+                    {
+                        int[] origin = origins.get(t);
+                        handler.handle(origin[0], origin[1], tile);
                     }
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Similarity computation interrupted.", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
 
+    /**
+     * Computes the similarities of a tile of the matrix.
+     *
+     * @param ratings the ratings, with a row for each user
+     * @param metric the similarity metric, already prepared on the ratings
+     * @param row index of the first user of the tile
+     * @param column index of the first neighbour of the tile
+     * @return the similarities of the tile, in row-major order
+     */
+    private static double[] computeTile(RatingMatrix ratings, SimilarityMetric metric, int row, int column)
+    {
+        double[] tile = new double[TILE_SIZE * TILE_SIZE];
+        int rowEnd = Math.min(row + TILE_SIZE, ratings.getRowsAmount());
+        int columnEnd = Math.min(column + TILE_SIZE, ratings.getRowsAmount());
+
+        for (int i = row; i < rowEnd; i++)
+        {
+            // Only the upper triangle is computed
+            for (int j = Math.max(column, i + 1); j < columnEnd; j++)
+            {
+                double sim = metric.similarity(ratings, i, j);
+
+                // Assign a value of 0 if the similarity is not greater than zero or not defined
+                tile[(i - row) * TILE_SIZE + (j - column)] = sim > 0 ? sim : 0;
+            }
+        }
+        return tile;
+    }
+
+    /**
+     * Stores the similarities of a tile in the similarity matrix.
+     *
+     * @param users the user IDs
+     * @param row index of the first user of the tile
+     * @param column index of the first neighbour of the tile
+     * @param tile the similarities of the tile, in row-major order
+     */
+    private void storeTile(int[] users, int row, int column, double[] tile)
+    {
+        int rowEnd = Math.min(row + TILE_SIZE, users.length);
+        int columnEnd = Math.min(column + TILE_SIZE, users.length);
+        // A sparse matrix only keeps the pairs with a similarity
+        boolean dense = !(similarityMatrix instanceof SymmetricMatrix)
+                || ((SymmetricMatrix) similarityMatrix).isDense();
+
+        for (int i = row; i < rowEnd; i++)
+        {
+            // If the user and the neighbour are the same, they have complete similarity.
+            if (i >= column)
+            {
+                similarityMatrix.setValue(users[i], users[i], 1.0);
+            }
+
+            for (int j = Math.max(column, i + 1); j < columnEnd; j++)
+            {
+                double similarity = tile[(i - row) * TILE_SIZE + (j - column)];
+                if (dense || similarity != 0)
+                {
+                    similarityMatrix.setValue(users[i], users[j], similarity);
                 }
             }
         }
     }
 
+    /**
+     * Offers the similarities of a tile to the heaps of a neighbour index.
+     *
+     * @param index the neighbour index
+     * @param row index of the first user of the tile
+     * @param column index of the first neighbour of the tile
+     * @param tile the similarities of the tile, in row-major order
+     */
+    private static void offerTile(NeighbourIndex index, int row, int column, double[] tile)
+    {
+        int usersAmount = index.getUserIds().length;
+        int rowEnd = Math.min(row + TILE_SIZE, usersAmount);
+        int columnEnd = Math.min(column + TILE_SIZE, usersAmount);
+
+        for (int i = row; i < rowEnd; i++)
+        {
+            for (int j = Math.max(column, i + 1); j < columnEnd; j++)
+            {
+                index.offerPair(i, j, tile[(i - row) * TILE_SIZE + (j - column)]);
+            }
+        }
+    }
+
     /**
      * Calculates the Pearson similarity of the items rated by both
      * of the users.
@@ -319,24 +1260,15 @@ public class NearestNeighbour<T extends DatasetNestedSparseVector<? extends Data
      * Calculates the Pearson similarity of the items rated by both
      * of the users.
      *
+     * The items of the users are sorted, so the common ones are found
+     * by walking the two users together.
+     *
      * @param user a user
      * @param neighbour a neighbour of the user
      * @return the Pearson similarity of the items rated by both
      * of the users
      */
     public double userSimilarity(DatasetSparseVector<?> user, DatasetSparseVector<?> neighbour)
-    {
-        double[][] subArrays = getSubArrays(user, neighbour);
-        return userSimilarity(subArrays[0], subArrays[1]);
-    }
-
-    /**
-     * Get a matrix of sub-arrays containing only the items rated by both the users.
-     * @param user a user
-     * @param neighbour a neighbour of the user
-     * @return a matrix of user and neighbour common items
-     */
-    private double[][] getSubArrays(DatasetSparseVector<?> user, DatasetSparseVector<?> neighbour)
     {
         // Check everything is working well
         if (user == null)
@@ -349,30 +1281,58 @@ public class NearestNeighbour<T extends DatasetNestedSparseVector<? extends Data
             throw new IllegalArgumentException("The neighbour pointer should not be null!");
         }
 
-        // Retrieve the common elements between user and neighbour
-        Set<Integer> commonElementsSet = new HashSet<>();
-        commonElementsSet.addAll(user.keySet());
-        commonElementsSet.retainAll(neighbour.keySet());
-
-        // Fail early
-        if (commonElementsSet.size() < 2)
+        int n = 0;
+        double shiftX = 0;
+        double shiftY = 0;
+        double sumX = 0;
+        double sumY = 0;
+        double sumXY = 0;
+        double sumXX = 0;
+        double sumYY = 0;
+
+        Iterator<? extends Map.Entry<Integer, ? extends DatasetElement<?>>> userItems = user.entrySet().iterator();
+        Iterator<? extends Map.Entry<Integer, ? extends DatasetElement<?>>> neighbourItems = neighbour.entrySet().iterator();
+        Map.Entry<Integer, ? extends DatasetElement<?>> a = userItems.hasNext() ? userItems.next() : null;
+        Map.Entry<Integer, ? extends DatasetElement<?>> b = neighbourItems.hasNext() ? neighbourItems.next() : null;
+
+        while (a != null && b != null)
         {
-            throw new IllegalArgumentException("The arrays are too short, min length is 2.\n" +
-                    "Common elements: " + commonElementsSet);
-        }
+            int comparison = Integer.compare(a.getKey(), b.getKey());
+            if (comparison == 0)
+            {
+                if (n == 0)
+                {
+                    shiftX = a.getValue().getDoubleValue();
+                    shiftY = b.getValue().getDoubleValue();
+                }
+                double x = a.getValue().getDoubleValue() - shiftX;
+                double y = b.getValue().getDoubleValue() - shiftY;
+                sumX += x;
+                sumY += y;
+                sumXY += x * y;
+                sumXX += x * x;
+                sumYY += y * y;
+                n++;
+            }
 
-        double[] userArray = new double[commonElementsSet.size()];
-        double[] neighbourArray = new double[commonElementsSet.size()];
+            if (comparison <= 0)
+            {
+                a = userItems.hasNext() ? userItems.next() : null;
+            }
+            if (comparison >= 0)
+            {
+                b = neighbourItems.hasNext() ? neighbourItems.next() : null;
+            }
+        }
 
-        int i = 0;
-        for(int item : commonElementsSet)
+        // Fail early
+        if (n < 2)
         {
-            userArray[i] = user.get(item).getDoubleValue();
-            neighbourArray[i] = neighbour.getDatasetElement(item).getDoubleValue();
-            i++;
+            throw new IllegalArgumentException("The arrays are too short, min length is 2.\n" +
+                    "Common elements: " + n);
         }
 
-        return new double[][] {userArray, neighbourArray};
+        return PearsonSimilarity.correlation(n, sumX, sumY, sumXY, sumXX, sumYY);
     }
 
     public SparseMatrix getSimilarityMatrix()
@@ -380,6 +1340,11 @@ public class NearestNeighbour<T extends DatasetNestedSparseVector<? extends Data
         return this.similarityMatrix;
     }
 
+    public NeighbourIndex getNeighbourIndex()
+    {
+        return this.neighbourIndex;
+    }
+
     public double getMaxValue() {
         return maxValue;
     }
@@ -395,4 +1360,38 @@ public class NearestNeighbour<T extends DatasetNestedSparseVector<? extends Data
     public void setMinValue(double minValue) {
         this.minValue = minValue;
     }
+
+    public SimilarityMetric getSimilarityMetric() {
+        return similarityMetric;
+    }
+
+    /**
+     * Set the metric used to compute the similarity between users.
+     *
+     * The similarity matrix needs to be computed again for the change to take effect.
+     * @param similarityMetric the similarity metric
+     */
+    public void setSimilarityMetric(SimilarityMetric similarityMetric) {
+        if (similarityMetric == null)
+        {
+            throw new IllegalArgumentException("The similarity metric cannot be null.");
+        }
+        this.similarityMetric = similarityMetric;
+    }
+
+    public int getThreadsAmount() {
+        return threadsAmount;
+    }
+
+    /**
+     * Set the amount of threads used to compute the similarity matrix and the forecasts.
+     * @param threadsAmount the amount of threads, at least 1
+     */
+    public void setThreadsAmount(int threadsAmount) {
+        if (threadsAmount < 1)
+        {
+            throw new IllegalArgumentException("The amount of threads must be at least 1.");
+        }
+        this.threadsAmount = threadsAmount;
+    }
 }
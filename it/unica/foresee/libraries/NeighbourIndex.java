@@ -0,0 +1,328 @@
+package it.unica.foresee.libraries;
+
+import java.util.Arrays;
+
+/**
+ * The K nearest neighbours of each user, with their similarity.
+ *
+ * The neighbours of all the users are stored in two flat primitive arrays of
+ * {@code usersAmount * K} elements, so the memory needed grows as O(U K) instead
+ * of the O(U<sup>2</sup>) of a full similarity matrix.
+ *
+ * While the index is built, the neighbours of each user are kept in a bounded
+ * min-heap whose root is the worst neighbour found so far, and any better
+ * candidate replaces it. Neighbours are ranked by similarity descending and
+ * then by ID ascending, which is a total order: the index is the same whatever
+ * the order in which the similarities are offered. The similarities are kept
+ * as doubles, so the neighbours are ranked exactly as by sorting a row of the
+ * full similarity matrix.
+ */
+public class NeighbourIndex
+{
+    /**
+     * Amount of locks shared by the users while the index is built by many threads.
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * ID of each user, sorted ascending.
+     */
+    private final int[] userIds;
+
+    /**
+     * Highest amount of neighbours of each user.
+     */
+    private final int k;
+
+    /**
+     * ID of the neighbours, K for each user, from the nearest.
+     */
+    private final int[] neighbourIds;
+
+    /**
+     * Similarity of the neighbours, K for each user, from the highest.
+     */
+    private final double[] similarities;
+
+    /**
+     * Amount of neighbours of each user.
+     */
+    private final int[] sizes;
+
+    /**
+     * Locks guarding the heaps while the index is built.
+     */
+    private final Object[] locks;
+
+    /**
+     * Whether the heaps have been sorted and the index is ready to be read.
+     */
+    private boolean built = false;
+
+    /**
+     * Initializes an empty index, ready to receive the similarities.
+     *
+     * @param userIds the ID of each user, sorted ascending
+     * @param k the highest amount of neighbours of each user
+     */
+    public NeighbourIndex(int[] userIds, int k)
+    {
+        if (k < 1)
+        {
+            throw new IllegalArgumentException("The amount of neighbours must be at least 1.");
+        }
+
+        this.userIds = userIds;
+        // A user cannot have more neighbours than the other users
+        this.k = Math.max(1, Math.min(k, userIds.length - 1));
+        this.neighbourIds = new int[userIds.length * this.k];
+        this.similarities = new double[userIds.length * this.k];
+        this.sizes = new int[userIds.length];
+        this.locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++)
+        {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Offers the similarity of two users to both their heaps.
+     *
+     * It can be called by many threads at the same time.
+     *
+     * @param user index of the first user
+     * @param neighbour index of the second user
+     * @param similarity the similarity of the two users
+     */
+    public void offerPair(int user, int neighbour, double similarity)
+    {
+        offer(user, neighbour, similarity);
+        offer(neighbour, user, similarity);
+    }
+
+    /**
+     * Offers a neighbour to the heap of a user.
+     *
+     * It can be called by many threads at the same time.
+     *
+     * @param user index of the user
+     * @param neighbour index of the neighbour
+     * @param similarity the similarity of the two users
+     */
+    public void offer(int user, int neighbour, double similarity)
+    {
+        if (built)
+        {
+            throw new IllegalStateException("The index has already been built.");
+        }
+
+        double sim = similarity;
+        int id = userIds[neighbour];
+        int base = user * k;
+
+        synchronized (locks[user % LOCK_STRIPES])
+        {
+            int size = sizes[user];
+            if (size < k)
+            {
+                // Append and move up
+                neighbourIds[base + size] = id;
+                similarities[base + size] = sim;
+                sizes[user] = size + 1;
+                siftUp(base, size);
+            }
+            else if (isWorse(similarities[base], neighbourIds[base], sim, id))
+            {
+                // Replace the worst neighbour and move it down
+                neighbourIds[base] = id;
+                similarities[base] = sim;
+                siftDown(base, 0, size);
+            }
+        }
+    }
+
+    /**
+     * Sorts the neighbours of each user from the nearest, making the index ready to be read.
+     *
+     * @return this index
+     */
+    public NeighbourIndex build()
+    {
+        if (built)
+        {
+            return this;
+        }
+
+        for (int user = 0; user < sizes.length; user++)
+        {
+            int base = user * k;
+
+            // Heap sort: moving the worst neighbour to the end leaves the best first
+            for (int end = sizes[user] - 1; end > 0; end--)
+            {
+                swap(base, 0, end);
+                siftDown(base, 0, end);
+            }
+        }
+
+        built = true;
+        return this;
+    }
+
+    /* Getters */
+
+    /**
+     * Get the highest amount of neighbours of each user.
+     *
+     * It can be lower than the requested one when there are not enough users.
+     * @return the K of the index
+     */
+    public int getK()
+    {
+        return k;
+    }
+
+    /**
+     * Checks if the index holds at least the given amount of neighbours per user,
+     * or all the other users.
+     *
+     * @param neighboursAmount the amount of neighbours needed
+     * @return true if the index can answer for that amount of neighbours
+     */
+    public boolean covers(int neighboursAmount)
+    {
+        return neighboursAmount <= k || k >= userIds.length - 1;
+    }
+
+    /**
+     * Get the ID of each user of the index.
+     * @return the user IDs, sorted ascending
+     */
+    public int[] getUserIds()
+    {
+        return userIds;
+    }
+
+    /**
+     * Get the index of a user.
+     *
+     * @param userId the user ID
+     * @return the index of the user, or -1 if the user is not in the index
+     */
+    public int indexOf(int userId)
+    {
+        int index = Arrays.binarySearch(userIds, userId);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * Get the amount of neighbours of a user.
+     *
+     * @param user index of the user
+     * @return the amount of neighbours
+     */
+    public int size(int user)
+    {
+        return sizes[user];
+    }
+
+    /**
+     * Get the ID of a neighbour of a user.
+     *
+     * @param user index of the user
+     * @param rank position of the neighbour, 0 being the nearest
+     * @return the ID of the neighbour
+     */
+    public int getNeighbourId(int user, int rank)
+    {
+        checkBuilt();
+        return neighbourIds[user * k + rank];
+    }
+
+    /**
+     * Get the similarity of a neighbour of a user.
+     *
+     * @param user index of the user
+     * @param rank position of the neighbour, 0 being the nearest
+     * @return the similarity of the neighbour
+     */
+    public double getSimilarity(int user, int rank)
+    {
+        checkBuilt();
+        return similarities[user * k + rank];
+    }
+
+    /* Heap helpers */
+
+    /**
+     * Checks that the index has been built.
+     */
+    private void checkBuilt()
+    {
+        if (!built)
+        {
+            throw new IllegalStateException("The index has not been built yet.");
+        }
+    }
+
+    /**
+     * Checks if the neighbour (simA, idA) ranks after (simB, idB).
+     */
+    private static boolean isWorse(double simA, int idA, double simB, int idB)
+    {
+        return simA < simB || (simA == simB && idA > idB);
+    }
+
+    private void siftUp(int base, int position)
+    {
+        while (position > 0)
+        {
+            int parent = (position - 1) / 2;
+            if (!isWorse(similarities[base + position], neighbourIds[base + position],
+                    similarities[base + parent], neighbourIds[base + parent]))
+            {
+                break;
+            }
+            swap(base, position, parent);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int base, int position, int size)
+    {
+        while (true)
+        {
+            int worst = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+
+            if (left < size && isWorse(similarities[base + left], neighbourIds[base + left],
+                    similarities[base + worst], neighbourIds[base + worst]))
+            {
+                worst = left;
+            }
+            if (right < size && isWorse(similarities[base + right], neighbourIds[base + right],
+                    similarities[base + worst], neighbourIds[base + worst]))
+            {
+                worst = right;
+            }
+            if (worst == position)
+            {
+                return;
+            }
+            swap(base, position, worst);
+            position = worst;
+        }
+    }
+
+    private void swap(int base, int a, int b)
+    {
+        int id = neighbourIds[base + a];
+        neighbourIds[base + a] = neighbourIds[base + b];
+        neighbourIds[base + b] = id;
+
+        double sim = similarities[base + a];
+        similarities[base + a] = similarities[base + b];
+        similarities[base + b] = sim;
+    }
+}
@@ -0,0 +1,202 @@
+package it.unica.foresee.libraries;
+
+import it.unica.foresee.datasets.RatingMatrix;
+import it.unica.foresee.libraries.interfaces.SimilarityMetric;
+
+/**
+ * Pearson correlation of the items rated by both of two users.
+ *
+ * The rows of a {@link RatingMatrix} are sorted by item ID, so the co-rated
+ * items are found with a merge of the two rows, and the sums needed by the
+ * correlation are accumulated in the same pass, without any allocation.
+ */
+public class PearsonSimilarity implements SimilarityMetric
+{
+    /**
+     * Name of the metric.
+     */
+    public static final String NAME = "pearson";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Pearson correlation needs no statistic.
+     */
+    @Override
+    public SimilarityMetric prepare(RatingMatrix ratings)
+    {
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double similarity(RatingMatrix ratings, int rowA, int rowB)
+    {
+        return correlation(ratings, rowA, rowB);
+    }
+
+    /**
+     * Calculates the Pearson correlation of the items two rows have in common.
+     *
+     * @param ratings the rating matrix
+     * @param rowA index of the first row
+     * @param rowB index of the second row
+     * @return the correlation in [-1, 1], or NaN if the rows have less than two
+     * items in common or one of them is constant on those items
+     */
+    public static double correlation(RatingMatrix ratings, int rowA, int rowB)
+    {
+        return correlation(ratings.getColumnIds(), ratings.getValues(),
+                ratings.getRowStart(rowA), ratings.getRowEnd(rowA),
+                ratings.getRowStart(rowB), ratings.getRowEnd(rowB));
+    }
+
+    /**
+     * Calculates the Pearson correlation of the common items of two ranges of sorted items.
+     *
+     * @param items the item IDs, sorted ascending in each range
+     * @param values the rating of each item
+     * @param startA first position of the first range
+     * @param endA position after the last of the first range
+     * @param startB first position of the second range
+     * @param endB position after the last of the second range
+     * @return the correlation in [-1, 1], or NaN if it is not defined
+     */
+    public static double correlation(int[] items, double[] values, int startA, int endA, int startB, int endB)
+    {
+        return weightedCorrelation(items, values, startA, endA, startB, endB, 1);
+    }
+
+    /**
+     * Calculates the Pearson correlation of the items two rows have in common,
+     * shrunk by {@code min(n, threshold) / threshold}, where {@code n} is the
+     * amount of co-rated items.
+     *
+     * @param ratings the rating matrix
+     * @param rowA index of the first row
+     * @param rowB index of the second row
+     * @param threshold amount of co-rated items above which the correlation is not shrunk
+     * @return the shrunk correlation, or NaN if the correlation is not defined
+     */
+    public static double weightedCorrelation(RatingMatrix ratings, int rowA, int rowB, int threshold)
+    {
+        return weightedCorrelation(ratings.getColumnIds(), ratings.getValues(),
+                ratings.getRowStart(rowA), ratings.getRowEnd(rowA),
+                ratings.getRowStart(rowB), ratings.getRowEnd(rowB), threshold);
+    }
+
+    /**
+     * Calculates the shrunk Pearson correlation of the common items of two ranges of sorted items.
+     *
+     * The co-rated items are counted in the same pass as the sums. The values
+     * are shifted by those of the first common item before being summed, which
+     * keeps the single pass formula accurate when the ratings are much bigger
+     * than their variance.
+     *
+     * @param items the item IDs, sorted ascending in each range
+     * @param values the rating of each item
+     * @param startA first position of the first range
+     * @param endA position after the last of the first range
+     * @param startB first position of the second range
+     * @param endB position after the last of the second range
+     * @param threshold amount of co-rated items above which the correlation is not shrunk
+     * @return the shrunk correlation, or NaN if the correlation is not defined
+     */
+    private static double weightedCorrelation(int[] items, double[] values, int startA, int endA,
+                                              int startB, int endB, int threshold)
+    {
+        int n = 0;
+        double shiftX = 0;
+        double shiftY = 0;
+        double sumX = 0;
+        double sumY = 0;
+        double sumXY = 0;
+        double sumXX = 0;
+        double sumYY = 0;
+
+        int a = startA;
+        int b = startB;
+        while (a < endA && b < endB)
+        {
+            int itemA = items[a];
+            int itemB = items[b];
+            if (itemA < itemB)
+            {
+                a++;
+            }
+            else if (itemA > itemB)
+            {
+                b++;
+            }
+            else
+            {
+                if (n == 0)
+                {
+                    shiftX = values[a];
+                    shiftY = values[b];
+                }
+                double x = values[a] - shiftX;
+                double y = values[b] - shiftY;
+                sumX += x;
+                sumY += y;
+                sumXY += x * y;
+                sumXX += x * x;
+                sumYY += y * y;
+                n++;
+                a++;
+                b++;
+            }
+        }
+
+        double correlation = correlation(n, sumX, sumY, sumXY, sumXX, sumYY);
+        if (Double.isNaN(correlation))
+        {
+            return correlation;
+        }
+        return correlation * Math.min(n, threshold) / threshold;
+    }
+
+    /**
+     * Calculates the Pearson correlation from the sums of two samples.
+     *
+     * @param n the amount of pairs
+     * @param sumX sum of the first sample
+     * @param sumY sum of the second sample
+     * @param sumXY sum of the products of the pairs
+     * @param sumXX sum of the squares of the first sample
+     * @param sumYY sum of the squares of the second sample
+     * @return the correlation in [-1, 1], or NaN if it is not defined
+     */
+    public static double correlation(int n, double sumX, double sumY, double sumXY, double sumXX, double sumYY)
+    {
+        if (n < 2)
+        {
+            return Double.NaN;
+        }
+
+        double covariance = sumXY - sumX * sumY / n;
+        double varianceX = sumXX - sumX * sumX / n;
+        double varianceY = sumYY - sumY * sumY / n;
+
+        if (varianceX <= 0 || varianceY <= 0)
+        {
+            return Double.NaN;
+        }
+
+        double r = covariance / Math.sqrt(varianceX * varianceY);
+
+        // Rounding can push the result slightly out of range
+        return Math.max(-1.0, Math.min(1.0, r));
+    }
+}
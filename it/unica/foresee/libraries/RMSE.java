@@ -1,9 +1,11 @@
 package it.unica.foresee.libraries;
 
-import it.unica.foresee.utils.Logger;
-
 /**
  * Root mean squared error calculator.
+ *
+ * The squared errors are summed straight from the arrays, without copying them.
+ * Unlike an {@link ErrorAccumulator}, every pair counts: a NaN estimate gives
+ * a NaN result instead of being skipped as not predicted.
  */
 public class RMSE
 {
@@ -11,82 +13,72 @@ public class RMSE
      * Performs the RMSE calculation for each item.
      * @param estimator the value that makes an estimate of a parameter
      * @param parameter
-     * @return the RMSE
+     * @return the RMSE, NaN if any estimate is NaN
      */
     public double calculate (Double[] estimator, Double[] parameter)
     {
-        double[] rawEstimator = new double[estimator.length];
-        double[] rawParameter = new double[estimator.length];
+        checkLengths(estimator.length, parameter.length);
 
-        if (estimator.length != parameter.length)
-        {
-            throw new IllegalArgumentException("Estimator and parameter arrays need to have the same length");
-        }
-
-        // Covert to raw type
+        double squaredErrorSum = 0;
         for (int i = 0; i < estimator.length; i++)
         {
-            rawEstimator[i] = estimator[i];
-            rawParameter[i] = parameter[i];
+            double error = estimator[i] - parameter[i];
+            squaredErrorSum += error * error;
         }
-
-        return calculate(rawEstimator, rawParameter);
+        return Math.sqrt(squaredErrorSum / estimator.length);
     }
 
     /**
      * Performs the RMSE calculation for each item.
      * @param estimator the value that makes an estimate of a parameter
      * @param parameter
-     * @return the RMSE
+     * @return the RMSE, NaN if any estimate is NaN
      */
     public double calculate (double[] estimator, double[] parameter)
     {
-        if (estimator.length != parameter.length)
-        {
-            throw new IllegalArgumentException("Estimator and parameter arrays need to have the same length");
-        }
-
-        if (estimator.length == 0)
-        {
-            throw new IllegalStateException("The arrays cannot be empty");
-        }
-
-        double numerator = 0;
-        double diff;
+        checkLengths(estimator.length, parameter.length);
 
+        double squaredErrorSum = 0;
         for (int i = 0; i < estimator.length; i++)
         {
-            Logger.debug("RMSE: est[" + estimator[i] + "]" + " param[" + parameter[i] + "]");
-            diff = (estimator[i] - parameter[i]);
-            numerator += diff * diff ;
+            double error = estimator[i] - parameter[i];
+            squaredErrorSum += error * error;
         }
-
-        return Math.sqrt(numerator / estimator.length);
+        return Math.sqrt(squaredErrorSum / estimator.length);
     }
 
     /**
      * Performs the RMSE calculation for each item.
      * @param estimator the value that makes an estimate of a parameter
      * @param parameter
-     * @return the RMSE
+     * @return the RMSE, NaN if any estimate is NaN
      */
     public double calculate (int[] estimator, int[] parameter)
     {
-        double[] rawEstimator = new double[estimator.length];
-        double[] rawParameter = new double[estimator.length];
+        checkLengths(estimator.length, parameter.length);
 
-        if (estimator.length != parameter.length)
+        double squaredErrorSum = 0;
+        for (int i = 0; i < estimator.length; i++)
         {
-            throw new IllegalArgumentException("Estimator and parameter arrays need to have the same length");
+            double error = estimator[i] - parameter[i];
+            squaredErrorSum += error * error;
         }
+        return Math.sqrt(squaredErrorSum / estimator.length);
+    }
 
-        // Covert to raw type
-        for (int i = 0; i < estimator.length; i++)
+    /**
+     * Checks that the arrays can be compared.
+     */
+    private static void checkLengths(int estimatorLength, int parameterLength)
+    {
+        if (estimatorLength != parameterLength)
         {
-            rawEstimator[i] = (double) estimator[i];
-            rawParameter[i] = (double) parameter[i];
+            throw new IllegalArgumentException("Estimator and parameter arrays need to have the same length");
         }
 
-        return calculate(rawEstimator, rawParameter);
+        if (estimatorLength == 0)
+        {
+            throw new IllegalStateException("The arrays cannot be empty");
+        }
     }
 }
@@ -0,0 +1,89 @@
+package it.unica.foresee.libraries;
+
+import it.unica.foresee.datasets.RatingMatrix;
+import it.unica.foresee.libraries.interfaces.SimilarityMetric;
+
+/**
+ * Pearson correlation shrunk towards 0 when the rows have few items in common.
+ *
+ * The correlation is multiplied by {@code min(n, threshold) / threshold},
+ * where {@code n} is the amount of co-rated items, so that a high correlation
+ * on a handful of items does not weigh as much as one on many items.
+ */
+public class SignificanceWeightedPearsonSimilarity implements SimilarityMetric
+{
+    /**
+     * Name of the metric.
+     */
+    public static final String NAME = "weightedpearson";
+
+    /**
+     * Default amount of co-rated items above which the correlation is not shrunk.
+     */
+    public static final int DEFAULT_THRESHOLD = 50;
+
+    /**
+     * Amount of co-rated items above which the correlation is not shrunk.
+     */
+    private final int threshold;
+
+    /**
+     * Initializes the metric with the default threshold.
+     */
+    public SignificanceWeightedPearsonSimilarity()
+    {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Initializes the metric with the given threshold.
+     *
+     * @param threshold amount of co-rated items above which the correlation is not shrunk
+     */
+    public SignificanceWeightedPearsonSimilarity(int threshold)
+    {
+        if (threshold < 1)
+        {
+            throw new IllegalArgumentException("The threshold must be at least 1.");
+        }
+        this.threshold = threshold;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Pearson correlation needs no statistic.
+     */
+    @Override
+    public SimilarityMetric prepare(RatingMatrix ratings)
+    {
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double similarity(RatingMatrix ratings, int rowA, int rowB)
+    {
+        return PearsonSimilarity.weightedCorrelation(ratings, rowA, rowB, threshold);
+    }
+
+    /**
+     * Get the amount of co-rated items above which the correlation is not shrunk.
+     * @return the threshold
+     */
+    public int getThreshold()
+    {
+        return threshold;
+    }
+}
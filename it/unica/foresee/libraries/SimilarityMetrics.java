@@ -0,0 +1,106 @@
+package it.unica.foresee.libraries;
+
+import it.unica.foresee.datasets.RatingMatrix;
+import it.unica.foresee.libraries.interfaces.SimilarityMetric;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the available {@link SimilarityMetric}s, by name.
+ *
+ * Available metrics:
+ * <ul>
+ *     <li>{@code pearson} (also {@code newpearson}): {@link PearsonSimilarity}</li>
+ *     <li>{@code weightedpearson}: {@link SignificanceWeightedPearsonSimilarity}</li>
+ *     <li>{@code cosine}: {@link CosineSimilarity}</li>
+ *     <li>{@code adjustedcosine}: {@link AdjustedCosineSimilarity}</li>
+ *     <li>{@code jaccard}: {@link JaccardSimilarity}</li>
+ *     <li>{@code msd}: {@link MeanSquaredDifferenceSimilarity}</li>
+ * </ul>
+ */
+public class SimilarityMetrics
+{
+    /**
+     * Factory of each metric, by name.
+     */
+    private static final TreeMap<String, Supplier<SimilarityMetric>> METRICS = new TreeMap<>();
+
+    static
+    {
+        METRICS.put(PearsonSimilarity.NAME, PearsonSimilarity::new);
+        // Name used by the instructions of the ART framework
+        METRICS.put("newpearson", PearsonSimilarity::new);
+        METRICS.put(SignificanceWeightedPearsonSimilarity.NAME, SignificanceWeightedPearsonSimilarity::new);
+        METRICS.put(CosineSimilarity.NAME, CosineSimilarity::new);
+        METRICS.put(AdjustedCosineSimilarity.NAME, AdjustedCosineSimilarity::new);
+        METRICS.put(JaccardSimilarity.NAME, JaccardSimilarity::new);
+        METRICS.put(MeanSquaredDifferenceSimilarity.NAME, MeanSquaredDifferenceSimilarity::new);
+    }
+
+    /**
+     * Creates a new instance of a metric.
+     *
+     * @param name the name of the metric, case insensitive
+     * @return a new instance of the metric
+     * @throws IllegalArgumentException if no metric has the given name
+     */
+    public static SimilarityMetric get(String name)
+    {
+        Supplier<SimilarityMetric> factory = METRICS.get(name.toLowerCase());
+        if (factory == null)
+        {
+            throw new IllegalArgumentException("Unknown similarity metric: " + name +
+                    ". Available metrics: " + getNames());
+        }
+        return factory.get();
+    }
+
+    /**
+     * Get the names of the available metrics.
+     * @return the names of the metrics, sorted
+     */
+    public static Set<String> getNames()
+    {
+        return Collections.unmodifiableSet(METRICS.keySet());
+    }
+
+    /**
+     * Counts the items two rows of a matrix have in common.
+     *
+     * @param ratings the rating matrix
+     * @param rowA index of the first row
+     * @param rowB index of the second row
+     * @return the amount of co-rated items
+     */
+    public static int countCommon(RatingMatrix ratings, int rowA, int rowB)
+    {
+        int[] items = ratings.getColumnIds();
+        int a = ratings.getRowStart(rowA);
+        int endA = ratings.getRowEnd(rowA);
+        int b = ratings.getRowStart(rowB);
+        int endB = ratings.getRowEnd(rowB);
+
+        int common = 0;
+        while (a < endA && b < endB)
+        {
+            if (items[a] < items[b])
+            {
+                a++;
+            }
+            else if (items[a] > items[b])
+            {
+                b++;
+            }
+            else
+            {
+                common++;
+                a++;
+                b++;
+            }
+        }
+        return common;
+    }
+}
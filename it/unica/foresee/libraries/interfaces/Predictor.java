@@ -0,0 +1,16 @@
+package it.unica.foresee.libraries.interfaces;
+
+/**
+ * Predicts the rating of a user for an item, as the recommendation algorithms do.
+ */
+public interface Predictor
+{
+    /**
+     * Predicts the rating of a user for an item.
+     *
+     * @param userId the ID of the user
+     * @param itemId the ID of the item
+     * @return the predicted rating, or {@link Double#NaN} if it cannot be predicted
+     */
+    double predict(int userId, int itemId);
+}
@@ -0,0 +1,44 @@
+package it.unica.foresee.libraries.interfaces;
+
+import it.unica.foresee.datasets.RatingMatrix;
+
+/**
+ * Measure of the similarity between two rows (usually users) of a {@link RatingMatrix}.
+ *
+ * The metric is prepared once on a matrix, to compute any statistic it needs
+ * (such as norms or means), and the prepared metric is then asked for the
+ * similarity of any pair of rows of that matrix. Preparing never changes the
+ * metric it is called on, and a prepared metric is immutable, so the same
+ * metric can be prepared on many matrices at the same time and each prepared
+ * metric can be used by many threads.
+ */
+public interface SimilarityMetric
+{
+    /**
+     * Get the name of the metric, as used in the instructions.
+     *
+     * @return the name of the metric
+     */
+    String getName();
+
+    /**
+     * Computes the statistics needed by the metric on a matrix.
+     *
+     * The returned metric must be used for {@link #similarity(RatingMatrix, int, int)},
+     * and the metric must be prepared again every time the matrix changes.
+     *
+     * @param ratings the rating matrix
+     * @return the metric prepared on the matrix, this metric if it needs no statistic
+     */
+    SimilarityMetric prepare(RatingMatrix ratings);
+
+    /**
+     * Calculates the similarity of two rows of the matrix the metric has been prepared on.
+     *
+     * @param ratings the rating matrix
+     * @param rowA index of the first row
+     * @param rowB index of the second row
+     * @return the similarity, or NaN if it is not defined for the two rows
+     */
+    double similarity(RatingMatrix ratings, int rowA, int rowB);
+}
@@ -1,7 +1,10 @@
 package it.unica.foresee.tests;
 
 import it.unica.foresee.datasets.*;
+import it.unica.foresee.libraries.ErrorAccumulator;
+import it.unica.foresee.libraries.RMSE;
 import it.unica.foresee.utils.Converter;
+import it.unica.foresee.utils.Logger;
 
 import org.apache.commons.math3.util.Pair;
 import org.junit.Before;
@@ -11,9 +14,11 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 /**
  * Checks the correct execution of the conversions algorithms.
@@ -70,4 +75,110 @@ public class ConverterTest
         assertArrayEquals(arrays.getFirst(), arrays.getSecond());
         assertArrayEquals(arrays.getFirst(), TestUtils.flatten(usersMatrix1));
     }
+
+    @Test
+    public void testErrors()
+    {
+        Logger.setVerbosity(Logger.VERB_NO_WARN);
+        Converter<MovielensElement> converter = new Converter<>();
+
+        // A random training set predicting most of the ratings of a random test set
+        Random random = new Random(3);
+        double[][] testMatrix = new double[700][10];
+        double[][] trainingMatrix = new double[700][10];
+        for (int u = 0; u < testMatrix.length; u++)
+        {
+            for (int j = 0; j < testMatrix[u].length; j++)
+            {
+                testMatrix[u][j] = 1 + random.nextInt(5);
+                trainingMatrix[u][j] = 1 + random.nextInt(5);
+            }
+        }
+        Movielens test = TestUtils.fillDataset(testMatrix);
+        Movielens training = TestUtils.fillDataset(trainingMatrix);
+        for (int u = 0; u < trainingMatrix.length; u += 7)
+        {
+            training.get(u).remove(1 + u % 10);
+        }
+        training.remove(699);
+
+        // The same errors as the arrays, without the entries missing in the training set
+        Pair<Double[], Double[]> arrays = converter.getRMSEArrays(test, training);
+        double absoluteErrorSum = 0;
+        for (int i = 0; i < arrays.getFirst().length; i++)
+        {
+            absoluteErrorSum += Math.abs(arrays.getFirst()[i] - arrays.getSecond()[i]);
+        }
+
+        ErrorAccumulator errors = converter.getErrors(test, training);
+        assertEquals(arrays.getFirst().length, errors.getCount());
+        assertEquals(100 + 10, errors.getMissingCount());
+        assertEquals((double) errors.getCount() / 7000, errors.getCoverage(), 0.0000001);
+        assertEquals(new RMSE().calculate(arrays.getFirst(), arrays.getSecond()), errors.getRMSE(), 0.0000001);
+        assertEquals(absoluteErrorSum / arrays.getFirst().length, errors.getMAE(), 0.0000001);
+
+        // The same errors whatever the amount of threads
+        ErrorAccumulator parallelErrors = converter.getErrors(test, training, 3);
+        assertEquals(errors.getCount(), parallelErrors.getCount());
+        assertEquals(errors.getMissingCount(), parallelErrors.getMissingCount());
+        assertEquals(errors.getRMSE(), parallelErrors.getRMSE(), 0.0000001);
+        assertEquals(errors.getMAE(), parallelErrors.getMAE(), 0.0000001);
+
+        // The models give the same errors as a training set made of a copy of the model of each user
+        List<MovielensElement> models = new ArrayList<>();
+        for (int m = 0; m < 3; m++)
+        {
+            models.add(training.get(m));
+        }
+        Map<Integer, Integer> userToModel = new HashMap<>();
+        Movielens modelled = new Movielens();
+        for (int u = 0; u < testMatrix.length - 1; u++)
+        {
+            userToModel.put(u, u % 3);
+            modelled.put(u, models.get(u % 3).deepClone());
+        }
+        ErrorAccumulator modelErrors = converter.getErrors(test, models, userToModel);
+        ErrorAccumulator modelledErrors = converter.getErrors(test, modelled);
+        assertEquals(modelledErrors.getCount(), modelErrors.getCount());
+        assertEquals(modelledErrors.getMissingCount(), modelErrors.getMissingCount());
+        assertEquals(modelledErrors.getSquaredErrorSum(), modelErrors.getSquaredErrorSum(), 0.0);
+
+        // Merging accumulators is the same as accumulating everything
+        ErrorAccumulator first = new ErrorAccumulator();
+        ErrorAccumulator second = new ErrorAccumulator();
+        ErrorAccumulator all = new ErrorAccumulator();
+        for (int i = 0; i < 10; i++)
+        {
+            (i < 4 ? first : second).add(i, 2 * i);
+            all.add(i, 2 * i);
+        }
+        second.add(Double.NaN, 1);
+        all.addMissing();
+        first.merge(second);
+        assertEquals(all.getCount(), first.getCount());
+        assertEquals(all.getRMSE(), first.getRMSE(), 0.0000001);
+        assertEquals(4.5, first.getMAE(), 0.0000001);
+        assertEquals(10.0 / 11, first.getCoverage(), 0.0000001);
+
+        // The same preconditions as the arrays
+        try
+        {
+            converter.getErrors(new Movielens(), training);
+            fail("The test set must not be empty");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+
+        try
+        {
+            converter.getErrors(test, new ArrayList<>(), new HashMap<>());
+            fail("The model must not be empty");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+    }
 }
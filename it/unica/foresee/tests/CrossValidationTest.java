@@ -0,0 +1,226 @@
+package it.unica.foresee.tests;
+
+import it.unica.foresee.datasets.Movielens;
+import it.unica.foresee.datasets.RatingMatrix;
+import it.unica.foresee.libraries.CrossValidation;
+import it.unica.foresee.libraries.ErrorAccumulator;
+import it.unica.foresee.libraries.ItemNearestNeighbour;
+import it.unica.foresee.libraries.NearestNeighbour;
+import it.unica.foresee.libraries.SimilarityMetrics;
+import it.unica.foresee.libraries.interfaces.Predictor;
+import it.unica.foresee.utils.Logger;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the cross-validation runner.
+ */
+public class CrossValidationTest
+{
+    public static double HIGH_ACCURACY = 0.0000001;
+
+    private static final int FOLDS = 5;
+
+    private RatingMatrix ratings;
+    private byte[] folds;
+
+    @Before
+    public void setUp()
+    {
+        Logger.setVerbosity(Logger.VERB_NO_LOG);
+
+        // Sparse ratings, with about a third of the items not rated
+        double[][] usersMatrix = TestUtils.randomRatings(13, 80, 15, 3);
+
+        // The entries of value 0 are not ratings
+        Movielens dataset = TestUtils.fillDataset(usersMatrix);
+        for (int user = 0; user < usersMatrix.length; user++)
+        {
+            for (int j = 0; j < usersMatrix[user].length; j++)
+            {
+                if (usersMatrix[user][j] == 0)
+                {
+                    dataset.get(user).remove(j + 1);
+                }
+            }
+        }
+        ratings = RatingMatrix.fromDataset(dataset);
+
+        Random random = new Random(31);
+        folds = new byte[ratings.getEntriesAmount()];
+        for (int k = 0; k < folds.length; k++)
+        {
+            folds[k] = (byte) (random.nextInt(FOLDS));
+        }
+    }
+
+    @Test
+    public void trainingSetTest()
+    {
+        CrossValidation validation = new CrossValidation(ratings, folds, FOLDS);
+
+        int entries = 0;
+        for (int fold = 0; fold < FOLDS; fold++)
+        {
+            RatingMatrix training = validation.getTrainingSet(fold);
+
+            // Every rating of the other folds, and none of this one
+            int expected = 0;
+            for (int row = 0; row < ratings.getRowsAmount(); row++)
+            {
+                for (int k = ratings.getRowStart(row); k < ratings.getRowEnd(row); k++)
+                {
+                    double value = training.getValue(ratings.getRowId(row), ratings.getColumnIds()[k]);
+                    if (folds[k] == fold)
+                    {
+                        assertTrue(Double.isNaN(value));
+                    }
+                    else
+                    {
+                        assertEquals(ratings.getValues()[k], value, 0.0);
+                        expected++;
+                    }
+                }
+            }
+            assertEquals(expected, training.getEntriesAmount());
+            entries += ratings.getEntriesAmount() - expected;
+        }
+        assertEquals(ratings.getEntriesAmount(), entries);
+
+        try
+        {
+            new CrossValidation(ratings, new byte[folds.length - 1], FOLDS);
+            fail("There must be a fold for each rating");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void runTest()
+    {
+        // Predicts the mean rating of the user in the training set
+        Function<RatingMatrix, Predictor> userMean = training -> (userId, itemId) ->
+        {
+            int row = training.getRowIndex(userId);
+            double sum = 0;
+            for (int k = training.getRowStart(row); k < training.getRowEnd(row); k++)
+            {
+                sum += training.getValues()[k];
+            }
+            return sum / training.getRowSize(row);
+        };
+
+        CrossValidation validation = new CrossValidation(ratings, folds, FOLDS);
+        ErrorAccumulator total = validation.run(userMean);
+        assertEquals(ratings.getEntriesAmount(), total.getCount() + total.getMissingCount());
+
+        ErrorAccumulator expected = new ErrorAccumulator();
+        for (int fold = 0; fold < FOLDS; fold++)
+        {
+            RatingMatrix training = validation.getTrainingSet(fold);
+            ErrorAccumulator foldErrors = new ErrorAccumulator();
+            for (int row = 0; row < ratings.getRowsAmount(); row++)
+            {
+                int trainingRow = training.getRowIndex(ratings.getRowId(row));
+                for (int k = ratings.getRowStart(row); k < ratings.getRowEnd(row); k++)
+                {
+                    if (folds[k] == fold)
+                    {
+                        double sum = 0;
+                        for (int t = training.getRowStart(trainingRow); t < training.getRowEnd(trainingRow); t++)
+                        {
+                            sum += training.getValues()[t];
+                        }
+                        foldErrors.add(sum / training.getRowSize(trainingRow), ratings.getValues()[k]);
+                    }
+                }
+            }
+            assertEquals(foldErrors.getCount(), validation.getFoldErrors()[fold].getCount());
+            assertEquals(foldErrors.getRMSE(), validation.getFoldErrors()[fold].getRMSE(), HIGH_ACCURACY);
+            expected.merge(foldErrors);
+        }
+        assertEquals(expected.getRMSE(), total.getRMSE(), HIGH_ACCURACY);
+        assertEquals(expected.getMAE(), total.getMAE(), HIGH_ACCURACY);
+    }
+
+    @Test
+    public void parallelRunTest()
+    {
+        // Each fold with its own network and metric
+        Function<RatingMatrix, Predictor> userBased = training ->
+        {
+            NearestNeighbour<Movielens> network = new NearestNeighbour<>(training);
+            network.setSimilarityMetric(SimilarityMetrics.get("cosine"));
+            network.initialiseNeighbourIndex(10);
+            return network;
+        };
+
+        CrossValidation sequential = new CrossValidation(ratings, folds, FOLDS);
+        ErrorAccumulator expected = sequential.run(userBased);
+        assertTrue(expected.getCount() > 0);
+
+        CrossValidation parallel = new CrossValidation(ratings, folds, FOLDS);
+        parallel.setThreadsAmount(3);
+        ErrorAccumulator total = parallel.run(userBased);
+
+        // The same errors whatever the amount of threads
+        assertEquals(expected.getCount(), total.getCount());
+        assertEquals(expected.getMissingCount(), total.getMissingCount());
+        assertEquals(expected.getRMSE(), total.getRMSE(), 0.0);
+        for (int fold = 0; fold < FOLDS; fold++)
+        {
+            assertEquals(sequential.getFoldErrors()[fold].getSquaredErrorSum(),
+                    parallel.getFoldErrors()[fold].getSquaredErrorSum(), 0.0);
+        }
+    }
+
+    @Test
+    public void matrixTrainingTest()
+    {
+        CrossValidation validation = new CrossValidation(ratings, folds, FOLDS);
+        RatingMatrix training = validation.getTrainingSet(0);
+
+        // The networks trained on the matrix predict as those trained on a dataset
+        NearestNeighbour<Movielens> users = new NearestNeighbour<>(training);
+        users.initialiseNeighbourIndex(10);
+        NearestNeighbour<Movielens> datasetUsers = new NearestNeighbour<>(training.toMovielens());
+        datasetUsers.initialiseNeighbourIndex(10);
+
+        ItemNearestNeighbour<Movielens> items = new ItemNearestNeighbour<>(training);
+        items.initialiseNeighbourIndex(5);
+        ItemNearestNeighbour<Movielens> datasetItems = new ItemNearestNeighbour<>(training.toMovielens());
+        datasetItems.initialiseNeighbourIndex(5);
+
+        for (int row = 0; row < training.getRowsAmount(); row++)
+        {
+            int user = training.getRowId(row);
+            for (int item = 1; item <= training.getMaxColumnId(); item++)
+            {
+                assertEquals(datasetUsers.predict(user, item), users.predict(user, item), 0.0);
+                assertEquals(datasetItems.predict(user, item), items.predict(user, item), 0.0);
+            }
+            assertEquals(datasetUsers.recommend(user, 3), users.recommend(user, 3));
+            assertEquals(datasetItems.recommend(user, 3), items.recommend(user, 3));
+        }
+
+        try
+        {
+            users.makeForecasts(10);
+            fail("There is no dataset to forecast");
+        }
+        catch (IllegalStateException e)
+        {
+            // Expected
+        }
+    }
+}
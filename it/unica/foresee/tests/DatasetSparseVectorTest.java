@@ -0,0 +1,283 @@
+package it.unica.foresee.tests;
+
+import it.unica.foresee.datasets.DatasetNestedSparseVector;
+import it.unica.foresee.datasets.DatasetSparseVector;
+import it.unica.foresee.datasets.DoubleElement;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the cached statistics of the sparse vectors.
+ */
+public class DatasetSparseVectorTest
+{
+    public static double HIGH_ACCURACY = 0.0000001;
+
+    private DatasetSparseVector<DoubleElement> vector;
+
+    @Before
+    public void setUp()
+    {
+        vector = new DatasetSparseVector<>(10);
+        vector.put(1, new DoubleElement(2.0));
+        vector.put(4, new DoubleElement(3.0));
+        vector.put(7, new DoubleElement(5.0));
+    }
+
+    @Test
+    public void statisticsTest()
+    {
+        assertEquals(1.0, vector.getMean(), HIGH_ACCURACY);
+        assertEquals(10.0, vector.getSum(), HIGH_ACCURACY);
+        assertEquals(38.0, vector.getSumOfSquares(), HIGH_ACCURACY);
+        assertEquals(3, vector.getValuesCount());
+
+        // Updated incrementally
+        vector.put(4, new DoubleElement(1.0));
+        vector.put(9, new DoubleElement(4.0));
+        vector.remove(1);
+        vector.remove(2);
+        assertEquals(10.0, vector.getSum(), HIGH_ACCURACY);
+        assertEquals(42.0, vector.getSumOfSquares(), HIGH_ACCURACY);
+        assertEquals(3, vector.getValuesCount());
+
+        // A value changed in place is seen once its element is put again
+        DoubleElement changed = vector.get(9);
+        changed.setElement(2.0);
+        vector.put(9, changed);
+        assertEquals(8.0, vector.getSum(), HIGH_ACCURACY);
+        assertEquals(30.0, vector.getSumOfSquares(), HIGH_ACCURACY);
+
+        // Invalidated by the methods bypassing put
+        DatasetSparseVector<DoubleElement> other = new DatasetSparseVector<>(10);
+        other.put(2, new DoubleElement(1.5));
+        vector.setElement(other);
+        assertEquals(1.5, vector.getSum(), HIGH_ACCURACY);
+        assertEquals(0.15, vector.getMean(), HIGH_ACCURACY);
+
+        vector.clear();
+        assertEquals(0, vector.getValuesCount());
+        assertEquals(0, vector.getMean(), HIGH_ACCURACY);
+    }
+
+    @Test
+    public void pointTest()
+    {
+        double[] point = vector.getPoint();
+        assertArrayEquals(new double[]{2, 0, 0, 3, 0, 0, 5, 0, 0, 0}, point, HIGH_ACCURACY);
+
+        // A new array at every call, not kept by the vector
+        assertNotSame(point, vector.getPoint());
+
+        vector.put(2, new DoubleElement(1.0));
+        assertArrayEquals(new double[]{2, 1, 0, 3, 0, 0, 5, 0, 0, 0}, vector.getPoint(), HIGH_ACCURACY);
+
+        vector.get(1).setElement(4.0);
+        assertEquals(4.0, vector.getPoint()[0], HIGH_ACCURACY);
+
+        vector.setVectorSize(7);
+        assertEquals(7, vector.getPoint().length);
+
+        vector.remove(7);
+        assertEquals(0.0, vector.getPoint()[6], HIGH_ACCURACY);
+    }
+
+    @Test
+    public void sharedElementsTest()
+    {
+        // An element shared by two vectors
+        DatasetSparseVector<DoubleElement> other = new DatasetSparseVector<>(10);
+        DoubleElement shared = vector.get(4);
+        other.put(2, shared);
+        other.put(3, new DoubleElement(1.0));
+        assertEquals(4.0, other.getSum(), HIGH_ACCURACY);
+
+        // Each vector sees the new value once the element is put in it again
+        shared.setElement(6.0);
+        vector.put(4, shared);
+        assertEquals(13.0, vector.getSum(), HIGH_ACCURACY);
+        assertEquals(4.0, other.getSum(), HIGH_ACCURACY);
+        other.put(2, shared);
+        assertEquals(7.0, other.getSum(), HIGH_ACCURACY);
+        assertEquals(37.0, other.getSumOfSquares(), HIGH_ACCURACY);
+
+        // A removed element no longer counts
+        other.remove(2);
+        assertEquals(1.0, other.getSum(), HIGH_ACCURACY);
+        other.put(5, vector.get(7));
+        other.clear();
+        assertEquals(0.0, other.getSum(), HIGH_ACCURACY);
+        assertEquals(13.0, vector.getSum(), HIGH_ACCURACY);
+    }
+
+    @Test
+    public void putAllTest()
+    {
+        // The same vector as the single puts
+        DatasetSparseVector<DoubleElement> other = new DatasetSparseVector<>(10);
+        other.putAll(new int[]{7, 1, 4}, new double[]{5.0, 2.0, 3.0});
+        assertEquals(vector, other);
+        assertEquals(vector.getSum(), other.getSum(), HIGH_ACCURACY);
+        assertArrayEquals(vector.getPoint(), other.getPoint(), HIGH_ACCURACY);
+
+        // Replacing the existing values, within a range of the arrays
+        vector.getPoint();
+        vector.putAll(new int[]{4, 9, 2}, new double[]{1.0, 4.0, 6.0}, 0, 2);
+        assertEquals(1.0, vector.get(4).getElement(), HIGH_ACCURACY);
+        assertEquals(4, vector.getValuesCount());
+        assertEquals(12.0, vector.getSum(), HIGH_ACCURACY);
+        assertEquals(46.0, vector.getSumOfSquares(), HIGH_ACCURACY);
+        assertArrayEquals(new double[]{2, 0, 0, 1, 0, 0, 5, 0, 4, 0}, vector.getPoint(), HIGH_ACCURACY);
+
+        try
+        {
+            vector.putAll(new int[]{1, 2}, new double[]{1.0});
+            fail("Each key needs a value");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void nestedStatisticsTest()
+    {
+        DatasetNestedSparseVector<DatasetSparseVector<DoubleElement>> dataset = new DatasetNestedSparseVector<>();
+        dataset.setVectorSize(2);
+
+        try
+        {
+            dataset.getHighestNestedKey();
+            fail("An empty dataset has no highest nested key");
+        }
+        catch (NoSuchElementException e)
+        {
+            // Expected
+        }
+
+        DatasetSparseVector<DoubleElement> second = new DatasetSparseVector<>(10);
+        second.put(4, new DoubleElement(5.0));
+        dataset.put(1, vector);
+        dataset.put(2, second);
+
+        assertEquals(7, dataset.getHighestNestedKey());
+        assertEquals(3, dataset.getNestedKeysAmount());
+        assertEquals(2, dataset.getItemCount(4));
+        assertEquals(8.0, dataset.getItemSum(4), HIGH_ACCURACY);
+        assertEquals(34.0, dataset.getItemSumOfSquares(4), HIGH_ACCURACY);
+        assertEquals(4.0, dataset.getItemMean(4), HIGH_ACCURACY);
+        assertEquals(0, dataset.getItemCount(3));
+        assertEquals(0.75, dataset.getMean(), HIGH_ACCURACY);
+
+        // The changes of the nested vectors are seen by the outer one
+        second.put(9, new DoubleElement(1.0));
+        vector.put(4, new DoubleElement(1.0));
+        assertEquals(9, dataset.getHighestNestedKey());
+        assertEquals(6.0, dataset.getItemSum(4), HIGH_ACCURACY);
+        assertEquals(0.7, dataset.getMean(), HIGH_ACCURACY);
+
+        second.setVectorSize(20);
+        assertEquals(0.55, dataset.getMean(), HIGH_ACCURACY);
+    }
+
+    @Test
+    public void nestedKeysTest()
+    {
+        DatasetNestedSparseVector<DatasetSparseVector<DoubleElement>> dataset = new DatasetNestedSparseVector<>();
+        DatasetSparseVector<DoubleElement> second = new DatasetSparseVector<>(10);
+        second.putAll(new int[]{4, 10}, new double[]{1.0, 2.0});
+        dataset.put(1, vector);
+        dataset.put(2, second);
+
+        assertEquals(new TreeSet<>(Arrays.asList(1, 4, 7, 10)), dataset.getInternalKeySet());
+        assertEquals(10, dataset.getHighestNestedKey());
+        assertEquals(2, dataset.getItemCount(4));
+        assertEquals(2, dataset.getNestedKeyIndex(7));
+        assertTrue(dataset.getNestedKeyIndex(5) < 0);
+
+        // Changes made directly on the nested vectors
+        second.remove(10);
+        vector.remove(4);
+        vector.put(3, new DoubleElement(1.0));
+        assertEquals(7, dataset.getHighestNestedKey());
+        assertEquals(1, dataset.getItemCount(4));
+        assertEquals(new TreeSet<>(Arrays.asList(1, 3, 4, 7)), dataset.getInternalKeySet());
+
+        // An element stored twice counts twice, and stops being tracked once removed
+        dataset.put(3, second);
+        assertEquals(2, dataset.getItemCount(4));
+        dataset.remove(2);
+        dataset.remove(3);
+        second.put(20, new DoubleElement(1.0));
+        assertEquals(3, dataset.getNestedKeysAmount());
+        assertEquals(0, dataset.getItemCount(4));
+        assertEquals(7, dataset.getHighestNestedKey());
+
+        dataset.pollFirstEntry();
+        assertEquals(0, dataset.getNestedKeysAmount());
+
+        // The same index as scanning the nested vectors, after random changes
+        Random random = new Random(17);
+        List<DatasetSparseVector<DoubleElement>> users = new ArrayList<>();
+        for (int u = 0; u < 20; u++)
+        {
+            users.add(new DatasetSparseVector<>(100));
+        }
+        for (int step = 0; step < 5000; step++)
+        {
+            int user = random.nextInt(users.size());
+            int key = 1 + random.nextInt(100);
+            switch (random.nextInt(5))
+            {
+                case 0:
+                    dataset.put(user, users.get(user));
+                    break;
+                case 1:
+                    dataset.remove(user);
+                    break;
+                case 2:
+                    users.get(user).remove(key);
+                    break;
+                default:
+                    users.get(user).put(key, new DoubleElement(1.0));
+                    break;
+            }
+        }
+
+        TreeSet<Integer> keys = new TreeSet<>();
+        for (DatasetSparseVector<DoubleElement> user : dataset.values())
+        {
+            keys.addAll(user.keySet());
+        }
+        assertEquals(keys, dataset.getInternalKeySet());
+        assertEquals((int) keys.last(), dataset.getHighestNestedKey());
+        for (int key : keys)
+        {
+            int count = 0;
+            for (DatasetSparseVector<DoubleElement> user : dataset.values())
+            {
+                count += user.containsKey(key) ? 1 : 0;
+            }
+            assertEquals(count, dataset.getItemCount(key));
+        }
+
+        dataset.clear();
+        assertEquals(0, dataset.getNestedKeysAmount());
+        users.get(0).put(200, new DoubleElement(1.0));
+        assertTrue(dataset.getInternalKeySet().isEmpty());
+    }
+}
@@ -0,0 +1,180 @@
+package it.unica.foresee.tests;
+
+import it.unica.foresee.datasets.FoldPartitioner;
+import it.unica.foresee.datasets.FoldPartitioner.Stratification;
+import it.unica.foresee.datasets.Movielens;
+import it.unica.foresee.datasets.RatingMatrix;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the assignment of the ratings to the folds.
+ */
+public class FoldPartitionerTest
+{
+    private static final int FOLDS = 4;
+
+    private RatingMatrix ratings;
+
+    @Before
+    public void setUp()
+    {
+        // Users with different amounts of ratings and a skewed distribution of values
+        Random random = new Random(21);
+        int entries = 3000;
+        int[] rows = new int[entries];
+        int[] columns = new int[entries];
+        double[] values = new double[entries];
+        long[] timestamps = new long[entries];
+        for (int k = 0; k < entries; k++)
+        {
+            rows[k] = 1 + random.nextInt(60);
+            columns[k] = 1 + random.nextInt(500);
+            values[k] = random.nextInt(4) == 0 ? 1 + random.nextInt(5) : 4;
+            timestamps[k] = random.nextInt(1000);
+        }
+        ratings = RatingMatrix.fromTriples(rows, columns, values, timestamps, entries);
+    }
+
+    /**
+     * Checks that each fold has the same amount of the given ratings, give or take one.
+     */
+    private static void assertBalanced(byte[] folds, int start, int end)
+    {
+        int[] sizes = new int[FOLDS];
+        for (int k = start; k < end; k++)
+        {
+            sizes[folds[k]]++;
+        }
+        Arrays.sort(sizes);
+        assertTrue(Arrays.toString(sizes), sizes[FOLDS - 1] - sizes[0] <= 1);
+    }
+
+    @Test
+    public void stratificationTest()
+    {
+        FoldPartitioner partitioner = new FoldPartitioner(FOLDS);
+
+        partitioner.setStratification(Stratification.NONE);
+        assertBalanced(partitioner.assign(ratings), 0, ratings.getEntriesAmount());
+
+        // Every user in every fold
+        partitioner.setStratification(Stratification.USER);
+        byte[] folds = partitioner.assign(ratings);
+        assertBalanced(folds, 0, ratings.getEntriesAmount());
+        for (int row = 0; row < ratings.getRowsAmount(); row++)
+        {
+            assertBalanced(folds, ratings.getRowStart(row), ratings.getRowEnd(row));
+        }
+
+        // Every value in every fold
+        partitioner.setStratification(Stratification.RATING);
+        folds = partitioner.assign(ratings);
+        for (int value = 1; value <= 5; value++)
+        {
+            int[] sizes = new int[FOLDS];
+            for (int k = 0; k < folds.length; k++)
+            {
+                if (ratings.getValues()[k] == value)
+                {
+                    sizes[folds[k]]++;
+                }
+            }
+            Arrays.sort(sizes);
+            assertTrue(sizes[FOLDS - 1] - sizes[0] <= 1);
+        }
+    }
+
+    @Test
+    public void seedTest()
+    {
+        for (Stratification stratification : Stratification.values())
+        {
+            FoldPartitioner partitioner = new FoldPartitioner(FOLDS);
+            partitioner.setStratification(stratification);
+            partitioner.setSeed(42);
+            byte[] folds = partitioner.assign(ratings);
+
+            // The same seed gives the same folds, another seed other folds
+            FoldPartitioner again = new FoldPartitioner(FOLDS);
+            again.setStratification(stratification);
+            again.setSeed(42);
+            assertArrayEquals(folds, again.assign(ratings));
+
+            again.setSeed(43);
+            assertFalse(Arrays.equals(folds, again.assign(ratings)));
+        }
+    }
+
+    @Test
+    public void timeTest()
+    {
+        byte[] folds = new FoldPartitioner(FOLDS).assignByTime(ratings);
+        long[] timestamps = ratings.getTimestamps();
+
+        // The older ratings in the first folds
+        long[] lowest = new long[FOLDS];
+        long[] highest = new long[FOLDS];
+        Arrays.fill(lowest, Long.MAX_VALUE);
+        Arrays.fill(highest, Long.MIN_VALUE);
+        int[] sizes = new int[FOLDS];
+        for (int k = 0; k < folds.length; k++)
+        {
+            lowest[folds[k]] = Math.min(lowest[folds[k]], timestamps[k]);
+            highest[folds[k]] = Math.max(highest[folds[k]], timestamps[k]);
+            sizes[folds[k]]++;
+        }
+        for (int fold = 0; fold < FOLDS; fold++)
+        {
+            assertTrue(Math.abs(sizes[fold] - folds.length / FOLDS) < folds.length / 20);
+            if (fold > 0)
+            {
+                assertTrue(highest[fold - 1] < lowest[fold]);
+            }
+        }
+
+        try
+        {
+            new FoldPartitioner(FOLDS).assignByTime(RatingMatrix.fromTriples(new int[]{1}, new int[]{1}, new double[]{1}, 1));
+            fail("The time split needs the timestamps");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void partitionsTest()
+    {
+        Movielens dataset = new Movielens(ratings);
+
+        // Every rating in exactly one partition, and the same partitions from the same seed
+        Movielens[] partitions = dataset.getKFoldPartitions(FOLDS, 5L);
+        Movielens[] again = dataset.getKFoldPartitions(FOLDS, 5L);
+        int entries = 0;
+        for (int i = 0; i < FOLDS; i++)
+        {
+            assertEquals(again[i], partitions[i]);
+            for (int user : partitions[i].keySet())
+            {
+                for (int movie : partitions[i].get(user).keySet())
+                {
+                    assertEquals(dataset.get(user, movie).getDoubleValue(),
+                            partitions[i].get(user, movie).getDoubleValue(), 0.0);
+                    entries++;
+                }
+            }
+        }
+        assertEquals(ratings.getEntriesAmount(), entries);
+    }
+}
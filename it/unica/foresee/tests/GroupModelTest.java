@@ -3,6 +3,7 @@ package it.unica.foresee.tests;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
 
 import it.unica.foresee.datasets.DatasetSparseVector;
 import it.unica.foresee.datasets.DoubleElement;
@@ -10,11 +11,13 @@ import it.unica.foresee.datasets.MovielensElement;
 
 import it.unica.foresee.datasets.interfaces.ClonableElement;
 import it.unica.foresee.libraries.GroupModel;
+import it.unica.foresee.libraries.GroupModel.Strategy;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 /**
  * Test for the GroupModel class.
@@ -51,4 +54,100 @@ public class GroupModelTest
 
         assertEquals(clusterOne.get(0), modelList.get(0));
     }
+
+    @Test
+    public void testStrategies()
+    {
+        // Two clusters, the second item is not rated by the first user
+        List<List<DatasetSparseVector<DoubleElement>>> clustersList = new ArrayList<>();
+        clustersList.add(new ArrayList<>());
+        clustersList.add(new ArrayList<>());
+        double[][] ratings = new double[][]{
+                {1, 0, 5}, {3, 4, 4}, {4, 2, 5}, {5, 5, 5}, {2, 3, 1}};
+        for (int u = 0; u < ratings.length; u++)
+        {
+            DatasetSparseVector<DoubleElement> user = TestUtils.fillDatasetEntry(ratings[u]);
+            user.setId(u + 1);
+            clustersList.get(u < 3 ? 0 : 1).add(user);
+        }
+
+        GroupModel<DatasetSparseVector<DoubleElement>> model = new GroupModel<>();
+        assertArrayEquals(new double[]{8.0 / 3, 3, 14.0 / 3, 3.5, 4, 3},
+                model.makeModelMatrix(clustersList, Strategy.RATED_AVERAGE), 0.0000001);
+        assertArrayEquals(new double[]{1, 2, 4, 2, 3, 1},
+                model.makeModelMatrix(clustersList, Strategy.LEAST_MISERY), 0.0);
+        assertArrayEquals(new double[]{4, 4, 5, 5, 5, 5},
+                model.makeModelMatrix(clustersList, Strategy.MOST_PLEASURE), 0.0);
+        assertArrayEquals(new double[]{3, 3, 5, 3.5, 4, 3},
+                model.makeModelMatrix(clustersList, Strategy.MEDIAN), 0.0);
+        assertArrayEquals(new double[]{0, 3, 14.0 / 3, 3.5, 4, 0},
+                model.makeModelMatrix(clustersList, Strategy.AVERAGE_WITHOUT_MISERY), 0.0000001);
+
+        assertEquals(3, model.getVectorSize());
+        assertEquals(-1, model.getUserModel(0));
+        assertEquals(0, model.getUserModel(2));
+        assertEquals(1, model.getUserModel(5));
+        assertEquals(-1, model.getUserModel(6));
+        assertEquals(5, model.getUserToModelMap().size());
+
+        // The models only hold the rated items
+        List<DatasetSparseVector<DoubleElement>> models = model.makeModels(clustersList, Strategy.AVERAGE_WITHOUT_MISERY);
+        assertEquals(2, models.size());
+        assertEquals(2, models.get(0).size());
+        assertEquals(3.0, models.get(0).get(2).getDoubleValue(), 0.0);
+        assertEquals(3, models.get(0).getVectorSize());
+
+        // The average strategy divides by the size of the cluster and needs every rating
+        try
+        {
+            model.makeModelMatrix(clustersList, Strategy.AVERAGE);
+            fail("The ratings below 1 are not allowed");
+        }
+        catch (IllegalStateException e)
+        {
+            // Expected
+        }
+
+        clustersList.get(0).get(0).put(2, new DoubleElement(1.0));
+        DatasetSparseVector<DoubleElement> centroid = TestUtils.fillDatasetEntry(new double[]{5, 5, 5});
+        clustersList.get(1).add(centroid);
+        assertArrayEquals(new double[]{8.0 / 3, 7.0 / 3, 14.0 / 3, 7.0 / 3, 8.0 / 3, 2},
+                model.makeModelMatrix(clustersList, Strategy.AVERAGE), 0.0000001);
+        assertEquals(-1, model.getUserModel(0));
+        assertEquals(3, model.averageStrategy(clustersList).get(1).size());
+    }
+
+    @Test
+    public void testParallelModels()
+    {
+        Random random = new Random(5);
+        List<List<DatasetSparseVector<DoubleElement>>> clustersList = new ArrayList<>();
+        for (int c = 0; c < 7; c++)
+        {
+            List<DatasetSparseVector<DoubleElement>> cluster = new ArrayList<>();
+            for (int u = 0; u < 20; u++)
+            {
+                double[] user = new double[30];
+                for (int i = 0; i < user.length; i++)
+                {
+                    user[i] = 1 + random.nextInt(5);
+                }
+                DatasetSparseVector<DoubleElement> el = TestUtils.fillDatasetEntry(user);
+                el.setId(c * 20 + u);
+                cluster.add(el);
+            }
+            clustersList.add(cluster);
+        }
+
+        for (Strategy strategy : Strategy.values())
+        {
+            GroupModel<DatasetSparseVector<DoubleElement>> sequential = new GroupModel<>();
+            double[] expected = sequential.makeModelMatrix(clustersList, strategy).clone();
+
+            GroupModel<DatasetSparseVector<DoubleElement>> parallel = new GroupModel<>();
+            parallel.setThreadsAmount(3);
+            assertArrayEquals(expected, parallel.makeModelMatrix(clustersList, strategy), 0.0);
+            assertArrayEquals(sequential.getUserModels(), parallel.getUserModels());
+        }
+    }
 }
@@ -0,0 +1,154 @@
+package it.unica.foresee.tests;
+
+import it.unica.foresee.datasets.Movielens;
+import it.unica.foresee.datasets.RatingMatrix;
+import it.unica.foresee.libraries.ItemNearestNeighbour;
+import it.unica.foresee.libraries.NeighbourIndex;
+import it.unica.foresee.libraries.SimilarityMetrics;
+import it.unica.foresee.libraries.interfaces.SimilarityMetric;
+import it.unica.foresee.utils.Logger;
+import org.apache.commons.math3.util.Pair;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the item based nearest neighbours algorithm.
+ */
+public class ItemNearestNeighbourTest
+{
+    public static double HIGH_ACCURACY = 0.0000001;
+
+    private double[][] usersMatrix;
+
+    @Before
+    public void setUp()
+    {
+        Logger.setVerbosity(Logger.VERB_NO_LOG);
+
+        // Sparse ratings, with about a third of the items not rated
+        usersMatrix = TestUtils.randomRatings(17, 100, 20, 3);
+    }
+
+    @Test
+    public void neighbourIndexTest()
+    {
+        int neighboursAmount = 5;
+        SimilarityMetric metric = SimilarityMetrics.get("cosine");
+
+        ItemNearestNeighbour<Movielens> network = new ItemNearestNeighbour<>(TestUtils.fillDataset(usersMatrix));
+        network.setSimilarityMetric(metric);
+        network.initialiseNeighbourIndex(neighboursAmount);
+        NeighbourIndex index = network.getNeighbourIndex();
+
+        // The items are compared by their columns
+        RatingMatrix items = RatingMatrix.fromDataset(TestUtils.fillDataset(usersMatrix)).transpose();
+        SimilarityMetric prepared = metric.prepare(items);
+        assertArrayEquals(items.getRowIds(), index.getUserIds());
+
+        for (int a = 0; a < items.getRowsAmount(); a++)
+        {
+            List<Pair<Integer, Double>> expected = new ArrayList<>();
+            for (int b = 0; b < items.getRowsAmount(); b++)
+            {
+                if (a != b)
+                {
+                    double sim = prepared.similarity(items, a, b);
+                    expected.add(new Pair<>(items.getRowId(b), sim > 0 ? sim : 0));
+                }
+            }
+            expected.sort((x, y) -> x.getSecond().equals(y.getSecond()) ?
+                    Integer.compare(x.getFirst(), y.getFirst()) : -Double.compare(x.getSecond(), y.getSecond()));
+
+            List<Pair<Integer, Double>> neighbours = network.getNearestNeighbours(items.getRowId(a), neighboursAmount);
+            assertEquals(neighboursAmount, neighbours.size());
+            for (int rank = 0; rank < neighboursAmount; rank++)
+            {
+                assertEquals(expected.get(rank).getFirst(), neighbours.get(rank).getFirst());
+                assertEquals(expected.get(rank).getSecond(), neighbours.get(rank).getSecond(), HIGH_ACCURACY);
+            }
+        }
+    }
+
+    @Test
+    public void makeForecastsTest()
+    {
+        int neighboursAmount = 6;
+        Movielens dataset = TestUtils.fillDataset(usersMatrix);
+
+        ItemNearestNeighbour<Movielens> sequential = new ItemNearestNeighbour<>(dataset.deepClone());
+        Movielens forecasts = sequential.makeForecasts(neighboursAmount);
+
+        ItemNearestNeighbour<Movielens> parallel = new ItemNearestNeighbour<>(dataset.deepClone());
+        parallel.setThreadsAmount(3);
+        Movielens parallelForecasts = parallel.makeForecasts(neighboursAmount);
+
+        // The same predictions whatever the amount of threads
+        for (int user : forecasts.keySet())
+        {
+            assertArrayEquals(forecasts.get(user).getPoint(), parallelForecasts.get(user).getPoint(), 0.0);
+        }
+
+        ItemNearestNeighbour<Movielens> network = new ItemNearestNeighbour<>(dataset);
+        network.initialiseNeighbourIndex(neighboursAmount);
+
+        for (int user = 0; user < usersMatrix.length; user++)
+        {
+            List<Pair<Integer, Double>> expected = new ArrayList<>();
+            for (int item = 1; item <= usersMatrix[user].length; item++)
+            {
+                double rating = forecasts.get(user).get(item).getDoubleValue();
+                double prediction = network.predict(user, item);
+
+                // Every prediction is the weighted mean of the ratings of the neighbours
+                if (usersMatrix[user][item - 1] == 0)
+                {
+                    double numerator = 0;
+                    double denominator = 0;
+                    for (Pair<Integer, Double> neighbour : network.getNearestNeighbours(item, neighboursAmount))
+                    {
+                        double neighbourRating = usersMatrix[user][neighbour.getFirst() - 1];
+                        if (neighbourRating != 0)
+                        {
+                            numerator += neighbour.getSecond() * neighbourRating;
+                            denominator += neighbour.getSecond();
+                        }
+                    }
+
+                    if (denominator == 0)
+                    {
+                        assertTrue(Double.isNaN(prediction));
+                        assertEquals(0.0, rating, HIGH_ACCURACY);
+                        continue;
+                    }
+
+                    assertEquals(numerator / denominator, prediction, HIGH_ACCURACY);
+                    expected.add(new Pair<>(item, prediction));
+                }
+
+                assertEquals(rating, prediction, HIGH_ACCURACY);
+            }
+
+            // The best predictions first, then the lowest IDs
+            expected.sort((x, y) -> -Double.compare(x.getSecond(), y.getSecond()));
+            List<Pair<Integer, Double>> recommendations = network.recommend(user, 4);
+            assertEquals(Math.min(4, expected.size()), recommendations.size());
+            for (int rank = 0; rank < recommendations.size(); rank++)
+            {
+                assertEquals(expected.get(rank).getFirst(), recommendations.get(rank).getFirst());
+            }
+        }
+
+        // Asking for more items than there are just gives all the candidates
+        assertEquals(network.recommend(0, usersMatrix[0].length), network.recommend(0, Integer.MAX_VALUE));
+
+        // The queries do not change the dataset
+        assertEquals(TestUtils.fillDataset(usersMatrix), dataset);
+    }
+}
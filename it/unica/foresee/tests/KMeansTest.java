@@ -0,0 +1,285 @@
+package it.unica.foresee.tests;
+
+import it.unica.foresee.datasets.Movielens;
+import it.unica.foresee.datasets.MovielensElement;
+import it.unica.foresee.datasets.RatingMatrix;
+import it.unica.foresee.libraries.ClusterableElement;
+import it.unica.foresee.libraries.KMeans;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the k-means clustering.
+ */
+public class KMeansTest
+{
+    public static double HIGH_ACCURACY = 0.0000001;
+
+    private static final int DIMENSIONS = 6;
+    private static final int CLUSTERS = 4;
+    private static final int POINTS_PER_CLUSTER = 300;
+
+    private float[] points;
+
+    @Before
+    public void setUp()
+    {
+        // Well separated groups of points, the group of each point is its index modulo the groups
+        Random random = new Random(7);
+        points = new float[CLUSTERS * POINTS_PER_CLUSTER * DIMENSIONS];
+        for (int p = 0; p < CLUSTERS * POINTS_PER_CLUSTER; p++)
+        {
+            int group = p % CLUSTERS;
+            for (int d = 0; d < DIMENSIONS; d++)
+            {
+                points[p * DIMENSIONS + d] = (float) ((d == group ? 10 : 0) + random.nextGaussian());
+            }
+        }
+    }
+
+    private void assertGroupsFound(int[] assignments)
+    {
+        // Each cluster holds exactly the points of a group
+        for (int p = 0; p < assignments.length; p++)
+        {
+            assertEquals(assignments[p % CLUSTERS], assignments[p]);
+        }
+
+        Set<Integer> clusters = new HashSet<>();
+        for (int group = 0; group < CLUSTERS; group++)
+        {
+            clusters.add(assignments[group]);
+        }
+        assertEquals(CLUSTERS, clusters.size());
+    }
+
+    @Test
+    public void lloydTest()
+    {
+        KMeans sequential = new KMeans(CLUSTERS);
+        int[] assignments = sequential.cluster(points, DIMENSIONS);
+        assertGroupsFound(assignments);
+        assertTrue(sequential.getIterations() < sequential.getMaxIterations());
+
+        // Each centroid is the mean of its points
+        double[] centroids = sequential.getCentroids();
+        for (int[] cluster : sequential.getClusters(assignments))
+        {
+            for (int d = 0; d < DIMENSIONS; d++)
+            {
+                double mean = 0;
+                for (int p : cluster)
+                {
+                    mean += points[p * DIMENSIONS + d];
+                }
+                mean /= cluster.length;
+                assertEquals(mean, centroids[assignments[cluster[0]] * DIMENSIONS + d], 0.001);
+            }
+        }
+
+        // The same result whatever the amount of threads
+        KMeans parallel = new KMeans(CLUSTERS);
+        parallel.setThreadsAmount(4);
+        assertArrayEquals(assignments, parallel.cluster(points, DIMENSIONS));
+        assertArrayEquals(centroids, parallel.getCentroids(), 0.0);
+        assertEquals(sequential.getInertia(), parallel.getInertia(), HIGH_ACCURACY);
+    }
+
+    @Test
+    public void miniBatchTest()
+    {
+        KMeans miniBatch = new KMeans(CLUSTERS);
+        miniBatch.setBatchSize(100);
+        miniBatch.setMaxIterations(50);
+        miniBatch.setTolerance(0.01);
+        miniBatch.setSeed(3);
+        int[] assignments = miniBatch.cluster(points, DIMENSIONS);
+        assertGroupsFound(assignments);
+        assertTrue(miniBatch.getIterations() <= 50);
+
+        KMeans parallel = new KMeans(CLUSTERS);
+        parallel.setBatchSize(100);
+        parallel.setMaxIterations(50);
+        parallel.setTolerance(0.01);
+        parallel.setSeed(3);
+        parallel.setThreadsAmount(3);
+        assertArrayEquals(assignments, parallel.cluster(points, DIMENSIONS));
+    }
+
+    /**
+     * Copies the dense points in a sparse matrix, leaving out the zeros.
+     */
+    private static RatingMatrix toSparse(float[] points, int dimensions)
+    {
+        int pointsAmount = points.length / dimensions;
+        int[] rows = new int[points.length];
+        int[] columns = new int[points.length];
+        double[] values = new double[points.length];
+        int entries = 0;
+        for (int p = 0; p < pointsAmount; p++)
+        {
+            for (int d = 0; d < dimensions; d++)
+            {
+                if (points[p * dimensions + d] != 0)
+                {
+                    rows[entries] = p;
+                    columns[entries] = d + 1;
+                    values[entries] = points[p * dimensions + d];
+                    entries++;
+                }
+            }
+        }
+        return RatingMatrix.fromTriples(rows, columns, values, entries);
+    }
+
+    @Test
+    public void sparseTest()
+    {
+        // The same clusters as the dense points, with half of the values zero
+        for (int i = 0; i < points.length; i += 2)
+        {
+            points[i] = 0;
+        }
+        RatingMatrix sparse = toSparse(points, DIMENSIONS);
+
+        for (int batchSize : new int[]{0, 100})
+        {
+            KMeans dense = new KMeans(CLUSTERS);
+            dense.setBatchSize(batchSize);
+            int[] assignments = dense.cluster(points, DIMENSIONS);
+
+            KMeans clusterer = new KMeans(CLUSTERS);
+            clusterer.setBatchSize(batchSize);
+            clusterer.setThreadsAmount(2);
+            assertArrayEquals(assignments, clusterer.cluster(sparse, DIMENSIONS));
+            assertArrayEquals(dense.getCentroids(), clusterer.getCentroids(), HIGH_ACCURACY);
+            assertEquals(dense.getInertia(), clusterer.getInertia(), 0.001);
+        }
+
+        // Many dimensions and a few entries for each point
+        int dimensions = 100000;
+        int pointsAmount = CLUSTERS * POINTS_PER_CLUSTER;
+        int[] rows = new int[pointsAmount * 10];
+        int[] columns = new int[rows.length];
+        double[] values = new double[rows.length];
+        Random random = new Random(11);
+        for (int p = 0; p < pointsAmount; p++)
+        {
+            for (int i = 0; i < 10; i++)
+            {
+                // Each group rates the items of its own quarter of the catalogue
+                rows[p * 10 + i] = p;
+                columns[p * 10 + i] = (p % CLUSTERS) * (dimensions / CLUSTERS) + 1 + random.nextInt(20);
+                values[p * 10 + i] = 1 + random.nextInt(5);
+            }
+        }
+        KMeans clusterer = new KMeans(CLUSTERS);
+        clusterer.setDistance(KMeans.Distance.COSINE);
+        assertGroupsFound(clusterer.cluster(RatingMatrix.fromTriples(rows, columns, values, rows.length), dimensions));
+
+        try
+        {
+            clusterer.cluster(sparse, DIMENSIONS - 1);
+            fail("The column IDs must be within the dimensions");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void cosineTest()
+    {
+        // Points in the same direction but of very different lengths
+        float[] scaled = new float[points.length];
+        for (int p = 0; p < CLUSTERS * POINTS_PER_CLUSTER; p++)
+        {
+            float scale = 1 + (p / CLUSTERS) % 10;
+            for (int d = 0; d < DIMENSIONS; d++)
+            {
+                scaled[p * DIMENSIONS + d] = Math.abs(points[p * DIMENSIONS + d]) * scale;
+            }
+        }
+
+        KMeans clusterer = new KMeans(CLUSTERS);
+        clusterer.setDistance(KMeans.Distance.COSINE);
+        int[] assignments = clusterer.cluster(scaled, DIMENSIONS);
+        assertGroupsFound(assignments);
+        assertTrue(clusterer.getInertia() < 0.1 * assignments.length);
+    }
+
+    @Test
+    public void settingsTest()
+    {
+        KMeans clusterer = new KMeans(CLUSTERS);
+        clusterer.setMaxIterations(1);
+        clusterer.cluster(points, DIMENSIONS);
+        assertEquals(1, clusterer.getIterations());
+
+        try
+        {
+            new KMeans(5).cluster(new float[4 * DIMENSIONS], DIMENSIONS);
+            fail("There cannot be more clusters than points");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+
+        try
+        {
+            clusterer.cluster(new float[DIMENSIONS + 1], DIMENSIONS);
+            fail("The points must have the same dimensions");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void clusterableElementTest()
+    {
+        // Two groups of users, rating either the first or the last items
+        double[][] usersMatrix = new double[40][8];
+        for (int u = 0; u < usersMatrix.length; u++)
+        {
+            for (int j = 0; j < 4; j++)
+            {
+                usersMatrix[u][u % 2 == 0 ? j : j + 4] = 1 + (u + j) % 5;
+            }
+        }
+        Movielens dataset = TestUtils.fillDataset(usersMatrix);
+
+        List<List<MovielensElement>> clusters = new ClusterableElement<MovielensElement>().cluster(dataset, 2);
+
+        assertEquals(2, clusters.size());
+        int clustered = 0;
+        for (List<MovielensElement> cluster : clusters)
+        {
+            for (MovielensElement user : cluster)
+            {
+                assertEquals(cluster.get(0).getId() % 2, user.getId() % 2);
+                assertTrue(dataset.get(user.getId()) == user);
+                clustered++;
+            }
+        }
+        assertEquals(usersMatrix.length, clustered);
+
+        // The same clusters whatever the amount of threads
+        ClusterableElement<MovielensElement> sequential = new ClusterableElement<>();
+        sequential.setThreadsAmount(1);
+        assertEquals(clusters, sequential.cluster(dataset, 2));
+    }
+}
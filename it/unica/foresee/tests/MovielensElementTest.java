@@ -3,7 +3,9 @@ package it.unica.foresee.tests;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
 
+import it.unica.foresee.datasets.DoubleElement;
 import it.unica.foresee.datasets.MovielensElement;
 import org.junit.Test;
 
@@ -12,6 +14,8 @@ import org.junit.Test;
  */
 public class MovielensElementTest
 {
+    public static double HIGH_ACCURACY = 0.0000001;
+
     @Test
     public void testEquals()
     {
@@ -43,4 +47,38 @@ public class MovielensElementTest
         assertArrayEquals(array, one.getPoint(), 0.0);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testRatingsChanges()
+    {
+        double[] array = {4.0, 5.0, 3.0, 1.0};
+        MovielensElement element = TestUtils.fillDatasetEntry(array);
+        assertEquals(13.0, element.getSum(), HIGH_ACCURACY);
+
+        // The elements returned are copies, they change the ratings only when put again
+        DoubleElement rating = element.get(2);
+        rating.setElement(2.0);
+        assertEquals(5.0, element.get(2).getDoubleValue(), HIGH_ACCURACY);
+        assertEquals(5.0, element.put(2, rating).getDoubleValue(), HIGH_ACCURACY);
+        assertEquals(10.0, element.getSum(), HIGH_ACCURACY);
+
+        assertEquals(4.0, element.remove(1).getDoubleValue(), HIGH_ACCURACY);
+        assertNull(element.remove(1));
+        assertEquals(Integer.valueOf(2), element.firstKey());
+        assertEquals(6.0, element.getSum(), HIGH_ACCURACY);
+
+        // The navigation moves the ratings in the tree without changing them
+        assertEquals(Integer.valueOf(3), element.ceilingKey(3));
+        assertEquals(3, element.size());
+        assertEquals(6.0, element.getSum(), HIGH_ACCURACY);
+        assertArrayEquals(new double[]{0.0, 2.0, 3.0, 1.0}, element.getPoint(), 0.0);
+
+        element.put(1, 4.0);
+        assertEquals(10.0, element.getSum(), HIGH_ACCURACY);
+
+        element.clear();
+        assertEquals(0, element.size());
+        assertEquals(0.0, element.getSum(), HIGH_ACCURACY);
+        element.put(4, 2.0);
+        assertEquals(2.0, element.getSum(), HIGH_ACCURACY);
+    }
+}
@@ -0,0 +1,167 @@
+package it.unica.foresee.tests;
+
+import it.unica.foresee.datasets.MovielensLoader;
+import it.unica.foresee.datasets.MovielensParser;
+import it.unica.foresee.datasets.RatingColumns;
+import it.unica.foresee.datasets.RatingMatrix;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.InputMismatchException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the parsing of movielens files.
+ */
+public class MovielensParserTest
+{
+    public static double ACCURACY = 0.0000001;
+    public final String MEDIUM_DATASET = "test-data/medium.dat";
+    public final String TAB_DATASET = "test-data/u.data";
+    public final String LESS_DATASET = "test-data/movielens-test-mismatch-less.dat";
+    public final String MALFORMED_DATASET = "test-data/movielens-test-mismatch-malformed-line.dat";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MovielensLoader mLoader;
+
+    @Before
+    public void setUp()
+    {
+        mLoader = new MovielensLoader();
+    }
+
+    /**
+     * Asserts that loading the file fails with the given message.
+     * @param file the file to load
+     * @param message the expected message
+     */
+    private void assertMismatch(File file, String message) throws Exception
+    {
+        try
+        {
+            mLoader.loadRatingMatrix(file);
+            fail("Expected an InputMismatchException: " + message);
+        }
+        catch (InputMismatchException e)
+        {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a file in the temporary folder.
+     * @param content the content of the file
+     * @return the file written
+     */
+    private File write(String content) throws Exception
+    {
+        File file = folder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file))
+        {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    @Test
+    public void testColonSeparated() throws Exception
+    {
+        RatingMatrix ratings = mLoader.loadRatingMatrix(new File(MEDIUM_DATASET));
+
+        assertEquals(100000, ratings.getEntriesAmount());
+        assertEquals(5, ratings.getValue(1, 1193), ACCURACY);
+        assertEquals(3, ratings.getValue(1, 661), ACCURACY);
+    }
+
+    @Test
+    public void testTabSeparated() throws Exception
+    {
+        RatingMatrix ratings = mLoader.loadRatingMatrix(new File(TAB_DATASET));
+
+        assertEquals(100000, ratings.getEntriesAmount());
+        assertEquals(943, ratings.getRowsAmount());
+        assertEquals(1682, ratings.getColumnsAmount());
+        assertEquals(3, ratings.getValue(196, 242), ACCURACY);
+    }
+
+    @Test
+    public void testMismatch() throws Exception
+    {
+        assertMismatch(new File(LESS_DATASET), "rating < 1 at line 5");
+        assertMismatch(new File(MALFORMED_DATASET), "expected rating at line 5");
+        assertMismatch(write("1::2::3::4\n\n"), "expected userID at line 2");
+        assertMismatch(write("1::2::3::4\n2::x::3::4\n"), "expected movieID at line 2");
+        assertMismatch(write("1::2::3::4\r\n1::0::3::4\r\n"), "movieID < 1 at line 2");
+        assertMismatch(write("1::2::3::4\n1::2::0.5::4\n"), "rating < 1 at line 2");
+        assertMismatch(write("1::2::3::4\n1::3::3::4x\n"), "expected timestamp at line 2");
+        assertMismatch(write("1::2::3::x\n"), "expected timestamp at line 1");
+    }
+
+    @Test
+    public void testLineFormats() throws Exception
+    {
+        RatingColumns columns = new RatingColumns(1, true);
+        File file = write("1::2::3.5::100\r\n2::3::4\n3::4::0.5::300");
+
+        try (FileChannel channel = FileChannel.open(file.toPath()))
+        {
+            // Half-star ratings, as in MovieLens 10M
+            MovielensParser parser = new MovielensParser("::");
+            parser.setMinRating(0.5);
+            int lines = parser.parse(channel, 0, channel.size(), 1, columns);
+            assertEquals(3, lines);
+        }
+
+        RatingMatrix ratings = columns.toRatingMatrix();
+        assertTrue(ratings.hasTimestamps());
+        assertEquals(3.5, ratings.getValue(1, 2), ACCURACY);
+        assertEquals(4, ratings.getValue(2, 3), ACCURACY);
+        assertEquals(0.5, ratings.getValue(3, 4), ACCURACY);
+        assertEquals(100, ratings.getTimestamps()[0]);
+        assertEquals(0, ratings.getTimestamps()[1]);
+        assertEquals(300, ratings.getTimestamps()[2]);
+    }
+
+    @Test
+    public void testParallelLoad() throws Exception
+    {
+        RatingMatrix sequential = mLoader.loadRatingMatrix(new File(MEDIUM_DATASET));
+
+        mLoader.setThreadsAmount(4);
+        RatingMatrix parallel = mLoader.loadRatingMatrix(new File(MEDIUM_DATASET));
+
+        assertArrayEquals(sequential.getRowIds(), parallel.getRowIds());
+        assertArrayEquals(sequential.getRowOffsets(), parallel.getRowOffsets());
+        assertArrayEquals(sequential.getColumnIds(), parallel.getColumnIds());
+        assertArrayEquals(sequential.getValues(), parallel.getValues(), ACCURACY);
+    }
+
+    @Test
+    public void testParallelMismatchLine() throws Exception
+    {
+        // Big enough to be split among the threads, with an error near the end
+        StringBuilder content = new StringBuilder();
+        for (int line = 1; line < 20000; line++)
+        {
+            content.append(line % 50 + 1).append("::").append(line).append("::3::978300760\n");
+        }
+        content.append("1::2::x::978300760\n");
+        File file = write(content.toString());
+
+        mLoader.setThreadsAmount(4);
+        assertMismatch(file, "expected rating at line 20000");
+    }
+}
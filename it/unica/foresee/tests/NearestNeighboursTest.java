@@ -1,20 +1,29 @@
 package it.unica.foresee.tests;
 
 import it.unica.foresee.datasets.DatasetSparseVector;
+import it.unica.foresee.datasets.DoubleElement;
 import it.unica.foresee.datasets.Movielens;
 import it.unica.foresee.datasets.MovielensElement;
 import it.unica.foresee.libraries.NearestNeighbour;
 
 import it.unica.foresee.utils.Logger;
 import it.unica.foresee.utils.SparseMatrix;
+import it.unica.foresee.utils.SymmetricMatrix;
 import org.apache.commons.math3.util.Pair;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.stream.IntStream;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -27,6 +36,10 @@ public class NearestNeighboursTest
 {
     public static double HIGH_ACCURACY = 0.0000001;
     public static double SMALL_ACCURACY = 0.15;
+    public static double FLOAT_ACCURACY = 0.000001;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
 
     @Before
     public void setUp()
@@ -124,6 +137,300 @@ public class NearestNeighboursTest
         assertCorrectSimilarity(similarityMatrix, simResults, SMALL_ACCURACY);
     }
 
+    @Test
+    public void parallelSimilarityMatrixTest()
+    {
+        // Enough users to split the matrix in several tiles
+        double[][] usersMatrix = TestUtils.randomRatings(42, 200, 30, 0);
+
+        Movielens dataset = TestUtils.fillDataset(usersMatrix);
+
+        NearestNeighbour<Movielens> sequential = new NearestNeighbour<>(dataset);
+        sequential.initialiseSimilarityMatrix();
+
+        NearestNeighbour<Movielens> parallel = new NearestNeighbour<>(dataset);
+        parallel.setThreadsAmount(4);
+        parallel.initialiseSimilarityMatrix();
+
+        assertEquals(sequential.getSimilarityMatrix().getInternalMap(),
+                parallel.getSimilarityMatrix().getInternalMap());
+        assertEquals(usersMatrix.length, parallel.getSimilarityMatrix().getInternalMap().size());
+
+        // The worker threads stored the tiles in the dense matrix themselves
+        assertTrue(((SymmetricMatrix) parallel.getSimilarityMatrix()).isDense());
+    }
+
+    @Test
+    public void mappedSimilarityMatrixTest() throws Exception
+    {
+        // Enough users for the worker threads to write several tiles at once
+        double[][] usersMatrix = TestUtils.randomRatings(42, 300, 20, 0);
+
+        Movielens dataset = TestUtils.fillDataset(usersMatrix);
+        File file = new File(folder.getRoot(), "network.fsm");
+
+        NearestNeighbour<Movielens> heap = new NearestNeighbour<>(dataset);
+        heap.initialiseSimilarityMatrix();
+
+        NearestNeighbour<Movielens> mapped = new NearestNeighbour<>(dataset);
+        mapped.setThreadsAmount(4);
+        mapped.initialiseSimilarityMatrix(file);
+
+        // A later network reads the same matrix without computing it
+        NearestNeighbour<Movielens> loaded = new NearestNeighbour<>(dataset);
+        assertTrue(loaded.loadSimilarityMatrix(file));
+
+        HashMap<Integer, HashMap<Integer, Double>> expected = heap.getSimilarityMatrix().getInternalMap();
+        HashMap<Integer, HashMap<Integer, Double>> actual = loaded.getSimilarityMatrix().getInternalMap();
+        assertEquals(expected.keySet(), actual.keySet());
+        for (int i : expected.keySet())
+        {
+            assertEquals(expected.get(i).keySet(), actual.get(i).keySet());
+            for (int j : expected.get(i).keySet())
+            {
+                assertEquals(expected.get(i).get(j), actual.get(i).get(j), FLOAT_ACCURACY);
+            }
+        }
+
+        // The matrix is not used for other ratings
+        dataset.get(0).put(1, new DoubleElement(usersMatrix[0][0] == 5 ? 1.0 : 5.0));
+        assertFalse(new NearestNeighbour<>(dataset).loadSimilarityMatrix(file));
+    }
+
+    @Test
+    public void neighbourIndexTest()
+    {
+        double[][] usersMatrix = TestUtils.randomRatings(42, 200, 30, 0);
+
+        Movielens dataset = TestUtils.fillDataset(usersMatrix);
+        int neighboursAmount = 10;
+
+        NearestNeighbour<Movielens> full = new NearestNeighbour<>(dataset);
+        full.initialiseSimilarityMatrix();
+
+        NearestNeighbour<Movielens> sequential = new NearestNeighbour<>(dataset);
+        sequential.initialiseNeighbourIndex(neighboursAmount);
+        assertEquals(null, sequential.getSimilarityMatrix());
+
+        NearestNeighbour<Movielens> parallel = new NearestNeighbour<>(dataset);
+        parallel.setThreadsAmount(4);
+        parallel.initialiseNeighbourIndex(neighboursAmount);
+
+        for (int user : dataset.keySet())
+        {
+            // Rank all the other users from the full matrix, by stored similarity and then by ID
+            List<Pair<Integer, Double>> expected = full.getNearestNeighbours(user, usersMatrix.length);
+            expected.sort((Pair<Integer, Double> a, Pair<Integer, Double> b) ->
+            {
+                int comparison = - Double.compare(a.getSecond(), b.getSecond());
+                return comparison != 0 ? comparison : Integer.compare(a.getFirst(), b.getFirst());
+            });
+
+            // The index keeps the same neighbours, in the same order
+            List<Pair<Integer, Double>> indexed = sequential.getNearestNeighbours(user, neighboursAmount);
+            assertEquals(neighboursAmount, indexed.size());
+            for (int rank = 0; rank < neighboursAmount; rank++)
+            {
+                assertEquals(expected.get(rank).getFirst(), indexed.get(rank).getFirst());
+                assertEquals(expected.get(rank).getSecond(), indexed.get(rank).getSecond(), 0.0);
+            }
+
+            // The same ranking as the matrix, ties included
+            assertEquals(full.getNearestNeighbours(user, neighboursAmount), indexed);
+
+            // Whatever the amount of threads
+            assertEquals(indexed, parallel.getNearestNeighbours(user, neighboursAmount));
+        }
+    }
+
+    @Test
+    public void sparseSimilarityMatrixTest()
+    {
+        // Groups of users rating their own two items, so that few pairs have a similarity
+        int groupsAmount = 10;
+        double[][] usersMatrix = new double[40][2 * groupsAmount];
+        for (int u = 0; u < usersMatrix.length; u++)
+        {
+            int group = u % groupsAmount;
+            usersMatrix[u][2 * group] = u / groupsAmount + 1;
+            usersMatrix[u][2 * group + 1] = u / groupsAmount + 2;
+        }
+
+        Movielens dataset = TestUtils.fillDataset(usersMatrix);
+
+        NearestNeighbour<Movielens> sparse = new NearestNeighbour<>(dataset);
+        sparse.setThreadsAmount(4);
+        sparse.initialiseSimilarityMatrix();
+        assertFalse(((SymmetricMatrix) sparse.getSimilarityMatrix()).isDense());
+
+        // Only the users with themselves and with the rest of their group are stored
+        assertEquals(usersMatrix.length * (1 + 3) / 2 + usersMatrix.length / 2,
+                sparse.getSimilarityMatrix().size());
+
+        // The pairs not stored read as no similarity, as from the neighbour index
+        NearestNeighbour<Movielens> indexed = new NearestNeighbour<>(dataset);
+        indexed.initialiseNeighbourIndex(usersMatrix.length - 1);
+        for (int user : dataset.keySet())
+        {
+            assertEquals(indexed.getNearestNeighbours(user, usersMatrix.length - 1),
+                    sparse.getNearestNeighbours(user, usersMatrix.length - 1));
+        }
+    }
+
+    @Test
+    public void parallelForecastsTest()
+    {
+        // Sparse ratings, with about a third of the items not rated
+        double[][] usersMatrix = TestUtils.randomRatings(11, 150, 25, 3);
+        for (double[] user : usersMatrix)
+        {
+            // Every user rates the first item
+            user[0] = Math.max(user[0], 1);
+        }
+
+        Movielens dataset = TestUtils.fillDataset(usersMatrix);
+        int neighboursAmount = 20;
+
+        NearestNeighbour<Movielens> sequential = new NearestNeighbour<>(dataset.deepClone());
+        Movielens sequentialForecasts = sequential.makeForecasts(neighboursAmount);
+
+        NearestNeighbour<Movielens> parallel = new NearestNeighbour<>(dataset.deepClone());
+        parallel.setThreadsAmount(4);
+        Movielens parallelForecasts = parallel.makeForecasts(neighboursAmount);
+
+        // The predictions are the same, bit by bit
+        assertEquals(sequentialForecasts.keySet(), parallelForecasts.keySet());
+        for (int user : sequentialForecasts.keySet())
+        {
+            assertArrayEquals(sequentialForecasts.get(user).getPoint(), parallelForecasts.get(user).getPoint(), 0.0);
+        }
+
+        // Every missing item has been predicted within the bounds
+        for (int user : sequentialForecasts.keySet())
+        {
+            for (double rating : sequentialForecasts.get(user).getPoint())
+            {
+                assertTrue(rating == 0 || (rating >= 1 && rating <= 5));
+            }
+        }
+    }
+
+    @Test
+    public void sparseForecastsTest()
+    {
+        double[][] usersMatrix = TestUtils.randomRatings(5, 30, 8, 4);
+        for (double[] user : usersMatrix)
+        {
+            // Nobody rates the fifth item
+            user[4] = 0;
+        }
+
+        Movielens dataset = TestUtils.fillDataset(usersMatrix);
+        dataset.get(0).remove(5);
+
+        Movielens forecasts = new NearestNeighbour<>(dataset).makeForecasts(10);
+
+        // An item no neighbour rated is not predicted, nor added
+        assertEquals(null, forecasts.get(0).get(5));
+        for (int user = 1; user < usersMatrix.length; user++)
+        {
+            assertEquals(0.0, forecasts.get(user).get(5).getDoubleValue(), HIGH_ACCURACY);
+        }
+    }
+
+    @Test
+    public void recommendTest()
+    {
+        double[][] usersMatrix = TestUtils.randomRatings(13, 60, 15, 3);
+        for (double[] user : usersMatrix)
+        {
+            // Every user rates the first item
+            user[0] = Math.max(user[0], 1);
+        }
+
+        Movielens dataset = TestUtils.fillDataset(usersMatrix);
+        int neighboursAmount = 10;
+        int n = 3;
+
+        Movielens forecasts = new NearestNeighbour<>(dataset.deepClone()).makeForecasts(neighboursAmount);
+
+        NearestNeighbour<Movielens> nearestNeighbour = new NearestNeighbour<>(dataset);
+        nearestNeighbour.initialiseNeighbourIndex(neighboursAmount);
+
+        for (int user = 0; user < usersMatrix.length; user++)
+        {
+            // Every single prediction is the stored one
+            for (int item = 1; item <= usersMatrix[user].length; item++)
+            {
+                double expected = forecasts.get(user).get(item).getDoubleValue();
+                double prediction = nearestNeighbour.predict(user, item);
+                if (Double.isNaN(prediction))
+                {
+                    assertEquals(0.0, expected, HIGH_ACCURACY);
+                }
+                else
+                {
+                    assertEquals(expected, prediction, HIGH_ACCURACY);
+                }
+            }
+
+            // The best predicted items not rated by the user
+            List<Integer> items = new ArrayList<>();
+            for (int item = 1; item <= usersMatrix[user].length; item++)
+            {
+                if (usersMatrix[user][item - 1] == 0 && forecasts.get(user).get(item).getDoubleValue() != 0)
+                {
+                    items.add(item);
+                }
+            }
+            final int u = user;
+            items.sort((a, b) -> Double.compare(forecasts.get(u).get(b).getDoubleValue(),
+                    forecasts.get(u).get(a).getDoubleValue()));
+
+            List<Pair<Integer, Double>> recommendations = nearestNeighbour.recommend(user, n);
+            assertEquals(Math.min(n, items.size()), recommendations.size());
+            for (int rank = 0; rank < recommendations.size(); rank++)
+            {
+                assertEquals(items.get(rank), recommendations.get(rank).getFirst());
+                assertEquals(forecasts.get(user).get(items.get(rank)).getDoubleValue(),
+                        recommendations.get(rank).getSecond(), HIGH_ACCURACY);
+            }
+        }
+
+        // Asking for more items than there are just gives all the candidates
+        assertEquals(nearestNeighbour.recommend(0, usersMatrix[0].length),
+                nearestNeighbour.recommend(0, Integer.MAX_VALUE));
+
+        // With only the similarity matrix, all the other users are the neighbours
+        NearestNeighbour<Movielens> matrixNetwork = new NearestNeighbour<>(dataset);
+        matrixNetwork.initialiseSimilarityMatrix();
+        NearestNeighbour<Movielens> allNeighbours = new NearestNeighbour<>(dataset);
+        allNeighbours.initialiseNeighbourIndex(usersMatrix.length - 1);
+        for (int user = 0; user < usersMatrix.length; user++)
+        {
+            assertEquals(allNeighbours.predict(user, 2), matrixNetwork.predict(user, 2), HIGH_ACCURACY);
+            List<Pair<Integer, Double>> expected = allNeighbours.recommend(user, n);
+            List<Pair<Integer, Double>> actual = matrixNetwork.recommend(user, n);
+            assertEquals(expected.size(), actual.size());
+            for (int rank = 0; rank < expected.size(); rank++)
+            {
+                assertEquals(expected.get(rank).getFirst(), actual.get(rank).getFirst());
+            }
+        }
+
+        // Many threads predicting at once build the neighbour index only once
+        NearestNeighbour<Movielens> concurrent = new NearestNeighbour<>(dataset);
+        double[] predictions = IntStream.range(0, usersMatrix.length).parallel()
+                .mapToDouble(user -> concurrent.predict(user, 2, neighboursAmount)).toArray();
+        for (int user = 0; user < usersMatrix.length; user++)
+        {
+            assertEquals(nearestNeighbour.predict(user, 2), predictions[user], 0.0);
+        }
+
+        // The dataset has not changed
+        assertEquals(TestUtils.fillDataset(usersMatrix), dataset);
+    }
+
     @Test
     public void getNearestNeighboursTest()
     {
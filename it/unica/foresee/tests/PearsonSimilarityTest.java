@@ -0,0 +1,91 @@
+package it.unica.foresee.tests;
+
+import it.unica.foresee.datasets.RatingMatrix;
+import it.unica.foresee.libraries.PearsonSimilarity;
+
+import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the sorted merge Pearson correlation against Commons Math.
+ */
+public class PearsonSimilarityTest
+{
+    public static double HIGH_ACCURACY = 0.0000001;
+
+    @Test
+    public void correlationTest()
+    {
+        Random random = new Random(7);
+
+        for (int test = 0; test < 100; test++)
+        {
+            // Two users rating about half of 40 items, with some items in common
+            int[] rows = new int[80];
+            int[] columns = new int[80];
+            double[] values = new double[80];
+            int length = 0;
+            for (int item = 1; item <= 40; item++)
+            {
+                for (int user = 0; user < 2; user++)
+                {
+                    if (random.nextBoolean())
+                    {
+                        rows[length] = user;
+                        columns[length] = item;
+                        values[length] = random.nextInt(5) + 1;
+                        length++;
+                    }
+                }
+            }
+            RatingMatrix ratings = RatingMatrix.fromTriples(rows, columns, values, length);
+
+            // Build the co-rated arrays the slow way
+            double[] x = new double[40];
+            double[] y = new double[40];
+            int common = 0;
+            for (int item = 1; item <= 40; item++)
+            {
+                if (!Double.isNaN(ratings.getValue(0, item)) && !Double.isNaN(ratings.getValue(1, item)))
+                {
+                    x[common] = ratings.getValue(0, item);
+                    y[common] = ratings.getValue(1, item);
+                    common++;
+                }
+            }
+
+            double expected = new PearsonsCorrelation().correlation(
+                    Arrays.copyOf(x, common), Arrays.copyOf(y, common));
+            double actual = PearsonSimilarity.correlation(ratings, 0, 1);
+
+            if (Double.isNaN(expected))
+            {
+                assertTrue(Double.isNaN(actual));
+            }
+            else
+            {
+                assertEquals(expected, actual, HIGH_ACCURACY);
+            }
+        }
+    }
+
+    @Test
+    public void undefinedCorrelationTest()
+    {
+        // Less than two items in common
+        RatingMatrix ratings = RatingMatrix.fromTriples(
+                new int[]{0, 0, 1, 1}, new int[]{1, 2, 2, 3}, new double[]{4, 5, 3, 1}, 4);
+        assertTrue(Double.isNaN(PearsonSimilarity.correlation(ratings, 0, 1)));
+
+        // Constant ratings
+        ratings = RatingMatrix.fromTriples(
+                new int[]{0, 0, 1, 1}, new int[]{1, 2, 1, 2}, new double[]{4, 4, 3, 1}, 4);
+        assertTrue(Double.isNaN(PearsonSimilarity.correlation(ratings, 0, 1)));
+    }
+}
@@ -152,13 +152,10 @@ public class PredictionsSimulation
 
             assertNotEquals("The models list cannot be null.", null, modelsList);
 
-            RMSE rmseTester = new RMSE();
-            Pair<Double[], Double[]> comparableArrays = (new Converter<MovielensElement>()).getRMSEArrays(testSet,
+            ErrorAccumulator errors = (new Converter<MovielensElement>()).getErrors(testSet,
                     modelsList, model.getUserToModelMap());
 
-            double result = rmseTester.calculate(comparableArrays.getFirst(), comparableArrays.getSecond());
-
-            Logger.log("RMSE result #" + (i + 1) + ": " + result);
+            Logger.log("RMSE result #" + (i + 1) + ": " + errors.getRMSE());
 
             trainingSet = null;
             testSet = null;
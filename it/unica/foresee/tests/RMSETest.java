@@ -38,4 +38,15 @@ public class RMSETest
 
         assertEquals(3, result, ACCURACY);
     }
+
+    @Test
+    public void missingEstimate()
+    {
+        double[] estimator = new double[]{1, Double.NaN, 1, 1};
+        double[] parameter = new double[]{4, 4, 4, 4};
+
+        // Every pair counts, a missing estimate is not skipped
+        assertEquals(Double.NaN, tester.calculate(estimator, parameter), 0.0);
+        assertEquals(Double.NaN, tester.calculate(new Double[]{Double.NaN}, new Double[]{4.0}), 0.0);
+    }
 }
@@ -0,0 +1,112 @@
+package it.unica.foresee.tests;
+
+import it.unica.foresee.datasets.MovielensLoader;
+import it.unica.foresee.datasets.RatingMatrix;
+import it.unica.foresee.datasets.RatingMatrixFile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the binary rating matrix files and the dataset cache.
+ */
+public class RatingMatrixFileTest
+{
+    public static double ACCURACY = 0.0000001;
+    public final String MEDIUM_DATASET = "test-data/medium.dat";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MovielensLoader mLoader;
+    private File source;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        mLoader = new MovielensLoader();
+        source = new File(folder.getRoot(), "medium.dat");
+        Files.copy(new File(MEDIUM_DATASET).toPath(), source.toPath());
+    }
+
+    /**
+     * Asserts that two matrices hold the same ratings.
+     * @param expected the expected matrix
+     * @param actual the actual matrix
+     */
+    private void assertSameMatrix(RatingMatrix expected, RatingMatrix actual)
+    {
+        assertArrayEquals(expected.getRowIds(), actual.getRowIds());
+        assertArrayEquals(expected.getRowOffsets(), actual.getRowOffsets());
+        assertArrayEquals(expected.getColumnIds(), actual.getColumnIds());
+        assertArrayEquals(expected.getValues(), actual.getValues(), ACCURACY);
+        assertArrayEquals(expected.getTimestamps(), actual.getTimestamps());
+        assertEquals(expected.getColumnsAmount(), actual.getColumnsAmount());
+        assertEquals(expected.getMaxColumnId(), actual.getMaxColumnId());
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        mLoader.setKeepTimestamps(true);
+        RatingMatrix ratings = mLoader.loadRatingMatrix(source);
+        File binary = folder.newFile("medium" + RatingMatrixFile.EXTENSION);
+
+        RatingMatrixFile.write(ratings, binary, source.length(), source.lastModified());
+
+        assertTrue(RatingMatrixFile.isRatingMatrixFile(binary));
+        assertFalse(RatingMatrixFile.isRatingMatrixFile(source));
+        assertSameMatrix(ratings, RatingMatrixFile.read(binary));
+        assertSameMatrix(ratings, RatingMatrixFile.read(binary, source));
+
+        // The binary file can be loaded as any dataset
+        assertSameMatrix(ratings, mLoader.loadRatingMatrix(binary));
+    }
+
+    @Test
+    public void testCacheReuse() throws Exception
+    {
+        mLoader.setCacheDirectory(folder.newFolder("cache"));
+        File cacheFile = mLoader.getCacheFile(source);
+
+        RatingMatrix parsed = mLoader.loadRatingMatrix(source);
+        assertTrue(cacheFile.isFile());
+        assertSameMatrix(parsed, RatingMatrixFile.read(cacheFile, source));
+
+        // A second load is served by the cache
+        long cacheModified = cacheFile.lastModified();
+        assertSameMatrix(parsed, mLoader.loadRatingMatrix(source));
+        assertEquals(cacheModified, cacheFile.lastModified());
+    }
+
+    @Test
+    public void testCacheInvalidation() throws Exception
+    {
+        mLoader.setCacheDirectory(folder.newFolder("cache"));
+        File cacheFile = mLoader.getCacheFile(source);
+        mLoader.loadRatingMatrix(source);
+
+        // Changing the source makes the cache stale
+        try (FileWriter out = new FileWriter(source, true))
+        {
+            out.write("6041::1::4::978300760\n");
+        }
+        assertNull(RatingMatrixFile.read(cacheFile, source));
+
+        RatingMatrix reloaded = mLoader.loadRatingMatrix(source);
+        assertEquals(4, reloaded.getValue(6041, 1), ACCURACY);
+        assertSameMatrix(reloaded, RatingMatrixFile.read(cacheFile, source));
+    }
+}
@@ -0,0 +1,132 @@
+package it.unica.foresee.tests;
+
+import it.unica.foresee.datasets.DoubleElement;
+import it.unica.foresee.datasets.Movielens;
+import it.unica.foresee.datasets.MovielensLoader;
+import it.unica.foresee.datasets.RatingMatrix;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for the RatingMatrix class.
+ */
+public class RatingMatrixTest
+{
+    public static double ACCURACY = 0.0000001;
+    public final String SMALL_DATASET = "test-data/movielens-test-25-users.dat";
+
+    private RatingMatrix matrix;
+
+    @Before
+    public void setUp()
+    {
+        // Unordered triples, with a duplicated rating for (3, 7)
+        int[] users = new int[]{3, 1, 3, 1, 2, 3};
+        int[] movies = new int[]{7, 4, 2, 1, 4, 7};
+        double[] ratings = new double[]{1, 5, 3, 2, 4, 5};
+
+        matrix = RatingMatrix.fromTriples(users, movies, ratings, users.length);
+    }
+
+    @Test
+    public void testFromTriples()
+    {
+        assertEquals(3, matrix.getRowsAmount());
+        assertEquals(5, matrix.getEntriesAmount());
+        assertArrayEquals(new int[]{1, 2, 3}, matrix.getRowIds());
+        assertArrayEquals(new int[]{0, 2, 3, 5}, matrix.getRowOffsets());
+        assertArrayEquals(new int[]{1, 4, 4, 2, 7}, matrix.getColumnIds());
+
+        // The last duplicated rating wins
+        assertEquals(5, matrix.getValue(3, 7), ACCURACY);
+        assertTrue(Double.isNaN(matrix.getValue(2, 1)));
+        assertTrue(Double.isNaN(matrix.getValue(4, 1)));
+    }
+
+    @Test
+    public void testTranspose()
+    {
+        RatingMatrix transposed = matrix.transpose();
+
+        assertArrayEquals(new int[]{1, 2, 4, 7}, transposed.getRowIds());
+        assertArrayEquals(new int[]{1, 3, 1, 2, 3}, transposed.getColumnIds());
+        assertEquals(4, matrix.getColumnsAmount());
+        assertEquals(7, matrix.getMaxColumnId());
+
+        for (int row = 0; row < matrix.getRowsAmount(); row++)
+        {
+            for (int k = matrix.getRowStart(row); k < matrix.getRowEnd(row); k++)
+            {
+                assertEquals(matrix.getValues()[k],
+                        transposed.getValue(matrix.getColumnIds()[k], matrix.getRowId(row)), ACCURACY);
+            }
+        }
+
+        assertTrue(transposed.transpose() == matrix);
+    }
+
+    @Test
+    public void testMovielensRoundTrip() throws Exception
+    {
+        Movielens dataset = (new MovielensLoader()).loadDataset(new File(SMALL_DATASET));
+        RatingMatrix ratings = dataset.toRatingMatrix();
+
+        assertEquals(dataset.getUsersAmount(), ratings.getRowsAmount());
+        assertEquals(dataset.getMoviesAmount(), ratings.getColumnsAmount());
+        assertEquals(dataset.getMaxMovieID(), ratings.getMaxColumnId());
+        assertEquals(dataset.getElement(25, 1676), ratings.getValue(25, 1676), ACCURACY);
+
+        Movielens copy = ratings.toMovielens();
+        assertEquals(dataset, copy);
+        assertEquals(dataset.get(25).getVectorSize(), copy.get(25).getVectorSize());
+    }
+
+    @Test
+    public void testCachedMatrix() throws Exception
+    {
+        RatingMatrix loaded = (new MovielensLoader()).loadRatingMatrix(new File(SMALL_DATASET));
+        Movielens dataset = new Movielens(loaded);
+
+        // The loaded matrix is reused, and it holds the same ratings as the users
+        assertSame(loaded, dataset.toRatingMatrix());
+        assertEquals(RatingMatrix.fromDataset(dataset).getFingerprint(), loaded.getFingerprint());
+
+        // Built again only after a change
+        dataset.get(25).put(1676, new DoubleElement(1.0));
+        RatingMatrix changed = dataset.toRatingMatrix();
+        assertNotSame(loaded, changed);
+        assertEquals(1.0, changed.getValue(25, 1676), ACCURACY);
+        assertSame(changed, dataset.toRatingMatrix());
+    }
+
+    @Test
+    public void testMatrixRows() throws Exception
+    {
+        RatingMatrix loaded = (new MovielensLoader()).loadRatingMatrix(new File(SMALL_DATASET));
+        Movielens dataset = new Movielens(loaded);
+        double rating = loaded.getValue(25, 2987);
+        double sum = dataset.get(25).getSum();
+
+        // The users read the rows of the matrix, which are not changed with them
+        dataset.get(25).put(2987, new DoubleElement(rating + 1));
+        assertEquals(rating, loaded.getValue(25, 2987), ACCURACY);
+        assertEquals(sum + 1, dataset.get(25).getSum(), ACCURACY);
+
+        // After a rebuild the users read the new matrix, which again is not changed with them
+        RatingMatrix changed = dataset.toRatingMatrix();
+        dataset.get(25).remove(2987);
+        assertEquals(rating + 1, changed.getValue(25, 2987), ACCURACY);
+        assertEquals(sum - rating, dataset.get(25).getSum(), ACCURACY);
+        assertEquals(dataset.toRatingMatrix().getFingerprint(), RatingMatrix.fromDataset(dataset).getFingerprint());
+        assertTrue(Double.isNaN(dataset.toRatingMatrix().getValue(25, 2987)));
+    }
+}
@@ -0,0 +1,160 @@
+package it.unica.foresee.tests;
+
+import it.unica.foresee.datasets.DoubleElement;
+import it.unica.foresee.datasets.MovielensElement;
+import it.unica.foresee.datasets.RatingMatrix;
+import it.unica.foresee.datasets.RatingVector;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the primitive vectors of ratings.
+ */
+public class RatingVectorTest
+{
+    public static double HIGH_ACCURACY = 0.0000001;
+
+    private RatingVector vector;
+
+    @Before
+    public void setUp()
+    {
+        vector = new RatingVector(10);
+        vector.put(7, 5.0);
+        vector.put(1, 2.0);
+        vector.put(4, 3.0);
+    }
+
+    @Test
+    public void putTest()
+    {
+        assertArrayEquals(new int[]{1, 4, 7}, vector.getItems());
+        assertArrayEquals(new double[]{2, 0, 0, 3, 0, 0, 5, 0, 0, 0}, vector.getPoint(), HIGH_ACCURACY);
+        assertEquals(3.0, vector.get(4), HIGH_ACCURACY);
+        assertTrue(Double.isNaN(vector.get(5)));
+        assertNull(vector.getDatasetElement(5));
+        assertEquals(1.0, vector.getMean(), HIGH_ACCURACY);
+        assertEquals(38.0, vector.getSumOfSquares(), HIGH_ACCURACY);
+
+        // Replacing, appending and removing
+        assertEquals(3.0, vector.put(4, 1.0), HIGH_ACCURACY);
+        assertTrue(Double.isNaN(vector.put(9, 4.0)));
+        assertEquals(2.0, vector.remove(1), HIGH_ACCURACY);
+        assertTrue(Double.isNaN(vector.remove(2)));
+        vector.setDatasetElement(2, new DoubleElement(1.5));
+        assertArrayEquals(new int[]{2, 4, 7, 9}, vector.getItems());
+        assertArrayEquals(new double[]{1.5, 1, 5, 4}, vector.getRatings(), HIGH_ACCURACY);
+        assertEquals(9, vector.getLastItem());
+
+        // Many insertions in both orders
+        RatingVector ascending = new RatingVector(1000);
+        RatingVector descending = new RatingVector(1000);
+        for (int i = 1; i <= 1000; i++)
+        {
+            ascending.put(i, i % 5);
+            descending.put(1001 - i, (1001 - i) % 5);
+        }
+        assertEquals(ascending, descending);
+        assertEquals(ascending.hashCode(), descending.hashCode());
+        assertEquals(1000, ascending.size());
+
+        try
+        {
+            new RatingVector(new int[]{1, 3, 2}, new double[]{1, 1, 1}, 0, 3, 3);
+            fail("The items must be sorted");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void dotTest()
+    {
+        // Vectors of very different sizes, compared with the dense product
+        Random random = new Random(11);
+        for (int test = 0; test < 20; test++)
+        {
+            RatingVector small = new RatingVector(5000);
+            RatingVector big = new RatingVector(5000);
+            for (int i = 0; i < 30; i++)
+            {
+                small.put(1 + random.nextInt(5000), 1 + random.nextInt(5));
+            }
+            for (int i = 0; i < 3000; i++)
+            {
+                big.put(1 + random.nextInt(5000), 1 + random.nextInt(5));
+            }
+
+            double[] first = small.getPoint();
+            double[] second = big.getPoint();
+            double expected = 0;
+            for (int j = 0; j < first.length; j++)
+            {
+                expected += first[j] * second[j];
+            }
+            assertEquals(expected, small.dot(big), HIGH_ACCURACY);
+            assertEquals(expected, big.dot(small), HIGH_ACCURACY);
+        }
+        assertEquals(0.0, vector.dot(new RatingVector(10)), HIGH_ACCURACY);
+    }
+
+    @Test
+    public void conversionTest()
+    {
+        vector.setId(3);
+        MovielensElement element = vector.toMovielensElement();
+        assertEquals(3, element.getId());
+        assertEquals(10, element.getVectorSize());
+        assertArrayEquals(vector.getPoint(), element.getPoint(), HIGH_ACCURACY);
+        assertEquals(vector, element.toRatingVector());
+        assertEquals(3, element.toRatingVector().getId());
+
+        RatingMatrix matrix = RatingMatrix.fromTriples(new int[]{3, 3, 3, 5}, new int[]{7, 1, 4, 2},
+                new double[]{5, 2, 3, 1}, 4);
+        assertEquals(vector, matrix.toRatingVector(0));
+        assertEquals(3, matrix.toRatingVector(0).getId());
+
+        // The clone does not share the ratings
+        RatingVector clone = vector.deepClone();
+        clone.put(1, 4.0);
+        assertEquals(2.0, vector.get(1), HIGH_ACCURACY);
+        assertFalse(vector.equals(clone));
+    }
+
+    @Test
+    public void partitionsTest()
+    {
+        RatingVector ratings = new RatingVector(500);
+        Random random = new Random(5);
+        for (int i = 1; i <= 500; i++)
+        {
+            ratings.put(i, 1 + random.nextInt(5));
+        }
+
+        // Every rating in exactly one partition, and the same partitions from the same seed
+        RatingVector[] partitions = ratings.getKFoldPartitions(4, 5, 9);
+        assertArrayEquals(partitions, ratings.getKFoldPartitions(4, 5, 9));
+        int amount = 0;
+        for (RatingVector partition : partitions)
+        {
+            assertTrue(Math.abs(partition.size() - 125) <= 5);
+            for (int i = 0; i < partition.size(); i++)
+            {
+                assertEquals(ratings.get(partition.getItemAt(i)), partition.getRatingAt(i), 0.0);
+            }
+            amount += partition.size();
+        }
+        assertEquals(500, amount);
+    }
+}
@@ -0,0 +1,138 @@
+package it.unica.foresee.tests;
+
+import it.unica.foresee.datasets.Movielens;
+import it.unica.foresee.datasets.RatingMatrix;
+import it.unica.foresee.libraries.AdjustedCosineSimilarity;
+import it.unica.foresee.libraries.NearestNeighbour;
+import it.unica.foresee.libraries.PearsonSimilarity;
+import it.unica.foresee.libraries.SignificanceWeightedPearsonSimilarity;
+import it.unica.foresee.libraries.SimilarityMetrics;
+import it.unica.foresee.libraries.interfaces.SimilarityMetric;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the similarity metrics on values computed by hand.
+ */
+public class SimilarityMetricTest
+{
+    public static double HIGH_ACCURACY = 0.000001;
+
+    private RatingMatrix ratings;
+
+    @Before
+    public void setUp()
+    {
+        // Row 0 rates items 1-4, row 1 rates items 1-5
+        ratings = RatingMatrix.fromTriples(
+                new int[]{0, 0, 0, 0, 1, 1, 1, 1, 1},
+                new int[]{1, 2, 3, 4, 1, 2, 3, 4, 5},
+                new double[]{5, 3, 4, 4, 3, 1, 2, 3, 3}, 9);
+    }
+
+    /**
+     * Prepares a metric and computes the similarity of the two rows.
+     * @param metric the metric
+     * @return the similarity of row 0 and row 1
+     */
+    private double similarity(SimilarityMetric metric)
+    {
+        SimilarityMetric prepared = metric.prepare(ratings);
+        double sim = prepared.similarity(ratings, 0, 1);
+        assertEquals(sim, prepared.similarity(ratings, 1, 0), HIGH_ACCURACY);
+        return sim;
+    }
+
+    @Test
+    public void metricsTest()
+    {
+        assertEquals(2 / Math.sqrt(5.5), similarity(SimilarityMetrics.get("pearson")), HIGH_ACCURACY);
+        assertEquals(38 / Math.sqrt(66 * 32), similarity(SimilarityMetrics.get("cosine")), HIGH_ACCURACY);
+        assertEquals(-1.0, similarity(SimilarityMetrics.get("adjustedcosine")), HIGH_ACCURACY);
+        assertEquals(0.8, similarity(SimilarityMetrics.get("jaccard")), HIGH_ACCURACY);
+        assertEquals(1 - 3.25 / 16, similarity(SimilarityMetrics.get("msd")), HIGH_ACCURACY);
+
+        // Four co-rated items over the default threshold of 50
+        assertEquals(2 / Math.sqrt(5.5) * 4 / 50, similarity(SimilarityMetrics.get("weightedpearson")),
+                HIGH_ACCURACY);
+        assertEquals(2 / Math.sqrt(5.5), similarity(new SignificanceWeightedPearsonSimilarity(4)),
+                HIGH_ACCURACY);
+    }
+
+    @Test
+    public void preparedMetricTest()
+    {
+        // A second matrix where row 0 has all the ratings doubled
+        RatingMatrix doubled = RatingMatrix.fromTriples(
+                new int[]{0, 0, 0, 0, 1, 1, 1, 1, 1},
+                new int[]{1, 2, 3, 4, 1, 2, 3, 4, 5},
+                new double[]{10, 6, 8, 8, 3, 1, 2, 3, 3}, 9);
+
+        for (String name : new String[]{"cosine", "adjustedcosine", "msd"})
+        {
+            SimilarityMetric metric = SimilarityMetrics.get(name);
+            SimilarityMetric first = metric.prepare(ratings);
+            SimilarityMetric second = metric.prepare(doubled);
+            double expected = similarity(SimilarityMetrics.get(name));
+
+            // Preparing on another matrix does not change the metrics already prepared
+            assertEquals(expected, first.similarity(ratings, 0, 1), 0.0);
+            assertEquals(SimilarityMetrics.get(name).prepare(doubled).similarity(doubled, 0, 1),
+                    second.similarity(doubled, 0, 1), 0.0);
+
+            try
+            {
+                metric.similarity(ratings, 0, 1);
+                fail("The metric itself is never prepared");
+            }
+            catch (IllegalStateException e)
+            {
+                // Expected
+            }
+        }
+
+        SimilarityMetric pearson = SimilarityMetrics.get("pearson");
+        assertSame(pearson, pearson.prepare(ratings));
+    }
+
+    @Test
+    public void registryTest()
+    {
+        assertTrue(SimilarityMetrics.get("newpearson") instanceof PearsonSimilarity);
+        assertTrue(SimilarityMetrics.get("AdjustedCosine") instanceof AdjustedCosineSimilarity);
+        assertTrue(SimilarityMetrics.getNames().contains("msd"));
+
+        try
+        {
+            SimilarityMetrics.get("euclidean");
+            assertTrue("An unknown metric should not be found", false);
+        }
+        catch (IllegalArgumentException e)
+        {
+            assertTrue(e.getMessage().contains("euclidean"));
+        }
+    }
+
+    @Test
+    public void nearestNeighbourMetricTest()
+    {
+        Movielens dataset = TestUtils.fillDataset(new double[][]{
+                new double[]{5, 3, 4, 4, 0},
+                new double[]{3, 1, 2, 3, 3}
+        });
+
+        NearestNeighbour<Movielens> nearestNeighbour = new NearestNeighbour<>(dataset);
+        nearestNeighbour.setSimilarityMetric(SimilarityMetrics.get("jaccard"));
+        nearestNeighbour.initialiseSimilarityMatrix();
+
+        // The zero is stored as a rating, so the two users share all the items
+        assertEquals(1.0, nearestNeighbour.getSimilarityMatrix().get(0, 1), HIGH_ACCURACY);
+        assertEquals(1.0, nearestNeighbour.getSimilarityMatrix().get(1, 1), HIGH_ACCURACY);
+    }
+}
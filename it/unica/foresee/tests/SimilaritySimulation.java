@@ -0,0 +1,98 @@
+package it.unica.foresee.tests;
+
+import it.unica.foresee.datasets.MovielensLoader;
+import it.unica.foresee.datasets.RatingMatrix;
+import it.unica.foresee.libraries.SimilarityMetrics;
+import it.unica.foresee.libraries.interfaces.SimilarityMetric;
+import it.unica.foresee.utils.Logger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmarks the similarity metrics against each other on the same dataset.
+ *
+ * Note: this is a function test, not a unit test. Assert that
+ * all the unit tests pass before running this.
+ */
+public class SimilaritySimulation
+{
+    public final String MEDIUM_DATASET = "test-data/medium.dat";
+
+    /**
+     * Amount of untimed passes, to let the JIT compile the kernels.
+     */
+    public final int WARMUP_ROUNDS = 2;
+
+    /**
+     * Amount of timed passes.
+     */
+    public final int ROUNDS = 3;
+
+    private RatingMatrix ratings;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Logger.setVerbosity(Logger.VERB_ALL);
+        Logger.log("Loading dataset...");
+        ratings = (new MovielensLoader()).loadRatingMatrix(new File(MEDIUM_DATASET));
+    }
+
+    /**
+     * Computes the similarity of every pair of users.
+     * @param metric the metric to use
+     * @return the sum of the defined similarities, to keep the JIT from skipping the work
+     */
+    private double allPairs(SimilarityMetric metric)
+    {
+        double total = 0;
+        SimilarityMetric prepared = metric.prepare(ratings);
+        for (int i = 0; i < ratings.getRowsAmount(); i++)
+        {
+            for (int j = i + 1; j < ratings.getRowsAmount(); j++)
+            {
+                double sim = prepared.similarity(ratings, i, j);
+                if (!Double.isNaN(sim))
+                {
+                    total += sim;
+                }
+            }
+        }
+        return total;
+    }
+
+    @Test
+    public void benchmarkMetrics()
+    {
+        long pairs = (long) ratings.getRowsAmount() * (ratings.getRowsAmount() - 1) / 2;
+        Logger.log(ratings.getRowsAmount() + " users, " + ratings.getEntriesAmount() + " ratings, " +
+                pairs + " pairs");
+
+        for (String name : SimilarityMetrics.getNames())
+        {
+            SimilarityMetric metric = SimilarityMetrics.get(name);
+
+            for (int round = 0; round < WARMUP_ROUNDS; round++)
+            {
+                allPairs(metric);
+            }
+
+            double total = 0;
+            long start = System.nanoTime();
+            for (int round = 0; round < ROUNDS; round++)
+            {
+                total = allPairs(metric);
+            }
+            double milliseconds = (System.nanoTime() - start) / 1e6 / ROUNDS;
+
+            Logger.log(String.format("%-16s %10.1f ms %10.1f ns/pair  (sum %.3f)",
+                    name, milliseconds, milliseconds * 1e6 / pairs, total));
+            assertTrue(!Double.isNaN(total));
+        }
+    }
+}
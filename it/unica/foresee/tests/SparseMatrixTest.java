@@ -0,0 +1,157 @@
+package it.unica.foresee.tests;
+
+import it.unica.foresee.utils.LongDoubleHashMap;
+import it.unica.foresee.utils.SparseMatrix;
+import it.unica.foresee.utils.SymmetricMatrix;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the primitive sparse and symmetric matrices.
+ */
+public class SparseMatrixTest
+{
+    public static double HIGH_ACCURACY = 0.0000001;
+
+    @Test
+    public void longDoubleHashMapTest()
+    {
+        LongDoubleHashMap map = new LongDoubleHashMap();
+
+        // Enough keys to grow the map several times, the free key included
+        for (long key = -5000; key < 5000; key++)
+        {
+            map.put(key << 32, key);
+        }
+        map.put(Long.MIN_VALUE, 1.5);
+
+        assertEquals(10001, map.size());
+        for (long key = -5000; key < 5000; key++)
+        {
+            assertEquals(key, map.get(key << 32, Double.NaN), HIGH_ACCURACY);
+        }
+        assertEquals(1.5, map.get(Long.MIN_VALUE, Double.NaN), HIGH_ACCURACY);
+        assertFalse(map.containsKey(1));
+        assertTrue(Double.isNaN(map.get(1, Double.NaN)));
+
+        // Replacing a value does not add an entry
+        map.put(0, 42);
+        assertEquals(10001, map.size());
+        assertEquals(42, map.get(0, Double.NaN), HIGH_ACCURACY);
+    }
+
+    @Test
+    public void sparseMatrixTest()
+    {
+        SparseMatrix matrix = new SparseMatrix();
+
+        assertNull(matrix.put(1, 2, 0.5));
+        assertEquals(0.5, matrix.put(1, 2, 0.25), HIGH_ACCURACY);
+        assertEquals(0.25, matrix.get(1, 2), HIGH_ACCURACY);
+        assertNull(matrix.get(2, 1));
+        assertEquals(0.25, matrix.symmetricGet(2, 1), HIGH_ACCURACY);
+
+        matrix.symmetricPut(-3, 7, 1.0);
+        assertEquals(1.0, matrix.get(7, -3), HIGH_ACCURACY);
+        assertEquals(3, matrix.size());
+        assertEquals(3, matrix.getInternalMap().size());
+    }
+
+    @Test
+    public void symmetricMatrixTest()
+    {
+        int[] users = new int[150];
+        for (int u = 0; u < users.length; u++)
+        {
+            users[u] = 3 * u + 1;
+        }
+
+        SymmetricMatrix dense = SymmetricMatrix.create(users, (long) users.length * (users.length + 1) / 2);
+        SymmetricMatrix sparse = SymmetricMatrix.create(users, 100);
+        assertTrue(dense.isDense());
+        assertFalse(sparse.isDense());
+
+        Random random = new Random(3);
+        for (int a = 0; a < users.length; a++)
+        {
+            for (int b = a; b < users.length; b++)
+            {
+                if (random.nextInt(4) == 0)
+                {
+                    double value = random.nextDouble();
+                    dense.setValue(users[b], users[a], value);
+                    sparse.symmetricPut(users[a], users[b], value);
+                }
+            }
+        }
+
+        // Both layouts hold the same elements, in both directions
+        assertEquals(dense.size(), sparse.size());
+        assertEquals(dense.getInternalMap(), sparse.getInternalMap());
+        for (int a = 0; a < users.length; a++)
+        {
+            for (int b = 0; b < users.length; b++)
+            {
+                assertEquals(dense.get(users[a], users[b]), dense.get(users[b], users[a]));
+                assertEquals(dense.get(users[a], users[b]), sparse.get(users[a], users[b]));
+            }
+        }
+
+        // Indexes out of the dense matrix are never set
+        assertNull(dense.get(2, 1));
+        try
+        {
+            dense.setValue(2, 1, 1.0);
+            fail("A dense matrix should reject unknown indexes");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void symmetricMatrixLimitsTest()
+    {
+        int[] users = new int[70000];
+        for (int u = 0; u < users.length; u++)
+        {
+            users[u] = u;
+        }
+
+        // A few pairs fit in a sparse matrix, while every pair fits in neither layout
+        assertFalse(SymmetricMatrix.create(users, 1000).isDense());
+        try
+        {
+            SymmetricMatrix.create(users, (long) users.length * (users.length + 1) / 2);
+            fail("The matrix should not fit in the heap");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+
+        // The nested maps are a copy, and elements cannot be unset
+        SparseMatrix matrix = new SparseMatrix();
+        matrix.put(1, 2, 0.5);
+        matrix.getInternalMap().get(1).put(2, 1.0);
+        assertEquals(0.5, matrix.get(1, 2), HIGH_ACCURACY);
+        try
+        {
+            matrix.put(1, 2, null);
+            fail("A null element should be rejected");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+    }
+}
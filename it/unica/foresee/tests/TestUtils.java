@@ -9,6 +9,7 @@ import it.unica.foresee.utils.SparseMatrix;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Random;
 
 /**
  * Utility class for tests.
@@ -74,6 +75,28 @@ public class TestUtils
         return dataset;
     }
 
+    /**
+     * Make a matrix of random ratings, from 1 to 5, to fill a dataset with {@link #fillDataset(double[][])}.
+     * @param seed the seed of the ratings, the same seed gives the same matrix
+     * @param usersAmount the amount of users, the rows
+     * @param itemsAmount the amount of items, the columns
+     * @param sparsity on average one rating out of sparsity is 0, not rated; 0 to rate every item
+     * @return the matrix of the ratings
+     */
+    public static double[][] randomRatings(long seed, int usersAmount, int itemsAmount, int sparsity)
+    {
+        Random random = new Random(seed);
+        double[][] usersMatrix = new double[usersAmount][itemsAmount];
+        for (double[] user : usersMatrix)
+        {
+            for (int j = 0; j < user.length; j++)
+            {
+                user[j] = sparsity > 0 && random.nextInt(sparsity) == 0 ? 0 : random.nextInt(5) + 1;
+            }
+        }
+        return usersMatrix;
+    }
+
     /**
      * Flatten an array.
      * @param matrix a matrix of doubles
@@ -2,17 +2,30 @@ package it.unica.foresee.utils;
 
 import it.unica.foresee.datasets.DatasetSparseVector;
 import it.unica.foresee.datasets.DoubleElement;
+import it.unica.foresee.datasets.RatingVector;
+import it.unica.foresee.libraries.ErrorAccumulator;
 import org.apache.commons.math3.util.*;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+import java.util.function.IntToDoubleFunction;
 
 /**
  * Converts different classes from one to another
  */
 public class Converter<T extends DatasetSparseVector<? extends DoubleElement>>
 {
+    /**
+     * Amount of consecutive test users evaluated by the same task.
+     */
+    private static final int EVALUATION_BLOCK_SIZE = 256;
+
     /**
      * If a lower limit to the admissible values.
      */
@@ -232,4 +245,221 @@ public class Converter<T extends DatasetSparseVector<? extends DoubleElement>>
         return new org.apache.commons.math3.util.Pair<>(trainArray.toArray(new Double[0]),
                 testArray.toArray(new Double[0]));
     }
+
+    /**
+     * Accumulates the errors of a model of the training set on the test set.
+     *
+     * The same entries as {@link #getRMSEArrays(DatasetSparseVector, List, Map)}
+     * are compared, but streamed in an accumulator without making any array;
+     * the entries of the test set missing in the model are counted as not
+     * predicted.
+     *
+     * Each model is looked up for every rating of all the users of its group,
+     * so the models are copied once in {@link RatingVector}s and their ratings
+     * are found by a binary search of a primitive array.
+     *
+     * @param test the test set
+     * @param model the model of the training set
+     * @param userToModel a map to obtain the corresponding user from the model
+     * @return the errors of the model
+     */
+    public ErrorAccumulator getErrors(DatasetSparseVector<T> test, List<T> model, Map<Integer, Integer> userToModel)
+    {
+        // Sanity checks
+        if (test.size() == 0)
+        {
+            throw new IllegalArgumentException("The first argument must not be empty");
+        }
+
+        if (model.size() == 0)
+        {
+            throw new IllegalArgumentException("The second argument must not be empty");
+        }
+
+        if (userToModel.size() == 0)
+        {
+            throw new IllegalArgumentException("The third argument must not be empty");
+        }
+
+        RatingVector[] models = new RatingVector[model.size()];
+        for (int modelID = 0; modelID < models.length; modelID++)
+        {
+            T element = model.get(modelID);
+            models[modelID] = element == null ? null : new RatingVector(element);
+        }
+
+        return getErrors(test, userID ->
+        {
+            Integer modelID = userToModel.get(userID);
+            RatingVector modelUser = modelID == null ? null : models[modelID];
+            return modelUser == null ? null : modelUser::get;
+        }, 1);
+    }
+
+    /**
+     * Accumulates the errors of the training set on the test set.
+     *
+     * {@link #getErrors(DatasetSparseVector, DatasetSparseVector, int)}
+     *
+     * @param test the test set
+     * @param training the training set, holding the predictions
+     * @return the errors of the training set
+     */
+    public ErrorAccumulator getErrors(DatasetSparseVector<T> test, DatasetSparseVector<T> training)
+    {
+        return getErrors(test, training, 1);
+    }
+
+    /**
+     * Accumulates the errors of the training set on the test set.
+     *
+     * The same entries as {@link #getRMSEArrays(DatasetSparseVector, DatasetSparseVector)}
+     * are compared, but streamed in an accumulator without making any array;
+     * the entries of the test set missing in the training set are counted as
+     * not predicted. The test users are split in blocks among the threads,
+     * each block with its own accumulator, and the accumulators are merged in
+     * the order of the users.
+     *
+     * @param test the test set
+     * @param training the training set, holding the predictions
+     * @param threadsAmount the amount of threads, at least 1
+     * @return the errors of the training set
+     */
+    public ErrorAccumulator getErrors(DatasetSparseVector<T> test, DatasetSparseVector<T> training, int threadsAmount)
+    {
+        // Sanity checks
+        if (test.size() == 0)
+        {
+            throw new IllegalArgumentException("The first argument must not be empty");
+        }
+
+        if (training.size() == 0)
+        {
+            throw new IllegalArgumentException("The second argument must not be empty");
+        }
+
+        return getErrors(test, userID ->
+        {
+            T trainUser = training.get(userID);
+            return trainUser == null ? null : item -> getRating(trainUser, item);
+        }, threadsAmount);
+    }
+
+    /**
+     * Get the rating of a user for an item.
+     *
+     * @return the rating, or {@link Double#NaN} if the item is missing
+     */
+    private static double getRating(DatasetSparseVector<? extends DoubleElement> user, int item)
+    {
+        DoubleElement rating = user.get(item);
+        return rating == null ? Double.NaN : rating.getDoubleValue();
+    }
+
+    /**
+     * Accumulates the errors of the given training users on the test set.
+     *
+     * @param test the test set
+     * @param trainingUsers gives the ratings of the training user of each user ID,
+     * {@link Double#NaN} for the missing items, or null if the user is missing
+     * @param threadsAmount the amount of threads
+     * @return the errors of the training users
+     */
+    private ErrorAccumulator getErrors(DatasetSparseVector<T> test, IntFunction<IntToDoubleFunction> trainingUsers,
+                                       int threadsAmount)
+    {
+        if (threadsAmount < 1)
+        {
+            throw new IllegalArgumentException("The amount of threads must be at least 1.");
+        }
+
+        int[] userIDs = new int[test.size()];
+        int index = 0;
+        for (int userID : test.keySet())
+        {
+            userIDs[index++] = userID;
+        }
+
+        ErrorAccumulator errors = new ErrorAccumulator();
+        if (threadsAmount == 1 || userIDs.length <= EVALUATION_BLOCK_SIZE)
+        {
+            accumulateErrors(test, trainingUsers, userIDs, 0, userIDs.length, errors);
+        }
+        else
+        {
+            List<Callable<ErrorAccumulator>> tasks = new ArrayList<>();
+            for (int first = 0; first < userIDs.length; first += EVALUATION_BLOCK_SIZE)
+            {
+                int start = first;
+                int end = Math.min(first + EVALUATION_BLOCK_SIZE, userIDs.length);
+                tasks.add(() ->
+                {
+                    ErrorAccumulator blockErrors = new ErrorAccumulator();
+                    accumulateErrors(test, trainingUsers, userIDs, start, end, blockErrors);
+                    return blockErrors;
+                });
+            }
+
+            ForkJoinPool pool = new ForkJoinPool(threadsAmount);
+            try
+            {
+                for (Future<ErrorAccumulator> result : pool.invokeAll(tasks))
+                {
+                    errors.merge(result.get());
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Evaluation interrupted.", e);
+            }
+            catch (ExecutionException e)
+            {
+                throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+        }
+
+        if (errors.getMissingCount() > 0)
+        {
+            Logger.warn(errors.getMissingCount() + " ratings of the test set are not present in train");
+        }
+        return errors;
+    }
+
+    /**
+     * Accumulates the errors on a block of test users.
+     */
+    private void accumulateErrors(DatasetSparseVector<T> test, IntFunction<IntToDoubleFunction> trainingUsers,
+                                  int[] userIDs, int start, int end, ErrorAccumulator errors)
+    {
+        for (int u = start; u < end; u++)
+        {
+            T user = test.getDatasetElement(userIDs[u]);
+            IntToDoubleFunction trainUser = trainingUsers.apply(userIDs[u]);
+
+            for (Map.Entry<Integer, ? extends DoubleElement> entry : user.entrySet())
+            {
+                double prediction = trainUser == null ? Double.NaN : trainUser.applyAsDouble(entry.getKey());
+
+                if (Double.isNaN(prediction))
+                {
+                    errors.addMissing();
+                    continue;
+                }
+
+                if (isLowerLimitSet() && prediction < getLowerLimit()
+                        || isUpperLimitSet() && prediction > getUpperLimit())
+                {
+                    throw new IllegalStateException("Value not permitted: " +
+                            prediction + " for entry[" + userIDs[u] + "][" + entry.getKey() + "]");
+                }
+
+                errors.add(prediction, entry.getValue().getDoubleValue());
+            }
+        }
+    }
 }
@@ -0,0 +1,276 @@
+package it.unica.foresee.utils;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from primitive long keys to primitive double values.
+ *
+ * Keys and values are kept in two parallel arrays with open addressing and
+ * linear probing, so an entry costs 16 bytes plus the free slots, with no
+ * boxing and no entry objects.
+ *
+ * A slot is free when it holds the {@link #FREE_KEY} key: an entry with that
+ * key is stored aside.
+ */
+public class LongDoubleHashMap
+{
+    /**
+     * Key marking the free slots.
+     */
+    private static final long FREE_KEY = Long.MIN_VALUE;
+
+    /**
+     * Highest fraction of used slots before the arrays are doubled.
+     */
+    private static final double LOAD_FACTOR = 0.5;
+
+    /**
+     * Smallest amount of slots.
+     */
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * Biggest amount of slots.
+     */
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    /**
+     * Keys of the slots.
+     */
+    private long[] keys;
+
+    /**
+     * Values of the slots.
+     */
+    private double[] values;
+
+    /**
+     * Amount of entries in the slots.
+     */
+    private int size;
+
+    /**
+     * Whether an entry with the free key is present.
+     */
+    private boolean hasFreeKey;
+
+    /**
+     * Value of the entry with the free key.
+     */
+    private double freeKeyValue;
+
+    /**
+     * Receives the entries of the map.
+     */
+    public interface EntryConsumer
+    {
+        /**
+         * Receives an entry.
+         * @param key the key of the entry
+         * @param value the value of the entry
+         */
+        void accept(long key, double value);
+    }
+
+    /**
+     * Initializes an empty map.
+     */
+    public LongDoubleHashMap()
+    {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Initializes an empty map, able to hold the given amount of entries without growing.
+     * @param expectedSize the expected amount of entries
+     */
+    public LongDoubleHashMap(int expectedSize)
+    {
+        if (expectedSize < 0)
+        {
+            throw new IllegalArgumentException("The expected size cannot be negative.");
+        }
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Get the amount of entries.
+     * @return the amount of entries
+     */
+    public int size()
+    {
+        return size + (hasFreeKey ? 1 : 0);
+    }
+
+    /**
+     * Checks if a key is present.
+     * @param key the key
+     * @return true if the map holds an entry with that key
+     */
+    public boolean containsKey(long key)
+    {
+        if (key == FREE_KEY)
+        {
+            return hasFreeKey;
+        }
+        return keys[find(key)] == key;
+    }
+
+    /**
+     * Get the value of a key.
+     * @param key the key
+     * @param missingValue value returned if the key is not present
+     * @return the value of the key, or the missing value
+     */
+    public double get(long key, double missingValue)
+    {
+        if (key == FREE_KEY)
+        {
+            return hasFreeKey ? freeKeyValue : missingValue;
+        }
+        int slot = find(key);
+        return keys[slot] == key ? values[slot] : missingValue;
+    }
+
+    /**
+     * Sets the value of a key.
+     * @param key the key
+     * @param value the value
+     */
+    public void put(long key, double value)
+    {
+        if (key == FREE_KEY)
+        {
+            hasFreeKey = true;
+            freeKeyValue = value;
+            return;
+        }
+
+        int slot = find(key);
+        if (keys[slot] == key)
+        {
+            values[slot] = value;
+            return;
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        if (size > keys.length * LOAD_FACTOR)
+        {
+            rehash(keys.length * 2);
+        }
+    }
+
+    /**
+     * Passes each entry to a consumer, in no particular order.
+     * @param consumer the consumer of the entries
+     */
+    public void forEach(EntryConsumer consumer)
+    {
+        if (hasFreeKey)
+        {
+            consumer.accept(FREE_KEY, freeKeyValue);
+        }
+        for (int slot = 0; slot < keys.length; slot++)
+        {
+            if (keys[slot] != FREE_KEY)
+            {
+                consumer.accept(keys[slot], values[slot]);
+            }
+        }
+    }
+
+    /**
+     * Get the amount of bytes used by the slots of a map holding the given amount of entries.
+     * @param entries the amount of entries
+     * @return the estimated memory footprint, in bytes
+     */
+    public static long estimateBytes(long entries)
+    {
+        return (long) (entries / LOAD_FACTOR) * (Long.BYTES + Double.BYTES);
+    }
+
+    /**
+     * Get the highest amount of entries a map can hold.
+     * @return the highest amount of entries
+     */
+    public static long getMaxSize()
+    {
+        return (long) (MAX_CAPACITY * LOAD_FACTOR) - 1;
+    }
+
+    /* Slots */
+
+    /**
+     * Finds the slot of a key, or the free slot where it would go.
+     */
+    private int find(long key)
+    {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != FREE_KEY && keys[slot] != key)
+        {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Spreads the bits of a key, so that close keys fall in distant slots.
+     */
+    private static int hash(long key)
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Get the amount of slots needed for an amount of entries.
+     */
+    private static int capacityFor(int expectedSize)
+    {
+        long needed = (long) Math.ceil(expectedSize / LOAD_FACTOR) + 1;
+        if (needed > MAX_CAPACITY)
+        {
+            throw new IllegalArgumentException("Too many entries: " + expectedSize);
+        }
+        int capacity = MIN_CAPACITY;
+        while (capacity < needed)
+        {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(int capacity)
+    {
+        keys = new long[capacity];
+        Arrays.fill(keys, FREE_KEY);
+        values = new double[capacity];
+    }
+
+    /**
+     * Moves the entries to new arrays of the given amount of slots.
+     */
+    private void rehash(int capacity)
+    {
+        if (capacity > MAX_CAPACITY)
+        {
+            throw new IllegalStateException("The map cannot grow beyond " + MAX_CAPACITY + " slots.");
+        }
+
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        allocate(capacity);
+        for (int slot = 0; slot < oldKeys.length; slot++)
+        {
+            if (oldKeys[slot] != FREE_KEY)
+            {
+                int target = find(oldKeys[slot]);
+                keys[target] = oldKeys[slot];
+                values[target] = oldValues[slot];
+            }
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package it.unica.foresee.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Dense symmetric matrix stored in a memory mapped file.
+ *
+ * The packed upper triangle is kept as floats in the file, not in the heap,
+ * so the matrix can be bigger than the heap: the operating system pages it in
+ * and out as needed. The file can be opened again later, by another command
+ * or another run, without computing the matrix again.
+ *
+ * The file starts with a header of {@value #HEADER_SIZE} bytes:
+ * <ul>
+ *     <li>magic number and format version</li>
+ *     <li>flags, telling whether the matrix has been completed</li>
+ *     <li>amount of indexes</li>
+ *     <li>fingerprint and label describing what the matrix was computed from</li>
+ * </ul>
+ * followed by the indexes and by the packed upper triangle, in little endian order.
+ *
+ * Each element is stored as the complement of the bits of its float value,
+ * so the zeros of a newly created file read as NaN, meaning "not set".
+ * Elements are written with absolute puts, so many threads can write
+ * different elements at the same time.
+ */
+public class MappedSymmetricMatrix extends SymmetricMatrix
+{
+    /**
+     * Extension of the mapped matrix files.
+     */
+    public static final String EXTENSION = ".fsm";
+
+    /**
+     * Size of the header, in bytes.
+     */
+    public static final int HEADER_SIZE = 64;
+
+    /**
+     * Longest label, in bytes.
+     */
+    public static final int MAX_LABEL_LENGTH = 32;
+
+    /**
+     * First bytes of every mapped matrix file ("FSSM").
+     */
+    private static final int MAGIC = 0x4653534D;
+
+    /**
+     * Version of the format, increased on every incompatible change.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Flag set when every element has been written.
+     */
+    private static final int FLAG_COMPLETE = 1;
+
+    /**
+     * Position of the flags in the header.
+     */
+    private static final int FLAGS_POSITION = 8;
+
+    /**
+     * Size of the mapped regions, in bytes, a multiple of the element size.
+     */
+    private static final long REGION_SIZE = 1L << 30;
+
+    /**
+     * The file of the matrix.
+     */
+    private final File file;
+
+    /**
+     * Mapped regions of the file, covering it from the beginning.
+     */
+    private final MappedByteBuffer[] regions;
+
+    /**
+     * Position of the first element in the file.
+     */
+    private final long dataStart;
+
+    /**
+     * Hash of the data the matrix was computed from.
+     */
+    private final long fingerprint;
+
+    /**
+     * Description of how the matrix was computed.
+     */
+    private final String label;
+
+    /**
+     * Maps a file.
+     */
+    private MappedSymmetricMatrix(File file, int[] indexes, MappedByteBuffer[] regions,
+                                  long fingerprint, String label)
+    {
+        super(indexes, false);
+        this.file = file;
+        this.regions = regions;
+        this.dataStart = HEADER_SIZE + (long) Integer.BYTES * indexes.length;
+        this.fingerprint = fingerprint;
+        this.label = label;
+    }
+
+    /**
+     * Creates a file for an empty matrix and maps it.
+     *
+     * An existing file is replaced.
+     *
+     * @param file the file of the matrix
+     * @param indexes the indexes of the rows and columns, sorted ascending
+     * @param fingerprint hash of the data the matrix is computed from
+     * @param label description of how the matrix is computed, at most {@value #MAX_LABEL_LENGTH} bytes
+     * @return the mapped matrix, with no element set
+     * @throws IOException if the file cannot be created
+     */
+    public static MappedSymmetricMatrix create(File file, int[] indexes, long fingerprint, String label)
+            throws IOException
+    {
+        byte[] labelBytes = label.getBytes(StandardCharsets.UTF_8);
+        if (labelBytes.length > MAX_LABEL_LENGTH)
+        {
+            throw new IllegalArgumentException("The label is longer than " + MAX_LABEL_LENGTH + " bytes: " + label);
+        }
+
+        long size = HEADER_SIZE + (long) Integer.BYTES * indexes.length
+                + (long) Float.BYTES * denseSize(indexes.length);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ByteBuffer head = ByteBuffer.allocate(HEADER_SIZE + Integer.BYTES * indexes.length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            head.putInt(MAGIC);
+            head.putInt(VERSION);
+            head.putInt(0);
+            head.putInt(indexes.length);
+            head.putLong(fingerprint);
+            head.putInt(labelBytes.length);
+            head.put(labelBytes);
+            head.position(HEADER_SIZE);
+            head.asIntBuffer().put(indexes);
+            head.position(head.capacity());
+            head.flip();
+            while (head.hasRemaining())
+            {
+                channel.write(head);
+            }
+
+            // Extend the file: the elements start as zeros, read as not set
+            if (channel.size() < size)
+            {
+                channel.write(ByteBuffer.allocate(1), size - 1);
+            }
+
+            return new MappedSymmetricMatrix(file, indexes, map(channel, FileChannel.MapMode.READ_WRITE),
+                    fingerprint, label);
+        }
+    }
+
+    /**
+     * Maps the file of an existing matrix.
+     *
+     * @param file the file of the matrix
+     * @param writable true to allow setting elements
+     * @return the mapped matrix
+     * @throws IOException if the file cannot be read or is not a valid mapped matrix file
+     */
+    public static MappedSymmetricMatrix open(File file, boolean writable) throws IOException
+    {
+        StandardOpenOption[] options = writable ?
+                new StandardOpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE} :
+                new StandardOpenOption[]{StandardOpenOption.READ};
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), options))
+        {
+            if (channel.size() < HEADER_SIZE)
+            {
+                throw new IOException(file + " is not a mapped matrix file.");
+            }
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+
+            if (header.getInt() != MAGIC)
+            {
+                throw new IOException(file + " is not a mapped matrix file.");
+            }
+
+            if (header.getInt() != VERSION)
+            {
+                throw new IOException(file + " has an unsupported format version.");
+            }
+
+            header.getInt(); // The flags are read from the mapping
+            int indexesAmount = header.getInt();
+            long fingerprint = header.getLong();
+            int labelLength = header.getInt();
+            if (indexesAmount < 0 || labelLength < 0 || labelLength > MAX_LABEL_LENGTH)
+            {
+                throw new IOException(file + " is corrupted.");
+            }
+            byte[] labelBytes = new byte[labelLength];
+            header.get(labelBytes);
+
+            long expectedSize = HEADER_SIZE + (long) Integer.BYTES * indexesAmount
+                    + (long) Float.BYTES * denseSize(indexesAmount);
+            if (channel.size() != expectedSize)
+            {
+                throw new IOException(file + " is truncated or corrupted.");
+            }
+
+            MappedByteBuffer[] regions = map(channel,
+                    writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY);
+            int[] indexes = new int[indexesAmount];
+            for (int k = 0; k < indexesAmount; k++)
+            {
+                indexes[k] = regions[0].getInt(HEADER_SIZE + Integer.BYTES * k);
+            }
+
+            try
+            {
+                return new MappedSymmetricMatrix(file, indexes, regions, fingerprint,
+                        new String(labelBytes, StandardCharsets.UTF_8));
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new IOException(file + " is corrupted: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Marks the matrix as complete and writes it to the disk.
+     *
+     * Only a complete matrix should be reused: a matrix whose computation has
+     * been interrupted is not marked.
+     */
+    public void complete()
+    {
+        flush();
+        regions[0].putInt(FLAGS_POSITION, regions[0].getInt(FLAGS_POSITION) | FLAG_COMPLETE);
+        regions[0].force();
+    }
+
+    /**
+     * Writes the changed elements to the disk.
+     */
+    public void flush()
+    {
+        for (MappedByteBuffer region : regions)
+        {
+            if (!region.isReadOnly())
+            {
+                region.force();
+            }
+        }
+    }
+
+    /* Getters */
+
+    /**
+     * Checks if every element of the matrix has been written.
+     * @return true if the matrix has been completed
+     */
+    public boolean isComplete()
+    {
+        return (regions[0].getInt(FLAGS_POSITION) & FLAG_COMPLETE) != 0;
+    }
+
+    /**
+     * Get the file of the matrix.
+     * @return the file
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Get the hash of the data the matrix was computed from.
+     * @return the fingerprint
+     */
+    public long getFingerprint()
+    {
+        return fingerprint;
+    }
+
+    /**
+     * Get the description of how the matrix was computed.
+     * @return the label
+     */
+    public String getLabel()
+    {
+        return label;
+    }
+
+    /* Packed upper triangle */
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected double readPacked(long position)
+    {
+        long offset = dataStart + position * Float.BYTES;
+        int bits = regions[(int) (offset / REGION_SIZE)].getInt((int) (offset % REGION_SIZE));
+        return Float.intBitsToFloat(~bits);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The value is stored as a float.
+     */
+    @Override
+    protected void writePacked(long position, double value)
+    {
+        long offset = dataStart + position * Float.BYTES;
+        regions[(int) (offset / REGION_SIZE)].putInt((int) (offset % REGION_SIZE),
+                ~Float.floatToIntBits((float) value));
+    }
+
+    /**
+     * Maps a whole file in regions of {@link #REGION_SIZE} bytes.
+     */
+    private static MappedByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode) throws IOException
+    {
+        long size = channel.size();
+        MappedByteBuffer[] regions = new MappedByteBuffer[(int) ((size + REGION_SIZE - 1) / REGION_SIZE)];
+        for (int r = 0; r < regions.length; r++)
+        {
+            long start = r * REGION_SIZE;
+            regions[r] = channel.map(mode, start, Math.min(REGION_SIZE, size - start));
+            regions[r].order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return regions;
+    }
+}
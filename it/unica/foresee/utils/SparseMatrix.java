@@ -4,56 +4,89 @@ import java.util.HashMap;
 
 /**
  * Fast and efficient implementation of a sparse matrix.
+ *
+ * The elements are stored in a {@link LongDoubleHashMap}, keyed by the two
+ * indexes packed in a long, so no boxed value is kept in memory.
  */
 public class SparseMatrix
 {
     /**
-     * Internal Map to store and retrieve the elements.
+     * Elements of the matrix, keyed by their packed indexes.
      */
-    private HashMap<Integer, HashMap<Integer, Double>> internalMap = new HashMap<>();
+    private LongDoubleHashMap elements;
+
+    /**
+     * Receives the elements of a matrix.
+     */
+    public interface ElementConsumer
+    {
+        /**
+         * Receives an element.
+         * @param i the row index
+         * @param j the column index
+         * @param value the value of the element
+         */
+        void accept(int i, int j, double value);
+    }
+
+    /**
+     * Initializes an empty matrix.
+     */
+    public SparseMatrix()
+    {
+        this.elements = new LongDoubleHashMap();
+    }
+
+    /**
+     * Initializes an empty matrix, able to hold the given amount of elements without growing.
+     * @param expectedSize the expected amount of elements
+     */
+    public SparseMatrix(int expectedSize)
+    {
+        this.elements = new LongDoubleHashMap(expectedSize);
+    }
 
     /**
      * Double indexed get.
      * @param i
      * @param j
-     * @return
+     * @return the element, or null if it is not set
      */
     public Double get(Integer i, Integer j)
     {
-        HashMap<Integer, Double> map = internalMap.get(i);
-        if(map == null)
-        {
-            return null;
-        }
-        else
-        {
-            return map.get(j);
-        }
+        return contains(i, j) ? getValue(i, j) : null;
     }
 
     /**
-     * Get the internal map.
-     * @return
+     * Get a copy of the elements as nested maps, indexed by row and then by column.
+     *
+     * The elements are no longer kept in nested maps, so the returned maps are
+     * built on each call and changing them does not change the matrix: use
+     * {@link #put(Integer, Integer, Double)} to set an element.
+     * @return the rows of the matrix
      */
     public HashMap<Integer, HashMap<Integer, Double>> getInternalMap() {
-        return internalMap;
+        HashMap<Integer, HashMap<Integer, Double>> map = new HashMap<>();
+        forEach((i, j, value) -> map.computeIfAbsent(i, row -> new HashMap<>()).put(j, value));
+        return map;
     }
 
     /**
      * Double indexed put.
      * @param i
      * @param j
-     * @param value
-     * @return
+     * @param value the element, not null: an element cannot be unset
+     * @return the previous element, or null if it was not set
+     * @throws IllegalArgumentException if the value is null
      */
     public Double put(Integer i, Integer j,  Double value) {
-        HashMap<Integer, Double> map = internalMap.get(i);
-        if(map == null)
+        if (value == null)
         {
-            map = new HashMap<>();
+            throw new IllegalArgumentException("The matrix cannot hold null elements.");
         }
-        internalMap.put(i, map);
-        return map.put(j, value);
+        Double previous = get(i, j);
+        setValue(i, j, value);
+        return previous;
     }
 
     /**
@@ -67,7 +100,7 @@ public class SparseMatrix
      *
      * @param i
      * @param j
-     * @return
+     * @return the element, or null if it is not set
      */
     public Double symmetricGet(Integer i, Integer j)
     {
@@ -84,7 +117,7 @@ public class SparseMatrix
      * @param i
      * @param j
      * @param value
-     * @return
+     * @return the previous element with the indexes inverted, or null if it was not set
      */
     public Double symmetricPut(Integer i, Integer j,  Double value)
     {
@@ -92,5 +125,64 @@ public class SparseMatrix
         return put(j, i, value);
     }
 
+    /* Primitive access */
+
+    /**
+     * Checks if an element is set.
+     * @param i the row index
+     * @param j the column index
+     * @return true if the element is set
+     */
+    public boolean contains(int i, int j)
+    {
+        return elements.containsKey(key(i, j));
+    }
+
+    /**
+     * Get an element without boxing.
+     * @param i the row index
+     * @param j the column index
+     * @return the element, or NaN if it is not set
+     */
+    public double getValue(int i, int j)
+    {
+        return elements.get(key(i, j), Double.NaN);
+    }
 
+    /**
+     * Set an element without boxing.
+     * @param i the row index
+     * @param j the column index
+     * @param value the value of the element
+     */
+    public void setValue(int i, int j, double value)
+    {
+        elements.put(key(i, j), value);
+    }
+
+    /**
+     * Get the amount of elements set.
+     * @return the amount of elements
+     */
+    public int size()
+    {
+        return elements.size();
+    }
+
+    /**
+     * Passes each element set to a consumer, in no particular order.
+     * @param consumer the consumer of the elements
+     */
+    public void forEach(ElementConsumer consumer)
+    {
+        elements.forEach((key, value) -> consumer.accept((int) (key >> 32), (int) key, value));
+    }
+
+    /**
+     * Packs two indexes in a key.
+     */
+    private static long key(int i, int j)
+    {
+        return ((long) i << 32) | (j & 0xFFFFFFFFL);
+    }
 }
@@ -0,0 +1,333 @@
+package it.unica.foresee.utils;
+
+import java.util.Arrays;
+
+/**
+ * Symmetric matrix, storing each pair of indexes only once.
+ *
+ * Element (i, j) and element (j, i) are the same element: setting one sets
+ * both, so {@link #put(Integer, Integer, Double)} and {@link #symmetricPut(Integer, Integer, Double)}
+ * do the same thing.
+ *
+ * Two layouts are available, chosen by {@link #create(int[], long)}:
+ * <ul>
+ *     <li>dense: the upper triangle, diagonal included, packed row by row in
+ *     a {@code double[]}, for a known set of indexes and many elements</li>
+ *     <li>sparse: the elements with i &lt;= j in a primitive hash map,
+ *     for few elements or an unknown set of indexes</li>
+ * </ul>
+ *
+ * Subclasses can keep the packed upper triangle somewhere else than in the
+ * heap by overriding {@link #readPacked(long)} and {@link #writePacked(long, double)}.
+ */
+public class SymmetricMatrix extends SparseMatrix
+{
+    /**
+     * Highest amount of elements of a dense matrix in the heap.
+     */
+    private static final long MAX_DENSE_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * Indexes of the dense matrix, sorted ascending, or null for a sparse matrix.
+     */
+    private final int[] indexes;
+
+    /**
+     * Packed upper triangle of the dense matrix, NaN marking the elements not set.
+     */
+    private final double[] packed;
+
+    /**
+     * Initializes an empty sparse matrix.
+     */
+    public SymmetricMatrix()
+    {
+        super();
+        this.indexes = null;
+        this.packed = null;
+    }
+
+    /**
+     * Initializes an empty sparse matrix, able to hold the given amount of pairs without growing.
+     * @param expectedSize the expected amount of pairs
+     */
+    public SymmetricMatrix(int expectedSize)
+    {
+        super(expectedSize);
+        this.indexes = null;
+        this.packed = null;
+    }
+
+    /**
+     * Initializes an empty dense matrix.
+     *
+     * @param indexes the indexes of the rows and columns, sorted ascending
+     * @param onHeap true to keep the packed upper triangle in a {@code double[]},
+     *               false if the subclass stores it itself
+     */
+    protected SymmetricMatrix(int[] indexes, boolean onHeap)
+    {
+        super(0);
+        checkSorted(indexes);
+        this.indexes = indexes;
+        if (onHeap)
+        {
+            this.packed = new double[(int) denseSize(indexes.length)];
+            Arrays.fill(packed, Double.NaN);
+        }
+        else
+        {
+            this.packed = null;
+        }
+    }
+
+    /**
+     * Creates the matrix with the smallest memory footprint for the expected amount of pairs.
+     *
+     * The sparse layout only pays off when just a fraction of the pairs will
+     * be set, so the expected size should not count the pairs left empty.
+     *
+     * @param indexes the indexes of the rows and columns, sorted ascending
+     * @param expectedSize the expected amount of pairs (i, j) with i &lt;= j that will be set
+     * @return a dense matrix if it is not bigger than the sparse one, otherwise a sparse matrix
+     * @throws IllegalArgumentException if neither layout can hold the matrix in the heap
+     */
+    public static SymmetricMatrix create(int[] indexes, long expectedSize)
+    {
+        checkSorted(indexes);
+
+        long denseSize = denseSize(indexes.length);
+        if (denseSize <= MAX_DENSE_SIZE &&
+                denseSize * Double.BYTES <= LongDoubleHashMap.estimateBytes(expectedSize))
+        {
+            return new SymmetricMatrix(indexes, true);
+        }
+        if (expectedSize > LongDoubleHashMap.getMaxSize())
+        {
+            throw new IllegalArgumentException("A matrix of " + indexes.length + " indexes with "
+                    + expectedSize + " pairs does not fit in the heap: at most "
+                    + MAX_DENSE_SIZE + " pairs can be dense and "
+                    + LongDoubleHashMap.getMaxSize() + " sparse.");
+        }
+        return new SymmetricMatrix((int) expectedSize);
+    }
+
+    /**
+     * Checks if the matrix uses the dense layout.
+     * @return true if the matrix is dense
+     */
+    public boolean isDense()
+    {
+        return indexes != null;
+    }
+
+    /**
+     * Get the indexes of the rows and columns of a dense matrix.
+     * @return the indexes, sorted ascending, or null for a sparse matrix
+     */
+    public int[] getIndexes()
+    {
+        return indexes;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The element is stored only once.
+     */
+    @Override
+    public Double symmetricPut(Integer i, Integer j, Double value)
+    {
+        return put(i, j, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Double symmetricGet(Integer i, Integer j)
+    {
+        return get(i, j);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains(int i, int j)
+    {
+        if (indexes == null)
+        {
+            return super.contains(Math.min(i, j), Math.max(i, j));
+        }
+        long position = position(i, j);
+        return position >= 0 && !Double.isNaN(readPacked(position));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getValue(int i, int j)
+    {
+        if (indexes == null)
+        {
+            return super.getValue(Math.min(i, j), Math.max(i, j));
+        }
+        long position = position(i, j);
+        return position >= 0 ? readPacked(position) : Double.NaN;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * On a symmetric matrix it sets element (j, i) too.
+     * A dense matrix only accepts the indexes it was created with.
+     */
+    @Override
+    public void setValue(int i, int j, double value)
+    {
+        if (indexes == null)
+        {
+            super.setValue(Math.min(i, j), Math.max(i, j), value);
+            return;
+        }
+        long position = position(i, j);
+        if (position < 0)
+        {
+            throw new IllegalArgumentException("Element (" + i + ", " + j + ") is out of the matrix.");
+        }
+        writePacked(position, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Each pair counts once.
+     */
+    @Override
+    public int size()
+    {
+        if (indexes == null)
+        {
+            return super.size();
+        }
+        int size = 0;
+        for (long position = 0; position < denseSize(indexes.length); position++)
+        {
+            if (!Double.isNaN(readPacked(position)))
+            {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Both element (i, j) and element (j, i) are passed.
+     */
+    @Override
+    public void forEach(ElementConsumer consumer)
+    {
+        if (indexes == null)
+        {
+            super.forEach((i, j, value) ->
+            {
+                consumer.accept(i, j, value);
+                if (i != j)
+                {
+                    consumer.accept(j, i, value);
+                }
+            });
+            return;
+        }
+
+        long position = 0;
+        for (int a = 0; a < indexes.length; a++)
+        {
+            for (int b = a; b < indexes.length; b++, position++)
+            {
+                double value = readPacked(position);
+                if (!Double.isNaN(value))
+                {
+                    consumer.accept(indexes[a], indexes[b], value);
+                    if (a != b)
+                    {
+                        consumer.accept(indexes[b], indexes[a], value);
+                    }
+                }
+            }
+        }
+    }
+
+    /* Packed upper triangle */
+
+    /**
+     * Reads an element of the packed upper triangle of a dense matrix.
+     * @param position position of the element
+     * @return the element, or NaN if it is not set
+     */
+    protected double readPacked(long position)
+    {
+        return packed[(int) position];
+    }
+
+    /**
+     * Writes an element of the packed upper triangle of a dense matrix.
+     * @param position position of the element
+     * @param value the value of the element
+     */
+    protected void writePacked(long position, double value)
+    {
+        packed[(int) position] = value;
+    }
+
+    /**
+     * Get the amount of elements of the packed upper triangle of a dense matrix.
+     * @param indexesAmount the amount of rows and columns
+     * @return the amount of pairs (i, j) with i &lt;= j
+     */
+    protected static long denseSize(int indexesAmount)
+    {
+        return (long) indexesAmount * (indexesAmount + 1) / 2;
+    }
+
+    /**
+     * Checks that the indexes are sorted ascending and distinct.
+     */
+    private static void checkSorted(int[] indexes)
+    {
+        for (int k = 1; k < indexes.length; k++)
+        {
+            if (indexes[k - 1] >= indexes[k])
+            {
+                throw new IllegalArgumentException("The indexes must be sorted ascending and distinct.");
+            }
+        }
+    }
+
+    /**
+     * Get the position of an element in the packed upper triangle.
+     * @return the position, or -1 if an index is not in the matrix
+     */
+    private long position(int i, int j)
+    {
+        int a = Arrays.binarySearch(indexes, i);
+        int b = Arrays.binarySearch(indexes, j);
+        if (a < 0 || b < 0)
+        {
+            return -1;
+        }
+        if (a > b)
+        {
+            int swap = a;
+            a = b;
+            b = swap;
+        }
+        // Rows before a hold n, n - 1, ..., n - a + 1 elements
+        long rowStart = (long) a * indexes.length - (long) a * (a - 1) / 2;
+        return rowStart + b - a;
+    }
+}